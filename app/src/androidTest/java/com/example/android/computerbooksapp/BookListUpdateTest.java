@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2017 by Francis Gálvez
+ */
+package com.example.android.computerbooksapp;
+
+import android.app.Activity;
+import android.app.Instrumentation;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.SdkSuppress;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures on a device how the list of books is updated when the results are replaced: which
+ * rows are bound again, and how many frames are dropped meanwhile. Run it with
+ *
+ *     ./gradlew connectedAndroidTest
+ *
+ * The frames are reported in the status of the instrumentation, and logged.
+ */
+@RunWith(AndroidJUnit4.class)
+@SdkSuppress(minSdkVersion = 16)
+public class BookListUpdateTest {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = BookListUpdateTest.class.getSimpleName();
+
+    /** Number of searches whose results replace the previous ones while the frames are watched */
+    private static final int REPLACEMENTS = 30;
+
+    /** Longest time (in milliseconds) waited for a diff computed in the background */
+    private static final long DIFF_TIMEOUT = 5000;
+
+    @Rule
+    public final ActivityTestRule<BookActivity> activityRule = new ActivityTestRule<>(BookActivity.class);
+
+    private final Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+    private final UpdateCounter updates = new UpdateCounter();
+    private BookAdapter adapter;
+
+    @Before
+    public void setUp() {
+        final Activity activity = activityRule.getActivity();
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                // A list of its own, set up like the one of the activity, so its searches don't update it
+                RecyclerView list = new RecyclerView(activity);
+                LinearLayoutManager layoutManager = new LinearLayoutManager(activity);
+                layoutManager.setItemPrefetchEnabled(true);
+                list.setLayoutManager(layoutManager);
+                list.setHasFixedSize(true);
+                adapter = new BookAdapter(activity, new BookAdapter.OnBookClickListener() {
+                    @Override
+                    public void onBookClick(Book book) {
+                    }
+                });
+                adapter.registerAdapterDataObserver(updates);
+                list.setAdapter(adapter);
+                activity.setContentView(list);
+            }
+        });
+        replace(books(0, 2 * QueryUtils.PAGE_SIZE));
+    }
+
+    @Test
+    public void updatesOnlyTheRowsThatChanged() {
+        List<Book> books = books(0, 2 * QueryUtils.PAGE_SIZE);
+        Book changed = books.get(3);
+        books.set(3, new Book(changed.getId(), changed.getTitle(), new String[]{"Another author"},
+                changed.getPublisher(), changed.getUrl(), null));
+        books.add(book(2 * QueryUtils.PAGE_SIZE));
+
+        updates.reset();
+        replace(books);
+
+        assertEquals(0, updates.fullChanges);
+        assertEquals(1, updates.changed);
+        assertEquals(1, updates.inserted);
+        assertEquals(0, updates.removed);
+    }
+
+    @Test
+    public void reportsTheFramesDroppedByReplacements() {
+        final JankWatchdog watchdog = new JankWatchdog(
+                activityRule.getActivity().getWindowManager().getDefaultDisplay().getRefreshRate());
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                watchdog.start();
+            }
+        });
+
+        // Each search shares half of its results with the previous one
+        for (int i = 1; i <= REPLACEMENTS; i++) {
+            replace(books(i * QueryUtils.PAGE_SIZE, 2 * QueryUtils.PAGE_SIZE));
+        }
+
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                watchdog.stop();
+            }
+        });
+
+        long longestFrame = TimeUnit.NANOSECONDS.toMillis(watchdog.getLongestFrame());
+        Log.i(LOG_TAG, REPLACEMENTS + " replacements drew " + watchdog.getFrameCount() + " frames and dropped "
+                + watchdog.getDroppedCount() + ", the longest took " + longestFrame + " ms");
+        Bundle results = new Bundle();
+        results.putInt("frames", watchdog.getFrameCount());
+        results.putInt("droppedFrames", watchdog.getDroppedCount());
+        results.putLong("longestFrameMillis", longestFrame);
+        instrumentation.sendStatus(0, results);
+
+        assertTrue(watchdog.getFrameCount() > 0);
+    }
+
+    /**
+     * Replace the books of the list, and wait until the rows are updated.
+     */
+    private void replace(final List<Book> books) {
+        final int before = updates.count;
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                adapter.replace(books);
+            }
+        });
+
+        // The diff is computed in the background, then dispatched on the main thread
+        long deadline = SystemClock.uptimeMillis() + DIFF_TIMEOUT;
+        while (updates.count == before && SystemClock.uptimeMillis() < deadline) {
+            SystemClock.sleep(10);
+        }
+        instrumentation.waitForIdleSync();
+    }
+
+    /**
+     * Returns the given number of books, starting from the given one.
+     */
+    private static List<Book> books(int first, int count) {
+        List<Book> books = new ArrayList<>(count);
+        for (int i = first; i < first + count; i++) {
+            books.add(book(i));
+        }
+        return books;
+    }
+
+    private static Book book(int number) {
+        String id = "volume" + number;
+        return new Book(id, "Android Programming, Part " + number, new String[]{"Mark Murphy"},
+                "CommonsWare", "http://books.google.com/books?id=" + id, null);
+    }
+
+    /**
+     * Counts the updates the adapter notifies, by kind.
+     */
+    private static final class UpdateCounter extends RecyclerView.AdapterDataObserver {
+        volatile int count;
+        volatile int fullChanges;
+        volatile int changed;
+        volatile int inserted;
+        volatile int removed;
+
+        void reset() {
+            fullChanges = 0;
+            changed = 0;
+            inserted = 0;
+            removed = 0;
+        }
+
+        @Override
+        public void onChanged() {
+            fullChanges++;
+            count++;
+        }
+
+        @Override
+        public void onItemRangeChanged(int positionStart, int itemCount) {
+            changed += itemCount;
+            count++;
+        }
+
+        @Override
+        public void onItemRangeInserted(int positionStart, int itemCount) {
+            inserted += itemCount;
+            count++;
+        }
+
+        @Override
+        public void onItemRangeRemoved(int positionStart, int itemCount) {
+            removed += itemCount;
+            count++;
+        }
+
+        @Override
+        public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
+            count++;
+        }
+    }
+}
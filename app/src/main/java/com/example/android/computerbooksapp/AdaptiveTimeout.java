@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2017 by Francis Gálvez
+ */
+package com.example.android.computerbooksapp;
+
+/**
+ * A timeout that follows the latency observed, like the TCP retransmission timeout (RFC 6298):
+ * the smoothed latency plus four times its variation, within fixed bounds.
+ *
+ * On a fast network a request that stalls is given up early and retried, instead of blocking the
+ * search for the worst case. Each timeout doubles the value until the next sample, so a network
+ * that got slower isn't retried forever with a timeout too short for it.
+ */
+class AdaptiveTimeout {
+
+    private final int minMillis;
+    private final int maxMillis;
+    private final int initialMillis;
+
+    /** Smoothed latency and its mean deviation, in milliseconds, or -1 before the first sample */
+    private double smoothed = -1;
+    private double variation;
+
+    /** Factor applied after timeouts, reset by the next sample */
+    private int backoff = 1;
+
+    /**
+     * Constructs a new {@link AdaptiveTimeout}.
+     *
+     * @param minMillis smallest timeout returned
+     * @param maxMillis largest timeout returned
+     * @param initialMillis timeout returned until the first sample
+     */
+    AdaptiveTimeout(int minMillis, int maxMillis, int initialMillis) {
+        this.minMillis = minMillis;
+        this.maxMillis = maxMillis;
+        this.initialMillis = initialMillis;
+    }
+
+    /**
+     * Returns the timeout (in milliseconds) to use for the next request.
+     */
+    int get() {
+        return get(1);
+    }
+
+    /**
+     * Returns the timeout (in milliseconds) to use for the next request, with its bounds
+     * multiplied by the given factor.
+     */
+    synchronized int get(int boundsScale) {
+        double timeout = smoothed < 0 ? initialMillis : smoothed + 4 * variation;
+        return (int) Math.max(minMillis * boundsScale, Math.min(maxMillis * boundsScale, timeout * backoff));
+    }
+
+    /**
+     * Record the latency of a request that completed.
+     */
+    synchronized void onSample(long millis) {
+        if (smoothed < 0) {
+            smoothed = millis;
+            variation = millis / 2.0;
+        } else {
+            variation = 0.75 * variation + 0.25 * Math.abs(smoothed - millis);
+            smoothed = 0.875 * smoothed + 0.125 * millis;
+        }
+        backoff = 1;
+    }
+
+    /**
+     * Record that a request timed out.
+     */
+    synchronized void onTimeout() {
+        if (get() < maxMillis) {
+            backoff *= 2;
+        }
+    }
+}
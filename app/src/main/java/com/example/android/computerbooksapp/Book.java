@@ -3,48 +3,204 @@
  */
 package com.example.android.computerbooksapp;
 
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 /**
  * An {@link Book} object contains information related to a single book.
+ *
+ * Thousands of books can be kept by the caches while paging, so a book keeps as little of its
+ * own as possible: authors and publishers come from the {@link StringPool}, the " and more" shown
+ * after the first author is only added when displayed, and the links are stored as the parts
+ * before and after the volume ID, which are shared by the books of the same search.
+ *
+ * Books are {@link Parcelable}, so a single one can be passed in an Intent or a Bundle. Lists of
+ * books are better kept with {@link BookCodec}, which stores the strings they share only once.
  */
-class Book {
+public class Book implements Parcelable {
+
+    /** Displayed instead of the author or the publisher when they are unknown */
+    static final String UNKNOWN = "Unknown";
+
+    private static final String[] NO_AUTHORS = new String[0];
+
+    /** Public, like the class, so the framework can find it when unparceling */
+    public static final Parcelable.Creator<Book> CREATOR = new Parcelable.Creator<Book>() {
+        @Override
+        public Book createFromParcel(Parcel in) {
+            return new Book(in.readString(), in.readString(), in.createStringArray(), in.readString(),
+                    in.readString(), in.readString());
+        }
+
+        @Override
+        public Book[] newArray(int size) {
+            return new Book[size];
+        }
+    };
+
+    /** Google Books volume ID of the book */
+    private final String id;
 
     /** Title of the book */
-    private String title;
+    private final String title;
 
-    /** Author of the book */
-    private String author;
+    /** Authors of the book, possibly none */
+    private final String[] authors;
 
     /** Publisher of the book */
-    private String publisher;
+    private final String publisher;
 
-    /** Website URL of the book */
-    private String url;
+    /** Website URL of the book, as the parts before and after the volume ID (see {@link #join}) */
+    private final String urlPrefix;
+    private final String urlSuffix;
+
+    /** URL of the cover thumbnail of the book, split like the website URL, or null if it has none */
+    private final String thumbnailPrefix;
+    private final String thumbnailSuffix;
 
     /**
      * Constructs a new {@link Book} object.
      *
+     * @param id is the Google Books volume ID of the book
      * @param title is the title of the book
-     * @param author is the author of the book
+     * @param authors are the authors of the book, or null or empty if they are unknown
      * @param publisher is the publisher of the book
      * @param url is the website URL to find more details about the book
+     * @param thumbnailUrl is the URL of the cover thumbnail of the book, or null
      */
-    Book(String title, String author, String publisher, String url) {
+    Book(String id, String title, String[] authors, String publisher, String url, String thumbnailUrl) {
+        this.id = id;
         this.title = title;
-        this.author = author;
-        this.publisher = publisher;
-        this.url = url;
+        this.authors = authors == null || authors.length == 0 ? NO_AUTHORS : internAll(authors);
+        this.publisher = StringPool.intern(publisher);
+
+        int urlId = indexOfId(url, id);
+        this.urlPrefix = urlId < 0 ? url : StringPool.intern(url, 0, urlId);
+        this.urlSuffix = urlId < 0 ? null : StringPool.intern(url, urlId + id.length(), url.length());
+
+        int thumbnailId = indexOfId(thumbnailUrl, id);
+        this.thumbnailPrefix = thumbnailId < 0 ? thumbnailUrl : StringPool.intern(thumbnailUrl, 0, thumbnailId);
+        this.thumbnailSuffix = thumbnailId < 0 ? null
+                : StringPool.intern(thumbnailUrl, thumbnailId + id.length(), thumbnailUrl.length());
+    }
+
+    /**
+     * Constructs a copy of the given {@link Book} with another volume ID.
+     */
+    Book(String id, Book book) {
+        this(id, book.title, book.authors, book.publisher, book.getUrl(), book.getThumbnailUrl());
     }
 
     // Getters
+    String getId() { return id; }
+
     String getTitle() { return title; }
 
+    /**
+     * Returns the author displayed for the book: the first one, followed by " and more" if
+     * there are several. It's built on each call, so it's only built for the {@link BookRowText}
+     * of the book, which keeps it.
+     */
     String getAuthor() {
-        return author;
+        if (authors.length == 0) {
+            return UNKNOWN;
+        }
+        return authors.length > 1 ? authors[0] + " and more" : authors[0];
+    }
+
+    /** Returns all the authors of the book, possibly none */
+    List<String> getAuthors() {
+        return Collections.unmodifiableList(Arrays.asList(authors));
+    }
+
+    /** Returns whether the book has more authors than the one displayed */
+    boolean hasMoreAuthors() {
+        return authors.length > 1;
     }
 
     String getPublisher() {
         return publisher;
     }
 
-    String getUrl() { return url; }
+    String getUrl() { return join(urlPrefix, urlSuffix); }
+
+    String getThumbnailUrl() { return join(thumbnailPrefix, thumbnailSuffix); }
+
+    /**
+     * Returns whether the given book has the same authors, without building the author displayed.
+     */
+    boolean hasSameAuthors(Book other) {
+        // The authors are interned, so they are usually the same instances
+        return Arrays.equals(authors, other.authors);
+    }
+
+    /**
+     * Returns whether the given book has the same cover thumbnail, without building its URL.
+     */
+    boolean hasSameThumbnail(Book other) {
+        return equal(thumbnailPrefix, other.thumbnailPrefix) && equal(thumbnailSuffix, other.thumbnailSuffix)
+                && (thumbnailSuffix == null || equal(id, other.id));
+    }
+
+    /**
+     * Returns the approximate number of bytes retained by this book alone, leaving out the
+     * strings it shares with other books.
+     */
+    int getRetainedSize() {
+        int size = 48 + 16 + 4 * authors.length + sizeOf(id) + sizeOf(title);
+        if (urlSuffix == null) {
+            size += sizeOf(urlPrefix);
+        }
+        if (thumbnailSuffix == null) {
+            size += sizeOf(thumbnailPrefix);
+        }
+        return size;
+    }
+
+    private static int sizeOf(String value) {
+        return value == null ? 0 : 40 + 2 * value.length();
+    }
+
+    /**
+     * Returns a link from the parts stored, with the volume ID between them. A link that doesn't
+     * contain the ID is stored whole, with no suffix.
+     */
+    private String join(String prefix, String suffix) {
+        return suffix == null ? prefix : prefix + id + suffix;
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static int indexOfId(String link, String id) {
+        return link == null || id == null || id.isEmpty() ? -1 : link.indexOf(id);
+    }
+
+    private static String[] internAll(String[] strings) {
+        String[] interned = new String[strings.length];
+        for (int i = 0; i < strings.length; i++) {
+            interned[i] = StringPool.intern(strings[i]);
+        }
+        return interned;
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeString(id);
+        dest.writeString(title);
+        dest.writeStringArray(authors);
+        dest.writeString(publisher);
+        dest.writeString(getUrl());
+        dest.writeString(getThumbnailUrl());
+    }
 }
@@ -4,100 +4,263 @@
 package com.example.android.computerbooksapp;
 
 import android.app.LoaderManager;
-import android.content.Context;
-import android.content.Intent;
+import android.content.DialogInterface;
 import android.content.Loader;
-import android.net.ConnectivityManager;
-import android.net.NetworkInfo;
-import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
 import android.support.v7.widget.SearchView;
+import android.util.Log;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
+import android.view.ViewTreeObserver;
+import android.widget.EditText;
 import android.widget.ImageView;
-import android.widget.ListView;
 import android.widget.TextView;
 
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.List;
-
-import butterknife.Bind;
-import butterknife.ButterKnife;
-
-public class BookActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<List<Book>> {
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+public class BookActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<List<Book>>,
+        BookPager.Callbacks {
+    /** Tag for the log messages */
+    private static final String LOG_TAG = BookActivity.class.getSimpleName();
     /**
      * Constant value for the book loader ID. We can choose any integer.
      * This really only comes into play if you're using multiple loaders.
      */
     private static final int BOOK_LOADER_ID = 1;
+    /** Keys of the loader arguments */
+    private static final String ARG_QUERY = "query";
+    private static final String ARG_START_INDEX = "startIndex";
+    private static final String ARG_PREFETCH = "prefetch";
+    /** Keys of the books and pages displayed, in the saved instance state */
+    private static final String STATE_BOOKS = "books";
+    private static final String STATE_FIRST_PAGE = "firstPage";
+    private static final String STATE_END_PAGE = "endPage";
+    private static final String STATE_PAGE_SIZES = "pageSizes";
+    /** Extra of the launch intent pointing debug builds at a stand-in for the Google Books API */
+    private static final String EXTRA_VOLUMES_URL = "volumes_url";
+    /** Number of books from which sorting and filtering them is done off the UI thread */
+    private static final int REFINE_SYNC_LIMIT = 500;
+    /** Sorts and filters the books loaded, in order */
+    private static final Executor REFINE_EXECUTOR = Executors.newSingleThreadExecutor();
     /** SearchView displayed on the screen" */
-    @Bind(R.id.search)
-    SearchView searchView;
+    private SearchView searchView;
     /**
      * TextView that is displayed when there are no books to show
      */
-    @Bind(R.id.no_books)
-    TextView noBooksTextView;
+    private TextView noBooksTextView;
     /**
      * TextView that is displayed when there is no Internet connection
      */
-    @Bind(R.id.no_connection)
-    TextView noConnectionTextView;
+    private TextView noConnectionTextView;
     /**
      * TextView that is displayed when the user has no Internet connection
      */
-    @Bind(R.id.no_wifi_image)
-    ImageView noWifiImageView;
+    private ImageView noWifiImageView;
+    /**
+     * TextView that is displayed while the server is unavailable
+     */
+    private TextView serviceStatusTextView;
     /**
      * Adapter for the list of books
      */
     private BookAdapter adapter;
+    /**
+     * RecyclerView displaying the books, and its layout manager
+     */
+    private RecyclerView bookRecyclerView;
+    private LinearLayoutManager layoutManager;
+    /**
+     * Keeps track of the pages of results displayed in the list
+     */
+    private BookPager pager;
     /**
      * Variable for the query searched by the user
      */
     private String query;
+    /**
+     * Search of several queries separated by commas, if one is running
+     */
+    private BookBatchSearch batchSearch;
+    /**
+     * Whether the first results have been displayed since the activity started
+     */
+    private boolean reportedFullyDrawn;
+    /**
+     * Whether the first frame has been drawn, after which the book opener may connect
+     */
+    private boolean firstFrameDrawn;
+    /**
+     * Opens the books the user taps, getting the browser ready for those the user sees
+     */
+    private BookOpener bookOpener;
+    /**
+     * Reports the frames dropped while the list scrolls, if the metrics are enabled
+     */
+    private JankWatchdog jankWatchdog;
+    /**
+     * Books of the pages loaded, as the pager displays them. The adapter displays them sorted and
+     * filtered by the refinement, if there is one.
+     */
+    private final List<Book> loadedBooks = new ArrayList<>();
+    /**
+     * Sort and filters chosen by the user in the menu
+     */
+    private BookQueryEngine.Query refinement = new BookQueryEngine.Query(BookQueryEngine.SORT_RELEVANCE,
+            null, null, null);
+    /**
+     * Engine over the books loaded, built the first time they are refined and until they change
+     */
+    private BookQueryEngine queryEngine;
+    /**
+     * Incremented each time the books loaded change, and for each refinement displayed, to drop
+     * the results computed for a previous state
+     */
+    private int loadedVersion;
+    private int refineGeneration;
+    /**
+     * Handler used to wait for the user to stop typing before searching
+     */
+    private final Handler searchHandler = new Handler();
+    /**
+     * Searches the text typed in the SearchView, once the user stops typing
+     */
+    private final Runnable typedSearch = new Runnable() {
+        @Override
+        public void run() {
+            String typedQuery = searchView.getQuery().toString();
+
+            // Don't search again for the query already displayed
+            if (!BookCache.normalize(typedQuery).equals(BookCache.normalize(query))) {
+                search(typedQuery);
+            }
+        }
+    };
+
+    /**
+     * Follows the availability of the server, to tell the user the results may be out of date
+     */
+    private final CircuitBreaker.Listener circuitListener = new CircuitBreaker.Listener() {
+        @Override
+        public void onStateChanged(int state) {
+            // Called on the thread of the request
+            searchHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    updateServiceStatus();
+                }
+            });
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-        setContentView(R.layout.book_activity);
 
-        // Find a reference to the {@link ListView} in the layout
-        ListView bookListView = (ListView) findViewById(R.id.list);
+        // Measure the searches in debug builds only
+        SearchMetrics.setEnabled(BuildConfig.DEBUG);
+
+        // Debug builds can search a local server instead, e.g. the stand-in of the benchmark module
+        if (BuildConfig.DEBUG && getIntent().hasExtra(EXTRA_VOLUMES_URL)) {
+            QueryUtils.setVolumesUrl(getIntent().getStringExtra(EXTRA_VOLUMES_URL));
+        }
+
+        setContentView(R.layout.book_activity);
 
-        ButterKnife.bind(this);
+        // Find the views directly: binding them by reflection costs time before the first frame
+        searchView = (SearchView) findViewById(R.id.search);
+        noBooksTextView = (TextView) findViewById(R.id.no_books);
+        noConnectionTextView = (TextView) findViewById(R.id.no_connection);
+        noWifiImageView = (ImageView) findViewById(R.id.no_wifi_image);
+        serviceStatusTextView = (TextView) findViewById(R.id.service_status);
 
-        noConnectionTextView.setText(R.string.no_internet_connection);
-        noBooksTextView.setText(R.string.no_books);
+        // Do what the first frame doesn't need once it has been drawn
+        final View decorView = getWindow().getDecorView();
+        decorView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                decorView.getViewTreeObserver().removeOnPreDrawListener(this);
+                searchHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onFirstFrameDrawn();
+                    }
+                });
+                return true;
+            }
+        });
 
         //Enable the Submit Button on the SearchView
         searchView.setSubmitButtonEnabled(true);
 
-        //bookListView.setEmptyView(noBooksTextView);
+        // Create a new adapter that opens a website with more information about the book the
+        // user taps
+        bookOpener = new BookOpener(this);
+        adapter = new BookAdapter(this, new BookAdapter.OnBookClickListener() {
+            @Override
+            public void onBookClick(Book currentBook) {
+                bookOpener.open(currentBook);
+            }
+        });
 
-        // Create a new adapter that takes an empty list of books as input
-        adapter = new BookAdapter(this, new ArrayList<Book>());
+        // Find a reference to the {@link RecyclerView} in the layout, and let it prepare the rows
+        // about to scroll into view while the UI thread is idle
+        bookRecyclerView = (RecyclerView) findViewById(R.id.list);
+        layoutManager = new LinearLayoutManager(this);
+        layoutManager.setItemPrefetchEnabled(true);
+        bookRecyclerView.setLayoutManager(layoutManager);
+        bookRecyclerView.setHasFixedSize(true);
 
-        // Set the adapter on the {@link ListView} so the list can be populated in the user interface
-        bookListView.setAdapter(adapter);
+        // Set the adapter on the {@link RecyclerView} so the list can be populated in the user interface
+        bookRecyclerView.setAdapter(adapter);
 
-        // Set an item click listener on the ListView, which sends an intent to a web browser
-        // to open a website with more information about the selected book.
-        bookListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
-            @Override
-            public void onItemClick(AdapterView<?> adapterView, View view, int position, long l) {
-                // Find the current book that was clicked on
-                Book currentBook = adapter.getItem(position);
+        // Watch for stutter while scrolling when measuring
+        if (SearchMetrics.isEnabled() && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            jankWatchdog = new JankWatchdog(getWindowManager().getDefaultDisplay().getRefreshRate());
+        }
 
-                // Convert the String URL into a URI object (to pass into the Intent constructor)
-                Uri bookUri = Uri.parse(currentBook.getUrl());
+        // Show the next pages of results as the user scrolls down the list
+        pager = new BookPager(this);
+        bookRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                // Positions in a sorted or filtered list don't match the pages
+                if (refinement.isIdentity()) {
+                    pager.onScroll(layoutManager.findFirstVisibleItemPosition(), layoutManager.getChildCount());
+                }
+                // The list calls this without scrolling when its rows change
+                if (dx == 0 && dy == 0) {
+                    onVisibleBooksChanged();
+                }
+            }
 
-                // Create a new intent to view the book URI
-                Intent websiteIntent = new Intent(Intent.ACTION_VIEW, bookUri);
+            @Override
+            public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+                // Rows flying by aren't worth getting ready for, only those the list stops at
+                if (newState == RecyclerView.SCROLL_STATE_IDLE) {
+                    onVisibleBooksChanged();
+                }
 
-                // Send the intent to launch a new activity
-                startActivity(websiteIntent);
+                if (jankWatchdog != null) {
+                    if (newState == RecyclerView.SCROLL_STATE_IDLE) {
+                        jankWatchdog.stop();
+                    } else {
+                        jankWatchdog.start();
+                    }
+                }
             }
         });
 
@@ -106,96 +269,369 @@ public class BookActivity extends AppCompatActivity implements LoaderManager.Loa
 
             @Override
             public boolean onQueryTextChange(String newText) {
-                return false;
+                // Search as the user types, but only once they stop typing for a moment
+                searchHandler.removeCallbacks(typedSearch);
+                if (newText.trim().length() > 0) {
+                    searchHandler.postDelayed(typedSearch, getResources().getInteger(R.integer.search_debounce_delay));
+                }
+                return true;
             }
 
             @Override
             public boolean onQueryTextSubmit(String query) {
-                if (isConnected()) {
-                    // Get a reference to the LoaderManager, in order to interact with loaders.
-                    LoaderManager loaderManager = getLoaderManager();
-
-                    noConnectionTextView.setVisibility(View.GONE);
-                    noWifiImageView.setVisibility(View.GONE);
-                    noBooksTextView.setVisibility(View.GONE);
-
-                    // Restart the loader.
-                    loaderManager.restartLoader(BOOK_LOADER_ID, null, BookActivity.this);
-                    return true;
-                } else {
-                    // Otherwise, display error
-                    // First, hide loading indicator so error message will be visible
-                    View loadingIndicator = findViewById(R.id.loading_indicator);
-                    loadingIndicator.setVisibility(View.GONE);
-
-                    noConnectionTextView.setVisibility(View.VISIBLE);
-                    noWifiImageView.setVisibility(View.VISIBLE);
-                    noBooksTextView.setVisibility(View.GONE);
-                    return false;
-                }
+                searchHandler.removeCallbacks(typedSearch);
+                search(query);
+                return true;
             }
         });
 
-        // If there is a network connection, fetch data
-        if (isConnected()) {
-            noConnectionTextView.setVisibility(View.GONE);
-            noWifiImageView.setVisibility(View.GONE);
-            noBooksTextView.setVisibility(View.GONE);
+        noConnectionTextView.setVisibility(View.GONE);
+        noWifiImageView.setVisibility(View.GONE);
+        noBooksTextView.setVisibility(View.GONE);
+
+        // Display again the books of the previous instance, if any, without loading them.
+        // Otherwise load the first page of the current search, or show the last results if
+        // there is none yet (on a cold start).
+        // If there is no network connection, the loader only returns cached results.
+        if (savedInstanceState != null) {
+            query = savedInstanceState.getString(ARG_QUERY);
+            if (restoreBooks(savedInstanceState)) {
+                return;
+            }
+        } else {
+            query = searchView.getQuery().toString();
+        }
+        startSearch();
+    }
+
+    /**
+     * Called once the first frame has been drawn, to start the work it doesn't need.
+     */
+    private void onFirstFrameDrawn() {
+        // Keep the results of the recent searches fresh in the background, when it's free
+        CacheWarmUpScheduler.schedule(this);
+
+        // Start the browser before the user taps a book
+        firstFrameDrawn = true;
+        bookOpener.bind();
+    }
+
+    /**
+     * Tell the book opener which books the user sees, the most likely to be tapped.
+     */
+    private void onVisibleBooksChanged() {
+        int first = layoutManager.findFirstVisibleItemPosition();
+        List<Book> books = adapter.getBooks();
+        if (first == RecyclerView.NO_POSITION || first >= books.size()) {
+            return;
+        }
+        int end = Math.min(books.size(), first + LaunchSpeculator.MAX_OTHER_URLS + 1);
+        bookOpener.onVisibleBooks(books.subList(first, end));
+    }
+
+    /**
+     * Tell the system the activity displays its results, so the time it took to get there is
+     * reported with the startup time ("Fully drawn" in the logs, or am start -W).
+     */
+    private void reportFullyDrawnOnce() {
+        if (!reportedFullyDrawn && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            reportFullyDrawn();
+        }
+        reportedFullyDrawn = true;
+    }
 
-            // Get a reference to the LoaderManager, in order to interact with loaders.
-            LoaderManager loaderManager = getLoaderManager();
+    /**
+     * Display the books saved by {@link #onSaveInstanceState}, after a configuration change or
+     * once the process was killed in the background.
+     *
+     * @return false if there were none, or they couldn't be read
+     */
+    private boolean restoreBooks(Bundle savedInstanceState) {
+        byte[] encodedBooks = savedInstanceState.getByteArray(STATE_BOOKS);
+        int[] pageSizes = savedInstanceState.getIntArray(STATE_PAGE_SIZES);
+        if (encodedBooks == null || pageSizes == null) {
+            return false;
+        }
+
+        BookPager.SavedState pages = new BookPager.SavedState(savedInstanceState.getInt(STATE_FIRST_PAGE),
+                savedInstanceState.getInt(STATE_END_PAGE), pageSizes);
+        List<Book> books;
+        try {
+            books = BookCodec.decode(encodedBooks);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem restoring the books", e);
+            return false;
+        }
+        if (books.size() != pages.getBookCount()) {
+            return false;
+        }
+
+        pager.restoreState(pages, books);
+        findViewById(R.id.loading_indicator).setVisibility(View.GONE);
+        reportFullyDrawnOnce();
+        return true;
+    }
+
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+
+        // adb shell dumpsys activity com.example.android.computerbooksapp prints the search metrics
+        writer.print(prefix);
+        writer.print("SearchMetrics: ");
+        writer.println(SearchMetrics.isEnabled() ? SearchMetrics.toJson() : "disabled");
+        writer.print(prefix);
+        writer.print("BookOpener: ");
+        writer.println(bookOpener.getStats());
+        writer.print(prefix);
+        writer.print("NetworkPolicy: ");
+        writer.println(NetworkPolicy.getInstance());
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        RetryingHttpClient.getCircuitBreaker().setListener(circuitListener);
+        updateServiceStatus();
+
+        // The first time, the book opener waits for the first frame
+        if (firstFrameDrawn) {
+            bookOpener.bind();
+        }
+    }
 
-            // Initialize the loader. Pass in the int ID constant defined above and pass in null for
-            // the bundle. Pass in this activity for the LoaderCallbacks parameter (which is valid
-            // because this activity implements the LoaderCallbacks interface).
-            loaderManager.initLoader(BOOK_LOADER_ID, null, this);
+    @Override
+    protected void onStop() {
+        RetryingHttpClient.getCircuitBreaker().setListener(null);
+        bookOpener.unbind();
+        if (jankWatchdog != null) {
+            jankWatchdog.stop();
+        }
+
+        // Keep the results loaded, to show them when the app starts again
+        if (!BookCache.normalize(query).isEmpty() && !loadedBooks.isEmpty()) {
+            LastResults.save(this, query, loadedBooks);
+        }
+        super.onStop();
+    }
+
+    /**
+     * Show the banner while the server is considered unavailable, when the books displayed come
+     * from the cache.
+     */
+    private void updateServiceStatus() {
+        boolean available = RetryingHttpClient.getCircuitBreaker().getState() == CircuitBreaker.STATE_CLOSED;
+        if (available) {
+            serviceStatusTextView.setVisibility(View.GONE);
         } else {
-            // Otherwise, display error
-            // First, hide loading indicator so error message will be visible
-            View loadingIndicator = findViewById(R.id.loading_indicator);
-            loadingIndicator.setVisibility(View.GONE);
+            serviceStatusTextView.setText(R.string.service_unavailable);
+            serviceStatusTextView.setVisibility(View.VISIBLE);
+        }
+    }
 
-            // Also hide the search bar
-            searchView.setVisibility(View.GONE);
+    @Override
+    protected void onDestroy() {
+        searchHandler.removeCallbacks(typedSearch);
+        cancelBatchSearch();
+        super.onDestroy();
+    }
 
-            // Update empty state with no connection error message
-            noConnectionTextView.setVisibility(View.VISIBLE);
-            noWifiImageView.setVisibility(View.VISIBLE);
-            noBooksTextView.setVisibility(View.GONE);
+    /**
+     * Start a new search. Restarting the loader cancels the request of the previous one, if it
+     * is still running.
+     */
+    private void search(String query) {
+        this.query = query;
+
+        noConnectionTextView.setVisibility(View.GONE);
+        noWifiImageView.setVisibility(View.GONE);
+        noBooksTextView.setVisibility(View.GONE);
+
+        // Load the first page of the new search. Without a connection the loader looks for
+        // cached results, and the error is only displayed if there are none.
+        // The current books stay displayed until they are replaced by the new ones.
+        startSearch();
+    }
+
+    /**
+     * Load the results of the current query. Several queries separated by commas are searched
+     * together, and their first pages merged.
+     */
+    private void startSearch() {
+        cancelBatchSearch();
+
+        // The filters were meant for the books of the previous search, but the order is kept
+        refinement = new BookQueryEngine.Query(refinement.sort, null, null, null);
+
+        // There is nothing to search for when the app starts: show the last results instead
+        if (BookCache.normalize(query).isEmpty()) {
+            pager.reset();
+            findViewById(R.id.loading_indicator).setVisibility(View.GONE);
+            LastResults.load(this, new LastResults.Callback() {
+                @Override
+                public void onLoaded(final String lastQuery, final List<Book> books) {
+                    searchHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            showLastResults(lastQuery, books);
+                        }
+                    });
+                }
+            });
+            return;
+        }
+
+        List<String> queries = BookBatchSearch.split(query);
+        if (queries.size() < 2) {
+            pager.start();
+            searchIndex();
+            return;
+        }
+
+        // The merged results have no pages to scroll through
+        pager.reset();
+        getLoaderManager().destroyLoader(BOOK_LOADER_ID);
+
+        batchSearch = new BookBatchSearch(BookFetchEngine.getInstance(this), queries, !isConnected(),
+                BookBatchSearch.DEFAULT_PARALLELISM, new BookBatchSearch.Callback() {
+                    @Override
+                    public void onResults(List<Book> books, int completed, int total) {
+                        showBatchResults(books, completed == total);
+                    }
+                });
+        batchSearch.start();
+    }
+
+    /**
+     * Display the results saved when the app was last used, and refresh them.
+     */
+    private void showLastResults(String lastQuery, List<Book> books) {
+        // The user may have started a search in the meantime
+        if (isFinishing() || !BookCache.normalize(query).isEmpty() || books == null || books.isEmpty()) {
+            return;
+        }
+
+        query = lastQuery;
+        searchView.setQuery(lastQuery, false);
+
+        // The saved books stay displayed until the first page replaces them, usually straight
+        // from the caches
+        startSearch();
+        if (batchSearch == null) {
+            pager.onLocalResults(books);
+        } else {
+            onBooksReplaced(books);
+        }
+        reportFullyDrawnOnce();
+    }
+
+    private void cancelBatchSearch() {
+        if (batchSearch != null) {
+            batchSearch.cancel();
+            batchSearch = null;
         }
     }
 
+    /**
+     * Display the books found so far by a search of several queries.
+     *
+     * @param done true once all the queries have completed
+     */
+    private void showBatchResults(List<Book> books, boolean done) {
+        if (done) {
+            batchSearch = null;
+        }
+
+        // Keep the previous results until some of the new ones arrive
+        if (books.isEmpty() && !done) {
+            return;
+        }
+
+        findViewById(R.id.loading_indicator).setVisibility(View.GONE);
+        onBooksReplaced(books);
+        reportFullyDrawnOnce();
+
+        if (done && books.isEmpty()) {
+            if (isConnected()) {
+                noBooksTextView.setText(R.string.no_books);
+                noBooksTextView.setVisibility(View.VISIBLE);
+            } else {
+                noConnectionTextView.setText(R.string.no_internet_connection);
+                noConnectionTextView.setVisibility(View.VISIBLE);
+                noWifiImageView.setVisibility(View.VISIBLE);
+            }
+        }
+    }
+
+    /**
+     * Look for the books already fetched that match the current query, so they are displayed
+     * while the first page is loading, or instead of it if there is no connection.
+     */
+    private void searchIndex() {
+        BookIndex.getInstance(this).searchAsync(query, new BookIndex.Callback() {
+            @Override
+            public void onBooksFound(String query, List<Book> books) {
+                // Ignore the books found for a previous search
+                if (query.equals(BookActivity.this.query) && !isFinishing()) {
+                    pager.onLocalResults(books);
+                }
+            }
+        });
+    }
+
     @Override
     public Loader<List<Book>> onCreateLoader(int i, Bundle bundle) {
-        //Get the query given by the user
-        query = searchView.getQuery().toString();
-
-        // Create a new loader for the given URL
-        return new BookLoader(this, query);
+        // Create a new loader for the given query and page
+        return new BookLoader(this, bundle.getString(ARG_QUERY), bundle.getInt(ARG_START_INDEX), !isConnected(),
+                bundle.getBoolean(ARG_PREFETCH));
     }
 
     @Override
     public void onLoadFinished(Loader<List<Book>> loader, List<Book> books) {
-        // Hide loading indicator because the data has been loaded
-        View loadingIndicator = findViewById(R.id.loading_indicator);
-        loadingIndicator.setVisibility(View.GONE);
+        long displayStart = SearchMetrics.begin(SearchMetrics.DISPLAY);
+        try {
+            showPage(loader, books);
+        } finally {
+            SearchMetrics.end(SearchMetrics.DISPLAY, displayStart);
+        }
+    }
 
-        // Clear the adapter of previous book data
-        adapter.clear();
+    /**
+     * Display the books of a page once its loader has finished.
+     */
+    private void showPage(Loader<List<Book>> loader, List<Book> books) {
+        int page = BookPager.pageOf(((BookLoader) loader).getStartIndex());
+
+        // Let the pager add the books to the adapter, unless it's a page it has already seen
+        if (!pager.onPageLoaded(page, books) || page > 0) {
+            return;
+        }
 
-        // If there is a valid list of {@link book}s, then add them to the adapter's
-        // data set. This will trigger the ListView to update.
-        if (books != null && !books.isEmpty()) {
-            adapter.addAll(books);
+        // Hide loading indicator because the first page has been loaded
+        View loadingIndicator = findViewById(R.id.loading_indicator);
+        loadingIndicator.setVisibility(View.GONE);
+        reportFullyDrawnOnce();
+
+        // The previous results stay displayed until the new ones replace them, unless there are none
+        boolean hasBooks = pager.getDisplayedCount() > 0;
+        if (!hasBooks) {
+            clearBooks();
+        } else if (books != null && !books.isEmpty()) {
+            // Remember the queries that found something, to refresh them in the background
+            RecentQueries.getInstance(this).add(query);
         }
 
-        if (isConnected() && books.isEmpty()) {
-            noBooksTextView.setText(R.string.no_books);
+        if (!hasBooks && isConnected()) {
+            // Don't say there are no books when the server just couldn't be asked
+            boolean available = RetryingHttpClient.getCircuitBreaker().getState() == CircuitBreaker.STATE_CLOSED;
+            noBooksTextView.setText(available ? R.string.no_books : R.string.service_unavailable_no_books);
             noBooksTextView.setVisibility(View.VISIBLE);
         }
 
-        if(!isConnected()){
+        // Without a connection and nothing cached for this query, display the error
+        if (!hasBooks && !isConnected()) {
             noConnectionTextView.setText(R.string.no_internet_connection);
+            noConnectionTextView.setVisibility(View.VISIBLE);
             noWifiImageView.setVisibility(View.VISIBLE);
         }
     }
@@ -203,28 +639,287 @@ public class BookActivity extends AppCompatActivity implements LoaderManager.Loa
     @Override
     public void onLoaderReset(Loader<List<Book>> loader) {
         // Loader reset, so we can clear out our existing data.
+        clearBooks();
+    }
+
+    @Override
+    public void loadPage(int page, boolean prefetch) {
+        Bundle args = new Bundle();
+        args.putString(ARG_QUERY, query);
+        args.putInt(ARG_START_INDEX, BookPager.startIndexOf(page));
+        args.putBoolean(ARG_PREFETCH, prefetch);
+
+        // Restart the loader with the new page.
+        getLoaderManager().restartLoader(BOOK_LOADER_ID, args, this);
+    }
+
+    @Override
+    public boolean shouldPrefetch() {
+        return NetworkPolicy.getInstance().shouldPrefetch();
+    }
+
+    @Override
+    public void onBooksReplaced(List<Book> books) {
+        loadedBooks.clear();
+        loadedBooks.addAll(books);
+        onLoadedBooksChanged();
+
+        if (refinement.isIdentity()) {
+            // Only the rows that changed since the previous search are bound again
+            adapter.replace(books);
+        } else {
+            refine();
+        }
+    }
+
+    @Override
+    public void onBooksAppended(List<Book> books) {
+        loadedBooks.addAll(books);
+        onLoadedBooksChanged();
+
+        if (refinement.isIdentity()) {
+            // This will trigger the RecyclerView to update, without rebinding the rows already loaded
+            adapter.append(books);
+        } else {
+            refine();
+        }
+    }
+
+    @Override
+    public void onBooksPrepended(List<Book> books) {
+        loadedBooks.addAll(0, books);
+        onLoadedBooksChanged();
+
+        if (refinement.isIdentity()) {
+            // The RecyclerView keeps the same rows on the screen
+            adapter.prepend(books);
+        } else {
+            refine();
+        }
+    }
+
+    @Override
+    public void onBooksDropped(int count, boolean fromStart) {
+        int start = fromStart ? 0 : loadedBooks.size() - count;
+        loadedBooks.subList(start, start + count).clear();
+        onLoadedBooksChanged();
+
+        if (refinement.isIdentity()) {
+            adapter.remove(count, fromStart);
+        } else {
+            refine();
+        }
+    }
+
+    private void onLoadedBooksChanged() {
+        queryEngine = null;
+        loadedVersion++;
+    }
+
+    private void clearBooks() {
+        loadedBooks.clear();
+        onLoadedBooksChanged();
         adapter.clear();
     }
 
     @Override
-    protected void onSaveInstanceState(Bundle outState) {
-        //Get the query given by the user
-        query = searchView.getQuery().toString();
-        outState.putString("query", query);
-        super.onSaveInstanceState(outState);
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.book_menu, menu);
+        return true;
     }
 
     @Override
-    protected void onRestoreInstanceState(Bundle savedInstanceState) {
-        query = savedInstanceState.getString("query");
-        //Initialize the Loader (execute the search)
-        super.onRestoreInstanceState(savedInstanceState);
+    public boolean onOptionsItemSelected(MenuItem item) {
+        switch (item.getItemId()) {
+            case R.id.action_sort:
+                showSortDialog();
+                return true;
+            case R.id.action_filter_text:
+                showTextFilterDialog();
+                return true;
+            case R.id.action_filter_publisher:
+                showFacetDialog(true);
+                return true;
+            case R.id.action_filter_author:
+                showFacetDialog(false);
+                return true;
+            case R.id.action_clear_filters:
+                setRefinement(new BookQueryEngine.Query(refinement.sort, null, null, null));
+                return true;
+            default:
+                return super.onOptionsItemSelected(item);
+        }
+    }
+
+    private void showSortDialog() {
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.action_sort)
+                .setSingleChoiceItems(R.array.sort_orders, refinement.sort, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        dialog.dismiss();
+                        setRefinement(new BookQueryEngine.Query(which, refinement.text, refinement.publisher,
+                                refinement.author));
+                    }
+                })
+                .show();
+    }
+
+    private void showTextFilterDialog() {
+        final EditText input = new EditText(this);
+        input.setSingleLine(true);
+        input.setHint(R.string.filter_hint);
+        if (refinement.text != null) {
+            input.setText(refinement.text);
+            input.setSelection(refinement.text.length());
+        }
+
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.action_filter_text)
+                .setView(input)
+                .setPositiveButton(R.string.filter, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        setRefinement(new BookQueryEngine.Query(refinement.sort, input.getText().toString(),
+                                refinement.publisher, refinement.author));
+                    }
+                })
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+
+    /**
+     * Let the user choose a publisher or an author among those of the books, with the number of
+     * books of each one.
+     */
+    private void showFacetDialog(final boolean publishers) {
+        runRefinement(refinement, new RefinementCallback() {
+            @Override
+            public void onRefined(BookQueryEngine.Result result) {
+                if (isFinishing()) {
+                    return;
+                }
+
+                Map<String, Integer> counts = publishers ? result.publisherCounts : result.authorCounts;
+                final List<String> values = new ArrayList<>(counts.keySet());
+                CharSequence[] items = new CharSequence[values.size() + 1];
+                items[0] = getString(publishers ? R.string.all_publishers : R.string.all_authors);
+                String selected = publishers ? refinement.publisher : refinement.author;
+                int checked = 0;
+                for (int i = 0; i < values.size(); i++) {
+                    items[i + 1] = getString(R.string.facet_count, values.get(i), counts.get(values.get(i)));
+                    if (values.get(i).equals(selected)) {
+                        checked = i + 1;
+                    }
+                }
+
+                new AlertDialog.Builder(BookActivity.this)
+                        .setTitle(publishers ? R.string.action_filter_publisher : R.string.action_filter_author)
+                        .setSingleChoiceItems(items, checked, new DialogInterface.OnClickListener() {
+                            @Override
+                            public void onClick(DialogInterface dialog, int which) {
+                                dialog.dismiss();
+                                String value = which == 0 ? null : values.get(which - 1);
+                                setRefinement(publishers
+                                        ? new BookQueryEngine.Query(refinement.sort, refinement.text, value,
+                                        refinement.author)
+                                        : new BookQueryEngine.Query(refinement.sort, refinement.text,
+                                        refinement.publisher, value));
+                            }
+                        })
+                        .show();
+            }
+        });
+    }
+
+    private void setRefinement(BookQueryEngine.Query refinement) {
+        this.refinement = refinement;
+        if (refinement.isIdentity()) {
+            refineGeneration++;
+            adapter.replace(loadedBooks);
+        } else {
+            refine();
+        }
+    }
+
+    /**
+     * Display the books loaded, sorted and filtered by the refinement. Nothing is loaded again.
+     */
+    private void refine() {
+        final int generation = ++refineGeneration;
+        runRefinement(refinement, new RefinementCallback() {
+            @Override
+            public void onRefined(BookQueryEngine.Result result) {
+                // Another refinement may have been displayed in the meantime
+                if (generation == refineGeneration) {
+                    adapter.replace(result.books);
+                }
+            }
+        });
+    }
+
+    /**
+     * Interface to be notified on the UI thread of the books matching a refinement.
+     */
+    private interface RefinementCallback {
+        void onRefined(BookQueryEngine.Result result);
+    }
+
+    /**
+     * Query the books loaded, in the background if there are many of them. The callback isn't
+     * called if the books change in the meantime.
+     */
+    private void runRefinement(final BookQueryEngine.Query query, final RefinementCallback callback) {
+        final int version = loadedVersion;
+        final BookQueryEngine engine = queryEngine;
+        final List<Book> books = engine != null ? engine.getBooks() : new ArrayList<>(loadedBooks);
+
+        if (books.size() < REFINE_SYNC_LIMIT) {
+            queryEngine = engine != null ? engine : new BookQueryEngine(books);
+            callback.onRefined(queryEngine.query(query));
+            return;
+        }
+
+        REFINE_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                final BookQueryEngine builtEngine = engine != null ? engine : new BookQueryEngine(books);
+                final BookQueryEngine.Result result = builtEngine.query(query);
+                searchHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (version != loadedVersion) {
+                            // Another refinement was run for the new books
+                            return;
+                        }
+                        queryEngine = builtEngine;
+                        callback.onRefined(result);
+                    }
+                });
+            }
+        });
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        // Save the query being displayed, so its results can be shown again
+        outState.putString(ARG_QUERY, query);
+
+        // Save the books displayed too, so they don't have to be loaded again. They are encoded
+        // compactly, since the whole state must fit in a binder transaction.
+        BookPager.SavedState pages = pager.saveState();
+        List<Book> books = loadedBooks;
+        if (pages != null && !books.isEmpty() && books.size() == pages.getBookCount()) {
+            outState.putByteArray(STATE_BOOKS, BookCodec.encode(books));
+            outState.putInt(STATE_FIRST_PAGE, pages.firstPage);
+            outState.putInt(STATE_END_PAGE, pages.endPage);
+            outState.putIntArray(STATE_PAGE_SIZES, pages.pageSizes);
+        }
+        super.onSaveInstanceState(outState);
     }
 
     private boolean isConnected() {
-        ConnectivityManager connMgr = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
-        // Get details on the currently active default data network
-        NetworkInfo networkInfo = connMgr.getActiveNetworkInfo();
-        return networkInfo != null && networkInfo.isConnected();
+        // Kept up to date by the system callbacks, so it's cheap to ask
+        return ConnectivityMonitor.getInstance(this).isConnected();
     }
 }
@@ -4,85 +4,317 @@
 package com.example.android.computerbooksapp;
 
 import android.content.Context;
-import android.support.annotation.NonNull;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
+import android.text.TextUtils;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
-import android.widget.TextView;
+import android.widget.ImageView;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 /**
  * An {@link BookAdapter} knows how to create a list item layout for each book
  * in the data source (a list of {@link Book} objects).
  *
- * These list item layouts will be provided to an adapter view like ListView
- * to be displayed to the user.
+ * These list item layouts will be provided to a RecyclerView to be displayed to the user.
+ * Items have stable IDs derived from the Google Books volume ID, and when the whole list is
+ * replaced the difference is computed on a background thread, so only the rows that changed
+ * are bound again. The text of the rows is laid out in the background too, as soon as the books
+ * are added (see {@link BookRowTextCache}).
  */
-class BookAdapter extends ArrayAdapter<Book> {
+class BookAdapter extends RecyclerView.Adapter<BookAdapter.ViewHolder> {
+
+    /** Thread computing the differences between the old and the new lists */
+    private static final Executor DIFF_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    /**
+     * Interface to be notified when the user taps a book.
+     */
+    interface OnBookClickListener {
+        void onBookClick(Book book);
+    }
+
+    private final Context context;
+    private final LayoutInflater inflater;
+    private final OnBookClickListener listener;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final BookRowTextCache textCache;
+
+    /** Books displayed, which is the data source of the adapter */
+    private List<Book> books = new ArrayList<>();
+
+    /** Number of the last replacement, so the diffs computed for older ones are dropped */
+    private int replaceGeneration;
+
+    /** Whether a diff is being computed, in which case the other updates have to wait */
+    private boolean diffing;
+
+    /** Updates made while a diff is being computed, applied once it is dispatched */
+    private final List<Runnable> pendingUpdates = new ArrayList<>();
 
     /**
      * Constructs a new {@link BookAdapter}.
      *
      * @param context of the app
-     * @param books is the list of books, which is the data source of the adapter
+     * @param listener to be notified when the user taps a book
      */
-    BookAdapter(Context context, List<Book> books) {
-        super(context, 0, books);
+    BookAdapter(Context context, OnBookClickListener listener) {
+        this.context = context;
+        this.inflater = LayoutInflater.from(context);
+        this.listener = listener;
+        this.textCache = new BookRowTextCache(context);
+        setHasStableIds(true);
+    }
+
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View listItemView = inflater.inflate(R.layout.book_list_item, parent, false);
+        return new ViewHolder(listItemView);
     }
 
     /**
-     * Returns a list item view that displays information about the book at the given position
-     * in the list of books.
+     * Displays the information about the book at the given position in the list of books.
      */
-    @NonNull
     @Override
-    public View getView(int position, View convertView, @NonNull ViewGroup parent) {
-        // Check if there is an existing list item view (called convertView) that we can reuse,
-        // otherwise, if convertView is null, then inflate a new list item layout.
-        View listItemView = convertView;
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        long bindStart = SearchMetrics.begin(SearchMetrics.BIND);
 
-        ViewHolder holder;
-        if (listItemView == null) {
-            listItemView = LayoutInflater.from(getContext()).inflate(R.layout.book_list_item, parent, false);
+        // Find the book at the given position in the list of books
+        Book currentBook = books.get(position);
 
-            holder = new ViewHolder();
+        // Display the title, the author and the publisher of the current book, laid out in advance
+        holder.rowView.bind(currentBook, textCache);
 
-            // Find the TextView with view ID title
-            holder.titleView = (TextView) listItemView.findViewById(R.id.title);
+        // Display the cover of the current book in that ImageView. If the view was recycled from
+        // another book, the request made for that book is canceled.
+        CoverLoader.getInstance(context).load(holder.rowView.getCoverUrl(), holder.coverView);
+
+        SearchMetrics.end(SearchMetrics.BIND, bindStart);
+    }
 
-            // Find the TextView with view ID author
-            holder.authorView = (TextView) listItemView.findViewById(R.id.author);
+    @Override
+    public void onViewRecycled(ViewHolder holder) {
+        // Don't keep loading a cover that is no longer displayed
+        CoverLoader.getInstance(context).cancel(holder.coverView);
+    }
 
-            // Find the TextView with view ID author
-            holder.publisherView = (TextView) listItemView.findViewById(R.id.publisher);
+    @Override
+    public int getItemCount() {
+        return books.size();
+    }
 
-            listItemView.setTag(holder);
+    @Override
+    public long getItemId(int position) {
+        return stableIdOf(books.get(position));
+    }
+
+    /**
+     * Returns the book at the given position.
+     */
+    Book getItem(int position) {
+        return books.get(position);
+    }
+
+    /**
+     * Returns the books displayed.
+     */
+    List<Book> getBooks() {
+        return Collections.unmodifiableList(books);
+    }
+
+    /**
+     * Replace all the books displayed. The difference with the current books is computed on a
+     * background thread and only the rows that changed are updated.
+     */
+    void replace(List<Book> newBooks) {
+        final List<Book> oldBooks = books;
+        final List<Book> newList = new ArrayList<>(newBooks);
+        final int generation = ++replaceGeneration;
+
+        // Updates waiting for a previous diff were meant for a list that won't be displayed
+        pendingUpdates.clear();
+        textCache.precompute(newList, true);
+
+        if (oldBooks.isEmpty() || newList.isEmpty()) {
+            // Nothing to compare
+            diffing = false;
+            books = newList;
+            notifyDataSetChanged();
+            return;
+        }
+
+        diffing = true;
+        DIFF_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                final DiffUtil.DiffResult result = DiffUtil.calculateDiff(new BookDiff(oldBooks, newList));
+
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != replaceGeneration) {
+                            // The list was replaced again in the meantime
+                            return;
+                        }
+
+                        diffing = false;
+                        books = newList;
+                        result.dispatchUpdatesTo(BookAdapter.this);
+
+                        List<Runnable> updates = new ArrayList<>(pendingUpdates);
+                        pendingUpdates.clear();
+                        for (Runnable update : updates) {
+                            update.run();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Add the given books at the end of the list.
+     */
+    void append(final List<Book> newBooks) {
+        textCache.precompute(newBooks, false);
+        runWhenIdle(new Runnable() {
+            @Override
+            public void run() {
+                int start = books.size();
+                books.addAll(newBooks);
+                notifyItemRangeInserted(start, newBooks.size());
+            }
+        });
+    }
+
+    /**
+     * Add the given books at the start of the list.
+     */
+    void prepend(final List<Book> newBooks) {
+        textCache.precompute(newBooks, false);
+        runWhenIdle(new Runnable() {
+            @Override
+            public void run() {
+                books.addAll(0, newBooks);
+                notifyItemRangeInserted(0, newBooks.size());
+            }
+        });
+    }
+
+    /**
+     * Remove the given number of books from the start or the end of the list.
+     */
+    void remove(final int count, final boolean fromStart) {
+        runWhenIdle(new Runnable() {
+            @Override
+            public void run() {
+                int start = fromStart ? 0 : books.size() - count;
+                books.subList(start, start + count).clear();
+                notifyItemRangeRemoved(start, count);
+            }
+        });
+    }
+
+    /**
+     * Remove all the books, dropping any update still waiting.
+     */
+    void clear() {
+        replaceGeneration++;
+        diffing = false;
+        pendingUpdates.clear();
+        books = new ArrayList<>();
+        notifyDataSetChanged();
+    }
+
+    private void runWhenIdle(Runnable update) {
+        if (diffing) {
+            pendingUpdates.add(update);
         } else {
-            // view already exists, get the holder instance from the view
-            holder = (ViewHolder) listItemView.getTag();
+            update.run();
         }
+    }
 
-        // Find the book at the given position in the list of books
-        Book currentBook = getItem(position);
+    /**
+     * Returns a stable ID for the given book: a 64-bit FNV-1a hash of its volume ID.
+     */
+    static long stableIdOf(Book book) {
+        String id = book.getId() != null ? book.getId() : book.getUrl();
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < id.length(); i++) {
+            hash ^= id.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Compares two lists of books for {@link DiffUtil}.
+     */
+    static final class BookDiff extends DiffUtil.Callback {
+
+        private final List<Book> oldBooks;
+        private final List<Book> newBooks;
 
-        // Display the title of the current book in that TextView
-        holder.titleView.setText(currentBook.getTitle());
+        BookDiff(List<Book> oldBooks, List<Book> newBooks) {
+            this.oldBooks = oldBooks;
+            this.newBooks = newBooks;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return oldBooks.size();
+        }
 
-        // Display the author of the current book in that TextView
-        holder.authorView.setText(currentBook.getAuthor());
+        @Override
+        public int getNewListSize() {
+            return newBooks.size();
+        }
 
-        // Display the publisher of the current book in that TextView
-        holder.publisherView.setText(currentBook.getPublisher());
+        @Override
+        public boolean areItemsTheSame(int oldPosition, int newPosition) {
+            return stableIdOf(oldBooks.get(oldPosition)) == stableIdOf(newBooks.get(newPosition));
+        }
 
-        // Return the list item view that is now showing the appropriate data
-        return listItemView;
+        @Override
+        public boolean areContentsTheSame(int oldPosition, int newPosition) {
+            Book oldBook = oldBooks.get(oldPosition);
+            Book newBook = newBooks.get(newPosition);
+            return TextUtils.equals(oldBook.getTitle(), newBook.getTitle())
+                    && oldBook.hasSameAuthors(newBook)
+                    && TextUtils.equals(oldBook.getPublisher(), newBook.getPublisher())
+                    && oldBook.hasSameThumbnail(newBook);
+        }
     }
 
-    private static class ViewHolder {
-        TextView titleView;
-        TextView authorView;
-        TextView publisherView;
+    /**
+     * Holds the views of a list item, and tells the listener when the item is tapped.
+     */
+    class ViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+        final BookRowView rowView;
+        final ImageView coverView;
+
+        ViewHolder(View itemView) {
+            super(itemView);
+            rowView = (BookRowView) itemView;
+            coverView = rowView.getCoverView();
+
+            itemView.setOnClickListener(this);
+        }
+
+        @Override
+        public void onClick(View view) {
+            int position = getAdapterPosition();
+            if (position != RecyclerView.NO_POSITION) {
+                listener.onBookClick(books.get(position));
+            }
+        }
     }
 }
@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) 2017 by Francis Gálvez
+ */
+package com.example.android.computerbooksapp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Searches several queries at once, like "java concurrency, jvm performance, garbage collection",
+ * and merges their first pages into a single list.
+ *
+ * The queries run concurrently through the {@link BookFetchEngine}, a few at a time, so the whole
+ * search takes about as long as the slowest query instead of the sum of all of them. The merged
+ * list is delivered again each time a query completes, so the first results are displayed without
+ * waiting for the others.
+ *
+ * Books are merged by reciprocal rank fusion: each query gives a book 1 / (k + rank), and the
+ * books are sorted by the sum of what they got. A book found by several queries goes up, and a
+ * book near the top of a single query stays ahead of one near the bottom of another.
+ *
+ * A batch must be started and canceled on the thread the engine delivers its results on.
+ */
+class BookBatchSearch {
+
+    /** Number of queries run at the same time by default */
+    static final int DEFAULT_PARALLELISM = 3;
+
+    /** Separator of the queries typed by the user */
+    private static final String SEPARATOR = ",";
+
+    /**
+     * Constant of reciprocal rank fusion. The usual value: large enough that the first few ranks
+     * of a query don't outweigh everything else.
+     */
+    private static final int RANK_CONSTANT = 60;
+
+    /**
+     * Interface to be notified of the results of the batch.
+     */
+    interface Callback {
+        /**
+         * Called each time a query completes, with the books of all the queries completed so far.
+         *
+         * @param books merged and sorted by relevance
+         * @param completed number of queries completed, failed ones included
+         * @param total number of queries of the batch; once completed, no more results are delivered
+         */
+        void onResults(List<Book> books, int completed, int total);
+    }
+
+    private final BookFetchEngine engine;
+    private final List<String> queries;
+    private final boolean offline;
+    private final int parallelism;
+    private final Callback callback;
+
+    /** Requests running, so they can be canceled */
+    private final List<BookFetchEngine.Request> requests = new ArrayList<>();
+
+    /** Books found so far, by volume, in the order they were first found */
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+    /** Number of queries started and completed */
+    private int started;
+    private int completed;
+
+    private boolean canceled;
+
+    /**
+     * Constructs a new {@link BookBatchSearch}.
+     *
+     * @param engine running the requests
+     * @param queries to search
+     * @param offline true if only cached results can be returned
+     * @param parallelism maximum number of queries run at the same time
+     * @param callback notified with the results, unless the batch is canceled first
+     */
+    BookBatchSearch(BookFetchEngine engine, List<String> queries, boolean offline, int parallelism,
+                    Callback callback) {
+        this.engine = engine;
+        this.queries = new ArrayList<>(queries);
+        this.offline = offline;
+        this.parallelism = Math.max(1, parallelism);
+        this.callback = callback;
+    }
+
+    /**
+     * Returns the queries of the text typed by the user: the parts separated by commas, without
+     * the empty ones or the same query twice.
+     */
+    static List<String> split(String text) {
+        List<String> queries = new ArrayList<>();
+        if (text == null) {
+            return queries;
+        }
+
+        Set<String> seen = new HashSet<>();
+        for (String part : text.split(SEPARATOR)) {
+            String query = part.trim();
+            if (!query.isEmpty() && seen.add(BookCache.normalize(query))) {
+                queries.add(query);
+            }
+        }
+        return queries;
+    }
+
+    /**
+     * Start the first queries. The next ones start as those complete.
+     */
+    void start() {
+        if (queries.isEmpty()) {
+            callback.onResults(new ArrayList<Book>(), 0, 0);
+            return;
+        }
+
+        while (started < queries.size() && started < parallelism) {
+            startNext();
+        }
+    }
+
+    /**
+     * Cancel the queries still running. The callback isn't called any more.
+     */
+    void cancel() {
+        canceled = true;
+        for (BookFetchEngine.Request request : requests) {
+            request.cancel();
+        }
+        requests.clear();
+    }
+
+    private void startNext() {
+        final int rank = started++;
+        final BookFetchEngine.Request[] request = new BookFetchEngine.Request[1];
+        request[0] = engine.fetch(queries.get(rank), 0, offline, BookFetchEngine.PRIORITY_USER,
+                new BookFetchEngine.Callback() {
+                    @Override
+                    public void onBooksLoaded(List<Book> books) {
+                        requests.remove(request[0]);
+                        onQueryCompleted(books);
+                    }
+                });
+        requests.add(request[0]);
+    }
+
+    private void onQueryCompleted(List<Book> books) {
+        if (canceled) {
+            return;
+        }
+        completed++;
+
+        if (books != null) {
+            for (int i = 0; i < books.size(); i++) {
+                Book book = books.get(i);
+                String key = book.getId() != null ? book.getId() : book.getUrl();
+                Entry entry = entries.get(key);
+                if (entry == null) {
+                    entry = new Entry(book, entries.size());
+                    entries.put(key, entry);
+                }
+                entry.score += 1.0 / (RANK_CONSTANT + i + 1);
+            }
+        }
+
+        if (started < queries.size()) {
+            startNext();
+        }
+
+        callback.onResults(merge(), completed, queries.size());
+    }
+
+    /**
+     * Returns the books found so far, the most relevant first.
+     */
+    private List<Book> merge() {
+        List<Entry> sorted = new ArrayList<>(entries.values());
+        Collections.sort(sorted, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry a, Entry b) {
+                if (a.score != b.score) {
+                    return a.score > b.score ? -1 : 1;
+                }
+                return a.order - b.order;
+            }
+        });
+
+        List<Book> books = new ArrayList<>(sorted.size());
+        for (Entry entry : sorted) {
+            books.add(entry.book);
+        }
+        return books;
+    }
+
+    /**
+     * A book found by the batch, with its fused score.
+     */
+    private static final class Entry {
+        final Book book;
+        final int order;
+        double score;
+
+        Entry(Book book, int order) {
+            this.book = book;
+            this.order = order;
+        }
+    }
+}
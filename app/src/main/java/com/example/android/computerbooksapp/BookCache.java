@@ -0,0 +1,324 @@
+/*
+ * Copyright (c) 2017 by Francis Gálvez
+ */
+package com.example.android.computerbooksapp;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.example.android.computerbooksapp.BookCacheDbHelper.COLUMN_AUTHORS;
+import static com.example.android.computerbooksapp.BookCacheDbHelper.COLUMN_ETAG;
+import static com.example.android.computerbooksapp.BookCacheDbHelper.COLUMN_FETCHED_AT;
+import static com.example.android.computerbooksapp.BookCacheDbHelper.COLUMN_ITEM_COUNT;
+import static com.example.android.computerbooksapp.BookCacheDbHelper.COLUMN_LAST_ACCESS;
+import static com.example.android.computerbooksapp.BookCacheDbHelper.COLUMN_LAST_MODIFIED;
+import static com.example.android.computerbooksapp.BookCacheDbHelper.COLUMN_POSITION;
+import static com.example.android.computerbooksapp.BookCacheDbHelper.COLUMN_PUBLISHER;
+import static com.example.android.computerbooksapp.BookCacheDbHelper.COLUMN_QUERY;
+import static com.example.android.computerbooksapp.BookCacheDbHelper.COLUMN_THUMBNAIL_URL;
+import static com.example.android.computerbooksapp.BookCacheDbHelper.COLUMN_TITLE;
+import static com.example.android.computerbooksapp.BookCacheDbHelper.COLUMN_URL;
+import static com.example.android.computerbooksapp.BookCacheDbHelper.COLUMN_VOLUME_ID;
+import static com.example.android.computerbooksapp.BookCacheDbHelper.TABLE_BOOKS;
+import static com.example.android.computerbooksapp.BookCacheDbHelper.TABLE_QUERIES;
+
+/**
+ * Persistent cache of parsed search results, keyed by the normalized query and page.
+ *
+ * Entries younger than the TTL are served instead of going to the network. Older entries are
+ * kept so they can still be shown while offline, until the least recently used ones are evicted
+ * to keep the number of cached books under the configured limit. The validators of the HTTP
+ * response are stored too, so an expired page can be revalidated with a conditional request.
+ */
+class BookCache {
+
+    /**
+     * ETag and Last-Modified headers of the response a cached page came from.
+     */
+    static final class Validators {
+        final String eTag;
+        final String lastModified;
+
+        Validators(String eTag, String lastModified) {
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+        }
+    }
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = BookCache.class.getSimpleName();
+
+    /** Default time during which cached results are considered fresh */
+    private static final long DEFAULT_TTL_MILLIS = TimeUnit.HOURS.toMillis(12);
+
+    /** Default maximum number of books kept on disk, across all queries */
+    private static final int DEFAULT_MAX_BOOKS = 1500;
+
+    /** Single instance shared by all the loaders of the app */
+    private static BookCache instance;
+
+    private final BookCacheDbHelper dbHelper;
+
+    private volatile long ttlMillis = DEFAULT_TTL_MILLIS;
+    private volatile int maxBooks = DEFAULT_MAX_BOOKS;
+
+    // Counters used to tune the limits above
+    private final AtomicInteger hitCount = new AtomicInteger();
+    private final AtomicInteger missCount = new AtomicInteger();
+    private final AtomicInteger evictionCount = new AtomicInteger();
+
+    private BookCache(Context context) {
+        dbHelper = BookCacheDbHelper.getInstance(context);
+    }
+
+    /**
+     * Returns the {@link BookCache} of the app, creating it the first time.
+     */
+    static synchronized BookCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new BookCache(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the cache key for the given query: trimmed, lower case and with single spaces.
+     */
+    static String normalize(String query) {
+        if (query == null) {
+            return "";
+        }
+        return query.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Returns the cache key for the page of results of the given query starting at startIndex.
+     */
+    static String key(String query, int startIndex) {
+        return normalize(query) + "@" + startIndex;
+    }
+
+    /**
+     * Sets the time during which cached results are served without touching the network.
+     */
+    void setTtl(long duration, TimeUnit unit) {
+        ttlMillis = unit.toMillis(duration);
+    }
+
+    /**
+     * Sets the maximum number of books kept on disk. Least recently used pages are evicted first.
+     */
+    void setMaxBooks(int maxBooks) {
+        this.maxBooks = maxBooks;
+    }
+
+    /**
+     * Returns the cached books for the given page of a query, or null if there are none.
+     *
+     * @param query searched by the user
+     * @param startIndex position of the first result of the page
+     * @param allowExpired whether results older than the TTL can be returned (e.g. when offline)
+     */
+    List<Book> get(String query, int startIndex, boolean allowExpired) {
+        String key = key(query, startIndex);
+        long now = System.currentTimeMillis();
+
+        try {
+            SQLiteDatabase db = dbHelper.getWritableDatabase();
+
+            Cursor queryCursor = db.query(TABLE_QUERIES, new String[]{COLUMN_FETCHED_AT, COLUMN_ITEM_COUNT},
+                    COLUMN_QUERY + " = ?", new String[]{key}, null, null, null);
+            long fetchedAt;
+            int itemCount;
+            try {
+                if (!queryCursor.moveToFirst()) {
+                    missCount.incrementAndGet();
+                    return null;
+                }
+                fetchedAt = queryCursor.getLong(0);
+                itemCount = queryCursor.getInt(1);
+            } finally {
+                queryCursor.close();
+            }
+
+            if (!allowExpired && now - fetchedAt > ttlMillis) {
+                missCount.incrementAndGet();
+                return null;
+            }
+
+            List<Book> books = new ArrayList<>();
+            Cursor cursor = db.query(TABLE_BOOKS,
+                    new String[]{COLUMN_VOLUME_ID, COLUMN_TITLE, COLUMN_AUTHORS, COLUMN_PUBLISHER, COLUMN_URL,
+                            COLUMN_THUMBNAIL_URL},
+                    COLUMN_QUERY + " = ?", new String[]{key}, null, null, COLUMN_POSITION);
+            try {
+                while (cursor.moveToNext()) {
+                    books.add(new Book(cursor.getString(0), cursor.getString(1),
+                            BookCacheDbHelper.splitAuthors(cursor.getString(2)),
+                            cursor.getString(3), cursor.getString(4), cursor.getString(5)));
+                }
+            } finally {
+                cursor.close();
+            }
+
+            // Remember the access so this page is evicted last
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_LAST_ACCESS, now);
+            db.update(TABLE_QUERIES, values, COLUMN_QUERY + " = ?", new String[]{key});
+
+            hitCount.incrementAndGet();
+            return new BookPage(books, itemCount);
+        } catch (SQLiteException e) {
+            Log.e(LOG_TAG, "Problem reading the cached results", e);
+            missCount.incrementAndGet();
+            return null;
+        }
+    }
+
+    /**
+     * Returns the validators stored with the given page of a query, or null if it isn't cached
+     * or has none.
+     */
+    Validators getValidators(String query, int startIndex) {
+        try {
+            SQLiteDatabase db = dbHelper.getReadableDatabase();
+            Cursor cursor = db.query(TABLE_QUERIES, new String[]{COLUMN_ETAG, COLUMN_LAST_MODIFIED},
+                    COLUMN_QUERY + " = ?", new String[]{key(query, startIndex)}, null, null, null);
+            try {
+                if (!cursor.moveToFirst() || (cursor.isNull(0) && cursor.isNull(1))) {
+                    return null;
+                }
+                return new Validators(cursor.getString(0), cursor.getString(1));
+            } finally {
+                cursor.close();
+            }
+        } catch (SQLiteException e) {
+            Log.e(LOG_TAG, "Problem reading the cached validators", e);
+            return null;
+        }
+    }
+
+    /**
+     * Marks the given page of a query as fresh again, after the server answered that it has not
+     * been modified, and returns its books.
+     */
+    List<Book> revalidate(String query, int startIndex) {
+        try {
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_FETCHED_AT, System.currentTimeMillis());
+            dbHelper.getWritableDatabase().update(TABLE_QUERIES, values, COLUMN_QUERY + " = ?",
+                    new String[]{key(query, startIndex)});
+        } catch (SQLiteException e) {
+            Log.e(LOG_TAG, "Problem revalidating the cached results", e);
+        }
+        return get(query, startIndex, true);
+    }
+
+    /**
+     * Stores the books returned by the network for the given page of a query, replacing any previous
+     * entry, and evicts the least recently used pages if the cache grew over its limit.
+     *
+     * @param validators of the response the books were parsed from, or null
+     */
+    void put(String query, int startIndex, List<Book> books, Validators validators) {
+        String key = key(query, startIndex);
+        long now = System.currentTimeMillis();
+
+        try {
+            SQLiteDatabase db = dbHelper.getWritableDatabase();
+            db.beginTransaction();
+            try {
+                db.delete(TABLE_BOOKS, COLUMN_QUERY + " = ?", new String[]{key});
+
+                ContentValues queryValues = new ContentValues();
+                queryValues.put(COLUMN_QUERY, key);
+                queryValues.put(COLUMN_FETCHED_AT, now);
+                queryValues.put(COLUMN_LAST_ACCESS, now);
+                queryValues.put(COLUMN_ITEM_COUNT, BookPage.itemCountOf(books));
+                if (validators != null) {
+                    queryValues.put(COLUMN_ETAG, validators.eTag);
+                    queryValues.put(COLUMN_LAST_MODIFIED, validators.lastModified);
+                }
+                db.replace(TABLE_QUERIES, null, queryValues);
+
+                ContentValues bookValues = new ContentValues();
+                for (int i = 0; i < books.size(); i++) {
+                    Book book = books.get(i);
+                    bookValues.clear();
+                    bookValues.put(COLUMN_QUERY, key);
+                    bookValues.put(COLUMN_POSITION, i);
+                    bookValues.put(COLUMN_VOLUME_ID, book.getId());
+                    bookValues.put(COLUMN_TITLE, book.getTitle());
+                    bookValues.put(COLUMN_AUTHORS, BookCacheDbHelper.joinAuthors(book));
+                    bookValues.put(COLUMN_PUBLISHER, book.getPublisher());
+                    bookValues.put(COLUMN_URL, book.getUrl());
+                    bookValues.put(COLUMN_THUMBNAIL_URL, book.getThumbnailUrl());
+                    db.insert(TABLE_BOOKS, null, bookValues);
+                }
+
+                trimToSize(db, key);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } catch (SQLiteException e) {
+            Log.e(LOG_TAG, "Problem storing the results in the cache", e);
+        }
+    }
+
+    /**
+     * Evicts the least recently used pages until the number of cached books fits the limit.
+     * The page that has just been stored is never evicted.
+     */
+    private void trimToSize(SQLiteDatabase db, String keep) {
+        long count = DatabaseUtils.queryNumEntries(db, TABLE_BOOKS);
+
+        while (count > maxBooks) {
+            Cursor cursor = db.query(TABLE_QUERIES, new String[]{COLUMN_QUERY},
+                    COLUMN_QUERY + " != ?", new String[]{keep}, null, null,
+                    COLUMN_LAST_ACCESS + " ASC", "1");
+            String eldest;
+            try {
+                if (!cursor.moveToFirst()) {
+                    return;
+                }
+                eldest = cursor.getString(0);
+            } finally {
+                cursor.close();
+            }
+
+            count -= db.delete(TABLE_BOOKS, COLUMN_QUERY + " = ?", new String[]{eldest});
+            db.delete(TABLE_QUERIES, COLUMN_QUERY + " = ?", new String[]{eldest});
+            evictionCount.incrementAndGet();
+        }
+    }
+
+    // Counters
+    int getHitCount() {
+        return hitCount.get();
+    }
+
+    int getMissCount() {
+        return missCount.get();
+    }
+
+    int getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "BookCache[hits=" + hitCount + ", misses=" + missCount + ", evictions=" + evictionCount + "]";
+    }
+}
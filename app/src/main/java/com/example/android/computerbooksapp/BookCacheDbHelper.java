@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2017 by Francis Gálvez
+ */
+package com.example.android.computerbooksapp;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+/**
+ * Database helper for the on-disk search result cache and the local book index. Manages database
+ * creation and version management.
+ */
+class BookCacheDbHelper extends SQLiteOpenHelper {
+
+    /** Name of the database file */
+    private static final String DATABASE_NAME = "book_cache.db";
+
+    /**
+     * Database version. If you change the database schema, you must increment the database version.
+     */
+    private static final int DATABASE_VERSION = 8;
+
+    /** Table holding one row per cached query */
+    static final String TABLE_QUERIES = "queries";
+
+    /** Table holding the books returned for each cached query */
+    static final String TABLE_BOOKS = "books";
+
+    /** Full-text index of the title, author and publisher of every book fetched */
+    static final String TABLE_INDEX = "book_index";
+
+    /** Table holding the rest of the information of the indexed books. Its IDs are the index docids. */
+    static final String TABLE_INDEX_META = "book_index_meta";
+
+    /** Normalized query string and page, shared by both tables */
+    static final String COLUMN_QUERY = "query";
+
+    /** Time (in milliseconds) at which the results were fetched from the network */
+    static final String COLUMN_FETCHED_AT = "fetched_at";
+
+    /** Time (in milliseconds) at which the results were last read, used for LRU eviction */
+    static final String COLUMN_LAST_ACCESS = "last_access";
+
+    /** Number of items of the response, including those dropped (see {@link BookPage}) */
+    static final String COLUMN_ITEM_COUNT = "item_count";
+
+    /** Validators of the HTTP response, to make the next request for the same page conditional */
+    static final String COLUMN_ETAG = "etag";
+    static final String COLUMN_LAST_MODIFIED = "last_modified";
+
+    /** Position of the book in the result list */
+    static final String COLUMN_POSITION = "position";
+
+    static final String COLUMN_VOLUME_ID = "volume_id";
+    static final String COLUMN_TITLE = "title";
+    /** Authors of the book, one per line (see {@link #joinAuthors}) */
+    static final String COLUMN_AUTHORS = "authors";
+    static final String COLUMN_PUBLISHER = "publisher";
+    static final String COLUMN_URL = "url";
+    static final String COLUMN_THUMBNAIL_URL = "thumbnail_url";
+
+    /** ID of an indexed book, and time (in milliseconds) at which it was last fetched */
+    static final String COLUMN_ID = "_id";
+    static final String COLUMN_LAST_SEEN = "last_seen";
+
+    /** Statements creating the tables of the local index, which its benchmark runs too */
+    static final String CREATE_INDEX = "CREATE VIRTUAL TABLE " + TABLE_INDEX + " USING fts4("
+            + COLUMN_TITLE + ", "
+            + COLUMN_AUTHORS + ", "
+            + COLUMN_PUBLISHER + ");";
+    static final String CREATE_INDEX_META = "CREATE TABLE " + TABLE_INDEX_META + " ("
+            + COLUMN_ID + " INTEGER PRIMARY KEY, "
+            + COLUMN_VOLUME_ID + " TEXT NOT NULL UNIQUE, "
+            + COLUMN_URL + " TEXT NOT NULL, "
+            + COLUMN_THUMBNAIL_URL + " TEXT, "
+            + COLUMN_LAST_SEEN + " INTEGER NOT NULL);";
+    static final String CREATE_INDEX_META_LAST_SEEN = "CREATE INDEX " + TABLE_INDEX_META + "_" + COLUMN_LAST_SEEN
+            + " ON " + TABLE_INDEX_META + " (" + COLUMN_LAST_SEEN + ");";
+
+    /** Single instance shared by the cache and the index, so they don't lock each other out */
+    private static BookCacheDbHelper instance;
+
+    /**
+     * Constructs a new instance of {@link BookCacheDbHelper}.
+     *
+     * @param context of the app
+     */
+    private BookCacheDbHelper(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    /**
+     * Returns the {@link BookCacheDbHelper} of the app, creating it the first time.
+     */
+    static synchronized BookCacheDbHelper getInstance(Context context) {
+        if (instance == null) {
+            instance = new BookCacheDbHelper(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * This is called when the database is created for the first time.
+     */
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_QUERIES + " ("
+                + COLUMN_QUERY + " TEXT PRIMARY KEY, "
+                + COLUMN_FETCHED_AT + " INTEGER NOT NULL, "
+                + COLUMN_LAST_ACCESS + " INTEGER NOT NULL, "
+                + COLUMN_ITEM_COUNT + " INTEGER NOT NULL, "
+                + COLUMN_ETAG + " TEXT, "
+                + COLUMN_LAST_MODIFIED + " TEXT);");
+
+        db.execSQL("CREATE TABLE " + TABLE_BOOKS + " ("
+                + COLUMN_QUERY + " TEXT NOT NULL, "
+                + COLUMN_POSITION + " INTEGER NOT NULL, "
+                + COLUMN_VOLUME_ID + " TEXT, "
+                + COLUMN_TITLE + " TEXT NOT NULL, "
+                + COLUMN_AUTHORS + " TEXT NOT NULL, "
+                + COLUMN_PUBLISHER + " TEXT NOT NULL, "
+                + COLUMN_URL + " TEXT NOT NULL, "
+                + COLUMN_THUMBNAIL_URL + " TEXT, "
+                + "PRIMARY KEY (" + COLUMN_QUERY + ", " + COLUMN_POSITION + "));");
+
+        db.execSQL(CREATE_INDEX);
+        db.execSQL(CREATE_INDEX_META);
+        db.execSQL(CREATE_INDEX_META_LAST_SEEN);
+    }
+
+    /**
+     * This is called when the database needs to be upgraded. The cache can always be refetched,
+     * so we simply drop it and start again.
+     */
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_BOOKS);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_QUERIES);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_INDEX);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_INDEX_META);
+        onCreate(db);
+    }
+
+    /**
+     * Returns the authors of the given book as stored in {@link #COLUMN_AUTHORS}: one per line,
+     * or an empty string if there are none.
+     */
+    static String joinAuthors(Book book) {
+        StringBuilder joined = new StringBuilder();
+        for (String author : book.getAuthors()) {
+            if (joined.length() > 0) {
+                joined.append('\n');
+            }
+            joined.append(author);
+        }
+        return joined.toString();
+    }
+
+    /**
+     * Returns the authors stored in {@link #COLUMN_AUTHORS}.
+     */
+    static String[] splitAuthors(String joined) {
+        return joined == null || joined.isEmpty() ? null : joined.split("\n");
+    }
+}
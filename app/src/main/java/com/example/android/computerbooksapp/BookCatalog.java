@@ -0,0 +1,290 @@
+/*
+ * Copyright (c) 2017 by Francis Gálvez
+ */
+package com.example.android.computerbooksapp;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.util.Log;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Read-only catalog of popular computer books bundled with the app, so a search finds something
+ * right away, even before the first response and without a connection.
+ *
+ * The catalog is built from responses recorded from the API by the CatalogBuilder of the
+ * benchmark module, and stored uncompressed in the assets so it can be memory-mapped: nothing is
+ * read onto the heap but the books found. A search looks up every word of the query as a prefix
+ * in a sorted index of the words of the titles and authors, with binary searches on the mapped
+ * bytes, and takes microseconds.
+ *
+ * The format is, with every number a big-endian int:
+ * <pre>
+ *   header      {@link #MAGIC}, {@link #VERSION}, book count, token count, and the offsets of the
+ *               tokens, the books, the postings and the strings
+ *   tokens      each one the offset of its string, then the position of its first posting and
+ *               the number of its postings, sorted by the UTF-8 bytes of their strings
+ *   books       the offset of each book's record
+ *   postings    the books of each token, as their positions in the catalog, in order
+ *   strings     each one an unsigned 16-bit length followed by its UTF-8 bytes
+ *   records     each one the offsets of the strings of the book's id and title, its number of
+ *               authors followed by the offsets of their strings, and the offsets of the strings
+ *               of its publisher, url and thumbnail url, or -1 for null
+ * </pre>
+ * The books are sorted by popularity, so a search returns the most popular matches first.
+ *
+ * No catalog is checked in yet: until one is generated into the assets, the catalog is empty and
+ * searches find nothing in it.
+ */
+final class BookCatalog {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = BookCatalog.class.getSimpleName();
+
+    /** Name of the catalog in the assets */
+    static final String ASSET_NAME = "catalog.bin";
+
+    /** "CBC1", the first bytes of a catalog */
+    static final int MAGIC = 0x43424331;
+
+    /** Version of the format. Increment it when the format changes. */
+    static final int VERSION = 1;
+
+    /** Size of the header, of a token and of a book in their tables, in bytes */
+    static final int HEADER_SIZE = 32;
+    static final int TOKEN_SIZE = 12;
+    static final int BOOK_SIZE = 4;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Single instance shared by the whole app */
+    private static BookCatalog instance;
+
+    /** Content of the catalog, or null if there's none */
+    private final ByteBuffer buffer;
+
+    private final int bookCount;
+    private final int tokenCount;
+    private final int tokensOffset;
+    private final int booksOffset;
+    private final int postingsOffset;
+
+    /**
+     * Constructs an empty {@link BookCatalog}, for when none is bundled.
+     */
+    private BookCatalog() {
+        buffer = null;
+        bookCount = 0;
+        tokenCount = 0;
+        tokensOffset = 0;
+        booksOffset = 0;
+        postingsOffset = 0;
+    }
+
+    /**
+     * Constructs a new {@link BookCatalog} reading the given content, which must not change.
+     *
+     * @throws IOException if it isn't a catalog this version can read
+     */
+    BookCatalog(ByteBuffer buffer) throws IOException {
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a catalog");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Unknown catalog version " + buffer.getInt(4));
+        }
+
+        this.buffer = buffer;
+        bookCount = buffer.getInt(8);
+        tokenCount = buffer.getInt(12);
+        tokensOffset = buffer.getInt(16);
+        booksOffset = buffer.getInt(20);
+        postingsOffset = buffer.getInt(24);
+
+        if (bookCount < 0 || tokenCount < 0
+                || (long) tokensOffset + (long) tokenCount * TOKEN_SIZE > buffer.capacity()
+                || (long) booksOffset + (long) bookCount * BOOK_SIZE > buffer.capacity()
+                || postingsOffset < 0 || postingsOffset > buffer.capacity()) {
+            throw new IOException("Truncated catalog");
+        }
+    }
+
+    /**
+     * Returns the catalog bundled with the app, mapping it the first time. The catalog is empty
+     * if none is bundled. This reads the assets, so it should be called on a background thread.
+     */
+    static synchronized BookCatalog getInstance(Context context) {
+        if (instance == null) {
+            instance = open(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private static BookCatalog open(Context context) {
+        AssetFileDescriptor descriptor = null;
+        try {
+            // Only an uncompressed asset has a file descriptor (see aaptOptions in build.gradle)
+            descriptor = context.getAssets().openFd(ASSET_NAME);
+            FileChannel channel = new FileInputStream(descriptor.getFileDescriptor()).getChannel();
+            // The mapping stays valid once the file is closed
+            return new BookCatalog(channel.map(FileChannel.MapMode.READ_ONLY, descriptor.getStartOffset(),
+                    descriptor.getLength()));
+        } catch (FileNotFoundException e) {
+            Log.w(LOG_TAG, "No " + ASSET_NAME + " in the assets, searches aren't answered from the catalog");
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem opening the catalog", e);
+        } finally {
+            if (descriptor != null) {
+                try {
+                    descriptor.close();
+                } catch (IOException e) {
+                    // Nothing else to do
+                }
+            }
+        }
+        return new BookCatalog();
+    }
+
+    /**
+     * Returns the number of books in the catalog.
+     */
+    int size() {
+        return bookCount;
+    }
+
+    /**
+     * Returns the most popular books whose title or authors have words starting with every word
+     * of the given query, e.g. "andr prog" finds "Android Programming".
+     */
+    List<Book> search(String query, int limit) {
+        List<String> words = tokenize(query);
+        if (words.isEmpty() || bookCount == 0) {
+            return Collections.emptyList();
+        }
+
+        // A bit for each book, set while it matches every word so far
+        long[] matches = null;
+        for (String word : words) {
+            byte[] prefix = word.getBytes(UTF_8);
+            long[] wordMatches = new long[(bookCount + 63) >>> 6];
+            int end = firstToken(prefix, true);
+            for (int token = firstToken(prefix, false); token < end; token++) {
+                int entry = tokensOffset + token * TOKEN_SIZE;
+                int first = buffer.getInt(entry + 4);
+                int count = buffer.getInt(entry + 8);
+                for (int i = 0; i < count; i++) {
+                    int book = buffer.getInt(postingsOffset + (first + i) * 4);
+                    wordMatches[book >>> 6] |= 1L << book;
+                }
+            }
+
+            if (matches == null) {
+                matches = wordMatches;
+            } else {
+                for (int i = 0; i < matches.length; i++) {
+                    matches[i] &= wordMatches[i];
+                }
+            }
+        }
+
+        List<Book> books = new ArrayList<>();
+        for (int i = 0; i < matches.length && books.size() < limit; i++) {
+            long bits = matches[i];
+            while (bits != 0 && books.size() < limit) {
+                int book = (i << 6) + Long.numberOfTrailingZeros(bits);
+                books.add(readBook(book));
+                bits &= bits - 1;
+            }
+        }
+        return books;
+    }
+
+    /**
+     * Returns the words of the given text as they are indexed: in lower case, without accents.
+     */
+    static List<String> tokenize(String text) {
+        String normalized = BookQueryEngine.normalize(text);
+        Set<String> tokens = new LinkedHashSet<>();
+        int start = -1;
+        for (int i = 0; i <= normalized.length(); i++) {
+            boolean inWord = i < normalized.length() && Character.isLetterOrDigit(normalized.charAt(i));
+            if (inWord && start < 0) {
+                start = i;
+            } else if (!inWord && start >= 0) {
+                tokens.add(normalized.substring(start, i));
+                start = -1;
+            }
+        }
+        return new ArrayList<>(tokens);
+    }
+
+    /**
+     * Returns the position of the first token starting with the given prefix, or if after is
+     * true, of the first token after those.
+     */
+    private int firstToken(byte[] prefix, boolean after) {
+        int low = 0;
+        int high = tokenCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            int comparison = comparePrefix(middle, prefix);
+            if (comparison < 0 || (after && comparison == 0)) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Compares the given token with the given prefix: 0 if it starts with it, otherwise the
+     * order of their UTF-8 bytes.
+     */
+    private int comparePrefix(int token, byte[] prefix) {
+        int string = buffer.getInt(tokensOffset + token * TOKEN_SIZE);
+        int length = buffer.getShort(string) & 0xffff;
+        for (int i = 0; i < length && i < prefix.length; i++) {
+            int difference = (buffer.get(string + 2 + i) & 0xff) - (prefix[i] & 0xff);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return length < prefix.length ? -1 : 0;
+    }
+
+    private Book readBook(int book) {
+        int record = buffer.getInt(booksOffset + book * BOOK_SIZE);
+        String id = readString(buffer.getInt(record));
+        String title = readString(buffer.getInt(record + 4));
+        String[] authors = new String[buffer.getInt(record + 8)];
+        int position = record + 12;
+        for (int i = 0; i < authors.length; i++, position += 4) {
+            authors[i] = readString(buffer.getInt(position));
+        }
+        return new Book(id, title, authors, readString(buffer.getInt(position)),
+                readString(buffer.getInt(position + 4)), readString(buffer.getInt(position + 8)));
+    }
+
+    private String readString(int offset) {
+        if (offset < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[buffer.getShort(offset) & 0xffff];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(offset + 2 + i);
+        }
+        return new String(bytes, UTF_8);
+    }
+}
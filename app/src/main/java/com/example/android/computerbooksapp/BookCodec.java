@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2017 by Francis Gálvez
+ */
+package com.example.android.computerbooksapp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary encoding of a list of {@link Book}s, to keep results without going back through
+ * JSON: across configuration changes and process death, or on disk.
+ *
+ * The format is:
+ * <pre>
+ *   version                     1 byte, {@link #VERSION}
+ *   string count                varint
+ *   strings                     each one a varint length followed by its UTF-8 bytes
+ *   book count                  varint
+ *   books                       each one a sequence of varints: the references of its id and
+ *                               title, its number of authors followed by their references, and
+ *                               the references of its publisher, url and thumbnail url
+ * </pre>
+ * A reference is the index of the string in the table + 1, or 0 for null.
+ * Every distinct string is stored once, so the authors and publishers repeated across the results
+ * only take a byte or two per book. Varints are unsigned LEB128, as in protocol buffers.
+ */
+final class BookCodec {
+
+    /**
+     * Version of the format written by {@link #encode}. Increment it when the format changes.
+     * Version 2 stores every author instead of the text displayed.
+     */
+    static final int VERSION = 2;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Create a private constructor because no one should ever create a {@link BookCodec} object.
+     */
+    private BookCodec() {
+    }
+
+    /**
+     * Returns the encoding of the given books.
+     */
+    static byte[] encode(List<Book> books) {
+        // Build the string table while writing the books, which go after it
+        Map<String, Integer> indexes = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        ByteArrayOutputStream bookOutput = new ByteArrayOutputStream(books.size() * 8);
+
+        writeVarint(bookOutput, books.size());
+        for (Book book : books) {
+            writeVarint(bookOutput, reference(book.getId(), indexes, strings));
+            writeVarint(bookOutput, reference(book.getTitle(), indexes, strings));
+            List<String> authors = book.getAuthors();
+            writeVarint(bookOutput, authors.size());
+            for (String author : authors) {
+                writeVarint(bookOutput, reference(author, indexes, strings));
+            }
+            writeVarint(bookOutput, reference(book.getPublisher(), indexes, strings));
+            writeVarint(bookOutput, reference(book.getUrl(), indexes, strings));
+            writeVarint(bookOutput, reference(book.getThumbnailUrl(), indexes, strings));
+        }
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream(64 + books.size() * 200);
+        output.write(VERSION);
+
+        writeVarint(output, strings.size());
+        for (String string : strings) {
+            byte[] bytes = string.getBytes(UTF_8);
+            writeVarint(output, bytes.length);
+            output.write(bytes, 0, bytes.length);
+        }
+
+        byte[] bookBytes = bookOutput.toByteArray();
+        output.write(bookBytes, 0, bookBytes.length);
+        return output.toByteArray();
+    }
+
+    /**
+     * Returns the books of the given encoding.
+     *
+     * @throws IOException if the data is truncated, corrupted or of another version
+     */
+    static List<Book> decode(byte[] data) throws IOException {
+        Input input = new Input(data);
+
+        int version = input.readByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported version " + version);
+        }
+
+        String[] strings = new String[input.readCount()];
+        for (int i = 0; i < strings.length; i++) {
+            int length = input.readCount();
+            strings[i] = new String(data, input.take(length), length, UTF_8);
+        }
+
+        int count = input.readCount();
+        List<Book> books = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String id = input.readString(strings);
+            String title = input.readString(strings);
+            String[] authors = new String[input.readCount()];
+            for (int a = 0; a < authors.length; a++) {
+                authors[a] = input.readString(strings);
+            }
+            books.add(new Book(id, title, authors, input.readString(strings), input.readString(strings),
+                    input.readString(strings)));
+        }
+
+        if (input.position != data.length) {
+            throw new IOException("Unexpected data after the books");
+        }
+
+        return books;
+    }
+
+    private static int reference(String string, Map<String, Integer> indexes, List<String> strings) {
+        if (string == null) {
+            return 0;
+        }
+
+        Integer index = indexes.get(string);
+        if (index == null) {
+            index = strings.size();
+            indexes.put(string, index);
+            strings.add(string);
+        }
+        return index + 1;
+    }
+
+    private static void writeVarint(ByteArrayOutputStream output, int value) {
+        while ((value & ~0x7F) != 0) {
+            output.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        output.write(value);
+    }
+
+    /**
+     * Reads the encoded data, checking it doesn't go past its end.
+     */
+    private static final class Input {
+
+        private final byte[] data;
+        private int position;
+
+        Input(byte[] data) {
+            this.data = data;
+        }
+
+        int readByte() throws IOException {
+            if (position >= data.length) {
+                throw new IOException("Truncated data");
+            }
+            return data[position++] & 0xFF;
+        }
+
+        /**
+         * Read a varint used as a count or a length, which can't be larger than the data left.
+         */
+        int readCount() throws IOException {
+            int value = readVarint();
+            if (value > data.length - position) {
+                throw new IOException("Invalid length " + value);
+            }
+            return value;
+        }
+
+        /**
+         * Skip the given number of bytes, returning the position of the first one.
+         */
+        int take(int length) {
+            int start = position;
+            position += length;
+            return start;
+        }
+
+        String readString(String[] strings) throws IOException {
+            int reference = readVarint();
+            if (reference > strings.length) {
+                throw new IOException("Invalid string reference " + reference);
+            }
+            return reference == 0 ? null : strings[reference - 1];
+        }
+
+        private int readVarint() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                int b = readByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    if (value < 0) {
+                        throw new IOException("Invalid varint");
+                    }
+                    return value;
+                }
+            }
+            throw new IOException("Invalid varint");
+        }
+    }
+}
@@ -0,0 +1,311 @@
+/*
+ * Copyright (c) 2017 by Francis Gálvez
+ */
+package com.example.android.computerbooksapp;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the requests for pages of books on a bounded pool of threads.
+ *
+ * Requests wait in a priority queue, so the query the user is waiting for runs before the pages
+ * being prefetched. Requests for a page already queued or running are coalesced into it, and a
+ * request only stops running once everybody waiting for it has canceled.
+ *
+ * The engine doesn't depend on the Android framework: the work is done by a {@link Fetcher} and
+ * the results are delivered through an {@link Executor}, so both can be replaced in tests.
+ */
+class BookFetchEngine {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = BookFetchEngine.class.getSimpleName();
+
+    /** Priority of a request the user is waiting for */
+    static final int PRIORITY_USER = 0;
+
+    /** Priority of a request made in advance, in case the user needs it */
+    static final int PRIORITY_PREFETCH = 1;
+
+    /** Maximum number of requests run at the same time, on a fast network */
+    private static final int THREAD_COUNT = 3;
+
+    /** Single instance shared by all the loaders of the app */
+    private static BookFetchEngine instance;
+
+    /**
+     * Does the actual work of a request. This is called on a background thread.
+     */
+    interface Fetcher {
+        /**
+         * Returns the books of the given page, or null if they couldn't be loaded.
+         */
+        List<Book> fetch(String query, int startIndex, boolean offline, CancellationToken cancellation);
+    }
+
+    /**
+     * Interface to be notified of the result of a request.
+     */
+    interface Callback {
+        void onBooksLoaded(List<Book> books);
+    }
+
+    private final Fetcher fetcher;
+    private final Executor callbackExecutor;
+    private final ThreadPoolExecutor executor;
+
+    /** Requests queued or running, by key */
+    private final Map<String, Task> tasks = new HashMap<>();
+
+    /** Order in which the requests were made, to run those with the same priority first in first out */
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * Constructs a new {@link BookFetchEngine}.
+     *
+     * @param fetcher doing the work of the requests
+     * @param callbackExecutor on which the results are delivered
+     * @param threadCount number of requests run at the same time
+     */
+    BookFetchEngine(Fetcher fetcher, Executor callbackExecutor, int threadCount) {
+        this.fetcher = fetcher;
+        this.callbackExecutor = callbackExecutor;
+        this.executor = new ThreadPoolExecutor(threadCount, threadCount, 30, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Returns the {@link BookFetchEngine} of the app, creating it the first time. Its results are
+     * delivered on the main thread.
+     */
+    static synchronized BookFetchEngine getInstance(Context context) {
+        if (instance == null) {
+            final Handler mainHandler = new Handler(Looper.getMainLooper());
+            Executor mainExecutor = new Executor() {
+                @Override
+                public void execute(Runnable command) {
+                    mainHandler.post(command);
+                }
+            };
+            final BookFetchEngine engine = new BookFetchEngine(new CachingFetcher(context), mainExecutor,
+                    THREAD_COUNT);
+
+            // Fewer requests at once on a slower network
+            NetworkPolicy policy = NetworkPolicy.getInstance();
+            engine.setThreadCount(Math.min(THREAD_COUNT, policy.getRequestConcurrency()));
+            policy.addListener(new NetworkPolicy.Listener() {
+                @Override
+                public void onPolicyChanged(NetworkPolicy policy) {
+                    engine.setThreadCount(Math.min(THREAD_COUNT, policy.getRequestConcurrency()));
+                }
+            });
+            instance = engine;
+        }
+        return instance;
+    }
+
+    /**
+     * Set the number of requests run at the same time. Those already running go on.
+     */
+    void setThreadCount(int threadCount) {
+        NetworkPolicy.setThreadCount(executor, threadCount);
+    }
+
+    /**
+     * Request a page of books.
+     *
+     * @param query searched by the user
+     * @param startIndex position of the first result of the page
+     * @param offline true if only cached results can be returned
+     * @param priority {@link #PRIORITY_USER} or {@link #PRIORITY_PREFETCH}
+     * @param callback notified with the result, unless the request is canceled first
+     * @return the request, which must be canceled if the result is no longer wanted
+     */
+    Request fetch(String query, int startIndex, boolean offline, int priority, Callback callback) {
+        String key = BookCache.key(query, startIndex) + (offline ? "#offline" : "");
+        Request request = new Request(callback);
+
+        synchronized (this) {
+            Task task = tasks.get(key);
+            if (task == null) {
+                task = new Task(key, query, startIndex, offline, priority);
+                tasks.put(key, task);
+                task.requests.add(request);
+                request.task = task;
+                executor.execute(task);
+            } else {
+                // Join the request already made for the same page
+                task.requests.add(request);
+                request.task = task;
+                if (priority < task.priority && executor.getQueue().remove(task)) {
+                    // Still waiting: move it ahead with its new priority
+                    task.priority = priority;
+                    executor.execute(task);
+                }
+            }
+        }
+
+        return request;
+    }
+
+    /**
+     * Returns the number of requests queued or running.
+     */
+    synchronized int getPendingCount() {
+        return tasks.size();
+    }
+
+    /**
+     * Remove a request from its task, and cancel the task if nobody else waits for it.
+     */
+    private synchronized void cancel(Request request) {
+        Task task = request.task;
+        if (task == null || !task.requests.remove(request) || !task.requests.isEmpty()) {
+            return;
+        }
+
+        tasks.remove(task.key);
+        executor.getQueue().remove(task);
+        task.cancellation.cancel();
+    }
+
+    /**
+     * A request made to the engine. Canceling it guarantees its callback won't be called.
+     */
+    final class Request {
+        private final Callback callback;
+        private Task task;
+        private volatile boolean canceled;
+
+        private Request(Callback callback) {
+            this.callback = callback;
+        }
+
+        void cancel() {
+            canceled = true;
+            BookFetchEngine.this.cancel(this);
+        }
+    }
+
+    /**
+     * Work done for all the requests of the same page.
+     */
+    private final class Task implements Runnable, Comparable<Task> {
+        final String key;
+        final String query;
+        final int startIndex;
+        final boolean offline;
+        final long order = sequence.incrementAndGet();
+        final CancellationToken cancellation = new CancellationToken();
+        final List<Request> requests = new ArrayList<>();
+        volatile int priority;
+
+        Task(String key, String query, int startIndex, boolean offline, int priority) {
+            this.key = key;
+            this.query = query;
+            this.startIndex = startIndex;
+            this.offline = offline;
+            this.priority = priority;
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            if (priority != other.priority) {
+                return priority < other.priority ? -1 : 1;
+            }
+            return order < other.order ? -1 : (order > other.order ? 1 : 0);
+        }
+
+        @Override
+        public void run() {
+            if (cancellation.isCanceled()) {
+                return;
+            }
+
+            List<Book> books = null;
+            try {
+                books = fetcher.fetch(query, startIndex, offline, cancellation);
+            } catch (RuntimeException e) {
+                Log.e(LOG_TAG, "Problem fetching " + key, e);
+            }
+
+            final List<Request> waiting;
+            synchronized (BookFetchEngine.this) {
+                if (tasks.get(key) == this) {
+                    tasks.remove(key);
+                }
+                waiting = new ArrayList<>(requests);
+                requests.clear();
+            }
+
+            if (cancellation.isCanceled()) {
+                return;
+            }
+
+            final List<Book> result = books;
+            callbackExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (Request request : waiting) {
+                        if (!request.canceled) {
+                            request.callback.onBooksLoaded(result);
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Loads the pages from the disk cache or from the network, and keeps them in the caches.
+     * The books fetched from the network are added to the local index too.
+     */
+    private static final class CachingFetcher implements Fetcher {
+
+        private final BookCache cache;
+        private final BookIndex index;
+
+        CachingFetcher(Context context) {
+            cache = BookCache.getInstance(context);
+            index = BookIndex.getInstance(context);
+        }
+
+        @Override
+        public List<Book> fetch(String query, int startIndex, boolean offline, CancellationToken cancellation) {
+            // Without a connection, stale results are better than nothing
+            List<Book> books = cache.get(query, startIndex, offline);
+
+            if (books == null && !offline) {
+                // Perform the network request, parse the response, and extract a list of books.
+                // An expired page is revalidated, and the books received are stored in the cache.
+                books = QueryUtils.fetchBookData(query, startIndex, cancellation, cache);
+                if (books != null) {
+                    index.addAll(books);
+                } else if (!cancellation.isCanceled()) {
+                    // The server failed or is unavailable: fall back to the expired results
+                    books = cache.get(query, startIndex, true);
+                }
+            }
+
+            if (books != null) {
+                BookMemoryCache.put(query, startIndex, books);
+            }
+
+            Log.d(LOG_TAG, cache.toString());
+            return books;
+        }
+    }
+}
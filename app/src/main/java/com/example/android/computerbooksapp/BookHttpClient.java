@@ -0,0 +1,285 @@
+/*
+ * Copyright (c) 2017 by Francis Gálvez
+ */
+package com.example.android.computerbooksapp;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Makes the HTTP requests to the Google Books API.
+ *
+ * Connections are kept alive between queries: a response body is always read to the end and
+ * closed instead of disconnecting, so {@link HttpURLConnection} can return the socket to its pool.
+ * Responses are requested gzip-compressed and decoded as a stream, and requests can be made
+ * conditional so the server answers 304 when the cached results are still valid.
+ */
+final class BookHttpClient {
+
+    /** Maximum number of bytes left in a body that are read to keep its connection alive */
+    private static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+    /** Default timeouts (in milliseconds) to connect and to wait for data */
+    static final int DEFAULT_CONNECT_TIMEOUT = 15000;
+    static final int DEFAULT_READ_TIMEOUT = 10000;
+
+    static {
+        // These are the defaults, but make sure nobody turned connection reuse off
+        System.setProperty("http.keepAlive", "true");
+    }
+
+    /**
+     * Create a private constructor because no one should ever create a {@link BookHttpClient} object.
+     */
+    private BookHttpClient() {
+    }
+
+    /**
+     * Response to a request made with {@link #get}. It must always be closed.
+     */
+    static final class Response {
+
+        private final HttpURLConnection connection;
+        private final int code;
+        private final long connectTime;
+        private final long timeToFirstByte;
+        private final CountingInputStream wireStream;
+        private InputStream body;
+
+        private Response(HttpURLConnection connection, int code, long connectTime, long timeToFirstByte,
+                         InputStream rawStream) throws IOException {
+            this.connection = connection;
+            this.code = code;
+            this.connectTime = connectTime;
+            this.timeToFirstByte = timeToFirstByte;
+            this.wireStream = rawStream == null ? null : new CountingInputStream(rawStream);
+        }
+
+        /** Status code of the response */
+        int getCode() {
+            return code;
+        }
+
+        /**
+         * Decoded body of the response, or null if it has none. A compressed body is only decoded
+         * once asked for, since reading the gzip header fails on an empty one (e.g. of an error).
+         */
+        InputStream getBody() throws IOException {
+            if (body == null && wireStream != null) {
+                boolean gzip = "gzip".equalsIgnoreCase(connection.getContentEncoding());
+                body = gzip ? new GZIPInputStream(wireStream) : wireStream;
+            }
+            return body;
+        }
+
+        /** Entity tag of the response, to make the next request conditional */
+        String getETag() {
+            return connection.getHeaderField("ETag");
+        }
+
+        /** Last modification date of the response, to make the next request conditional */
+        String getLastModified() {
+            return connection.getHeaderField("Last-Modified");
+        }
+
+        /**
+         * Returns how long (in milliseconds) the server asks to wait before retrying, from the
+         * Retry-After header given in seconds or as a date, or -1 if there is none.
+         */
+        long getRetryAfter() {
+            String retryAfter = connection.getHeaderField("Retry-After");
+            if (retryAfter == null) {
+                return -1;
+            }
+
+            try {
+                return Math.max(Long.parseLong(retryAfter.trim()) * 1000, 0);
+            } catch (NumberFormatException e) {
+                // Not a number of seconds, so it should be a date
+            }
+
+            SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("GMT"));
+            try {
+                return Math.max(format.parse(retryAfter.trim()).getTime() - System.currentTimeMillis(), 0);
+            } catch (ParseException e) {
+                return -1;
+            }
+        }
+
+        /** Time (in nanoseconds) spent opening the connection, almost none when it is reused */
+        long getConnectTime() {
+            return connectTime;
+        }
+
+        /** Time (in nanoseconds) from sending the request until the response headers arrived */
+        long getTimeToFirstByte() {
+            return timeToFirstByte;
+        }
+
+        /** Time (in nanoseconds) spent waiting for the body of the response so far */
+        long getReadTime() {
+            return wireStream == null ? 0 : wireStream.getReadTime();
+        }
+
+        /** Number of body bytes received on the wire (compressed) so far */
+        long getWireBytes() {
+            return wireStream == null ? 0 : wireStream.getCount();
+        }
+
+        /**
+         * Release the response. The rest of the body is read so the connection can be reused,
+         * unless there is too much of it left, in which case the connection is closed.
+         */
+        void close() {
+            if (wireStream == null) {
+                return;
+            }
+
+            try {
+                byte[] buffer = new byte[4096];
+                long drained = 0;
+                int read;
+                while (drained < MAX_DRAIN_BYTES && (read = wireStream.read(buffer)) != -1) {
+                    drained += read;
+                }
+                if (drained >= MAX_DRAIN_BYTES) {
+                    connection.disconnect();
+                }
+                // Closing the gzip stream also releases its native inflater, then the wire stream
+                (body != null ? body : wireStream).close();
+            } catch (IOException e) {
+                // The connection can't be reused
+                connection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Make a GET request to the given URL, with the default timeouts.
+     *
+     * @param url to request
+     * @param eTag of the cached response, to make the request conditional, or null
+     * @param lastModified date of the cached response, to make the request conditional, or null
+     * @param cancellation to abandon the request from another thread
+     * @return the response, or null if the request was canceled before being sent
+     */
+    static Response get(URL url, String eTag, String lastModified, CancellationToken cancellation)
+            throws IOException {
+        return get(url, eTag, lastModified, DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT, cancellation);
+    }
+
+    /**
+     * Make a GET request to the given URL.
+     *
+     * @param connectTimeout in milliseconds
+     * @param readTimeout in milliseconds, for the response headers and for each read of the body
+     * @see #get(URL, String, String, CancellationToken)
+     */
+    static Response get(URL url, String eTag, String lastModified, int connectTimeout, int readTimeout,
+                        CancellationToken cancellation) throws IOException {
+        long start = System.nanoTime();
+
+        HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+
+        // Let the request be canceled while it's connecting or reading
+        if (!cancellation.attach(urlConnection)) {
+            return null;
+        }
+
+        try {
+            urlConnection.setReadTimeout(readTimeout);
+            urlConnection.setConnectTimeout(connectTimeout);
+            urlConnection.setRequestMethod("GET");
+
+            // Asking for gzip explicitly means we decode it ourselves, which lets us count the
+            // compressed bytes actually received
+            urlConnection.setRequestProperty("Accept-Encoding", "gzip");
+            if (eTag != null) {
+                urlConnection.setRequestProperty("If-None-Match", eTag);
+            }
+            if (lastModified != null) {
+                urlConnection.setRequestProperty("If-Modified-Since", lastModified);
+            }
+
+            // Connect explicitly to tell the time spent connecting from the time spent waiting
+            urlConnection.connect();
+            long connected = System.nanoTime();
+
+            int code = urlConnection.getResponseCode();
+            long timeToFirstByte = System.nanoTime() - connected;
+
+            InputStream rawStream;
+            if (code == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                rawStream = null;
+            } else if (code >= 400) {
+                rawStream = urlConnection.getErrorStream();
+            } else {
+                rawStream = urlConnection.getInputStream();
+            }
+
+            return new Response(urlConnection, code, connected - start, timeToFirstByte, rawStream);
+        } catch (IOException e) {
+            urlConnection.disconnect();
+            throw e;
+        }
+    }
+
+    /**
+     * Stream counting the bytes read through it, and the time spent waiting for them.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+
+        private long count;
+        private long readTime;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        long getReadTime() {
+            return readTime;
+        }
+
+        @Override
+        public int read() throws IOException {
+            long start = System.nanoTime();
+            int b = super.read();
+            readTime += System.nanoTime() - start;
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            long start = System.nanoTime();
+            int read = super.read(buffer, offset, length);
+            readTime += System.nanoTime() - start;
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright (c) 2017 by Francis Gálvez
+ */
+package com.example.android.computerbooksapp;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.example.android.computerbooksapp.BookCacheDbHelper.COLUMN_AUTHORS;
+import static com.example.android.computerbooksapp.BookCacheDbHelper.COLUMN_ID;
+import static com.example.android.computerbooksapp.BookCacheDbHelper.COLUMN_LAST_SEEN;
+import static com.example.android.computerbooksapp.BookCacheDbHelper.COLUMN_PUBLISHER;
+import static com.example.android.computerbooksapp.BookCacheDbHelper.COLUMN_THUMBNAIL_URL;
+import static com.example.android.computerbooksapp.BookCacheDbHelper.COLUMN_TITLE;
+import static com.example.android.computerbooksapp.BookCacheDbHelper.COLUMN_URL;
+import static com.example.android.computerbooksapp.BookCacheDbHelper.COLUMN_VOLUME_ID;
+import static com.example.android.computerbooksapp.BookCacheDbHelper.TABLE_INDEX;
+import static com.example.android.computerbooksapp.BookCacheDbHelper.TABLE_INDEX_META;
+
+/**
+ * Local full-text index of every book fetched from the network, so searches can be answered
+ * right away, and even without a connection, before the network results arrive.
+ *
+ * Titles, authors and publishers are indexed in an SQLite FTS4 table. The index is bounded: once
+ * it holds more than the configured number of books, those not fetched for longest are removed.
+ * The searches are completed with the {@link BookCatalog} bundled with the app, which answers
+ * even before the first book was ever fetched.
+ */
+class BookIndex {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = BookIndex.class.getSimpleName();
+
+    /** Default maximum number of books kept in the index */
+    private static final int DEFAULT_MAX_BOOKS = 20000;
+
+    /** Maximum number of books returned by a search */
+    static final int MAX_RESULTS = QueryUtils.PAGE_SIZE;
+
+    /** Single instance shared by the whole app */
+    private static BookIndex instance;
+
+    /**
+     * Interface to be notified with the results of a search, on the main thread.
+     */
+    interface Callback {
+        void onBooksFound(String query, List<Book> books);
+    }
+
+    private final Context context;
+    private final BookCacheDbHelper dbHelper;
+
+    /** Thread running the searches, so they never wait behind the network requests */
+    private final ExecutorService searchExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private volatile int maxBooks = DEFAULT_MAX_BOOKS;
+
+    private BookIndex(Context context) {
+        this.context = context.getApplicationContext();
+        dbHelper = BookCacheDbHelper.getInstance(context);
+    }
+
+    /**
+     * Returns the {@link BookIndex} of the app, creating it the first time.
+     */
+    static synchronized BookIndex getInstance(Context context) {
+        if (instance == null) {
+            instance = new BookIndex(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Sets the maximum number of books kept in the index.
+     */
+    void setMaxBooks(int maxBooks) {
+        this.maxBooks = maxBooks;
+    }
+
+    /**
+     * Add the given books to the index, or refresh them if they are already there.
+     * This is on a background thread.
+     */
+    void addAll(List<Book> books) {
+        long now = System.currentTimeMillis();
+
+        try {
+            SQLiteDatabase db = dbHelper.getWritableDatabase();
+            db.beginTransaction();
+            try {
+                ContentValues metaValues = new ContentValues();
+                ContentValues indexValues = new ContentValues();
+
+                for (Book book : books) {
+                    if (book.getId() == null) {
+                        continue;
+                    }
+
+                    metaValues.clear();
+                    metaValues.put(COLUMN_URL, book.getUrl());
+                    metaValues.put(COLUMN_THUMBNAIL_URL, book.getThumbnailUrl());
+                    metaValues.put(COLUMN_LAST_SEEN, now);
+
+                    indexValues.clear();
+                    indexValues.put(COLUMN_TITLE, book.getTitle());
+                    // Every author is indexed, not only the one displayed
+                    indexValues.put(COLUMN_AUTHORS, BookCacheDbHelper.joinAuthors(book));
+                    indexValues.put(COLUMN_PUBLISHER, book.getPublisher());
+
+                    long id = findId(db, book.getId());
+                    if (id == -1) {
+                        metaValues.put(COLUMN_VOLUME_ID, book.getId());
+                        id = db.insert(TABLE_INDEX_META, null, metaValues);
+                        indexValues.put("docid", id);
+                        db.insert(TABLE_INDEX, null, indexValues);
+                    } else {
+                        String[] args = {String.valueOf(id)};
+                        db.update(TABLE_INDEX_META, metaValues, COLUMN_ID + " = ?", args);
+                        db.update(TABLE_INDEX, indexValues, "docid = ?", args);
+                    }
+                }
+
+                trimToSize(db);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } catch (SQLiteException e) {
+            Log.e(LOG_TAG, "Problem indexing the books", e);
+        }
+    }
+
+    /**
+     * Search the index in the background and deliver the books found on the main thread.
+     */
+    void searchAsync(final String query, final Callback callback) {
+        searchExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<Book> books = search(query, MAX_RESULTS);
+                addCatalogBooks(query, books);
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onBooksFound(query, books);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Fill the given books found in the index up to {@link #MAX_RESULTS} with the books of the
+     * catalog matching the query, most popular first, leaving out those already found.
+     */
+    private void addCatalogBooks(String query, List<Book> books) {
+        if (books.size() >= MAX_RESULTS) {
+            return;
+        }
+
+        Set<String> ids = new HashSet<>();
+        for (Book book : books) {
+            ids.add(book.getId());
+        }
+        for (Book book : BookCatalog.getInstance(context).search(query, MAX_RESULTS)) {
+            if (books.size() >= MAX_RESULTS) {
+                break;
+            }
+            if (ids.add(book.getId())) {
+                books.add(book);
+            }
+        }
+    }
+
+    /**
+     * Returns the books whose title, author or publisher contain words starting with every word
+     * of the given query, most recently fetched first.
+     */
+    List<Book> search(String query, int limit) {
+        List<Book> books = new ArrayList<>();
+
+        String match = toMatchExpression(query);
+        if (match.isEmpty()) {
+            return books;
+        }
+
+        try {
+            SQLiteDatabase db = dbHelper.getReadableDatabase();
+            Cursor cursor = db.rawQuery(searchStatement(limit), new String[]{match});
+            try {
+                while (cursor.moveToNext()) {
+                    books.add(new Book(cursor.getString(0), cursor.getString(1),
+                            BookCacheDbHelper.splitAuthors(cursor.getString(2)),
+                            cursor.getString(3), cursor.getString(4), cursor.getString(5)));
+                }
+            } finally {
+                cursor.close();
+            }
+        } catch (SQLiteException e) {
+            Log.e(LOG_TAG, "Problem searching the index", e);
+        }
+
+        return books;
+    }
+
+    /**
+     * Returns the statement searching the index, whose argument is the expression returned by
+     * {@link #toMatchExpression}. It selects the volume ID, title, authors, publisher, URL and
+     * thumbnail URL of the books.
+     */
+    static String searchStatement(int limit) {
+        return "SELECT m." + COLUMN_VOLUME_ID + ", i." + COLUMN_TITLE
+                + ", i." + COLUMN_AUTHORS + ", i." + COLUMN_PUBLISHER + ", m." + COLUMN_URL
+                + ", m." + COLUMN_THUMBNAIL_URL
+                + " FROM " + TABLE_INDEX + " i JOIN " + TABLE_INDEX_META + " m ON m." + COLUMN_ID + " = i.docid"
+                + " WHERE " + TABLE_INDEX + " MATCH ?"
+                + " ORDER BY m." + COLUMN_LAST_SEEN + " DESC LIMIT " + limit;
+    }
+
+    /**
+     * Returns the FTS expression matching every word of the given query as a prefix, e.g.
+     * "android stu" becomes "android* stu*".
+     */
+    static String toMatchExpression(String query) {
+        StringBuilder match = new StringBuilder();
+        for (String word : BookCache.normalize(query).split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                if (match.length() > 0) {
+                    match.append(' ');
+                }
+                match.append(word.toLowerCase(Locale.ROOT)).append('*');
+            }
+        }
+        return match.toString();
+    }
+
+    private static long findId(SQLiteDatabase db, String volumeId) {
+        Cursor cursor = db.query(TABLE_INDEX_META, new String[]{COLUMN_ID}, COLUMN_VOLUME_ID + " = ?",
+                new String[]{volumeId}, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Remove the books not fetched for longest until the index fits its maximum size.
+     */
+    private void trimToSize(SQLiteDatabase db) {
+        long excess = DatabaseUtils.queryNumEntries(db, TABLE_INDEX_META) - maxBooks;
+        if (excess <= 0) {
+            return;
+        }
+
+        String oldest = "SELECT " + COLUMN_ID + " FROM " + TABLE_INDEX_META
+                + " ORDER BY " + COLUMN_LAST_SEEN + " ASC LIMIT " + excess;
+        db.execSQL("DELETE FROM " + TABLE_INDEX + " WHERE docid IN (" + oldest + ")");
+        db.execSQL("DELETE FROM " + TABLE_INDEX_META + " WHERE " + COLUMN_ID + " IN (" + oldest + ")");
+    }
+}
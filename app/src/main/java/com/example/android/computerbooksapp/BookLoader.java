@@ -3,45 +3,131 @@
  */
 package com.example.android.computerbooksapp;
 
-import android.content.AsyncTaskLoader;
+import android.annotation.TargetApi;
 import android.content.Context;
+import android.content.Loader;
+import android.os.Build;
 
 import java.util.List;
 
 /**
- * Loads a list of books by using an AsyncTask to perform the network request to the given URL.
+ * Loads a page of books through the {@link BookFetchEngine}, which performs the network request
+ * on its own pool of threads. Results are served from the {@link BookMemoryCache} when possible.
  */
-class BookLoader extends AsyncTaskLoader<List<Book>> {
+class BookLoader extends Loader<List<Book>> {
 
     /** Query URL */
     private String url;
 
+    /** Position of the first result of the page to load */
+    private int startIndex;
+
+    /** Whether the device has no Internet connection, so only cached results can be shown */
+    private boolean offline;
+
+    /** Whether the page is only loaded in advance, so other requests can go first */
+    private boolean prefetch;
+
+    /** Request currently made to the engine, if any */
+    private BookFetchEngine.Request request;
+
     /**
      * Constructs a new {@link BookLoader}.
      *
      * @param context of the activity
      * @param url to load data from
+     * @param startIndex position of the first result of the page to load
+     * @param offline true if there is no Internet connection
+     * @param prefetch true if the page isn't displayed yet, only loaded in advance
      */
-    BookLoader(Context context, String url) {
+    BookLoader(Context context, String url, int startIndex, boolean offline, boolean prefetch) {
         super(context);
         this.url = url;
+        this.startIndex = startIndex;
+        this.offline = offline;
+        this.prefetch = prefetch;
+    }
+
+    /**
+     * Returns the position of the first result of the page loaded by this loader.
+     */
+    int getStartIndex() {
+        return startIndex;
     }
 
     @Override
     protected void onStartLoading() {
-        forceLoad();
+        // A query already loaded in this session is delivered right away, without a background load.
+        // So is a query extending one whose results were all loaded, by filtering those results.
+        List<Book> books = BookMemoryCache.get(url, startIndex);
+        if (books == null && startIndex == 0) {
+            books = BookMemoryCache.getFromPrefix(url);
+        }
+        if (books != null) {
+            deliverResult(books);
+        } else {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onForceLoad() {
+        cancelRequest();
+
+        if (url == null) {
+            deliverResult(null);
+            return;
+        }
+
+        int priority = prefetch ? BookFetchEngine.PRIORITY_PREFETCH : BookFetchEngine.PRIORITY_USER;
+        request = BookFetchEngine.getInstance(getContext()).fetch(url, startIndex, offline, priority,
+                new BookFetchEngine.Callback() {
+                    @Override
+                    public void onBooksLoaded(List<Book> books) {
+                        request = null;
+                        deliverResult(books);
+                    }
+                });
     }
 
     /**
-     * This is on a background thread.
+     * Called on the main thread when a newer query replaces this one while it is loading. Only
+     * {@link Loader#cancelLoad}, from Jelly Bean on, calls it.
      */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
     @Override
-    public List<Book> loadInBackground() {
-        if (url == null) {
-            return null;
+    protected boolean onCancelLoad() {
+        if (request == null) {
+            return false;
         }
 
-        // Perform the network request, parse the response, and extract a list of books.
-        return QueryUtils.fetchBookData(url);
+        // The engine disconnects the request if nobody else is waiting for the same page,
+        // so the worker thread and the bandwidth are released right away. Its callback won't be
+        // called any more, so the LoaderManager is told the load is over, or it would wait for
+        // it before starting the newer query.
+        cancelRequest();
+        deliverCancellation();
+        return true;
+    }
+
+    /**
+     * Called on the main thread when a newer query replaces this one and its result won't be
+     * delivered any more, so the stale page stops being downloaded.
+     */
+    @Override
+    protected void onAbandon() {
+        cancelRequest();
+    }
+
+    @Override
+    protected void onReset() {
+        cancelRequest();
+    }
+
+    private void cancelRequest() {
+        if (request != null) {
+            request.cancel();
+            request = null;
+        }
     }
 }
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2017 by Francis Gálvez
+ */
+package com.example.android.computerbooksapp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Process-wide in-memory LRU of search results, keyed by the normalized query and page.
+ *
+ * It is bounded both by the number of queries and by the approximate size in bytes of the books
+ * it holds, and it is shared by every {@link BookLoader} so repeated and back-and-forth queries
+ * within a session don't even need a background thread.
+ */
+final class BookMemoryCache {
+
+    /** Maximum number of pages of results kept in memory */
+    private static final int MAX_ENTRIES = 32;
+
+    /** Maximum approximate size (in bytes) of all the books kept in memory */
+    private static final int MAX_BYTES = 1024 * 1024;
+
+    /** Pages in access order, so the first one is always the least recently used */
+    private static final LinkedHashMap<String, List<Book>> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** Approximate size (in bytes) of all the entries */
+    private static int size;
+
+    /**
+     * Create a private constructor because no one should ever create a {@link BookMemoryCache} object.
+     */
+    private BookMemoryCache() {
+    }
+
+    /**
+     * Returns the books cached for the given page of a query, or null if there are none.
+     */
+    static synchronized List<Book> get(String query, int startIndex) {
+        return entries.get(BookCache.key(query, startIndex));
+    }
+
+    /**
+     * Returns the books matching the given query among the results of a shorter query it extends,
+     * or null if no such query is cached with its full result set.
+     *
+     * For example, if "android" returned fewer books than {@link QueryUtils#PAGE_SIZE} (so all of
+     * them), the results of "android stu" are the books among those whose title has every word.
+     * Only a query adding whole words is answered: "androi" may have been searched while the user
+     * was still typing "android", and its results say nothing of those of "android".
+     */
+    static synchronized List<Book> getFromPrefix(String query) {
+        String normalized = BookCache.normalize(query);
+        String firstPageSuffix = BookCache.key("", 0);
+
+        // Find the longest query extended by this one that returned all of its results
+        List<Book> prefixBooks = null;
+        int prefixLength = 0;
+        for (Map.Entry<String, List<Book>> entry : entries.entrySet()) {
+            String key = entry.getKey();
+            if (!key.endsWith(firstPageSuffix) || !BookPage.isLast(entry.getValue())) {
+                continue;
+            }
+
+            String prefix = key.substring(0, key.length() - firstPageSuffix.length());
+            if (!prefix.isEmpty() && prefix.length() > prefixLength && normalized.startsWith(prefix + " ")) {
+                prefixBooks = entry.getValue();
+                prefixLength = prefix.length();
+            }
+        }
+
+        if (prefixBooks == null) {
+            return null;
+        }
+
+        String[] words = normalized.split(" ");
+        List<Book> books = new ArrayList<>();
+        for (Book book : prefixBooks) {
+            String title = book.getTitle().toLowerCase(Locale.ROOT);
+            boolean matches = true;
+            for (String word : words) {
+                if (!title.contains(word)) {
+                    matches = false;
+                    break;
+                }
+            }
+            if (matches) {
+                books.add(book);
+            }
+        }
+        return books;
+    }
+
+    /**
+     * Stores the books for the given page of a query, evicting the least recently used pages if needed.
+     */
+    static synchronized void put(String query, int startIndex, List<Book> books) {
+        int bookSize = sizeOf(books);
+
+        // Don't let a single huge result set flush the whole cache
+        if (bookSize > MAX_BYTES) {
+            return;
+        }
+
+        List<Book> previous = entries.put(BookCache.key(query, startIndex),
+                new BookPage(Collections.unmodifiableList(books), BookPage.itemCountOf(books)));
+        size += bookSize;
+        if (previous != null) {
+            size -= sizeOf(previous);
+        }
+
+        Iterator<Map.Entry<String, List<Book>>> iterator = entries.entrySet().iterator();
+        while ((entries.size() > MAX_ENTRIES || size > MAX_BYTES) && iterator.hasNext()) {
+            size -= sizeOf(iterator.next().getValue());
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Returns the approximate number of bytes retained by the given books.
+     */
+    private static int sizeOf(List<Book> books) {
+        // Object header and references of the list, plus what each book keeps of its own
+        int bytes = 16 + 4 * books.size();
+        for (Book book : books) {
+            bytes += book.getRetainedSize();
+        }
+        return bytes;
+    }
+}
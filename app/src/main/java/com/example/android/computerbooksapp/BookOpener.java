@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2017 by Francis Gálvez
+ */
+package com.example.android.computerbooksapp;
+
+import android.app.Activity;
+import android.content.ComponentName;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.customtabs.CustomTabsCallback;
+import android.support.customtabs.CustomTabsClient;
+import android.support.customtabs.CustomTabsIntent;
+import android.support.customtabs.CustomTabsService;
+import android.support.customtabs.CustomTabsServiceConnection;
+import android.support.customtabs.CustomTabsSession;
+import android.support.v4.content.ContextCompat;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Opens the page of a book in a Custom Tab, so it shows inside the app without starting the
+ * browser from scratch.
+ *
+ * While the activity is visible, the opener stays connected to the browser, which warms itself
+ * up and gets ready for the pages of the rows the user sees (see {@link LaunchSpeculator}). When
+ * no browser supports Custom Tabs, the page is opened in whatever app handles it.
+ *
+ * When {@link SearchMetrics} are enabled, the time from the tap until the page finished loading
+ * is recorded, separately for the pages the browser was ready for.
+ */
+final class BookOpener {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = BookOpener.class.getSimpleName();
+
+    private final Activity activity;
+    private final LaunchSpeculator speculator = new LaunchSpeculator();
+
+    /** Package of the browser supporting Custom Tabs, or null if there's none */
+    private String packageName;
+
+    /** Connection to the browser while the opener is bound */
+    private CustomTabsServiceConnection connection;
+
+    /** Session with the browser, once it's connected */
+    private CustomTabsSession session;
+
+    /** Time the user tapped the page being opened, or 0 if it's not being timed */
+    private volatile long openStart;
+
+    /** Whether the browser was ready for the page being opened */
+    private volatile boolean openSpeculated;
+
+    BookOpener(Activity activity) {
+        this.activity = activity;
+    }
+
+    /**
+     * Connect to the browser, if there's one supporting Custom Tabs. Does nothing if already bound.
+     */
+    void bind() {
+        if (connection != null) {
+            return;
+        }
+
+        packageName = CustomTabsClient.getPackageName(activity, null);
+        if (packageName == null) {
+            return;
+        }
+
+        connection = new CustomTabsServiceConnection() {
+            @Override
+            public void onCustomTabsServiceConnected(ComponentName name, CustomTabsClient client) {
+                // Start the browser process now rather than on the first tap
+                client.warmup(0);
+                session = client.newSession(new NavigationCallback());
+                if (session != null) {
+                    // The network may have changed while the rows weren't seen
+                    if (!NetworkPolicy.getInstance().shouldSpeculate()) {
+                        speculator.clear();
+                    }
+                    speculator.setSession(new SessionAdapter(session));
+                }
+            }
+
+            @Override
+            public void onServiceDisconnected(ComponentName name) {
+                session = null;
+                speculator.setSession(null);
+            }
+        };
+        if (!CustomTabsClient.bindCustomTabsService(activity, packageName, connection)) {
+            Log.w(LOG_TAG, "Could not bind to " + packageName);
+            connection = null;
+        }
+    }
+
+    /**
+     * Disconnect from the browser, which may then stop getting ready for the pages.
+     */
+    void unbind() {
+        if (connection == null) {
+            return;
+        }
+
+        activity.unbindService(connection);
+        connection = null;
+        session = null;
+        speculator.setSession(null);
+    }
+
+    /**
+     * Called when the rows the user sees change. Their pages aren't loaded in advance when the
+     * {@link NetworkPolicy} saves data, nor later once it doesn't.
+     *
+     * @param books books of the rows, top first
+     */
+    void onVisibleBooks(List<Book> books) {
+        if (!NetworkPolicy.getInstance().shouldSpeculate()) {
+            speculator.clear();
+            return;
+        }
+
+        List<String> urls = new ArrayList<>(books.size());
+        for (Book book : books) {
+            urls.add(book.getUrl());
+        }
+        speculator.onVisibleUrls(urls);
+    }
+
+    /**
+     * Open the page of the given book.
+     */
+    void open(Book book) {
+        Uri bookUri = Uri.parse(book.getUrl());
+        boolean speculated = speculator.onOpen(book.getUrl());
+
+        if (packageName == null) {
+            // Create a new intent to view the book URI in a web browser
+            activity.startActivity(new Intent(Intent.ACTION_VIEW, bookUri));
+            return;
+        }
+
+        // Without a session the tab still opens, but can't be timed
+        CustomTabsIntent.Builder builder = session == null
+                ? new CustomTabsIntent.Builder() : new CustomTabsIntent.Builder(session);
+        CustomTabsIntent intent = builder
+                .setToolbarColor(ContextCompat.getColor(activity, R.color.colorPrimary))
+                .setShowTitle(true)
+                .build();
+
+        openSpeculated = speculated;
+        openStart = session == null ? 0 : System.nanoTime();
+        intent.launchUrl(activity, bookUri);
+    }
+
+    /**
+     * Returns the number of books opened, and how many of them the browser was ready for.
+     */
+    String getStats() {
+        return speculator.getHitCount() + "/" + speculator.getOpenCount() + " speculated";
+    }
+
+    /**
+     * Records how long the page opened took to load. Called on a binder thread.
+     */
+    private final class NavigationCallback extends CustomTabsCallback {
+        @Override
+        public void onNavigationEvent(int navigationEvent, Bundle extras) {
+            long start = openStart;
+            if (start == 0) {
+                return;
+            }
+
+            switch (navigationEvent) {
+                case NAVIGATION_FINISHED:
+                    SearchMetrics.recordNanos(openSpeculated ? SearchMetrics.OPEN_SPECULATED
+                            : SearchMetrics.OPEN_COLD, System.nanoTime() - start);
+                    openStart = 0;
+                    break;
+                case NAVIGATION_FAILED:
+                case NAVIGATION_ABORTED:
+                case TAB_HIDDEN:
+                    openStart = 0;
+                    break;
+            }
+        }
+    }
+
+    /**
+     * {@link LaunchSpeculator.Session} backed by a Custom Tabs session.
+     */
+    private static final class SessionAdapter implements LaunchSpeculator.Session {
+
+        private final CustomTabsSession session;
+
+        SessionAdapter(CustomTabsSession session) {
+            this.session = session;
+        }
+
+        @Override
+        public boolean mayLaunchUrl(String url, List<String> otherUrls) {
+            List<Bundle> otherBundles = new ArrayList<>(otherUrls.size());
+            for (String otherUrl : otherUrls) {
+                Bundle bundle = new Bundle();
+                bundle.putParcelable(CustomTabsService.KEY_URL, Uri.parse(otherUrl));
+                otherBundles.add(bundle);
+            }
+            return session.mayLaunchUrl(Uri.parse(url), null, otherBundles);
+        }
+    }
+}
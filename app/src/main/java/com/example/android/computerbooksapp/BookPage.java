@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2017 by Francis Gálvez
+ */
+package com.example.android.computerbooksapp;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * The books of a page of results, along with the number of items the API returned for it.
+ *
+ * Items the app can't display (no title or no link) are dropped when parsing, so a full page can
+ * hold fewer books than were asked for: only the number of items tells whether it was the last
+ * page. The list can't be modified.
+ */
+final class BookPage extends AbstractList<Book> implements RandomAccess {
+
+    private final List<Book> books;
+    private final int itemCount;
+
+    /**
+     * Constructs a new {@link BookPage}.
+     *
+     * @param books of the page, which must not change afterwards
+     * @param itemCount number of items of the response, including those dropped
+     */
+    BookPage(List<Book> books, int itemCount) {
+        this.books = books;
+        this.itemCount = itemCount;
+    }
+
+    @Override
+    public Book get(int index) {
+        return books.get(index);
+    }
+
+    @Override
+    public int size() {
+        return books.size();
+    }
+
+    /**
+     * Returns the number of items the API returned for the given page: those of its response if
+     * it's a {@link BookPage}, otherwise its size.
+     */
+    static int itemCountOf(List<Book> books) {
+        return books instanceof BookPage ? ((BookPage) books).itemCount : books.size();
+    }
+
+    /**
+     * Returns whether the given page of {@link QueryUtils#PAGE_SIZE} results is the last one of
+     * its search. A page shorter than requested is.
+     */
+    static boolean isLast(List<Book> books) {
+        return itemCountOf(books) < QueryUtils.PAGE_SIZE;
+    }
+}
@@ -0,0 +1,385 @@
+/*
+ * Copyright (c) 2017 by Francis Gálvez
+ */
+package com.example.android.computerbooksapp;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps track of the pages of results displayed for a search and decides which page to load next.
+ *
+ * Pages are appended as the user scrolls towards the end of the list, and the page after the last
+ * one displayed is prefetched in the background so it's ready when needed, unless the network is
+ * too slow for it: then it's loaded once the user gets close to the end. Only a window of
+ * {@link #MAX_PAGES} pages is displayed at once: pages far from the visible rows are dropped and
+ * loaded again (usually from the caches) if the user scrolls back to them.
+ */
+class BookPager {
+
+    /** Maximum number of pages displayed at once */
+    private static final int MAX_PAGES = 8;
+
+    /** Number of rows left before the end (or the start) of the list at which the next page is shown */
+    private static final int LOAD_THRESHOLD = 5;
+
+    /** Value of the page fields when there is no such page */
+    private static final int NO_PAGE = -1;
+
+    /**
+     * Interface to be implemented by the activity, which loads the pages and updates the adapter.
+     */
+    interface Callbacks {
+        /**
+         * Start loading the given page in the background. {@link #onPageLoaded} is called once done.
+         *
+         * @param prefetch true if the page is only loaded in advance, in case the user scrolls to it
+         */
+        void loadPage(int page, boolean prefetch);
+
+        /** Returns whether pages may be loaded before the user gets close to them */
+        boolean shouldPrefetch();
+
+        /** Replace the books of the previous search with those of the first page */
+        void onBooksReplaced(List<Book> books);
+
+        /** Add the given books at the end of the list */
+        void onBooksAppended(List<Book> books);
+
+        /** Add the given books at the start of the list */
+        void onBooksPrepended(List<Book> books);
+
+        /** Remove the given number of books from the start or the end of the list */
+        void onBooksDropped(int count, boolean fromStart);
+    }
+
+    private final Callbacks callbacks;
+
+    /** First and last page currently displayed */
+    private int firstPage;
+    private int lastPage;
+
+    /** Number of books displayed for each page, from firstPage to lastPage */
+    private final Deque<Integer> pageSizes = new ArrayDeque<>();
+
+    /** Page being loaded, if any */
+    private int loadingPage = NO_PAGE;
+
+    /** Page after the last one displayed, loaded in advance */
+    private int prefetchedPage = NO_PAGE;
+    private List<Book> prefetchedBooks;
+
+    /** Last page available for the search, once known */
+    private int endPage = NO_PAGE;
+
+    /** Books found in the local index for the search, displayed until the first page arrives */
+    private List<Book> localBooks;
+
+    /** Page in which each volume was first found, so duplicates in later pages are skipped */
+    private final Map<String, Integer> volumePages = new HashMap<>();
+
+    /** Last known scroll position */
+    private int firstVisibleItem;
+    private int visibleItemCount;
+
+    /**
+     * Constructs a new {@link BookPager}.
+     *
+     * @param callbacks to load the pages and update the list
+     */
+    BookPager(Callbacks callbacks) {
+        this.callbacks = callbacks;
+        reset();
+    }
+
+    /**
+     * Forget the pages of the previous search. The first page has to be loaded next.
+     */
+    void reset() {
+        firstPage = 0;
+        lastPage = NO_PAGE;
+        pageSizes.clear();
+        loadingPage = NO_PAGE;
+        prefetchedPage = NO_PAGE;
+        prefetchedBooks = null;
+        endPage = NO_PAGE;
+        localBooks = null;
+        volumePages.clear();
+        firstVisibleItem = 0;
+        visibleItemCount = 0;
+    }
+
+    /**
+     * Start a new search by loading its first page.
+     */
+    void start() {
+        reset();
+        load(0, false);
+    }
+
+    /**
+     * Returns the position of the first result of the given page.
+     */
+    static int startIndexOf(int page) {
+        return page * QueryUtils.PAGE_SIZE;
+    }
+
+    /**
+     * Returns the page starting at the given result position.
+     */
+    static int pageOf(int startIndex) {
+        return startIndex / QueryUtils.PAGE_SIZE;
+    }
+
+    /**
+     * Called with the books found in the local index for the search. Unless the first page has
+     * already arrived, they are displayed right away, and merged with it when it does.
+     */
+    void onLocalResults(List<Book> books) {
+        if (lastPage != NO_PAGE || loadingPage != 0 || books.isEmpty()) {
+            return;
+        }
+
+        localBooks = books;
+        callbacks.onBooksReplaced(books);
+    }
+
+    /**
+     * Returns the number of books displayed for the search.
+     */
+    int getDisplayedCount() {
+        int count = 0;
+        for (int size : pageSizes) {
+            count += size;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the pages displayed, to restore them once the activity is recreated, or null if the
+     * first page isn't displayed yet.
+     */
+    SavedState saveState() {
+        if (lastPage == NO_PAGE) {
+            return null;
+        }
+
+        int[] sizes = new int[pageSizes.size()];
+        int i = 0;
+        for (int size : pageSizes) {
+            sizes[i++] = size;
+        }
+        return new SavedState(firstPage, endPage, sizes);
+    }
+
+    /**
+     * Display again the pages of a previous instance, without loading them.
+     *
+     * @param state returned by {@link #saveState}
+     * @param books displayed for those pages, in order
+     */
+    void restoreState(SavedState state, List<Book> books) {
+        reset();
+        firstPage = state.firstPage;
+        lastPage = state.firstPage + state.pageSizes.length - 1;
+        endPage = state.endPage;
+
+        // Books of the pages dropped before aren't known any more, so they may show up again
+        int position = 0;
+        for (int i = 0; i < state.pageSizes.length; i++) {
+            pageSizes.addLast(state.pageSizes[i]);
+            removeDuplicates(firstPage + i, books.subList(position, position + state.pageSizes[i]));
+            position += state.pageSizes[i];
+        }
+
+        callbacks.onBooksReplaced(books);
+    }
+
+    /**
+     * Called with the books of a page once it has been loaded.
+     *
+     * @param page that was loaded
+     * @param books of the page, or null if it couldn't be loaded
+     * @return false if the page wasn't expected (e.g. a result delivered again), so it was ignored
+     */
+    boolean onPageLoaded(int page, List<Book> books) {
+        if (page != loadingPage) {
+            return false;
+        }
+        loadingPage = NO_PAGE;
+
+        if (books == null && page == 0 && localBooks != null) {
+            // Without the network, the local results are all we have
+            books = new ArrayList<>();
+            endPage = 0;
+        }
+
+        if (books == null) {
+            // Don't retry automatically: the next scroll will try again
+            return true;
+        }
+
+        // A short page is the last one, counting the items dropped from it
+        if (BookPage.isLast(books)) {
+            endPage = page;
+        }
+
+        List<Book> unique = removeDuplicates(page, books);
+
+        if (page == 0 && localBooks != null) {
+            // The network results go first, followed by the local results they don't include
+            unique.addAll(removeDuplicates(0, localBooks));
+            localBooks = null;
+        }
+
+        if (page == 0 && lastPage == NO_PAGE) {
+            lastPage = 0;
+            pageSizes.addLast(unique.size());
+            callbacks.onBooksReplaced(unique);
+        } else if (page == lastPage + 1) {
+            // Keep it until the user gets close to the end of the list
+            prefetchedPage = page;
+            prefetchedBooks = unique;
+        } else if (page == firstPage - 1) {
+            prepend(unique);
+        }
+
+        update();
+        return true;
+    }
+
+    /**
+     * Called when the list is scrolled, to show or load the pages around the visible rows.
+     */
+    void onScroll(int firstVisibleItem, int visibleItemCount) {
+        this.firstVisibleItem = firstVisibleItem;
+        this.visibleItemCount = visibleItemCount;
+        update();
+    }
+
+    /**
+     * Shows the prefetched page or starts loading a page, depending on the scroll position.
+     */
+    private void update() {
+        if (lastPage == NO_PAGE) {
+            return;
+        }
+
+        int totalItemCount = getDisplayedCount();
+        boolean nearEnd = firstVisibleItem + visibleItemCount >= totalItemCount - LOAD_THRESHOLD;
+
+        if (nearEnd && prefetchedPage == lastPage + 1) {
+            List<Book> books = prefetchedBooks;
+            prefetchedPage = NO_PAGE;
+            prefetchedBooks = null;
+            append(books);
+        }
+
+        if (loadingPage != NO_PAGE) {
+            return;
+        }
+
+        if (firstVisibleItem <= LOAD_THRESHOLD && firstPage > 0) {
+            // Load again a page dropped from the start of the list
+            load(firstPage - 1, false);
+        } else if (prefetchedPage == NO_PAGE && !isLastPage(lastPage)
+                && (nearEnd || callbacks.shouldPrefetch())) {
+            // Keep the page after the last one ready, or load it now the user is waiting for it
+            load(lastPage + 1, !nearEnd);
+        }
+    }
+
+    private void load(int page, boolean prefetch) {
+        loadingPage = page;
+        callbacks.loadPage(page, prefetch);
+    }
+
+    private void append(List<Book> books) {
+        lastPage++;
+        pageSizes.addLast(books.size());
+        callbacks.onBooksAppended(books);
+
+        if (pageSizes.size() > MAX_PAGES) {
+            int count = pageSizes.removeFirst();
+            firstPage++;
+            firstVisibleItem -= count;
+            callbacks.onBooksDropped(count, true);
+        }
+    }
+
+    private void prepend(List<Book> books) {
+        firstPage--;
+        pageSizes.addFirst(books.size());
+        firstVisibleItem += books.size();
+        callbacks.onBooksPrepended(books);
+
+        if (pageSizes.size() > MAX_PAGES) {
+            int count = pageSizes.removeLast();
+            lastPage--;
+            callbacks.onBooksDropped(count, false);
+
+            // The prefetched page doesn't follow the last displayed page any more
+            prefetchedPage = NO_PAGE;
+            prefetchedBooks = null;
+        }
+    }
+
+    /**
+     * Returns the books of the given page that haven't been displayed for a previous page.
+     */
+    private List<Book> removeDuplicates(int page, List<Book> books) {
+        List<Book> unique = new ArrayList<>(books.size());
+        for (Book book : books) {
+            String id = book.getId() != null ? book.getId() : book.getUrl();
+            Integer firstSeen = volumePages.get(id);
+            if (firstSeen == null) {
+                volumePages.put(id, page);
+                unique.add(book);
+            } else if (firstSeen == page) {
+                // The page is being loaded again after being dropped
+                unique.add(book);
+            }
+        }
+        return unique;
+    }
+
+    private boolean isLastPage(int page) {
+        return endPage != NO_PAGE && page >= endPage;
+    }
+
+    /**
+     * Pages displayed by a {@link BookPager}, see {@link #saveState}.
+     */
+    static final class SavedState {
+
+        /** First page displayed */
+        final int firstPage;
+
+        /** Last page available for the search, or -1 if unknown */
+        final int endPage;
+
+        /** Number of books displayed for each page, starting with the first one */
+        final int[] pageSizes;
+
+        SavedState(int firstPage, int endPage, int[] pageSizes) {
+            this.firstPage = firstPage;
+            this.endPage = endPage;
+            this.pageSizes = pageSizes;
+        }
+
+        /**
+         * Returns the number of books displayed for the pages.
+         */
+        int getBookCount() {
+            int count = 0;
+            for (int size : pageSizes) {
+                count += size;
+            }
+            return count;
+        }
+    }
+}
@@ -0,0 +1,339 @@
+/*
+ * Copyright (c) 2017 by Francis Gálvez
+ */
+package com.example.android.computerbooksapp;
+
+import java.text.Normalizer;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Sorts, filters and counts the books already loaded, so the user can narrow the results
+ * without searching again.
+ *
+ * Everything that doesn't depend on the {@link Query} is computed once for the list: a sort key
+ * and a search text for each book, the order of the books for each sort, and the publishers and
+ * authors as small integers. A query is then a single pass over the order of its sort, and the
+ * results are positions in the list, not copies of the books.
+ *
+ * An engine is immutable once built, so it can be queried from any thread. Building it and
+ * querying it take a few milliseconds for thousands of books, which should be done off the UI
+ * thread.
+ */
+final class BookQueryEngine {
+
+    /** Orders of the results */
+    static final int SORT_RELEVANCE = 0;
+    static final int SORT_TITLE = 1;
+    static final int SORT_AUTHOR = 2;
+    static final int SORT_PUBLISHER = 3;
+    private static final int SORT_COUNT = 4;
+
+    /** Marks left in the text once its accents are decomposed */
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{InCombiningDiacriticalMarks}+");
+
+    /**
+     * What to display of the books: a text they must contain, the publisher and the author they
+     * must have, and their order. A null filter matches every book.
+     */
+    static final class Query {
+        final int sort;
+        final String text;
+        final String publisher;
+        final String author;
+
+        Query(int sort, String text, String publisher, String author) {
+            this.sort = sort;
+            this.text = text == null || text.trim().isEmpty() ? null : text;
+            this.publisher = publisher;
+            this.author = author;
+        }
+
+        /**
+         * Returns whether the query displays the books as they were loaded.
+         */
+        boolean isIdentity() {
+            return sort == SORT_RELEVANCE && text == null && publisher == null && author == null;
+        }
+    }
+
+    /**
+     * Books matching a {@link Query}, with the number of books of each publisher and author among
+     * the results. Each facet is counted without its own filter, so the user can switch from one
+     * publisher to another.
+     */
+    static final class Result {
+        /** Books matching, in order. A view of the books of the engine. */
+        final List<Book> books;
+        /** Publishers and authors of the books, the most frequent first */
+        final Map<String, Integer> publisherCounts;
+        final Map<String, Integer> authorCounts;
+
+        Result(List<Book> books, Map<String, Integer> publisherCounts, Map<String, Integer> authorCounts) {
+            this.books = books;
+            this.publisherCounts = publisherCounts;
+            this.authorCounts = authorCounts;
+        }
+    }
+
+    private final List<Book> books;
+
+    /** Text the filter is looked for in: title, authors and publisher, normalized */
+    private final String[] searchTexts;
+
+    /** Sort keys, normalized so case and accents don't change the order */
+    private final String[] titleKeys;
+    private final String[] authorKeys;
+    private final String[] publisherKeys;
+
+    /** Positions of the books in the order of each sort, computed the first time it's used */
+    private final int[][] orders = new int[SORT_COUNT][];
+
+    /** Distinct publishers and authors, and those of each book as indexes in them */
+    private final String[] publishers;
+    private final String[] authors;
+    private final int[] bookPublishers;
+    private final int[][] bookAuthors;
+
+    /**
+     * Constructs a new {@link BookQueryEngine} for the given books, which must not change afterwards.
+     */
+    BookQueryEngine(List<Book> books) {
+        this.books = books;
+        int count = books.size();
+        searchTexts = new String[count];
+        titleKeys = new String[count];
+        authorKeys = new String[count];
+        publisherKeys = new String[count];
+        bookPublishers = new int[count];
+        bookAuthors = new int[count][];
+
+        Map<String, Integer> publisherIds = new HashMap<>();
+        Map<String, Integer> authorIds = new HashMap<>();
+        List<String> publisherList = new ArrayList<>();
+        List<String> authorList = new ArrayList<>();
+        StringBuilder text = new StringBuilder();
+
+        for (int i = 0; i < count; i++) {
+            Book book = books.get(i);
+            List<String> bookAuthorNames = book.getAuthors();
+            String publisher = orUnknown(book.getPublisher());
+
+            titleKeys[i] = normalize(book.getTitle());
+            authorKeys[i] = bookAuthorNames.isEmpty() ? "" : normalize(bookAuthorNames.get(0));
+            publisherKeys[i] = normalize(publisher);
+
+            text.setLength(0);
+            text.append(book.getTitle()).append('\n').append(publisher);
+            bookAuthors[i] = new int[bookAuthorNames.size()];
+            for (int a = 0; a < bookAuthorNames.size(); a++) {
+                String author = orUnknown(bookAuthorNames.get(a));
+                text.append('\n').append(author);
+                bookAuthors[i][a] = idOf(author, authorIds, authorList);
+            }
+            searchTexts[i] = normalize(text.toString());
+            bookPublishers[i] = idOf(publisher, publisherIds, publisherList);
+        }
+
+        publishers = publisherList.toArray(new String[publisherList.size()]);
+        authors = authorList.toArray(new String[authorList.size()]);
+    }
+
+    /**
+     * Returns the books of the engine.
+     */
+    List<Book> getBooks() {
+        return books;
+    }
+
+    /**
+     * Returns the books matching the given query, in its order.
+     */
+    Result query(Query query) {
+        String text = query.text == null ? null : normalize(query.text);
+        int publisher = query.publisher == null ? -1 : indexOf(publishers, query.publisher);
+        int author = query.author == null ? -1 : indexOf(authors, query.author);
+
+        int[] order = getOrder(query.sort);
+        int[] positions = new int[order.length];
+        int matchCount = 0;
+        int[] publisherCounts = new int[publishers.length];
+        int[] authorCounts = new int[authors.length];
+
+        for (int position : order) {
+            if (text != null && !searchTexts[position].contains(text)) {
+                continue;
+            }
+            // A publisher or author that isn't in the books matches none of them
+            boolean publisherMatches = query.publisher == null || bookPublishers[position] == publisher;
+            boolean authorMatches = query.author == null || (author >= 0 && contains(bookAuthors[position], author));
+
+            if (authorMatches) {
+                publisherCounts[bookPublishers[position]]++;
+            }
+            if (publisherMatches) {
+                for (int bookAuthor : bookAuthors[position]) {
+                    authorCounts[bookAuthor]++;
+                }
+            }
+            if (publisherMatches && authorMatches) {
+                positions[matchCount++] = position;
+            }
+        }
+
+        return new Result(new IndexedList(books, positions, matchCount), counts(publishers, publisherCounts),
+                counts(authors, authorCounts));
+    }
+
+    /**
+     * Returns the positions of the books in the order of the given sort. Several threads may
+     * compute it at once, they get the same result.
+     */
+    private int[] getOrder(int sort) {
+        synchronized (orders) {
+            if (orders[sort] != null) {
+                return orders[sort];
+            }
+        }
+
+        Integer[] boxed = new Integer[books.size()];
+        for (int i = 0; i < boxed.length; i++) {
+            boxed[i] = i;
+        }
+        if (sort != SORT_RELEVANCE) {
+            final String[] keys = sort == SORT_TITLE ? titleKeys : sort == SORT_AUTHOR ? authorKeys : publisherKeys;
+            // A stable sort, so books with the same key stay in order of relevance
+            Arrays.sort(boxed, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return keys[a].compareTo(keys[b]);
+                }
+            });
+        }
+
+        int[] order = new int[boxed.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = boxed[i];
+        }
+        synchronized (orders) {
+            orders[sort] = order;
+        }
+        return order;
+    }
+
+    /**
+     * Returns the given text in lower case, without accents, so "Gálvez" sorts and matches like
+     * "galvez".
+     */
+    static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+
+        // Most titles and names are plain ASCII, which has no accents to remove
+        boolean ascii = true;
+        for (int i = 0; i < text.length() && ascii; i++) {
+            ascii = text.charAt(i) < 0x80;
+        }
+        if (ascii) {
+            return text.toLowerCase(Locale.ROOT);
+        }
+
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        return DIACRITICS.matcher(decomposed).replaceAll("").toLowerCase(Locale.ROOT);
+    }
+
+    private static String orUnknown(String value) {
+        return value == null ? Book.UNKNOWN : value;
+    }
+
+    private static int idOf(String value, Map<String, Integer> ids, List<String> values) {
+        Integer id = ids.get(value);
+        if (id == null) {
+            id = values.size();
+            ids.put(value, id);
+            values.add(value);
+        }
+        return id;
+    }
+
+    private static int indexOf(String[] values, String value) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i].equals(value)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean contains(int[] values, int value) {
+        for (int v : values) {
+            if (v == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the values with a count, the largest count first.
+     */
+    private static Map<String, Integer> counts(String[] values, final int[] counts) {
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) {
+                ids.add(i);
+            }
+        }
+        Collections.sort(ids, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return counts[b] - counts[a];
+            }
+        });
+
+        Map<String, Integer> result = new LinkedHashMap<>();
+        for (int id : ids) {
+            result.put(values[id], counts[id]);
+        }
+        return result;
+    }
+
+    /**
+     * The books at the given positions of a list, without copying them.
+     */
+    private static final class IndexedList extends AbstractList<Book> {
+
+        private final List<Book> books;
+        private final int[] positions;
+        private final int size;
+
+        IndexedList(List<Book> books, int[] positions, int size) {
+            this.books = books;
+            this.positions = positions;
+            this.size = size;
+        }
+
+        @Override
+        public Book get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+            }
+            return books.get(positions[index]);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
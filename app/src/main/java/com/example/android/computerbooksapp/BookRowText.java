@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2017 by Francis Gálvez
+ */
+package com.example.android.computerbooksapp;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Typeface;
+import android.os.Build;
+import android.support.v4.content.ContextCompat;
+import android.text.Layout;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.text.TextUtils;
+
+/**
+ * The title, the author and the publisher of a book laid out for a row of the list, ellipsized
+ * to fit. Laying out text is most of the cost of binding a row, so it's done on a background
+ * thread when the results arrive (see {@link BookRowTextCache}), and a {@link BookRowView} only
+ * draws it.
+ *
+ * The layouts are immutable, so they can be created on one thread and drawn on another. The URL
+ * of the cover is kept with them, since the book only keeps the parts it's built from.
+ */
+final class BookRowText {
+
+    /** Width of the row the text was laid out for, in pixels */
+    final int rowWidth;
+
+    final Layout title;
+    final Layout author;
+    final Layout publisher;
+
+    /** What accessibility services read for the row */
+    final CharSequence description;
+
+    /** URL of the cover of the book, or null if it has none */
+    final String coverUrl;
+
+    private BookRowText(int rowWidth, Layout title, Layout author, Layout publisher, CharSequence description,
+                        String coverUrl) {
+        this.rowWidth = rowWidth;
+        this.title = title;
+        this.author = author;
+        this.publisher = publisher;
+        this.description = description;
+        this.coverUrl = coverUrl;
+    }
+
+    /**
+     * Paints and sizes of the texts of a row. The paints are never changed once created, but
+     * each thread laying out text should use its own {@link Style}.
+     */
+    static final class Style {
+        /** Sizes of the row, in pixels */
+        final int coverWidth;
+        final int spacing;
+        final int publisherMaxWidth;
+
+        final TextPaint titlePaint;
+        final TextPaint authorPaint;
+        final TextPaint publisherPaint;
+
+        Style(Context context) {
+            Resources resources = context.getResources();
+            coverWidth = resources.getDimensionPixelSize(R.dimen.cover_width);
+            spacing = resources.getDimensionPixelSize(R.dimen.row_spacing);
+            publisherMaxWidth = resources.getDimensionPixelSize(R.dimen.publisher_max_width);
+
+            titlePaint = createPaint(resources.getDimension(R.dimen.title_text_size),
+                    ContextCompat.getColor(context, android.R.color.black));
+            titlePaint.setTypeface(Typeface.create("sans-serif-medium", Typeface.NORMAL));
+            authorPaint = createPaint(resources.getDimension(R.dimen.author_text_size),
+                    ContextCompat.getColor(context, android.R.color.darker_gray));
+            publisherPaint = createPaint(resources.getDimension(R.dimen.publisher_text_size),
+                    ContextCompat.getColor(context, R.color.dark_green));
+        }
+
+        /**
+         * Returns where the title and the author start, from the start of the row.
+         */
+        int getTextStart() {
+            return spacing + coverWidth + spacing;
+        }
+
+        private static TextPaint createPaint(float textSize, int color) {
+            TextPaint paint = new TextPaint(TextPaint.ANTI_ALIAS_FLAG);
+            paint.setTextSize(textSize);
+            paint.setColor(color);
+            return paint;
+        }
+    }
+
+    /**
+     * Lay out the texts of the given book for a row of the given width.
+     */
+    static BookRowText create(Book book, Style style, int rowWidth) {
+        String titleText = orEmpty(book.getTitle());
+        String authorText = orEmpty(book.getAuthor());
+        String publisherText = orEmpty(book.getPublisher());
+
+        // The publisher takes what it needs at the end of the row, and the title and the author
+        // what's left between it and the cover
+        int publisherWidth = Math.min(style.publisherMaxWidth,
+                (int) Math.ceil(Layout.getDesiredWidth(publisherText, style.publisherPaint)));
+        int textWidth = Math.max(0, rowWidth - style.getTextStart() - style.spacing - publisherWidth - style.spacing);
+
+        Layout title = layout(titleText, style.titlePaint, textWidth, 1);
+        Layout author = layout(authorText, style.authorPaint, textWidth, 2);
+        Layout publisher = layout(publisherText, style.publisherPaint, publisherWidth, 1);
+
+        CharSequence description = TextUtils.concat(titleText, ", ", authorText, ", ", publisherText);
+        return new BookRowText(rowWidth, title, author, publisher, description, book.getThumbnailUrl());
+    }
+
+    /**
+     * Lay out the given text in at most the given number of lines, ellipsizing the last one.
+     */
+    private static Layout layout(CharSequence text, TextPaint paint, int width, int maxLines) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            return StaticLayout.Builder.obtain(text, 0, text.length(), paint, width)
+                    .setIncludePad(false)
+                    .setEllipsize(TextUtils.TruncateAt.END)
+                    .setMaxLines(maxLines)
+                    .build();
+        }
+
+        // Before Marshmallow the lines can't be limited: ellipsize what doesn't fit in the last one
+        StaticLayout layout = new StaticLayout(text, paint, width, Layout.Alignment.ALIGN_NORMAL, 1, 0, false);
+        if (layout.getLineCount() <= maxLines) {
+            return layout;
+        }
+        int lastLineStart = layout.getLineStart(maxLines - 1);
+        CharSequence lastLine = TextUtils.ellipsize(text.subSequence(lastLineStart, text.length()), paint, width,
+                TextUtils.TruncateAt.END);
+        return new StaticLayout(TextUtils.concat(text.subSequence(0, lastLineStart), lastLine), paint, width,
+                Layout.Alignment.ALIGN_NORMAL, 1, 0, false);
+    }
+
+    private static String orEmpty(String text) {
+        return text == null ? "" : text;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2017 by Francis Gálvez
+ */
+package com.example.android.computerbooksapp;
+
+import android.content.Context;
+import android.util.LruCache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Keeps the {@link BookRowText} of the books recently displayed, laid out in advance on a
+ * background thread so binding a row doesn't have to.
+ *
+ * The text is laid out for the width of the rows, which is the width of the list. Until the
+ * list is laid out it's taken to be the width of the screen, and the text of a book is laid out
+ * again on the UI thread only if it wasn't ready, or was laid out for another width.
+ */
+final class BookRowTextCache {
+
+    /** Most books whose text is kept, several times the rows on the screen */
+    private static final int MAX_BOOKS = 400;
+
+    /** Most books of a list laid out in advance: the first rows, where the list starts */
+    private static final int MAX_PRECOMPUTED = 4 * QueryUtils.MAX_PAGE_SIZE;
+
+    /** Lays out the text in advance, one list after another */
+    private static final Executor EXECUTOR = Executors.newSingleThreadExecutor();
+
+    private final LruCache<Book, BookRowText> cache = new LruCache<>(MAX_BOOKS);
+
+    /** Paints used on the UI thread, and on the background thread */
+    private final BookRowText.Style style;
+    private final BookRowText.Style backgroundStyle;
+
+    /** Width of the rows, in pixels */
+    private volatile int rowWidth;
+
+    /** Number of the last list to lay out, so the older ones are dropped */
+    private volatile int generation;
+
+    BookRowTextCache(Context context) {
+        style = new BookRowText.Style(context);
+        backgroundStyle = new BookRowText.Style(context);
+        rowWidth = context.getResources().getDisplayMetrics().widthPixels;
+    }
+
+    /**
+     * Set the width of the rows, once the list is laid out or if its size changes.
+     */
+    void setRowWidth(int rowWidth) {
+        if (rowWidth > 0 && rowWidth != this.rowWidth) {
+            this.rowWidth = rowWidth;
+            cache.evictAll();
+        }
+    }
+
+    /**
+     * Lay out the text of the first of the given books in the background.
+     *
+     * @param replacing whether the books replace those displayed, whose text is no longer needed
+     */
+    void precompute(List<Book> books, boolean replacing) {
+        final List<Book> pending = new ArrayList<>(books.subList(0, Math.min(books.size(), MAX_PRECOMPUTED)));
+        final int listGeneration = replacing ? ++generation : generation;
+
+        EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (Book book : pending) {
+                    if (listGeneration != generation) {
+                        return;
+                    }
+                    int width = rowWidth;
+                    BookRowText text = cache.get(book);
+                    if (text == null || text.rowWidth != width) {
+                        cache.put(book, BookRowText.create(book, backgroundStyle, width));
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the text of the given book for the current width of the rows, laying it out if it
+     * isn't ready. Called on the UI thread.
+     */
+    BookRowText get(Book book) {
+        int width = rowWidth;
+        BookRowText text = cache.get(book);
+        if (text == null || text.rowWidth != width) {
+            text = BookRowText.create(book, style, width);
+            cache.put(book, text);
+        }
+        return text;
+    }
+}
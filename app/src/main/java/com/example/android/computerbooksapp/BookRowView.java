@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2017 by Francis Gálvez
+ */
+package com.example.android.computerbooksapp;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.os.Build;
+import android.text.Layout;
+import android.util.AttributeSet;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+
+/**
+ * A row of the list of books: the cover at the start, the title and the author next to it, and
+ * the publisher at the end.
+ *
+ * The cover is the only child view. The texts are drawn from their {@link BookRowText}, laid out
+ * in advance, and every position is computed from the sizes of the row, so the row is measured
+ * and laid out in a single pass instead of the several passes of nested weighted layouts.
+ */
+public class BookRowView extends ViewGroup {
+
+    private ImageView coverView;
+
+    /** Book displayed, and where its text comes from */
+    private Book book;
+    private BookRowTextCache textCache;
+    private BookRowText text;
+
+    /** Where the title and the author start, from the start of the row */
+    private int textStart;
+    private int spacing;
+
+    public BookRowView(Context context) {
+        this(context, null);
+    }
+
+    public BookRowView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        setWillNotDraw(false);
+        spacing = getResources().getDimensionPixelSize(R.dimen.row_spacing);
+        int coverWidth = getResources().getDimensionPixelSize(R.dimen.cover_width);
+        textStart = spacing + coverWidth + spacing;
+
+        // The row creates its only child rather than looking it up once inflated
+        coverView = new ImageView(context);
+        coverView.setLayoutParams(new LayoutParams(coverWidth,
+                getResources().getDimensionPixelSize(R.dimen.cover_height)));
+        coverView.setScaleType(ImageView.ScaleType.CENTER_CROP);
+        coverView.setContentDescription(getResources().getString(R.string.cover));
+        addView(coverView);
+    }
+
+    ImageView getCoverView() {
+        return coverView;
+    }
+
+    /**
+     * Display the given book, with its text from the given cache.
+     */
+    void bind(Book book, BookRowTextCache textCache) {
+        this.book = book;
+        this.textCache = textCache;
+        text = textCache.get(book);
+        setContentDescription(text.description);
+        invalidate();
+    }
+
+    /**
+     * Returns the URL of the cover of the book displayed, or null if it has none.
+     */
+    String getCoverUrl() {
+        return text.coverUrl;
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        LayoutParams coverParams = coverView.getLayoutParams();
+        coverView.measure(MeasureSpec.makeMeasureSpec(coverParams.width, MeasureSpec.EXACTLY),
+                MeasureSpec.makeMeasureSpec(coverParams.height, MeasureSpec.EXACTLY));
+
+        int height = Math.max(getSuggestedMinimumHeight(), coverView.getMeasuredHeight());
+        setMeasuredDimension(getDefaultSize(getSuggestedMinimumWidth(), widthMeasureSpec),
+                resolveSize(height, heightMeasureSpec));
+    }
+
+    @Override
+    protected void onSizeChanged(int width, int height, int oldWidth, int oldHeight) {
+        super.onSizeChanged(width, height, oldWidth, oldHeight);
+
+        // The text was laid out for the width expected, which may not be this one
+        if (textCache != null) {
+            textCache.setRowWidth(width);
+            if (text.rowWidth != width) {
+                text = textCache.get(book);
+                invalidate();
+            }
+        }
+    }
+
+    @Override
+    protected void onLayout(boolean changed, int left, int top, int right, int bottom) {
+        int coverWidth = coverView.getMeasuredWidth();
+        int coverHeight = coverView.getMeasuredHeight();
+        int coverLeft = startToLeft(spacing, coverWidth);
+        int coverTop = (getHeight() - coverHeight) / 2;
+        coverView.layout(coverLeft, coverTop, coverLeft + coverWidth, coverTop + coverHeight);
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if (text == null) {
+            return;
+        }
+
+        int textHeight = text.title.getHeight() + text.author.getHeight();
+        int textTop = (getHeight() - textHeight) / 2;
+        draw(canvas, text.title, startToLeft(textStart, text.title.getWidth()), textTop);
+        draw(canvas, text.author, startToLeft(textStart, text.author.getWidth()), textTop + text.title.getHeight());
+
+        int publisherWidth = text.publisher.getWidth();
+        draw(canvas, text.publisher, startToLeft(getWidth() - spacing - publisherWidth, publisherWidth),
+                (getHeight() - text.publisher.getHeight()) / 2);
+    }
+
+    private static void draw(Canvas canvas, Layout layout, int left, int top) {
+        canvas.save();
+        canvas.translate(left, top);
+        layout.draw(canvas);
+        canvas.restore();
+    }
+
+    /**
+     * Returns the left of something of the given width placed at the given distance from the
+     * start of the row, which is the right in right-to-left languages.
+     */
+    private int startToLeft(int start, int width) {
+        boolean rtl = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1
+                && getLayoutDirection() == View.LAYOUT_DIRECTION_RTL;
+        return rtl ? getWidth() - start - width : start;
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2017 by Francis Gálvez
+ */
+package com.example.android.computerbooksapp;
+
+import android.annotation.TargetApi;
+import android.app.job.JobParameters;
+import android.app.job.JobService;
+import android.os.Build;
+import android.os.Process;
+
+/**
+ * Job running the {@link CacheWarmer} when the {@link CacheWarmUpScheduler}'s conditions are met.
+ * The work is done on a background thread, and stops as soon as the system asks the job to.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class CacheWarmUpJobService extends JobService {
+
+    /** Work of the running job, if any */
+    private CancellationToken cancellation;
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        final CancellationToken jobCancellation = new CancellationToken();
+        cancellation = jobCancellation;
+        final CacheWarmer warmer = new CacheWarmer(this);
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                warmer.run(jobCancellation);
+                if (!jobCancellation.isCanceled()) {
+                    jobFinished(params, false);
+                }
+            }
+        }, "CacheWarmer").start();
+
+        // The job goes on in the background
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // The network or the charger went away: stop, and let the next period try again
+        if (cancellation != null) {
+            cancellation.cancel();
+            cancellation = null;
+        }
+        return false;
+    }
+}
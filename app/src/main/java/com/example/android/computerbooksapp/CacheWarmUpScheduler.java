@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2017 by Francis Gálvez
+ */
+package com.example.android.computerbooksapp;
+
+import android.annotation.TargetApi;
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.BatteryManager;
+import android.os.Build;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Schedules the {@link CacheWarmer} to run periodically, only on an unmetered network and while
+ * the device is charging, so it costs the user neither data nor battery.
+ *
+ * From Lollipop, {@link CacheWarmUpJobService} is scheduled with the {@link JobScheduler}, which
+ * waits for those conditions even when the app isn't running. On older versions the conditions
+ * are checked when the app starts, and the work runs in the process if it's due.
+ */
+final class CacheWarmUpScheduler {
+
+    /** ID of the job, unique within the app */
+    static final int JOB_ID = 1;
+
+    /** Preferences holding the time of the last warm-up run in the process */
+    private static final String PREFERENCES_NAME = "cache_warm_up";
+    private static final String KEY_LAST_RUN = "lastRun";
+
+    /** Whether the in-process warm-up is running */
+    private static boolean running;
+
+    /**
+     * Create a private constructor because no one should ever create a {@link CacheWarmUpScheduler} object.
+     */
+    private CacheWarmUpScheduler() {
+    }
+
+    /**
+     * Make sure the warm-up is scheduled. This is cheap enough to call every time the app starts.
+     */
+    static void schedule(Context context) {
+        context = context.getApplicationContext();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            scheduleJob(context);
+        } else {
+            runIfDue(context);
+        }
+    }
+
+    /**
+     * Returns the time between two warm-ups.
+     */
+    static long getIntervalMillis(Context context) {
+        return TimeUnit.HOURS.toMillis(context.getResources().getInteger(R.integer.warm_up_interval_hours));
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static void scheduleJob(Context context) {
+        JobScheduler jobScheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        for (JobInfo job : jobScheduler.getAllPendingJobs()) {
+            if (job.getId() == JOB_ID) {
+                // Rescheduling would restart its period
+                return;
+            }
+        }
+
+        JobInfo job = new JobInfo.Builder(JOB_ID, new ComponentName(context, CacheWarmUpJobService.class))
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_UNMETERED)
+                .setRequiresCharging(true)
+                .setPeriodic(getIntervalMillis(context))
+                .setPersisted(true)
+                .build();
+        jobScheduler.schedule(job);
+    }
+
+    /**
+     * Run the warm-up on a background thread of the process, if the last run is older than the
+     * interval and the device is on an unmetered network and charging.
+     */
+    private static void runIfDue(Context context) {
+        final SharedPreferences preferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+        final long now = System.currentTimeMillis();
+        if (now - preferences.getLong(KEY_LAST_RUN, 0) < getIntervalMillis(context)
+                || !isUnmetered(context) || !isCharging(context)) {
+            return;
+        }
+
+        synchronized (CacheWarmUpScheduler.class) {
+            if (running) {
+                return;
+            }
+            running = true;
+        }
+
+        final CacheWarmer warmer = new CacheWarmer(context);
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
+                try {
+                    warmer.run(new CancellationToken());
+                    preferences.edit().putLong(KEY_LAST_RUN, now).apply();
+                } finally {
+                    synchronized (CacheWarmUpScheduler.class) {
+                        running = false;
+                    }
+                }
+            }
+        }, "CacheWarmer");
+        thread.start();
+    }
+
+    @SuppressWarnings("deprecation")
+    private static boolean isUnmetered(Context context) {
+        ConnectivityManager connMgr = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo networkInfo = connMgr.getActiveNetworkInfo();
+        if (networkInfo == null || !networkInfo.isConnected()) {
+            return false;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            return !connMgr.isActiveNetworkMetered();
+        }
+        return networkInfo.getType() == ConnectivityManager.TYPE_WIFI
+                || networkInfo.getType() == ConnectivityManager.TYPE_ETHERNET;
+    }
+
+    private static boolean isCharging(Context context) {
+        // The battery status is a sticky broadcast, so it can be read without a receiver
+        Intent battery = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        return battery != null && battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2017 by Francis Gálvez
+ */
+package com.example.android.computerbooksapp;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.net.TrafficStats;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Refreshes the results of the recent and popular queries in the caches, and downloads the covers
+ * of their first books, so the next searches are answered without waiting for the network.
+ *
+ * The work stops once it has used its byte or time budget, set in the integer resources. It's
+ * meant to run in the background, when the network and the battery are free: see
+ * {@link CacheWarmUpScheduler}.
+ */
+class CacheWarmer {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = CacheWarmer.class.getSimpleName();
+
+    /** Bytes counted for a page when the traffic of the app can't be measured */
+    private static final long ESTIMATED_PAGE_BYTES = 2 * 1024;
+
+    /** Interval (in milliseconds) at which a wait checks whether the work was canceled */
+    private static final long CANCELLATION_CHECK_MILLIS = 250;
+
+    private final Context context;
+    private final long maxBytes;
+    private final long maxMillis;
+    private final int maxQueries;
+    private final int coversPerQuery;
+
+    /** Bytes and time used so far */
+    private long bytes;
+    private long start;
+    private long initialRxBytes;
+
+    /**
+     * Constructs a new {@link CacheWarmer} with the budgets of the resources.
+     */
+    CacheWarmer(Context context) {
+        this.context = context.getApplicationContext();
+        Resources resources = context.getResources();
+        maxBytes = resources.getInteger(R.integer.warm_up_max_kilobytes) * 1024L;
+        maxMillis = TimeUnit.SECONDS.toMillis(resources.getInteger(R.integer.warm_up_max_seconds));
+        maxQueries = resources.getInteger(R.integer.warm_up_max_queries);
+        coversPerQuery = resources.getInteger(R.integer.warm_up_covers_per_query);
+    }
+
+    /**
+     * Returns the queries to refresh: the recent ones first, then the popular ones.
+     */
+    List<String> getQueries() {
+        List<String> candidates = new ArrayList<>(RecentQueries.getInstance(context).getTop(maxQueries));
+        Collections.addAll(candidates, context.getResources().getStringArray(R.array.popular_queries));
+
+        List<String> queries = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        for (String query : candidates) {
+            if (queries.size() < maxQueries && seen.add(BookCache.normalize(query))) {
+                queries.add(query);
+            }
+        }
+        return queries;
+    }
+
+    /**
+     * Refresh the queries until the budgets are used. This blocks, so it must be called on a
+     * background thread.
+     *
+     * @param cancellation to stop the work from another thread
+     * @return the number of queries refreshed
+     */
+    int run(CancellationToken cancellation) {
+        start = System.nanoTime();
+        bytes = 0;
+        initialRxBytes = TrafficStats.getUidRxBytes(Process.myUid());
+
+        int refreshed = 0;
+        for (String query : getQueries()) {
+            if (isOverBudget() || cancellation.isCanceled()) {
+                break;
+            }
+
+            List<Book> books = fetchFirstPage(query, cancellation);
+            if (books == null) {
+                continue;
+            }
+            refreshed++;
+            countBytes(ESTIMATED_PAGE_BYTES);
+
+            // The covers of the first rows are those displayed right away
+            CoverLoader coverLoader = CoverLoader.getInstance(context);
+            for (int i = 0; i < books.size() && i < coversPerQuery; i++) {
+                String thumbnailUrl = books.get(i).getThumbnailUrl();
+                if (thumbnailUrl == null) {
+                    continue;
+                }
+                if (isOverBudget() || cancellation.isCanceled()) {
+                    break;
+                }
+                long coverBytes = coverLoader.prefetch(thumbnailUrl, cancellation);
+                if (coverBytes > 0) {
+                    countBytes(coverBytes);
+                }
+            }
+        }
+
+        Log.d(LOG_TAG, "Refreshed " + refreshed + " queries with " + getUsedBytes() / 1024 + " KB in "
+                + getElapsedMillis() + " ms");
+        return refreshed;
+    }
+
+    /**
+     * Load the first page of the given query through the {@link BookFetchEngine}, which
+     * revalidates it if it has expired and skips the network if it's still fresh. Requests
+     * the user is waiting for go first.
+     *
+     * @return the books of the page, or null if they couldn't be loaded in time
+     */
+    private List<Book> fetchFirstPage(String query, CancellationToken cancellation) {
+        final CountDownLatch done = new CountDownLatch(1);
+        final List<List<Book>> result = new ArrayList<>(1);
+        BookFetchEngine.Request request = BookFetchEngine.getInstance(context).fetch(query, 0, false,
+                BookFetchEngine.PRIORITY_PREFETCH, new BookFetchEngine.Callback() {
+                    @Override
+                    public void onBooksLoaded(List<Book> books) {
+                        result.add(books);
+                        done.countDown();
+                    }
+                });
+
+        try {
+            while (!done.await(CANCELLATION_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (cancellation.isCanceled() || getElapsedMillis() > maxMillis) {
+                    request.cancel();
+                    return null;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            request.cancel();
+            return null;
+        }
+
+        return result.get(0);
+    }
+
+    private boolean isOverBudget() {
+        return getUsedBytes() >= maxBytes || getElapsedMillis() >= maxMillis;
+    }
+
+    private void countBytes(long count) {
+        bytes += count;
+    }
+
+    /**
+     * Returns the bytes received so far: all the traffic of the app when the device counts it,
+     * which includes the headers and whatever else is running, or an estimate otherwise.
+     */
+    private long getUsedBytes() {
+        long rxBytes = TrafficStats.getUidRxBytes(Process.myUid());
+        if (initialRxBytes == TrafficStats.UNSUPPORTED || rxBytes == TrafficStats.UNSUPPORTED) {
+            return bytes;
+        }
+        return rxBytes - initialRxBytes;
+    }
+
+    private long getElapsedMillis() {
+        return (System.nanoTime() - start) / 1000000;
+    }
+}
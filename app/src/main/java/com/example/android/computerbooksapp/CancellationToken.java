@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2017 by Francis Gálvez
+ */
+package com.example.android.computerbooksapp;
+
+import java.net.HttpURLConnection;
+
+/**
+ * Allows a request made by {@link QueryUtils} to be abandoned from another thread.
+ *
+ * Canceling disconnects the {@link HttpURLConnection} of the request, so a blocked read fails
+ * right away and stops using bandwidth, instead of running to completion and being ignored.
+ */
+class CancellationToken {
+
+    /** Whether the request has been canceled */
+    private boolean canceled;
+
+    /** Connection currently used by the request, if any */
+    private HttpURLConnection connection;
+
+    /**
+     * Cancel the request, disconnecting its connection if it has one.
+     */
+    void cancel() {
+        HttpURLConnection toDisconnect;
+        synchronized (this) {
+            if (canceled) {
+                return;
+            }
+            canceled = true;
+            toDisconnect = connection;
+            connection = null;
+
+            // Wake up the request if it's waiting before a retry
+            notifyAll();
+        }
+
+        // Disconnecting may block, so do it outside of the lock
+        if (toDisconnect != null) {
+            toDisconnect.disconnect();
+        }
+    }
+
+    synchronized boolean isCanceled() {
+        return canceled;
+    }
+
+    /**
+     * Wait for the given time, unless the request is canceled first.
+     *
+     * @return false if the request was canceled
+     */
+    synchronized boolean sleep(long millis) {
+        long end = System.nanoTime() + millis * 1000000;
+        long left = millis;
+        while (!canceled && left > 0) {
+            try {
+                wait(left);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            left = (end - System.nanoTime()) / 1000000;
+        }
+        return !canceled;
+    }
+
+    /**
+     * Set the connection used by the request.
+     *
+     * @return false if the request has already been canceled, in which case the connection
+     * must not be used
+     */
+    synchronized boolean attach(HttpURLConnection connection) {
+        if (canceled) {
+            return false;
+        }
+        this.connection = connection;
+        return true;
+    }
+
+    /**
+     * Forget the connection once the request is done with it.
+     */
+    synchronized void detach() {
+        connection = null;
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2017 by Francis Gálvez
+ */
+package com.example.android.computerbooksapp;
+
+/**
+ * Stops sending requests to a server that keeps failing, so searches fail fast to the cached
+ * results instead of waiting for timeouts, and the server gets time to recover.
+ *
+ * The circuit is closed while requests succeed. After {@link #failureThreshold} failures in a row
+ * it opens, and requests are refused for a while. Then a single trial request is let through
+ * (half-open): if it succeeds the circuit closes again, otherwise it opens for twice as long.
+ * The server can also open it for a given time, with a Retry-After header.
+ */
+class CircuitBreaker {
+
+    static final int STATE_CLOSED = 0;
+    static final int STATE_OPEN = 1;
+    static final int STATE_HALF_OPEN = 2;
+
+    /**
+     * Interface to be notified when the state changes. It is called on the thread of the request
+     * that changed it.
+     */
+    interface Listener {
+        void onStateChanged(int state);
+    }
+
+    private final int failureThreshold;
+    private final long minOpenMillis;
+    private final long maxOpenMillis;
+
+    private int state = STATE_CLOSED;
+    private int failures;
+
+    /** How long the circuit stays open the next time it opens */
+    private long openMillis;
+
+    /** Time (System.nanoTime) until which requests are refused while open */
+    private long openUntil;
+
+    /** Whether the trial request of the half-open state has been let through */
+    private boolean trialInFlight;
+
+    private volatile Listener listener;
+
+    /**
+     * Constructs a new {@link CircuitBreaker}.
+     *
+     * @param failureThreshold number of failures in a row that open the circuit
+     * @param minOpenMillis time the circuit stays open the first time
+     * @param maxOpenMillis maximum time the circuit stays open, when trial requests keep failing
+     */
+    CircuitBreaker(int failureThreshold, long minOpenMillis, long maxOpenMillis) {
+        this.failureThreshold = failureThreshold;
+        this.minOpenMillis = minOpenMillis;
+        this.maxOpenMillis = maxOpenMillis;
+        this.openMillis = minOpenMillis;
+    }
+
+    void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    synchronized int getState() {
+        return state;
+    }
+
+    /**
+     * Returns the time (in milliseconds) left until a request is let through again, or 0.
+     */
+    synchronized long getRetryDelay() {
+        if (state != STATE_OPEN) {
+            return 0;
+        }
+        return Math.max((openUntil - System.nanoTime()) / 1000000, 0);
+    }
+
+    /**
+     * Returns whether a request can be sent now. If it returns true, the outcome of the request
+     * must be reported with {@link #onSuccess}, {@link #onFailure} or {@link #onAbandoned}.
+     */
+    boolean allowRequest() {
+        synchronized (this) {
+            if (state == STATE_CLOSED) {
+                return true;
+            }
+            if (state == STATE_HALF_OPEN || System.nanoTime() - openUntil < 0) {
+                return false;
+            }
+            state = STATE_HALF_OPEN;
+            trialInFlight = true;
+        }
+        notifyListener(STATE_HALF_OPEN);
+        return true;
+    }
+
+    /**
+     * Report that a request got a response from the server.
+     */
+    void onSuccess() {
+        synchronized (this) {
+            failures = 0;
+            openMillis = minOpenMillis;
+            trialInFlight = false;
+            if (state == STATE_CLOSED) {
+                return;
+            }
+            state = STATE_CLOSED;
+        }
+        notifyListener(STATE_CLOSED);
+    }
+
+    /**
+     * Report that a request failed, or the server answered it was unavailable.
+     */
+    void onFailure() {
+        synchronized (this) {
+            failures++;
+            if (state == STATE_HALF_OPEN) {
+                // The server hasn't recovered yet: wait longer before the next trial
+                trialInFlight = false;
+                openMillis = Math.min(openMillis * 2, maxOpenMillis);
+            } else if (state == STATE_OPEN || failures < failureThreshold) {
+                return;
+            }
+            open(openMillis);
+        }
+        notifyListener(STATE_OPEN);
+    }
+
+    /**
+     * Report that a request was canceled before its outcome was known.
+     */
+    void onAbandoned() {
+        boolean reopened = false;
+        synchronized (this) {
+            if (state == STATE_HALF_OPEN && trialInFlight) {
+                // Let the next request be the trial
+                trialInFlight = false;
+                state = STATE_OPEN;
+                reopened = true;
+            }
+        }
+        if (reopened) {
+            notifyListener(STATE_OPEN);
+        }
+    }
+
+    /**
+     * Close the circuit and forget the failures, e.g. when the device connects to a network again:
+     * the requests may have failed because of the network, not of the server.
+     */
+    void reset() {
+        synchronized (this) {
+            failures = 0;
+            openMillis = minOpenMillis;
+            trialInFlight = false;
+            if (state == STATE_CLOSED) {
+                return;
+            }
+            state = STATE_CLOSED;
+        }
+        notifyListener(STATE_CLOSED);
+    }
+
+    /**
+     * Refuse the requests for at least the given time, as asked by the server.
+     */
+    void openFor(long millis) {
+        synchronized (this) {
+            long until = System.nanoTime() + millis * 1000000;
+            if (state == STATE_OPEN && until - openUntil <= 0) {
+                return;
+            }
+            trialInFlight = false;
+            state = STATE_OPEN;
+            openUntil = until;
+        }
+        notifyListener(STATE_OPEN);
+    }
+
+    private void open(long millis) {
+        state = STATE_OPEN;
+        openUntil = System.nanoTime() + millis * 1000000;
+    }
+
+    private void notifyListener(int newState) {
+        Listener current = listener;
+        if (current != null) {
+            current.onStateChanged(newState);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2017 by Francis Gálvez
+ */
+package com.example.android.computerbooksapp;
+
+import android.annotation.TargetApi;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkInfo;
+import android.net.NetworkRequest;
+import android.os.Build;
+import android.telephony.TelephonyManager;
+
+/**
+ * Keeps track of whether the device has an Internet connection, so the activity can ask as often
+ * as it needs without querying the {@link ConnectivityManager} each time. It also tells the
+ * {@link NetworkPolicy} what the network is: its type, whether it's metered and whether the user
+ * turned Data Saver on.
+ *
+ * The state is read once, then updated by a network callback (from Lollipop) or by the
+ * connectivity broadcasts (before), which are registered for the lifetime of the process.
+ */
+final class ConnectivityMonitor {
+
+    /** Single instance shared by the whole app */
+    private static ConnectivityMonitor instance;
+
+    private final ConnectivityManager connectivityManager;
+
+    /** Whether the device was connected at the last change */
+    private volatile boolean connected;
+
+    /** Network the device was connected to at the last change, or null */
+    private String network;
+
+    private ConnectivityMonitor(Context context) {
+        connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        update();
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            registerNetworkCallback();
+        } else {
+            context.registerReceiver(new BroadcastReceiver() {
+                @Override
+                public void onReceive(Context context, Intent intent) {
+                    update();
+                }
+            }, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+        }
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            // Only sent to the receivers registered at runtime
+            context.registerReceiver(new BroadcastReceiver() {
+                @Override
+                public void onReceive(Context context, Intent intent) {
+                    update();
+                }
+            }, new IntentFilter(ConnectivityManager.ACTION_RESTRICT_BACKGROUND_CHANGED));
+        }
+    }
+
+    /**
+     * Returns the {@link ConnectivityMonitor} of the app, creating it the first time.
+     */
+    static synchronized ConnectivityMonitor getInstance(Context context) {
+        if (instance == null) {
+            instance = new ConnectivityMonitor(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Returns whether the device has a network connection.
+     */
+    boolean isConnected() {
+        return connected;
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private void registerNetworkCallback() {
+        // Any network appearing or going away may change the default one, so look at it again
+        connectivityManager.registerNetworkCallback(new NetworkRequest.Builder().build(),
+                new ConnectivityManager.NetworkCallback() {
+                    @Override
+                    public void onAvailable(Network network) {
+                        update();
+                    }
+
+                    @Override
+                    public void onLost(Network network) {
+                        update();
+                    }
+
+                    @Override
+                    public void onCapabilitiesChanged(Network network, NetworkCapabilities capabilities) {
+                        // e.g. a Wi-Fi network marked as metered
+                        update();
+                    }
+                });
+    }
+
+    private synchronized void update() {
+        // Get details on the currently active default data network
+        NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
+        connected = networkInfo != null && networkInfo.isConnected();
+        if (!connected) {
+            network = null;
+            return;
+        }
+
+        String network = networkInfo.getTypeName();
+        if (networkInfo.getSubtypeName() != null && !networkInfo.getSubtypeName().isEmpty()) {
+            network += "/" + networkInfo.getSubtypeName();
+        }
+        if (!network.equals(this.network)) {
+            // The requests which opened the circuit may have failed for the lack of a network
+            RetryingHttpClient.getCircuitBreaker().reset();
+            this.network = network;
+        }
+        boolean metered;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            metered = connectivityManager.isActiveNetworkMetered();
+        } else {
+            metered = networkInfo.getType() != ConnectivityManager.TYPE_WIFI
+                    && networkInfo.getType() != ConnectivityManager.TYPE_ETHERNET;
+        }
+        boolean dataSaver = metered && Build.VERSION.SDK_INT >= Build.VERSION_CODES.N && isDataSaverOn();
+
+        NetworkPolicy.getInstance().onNetworkChanged(network, expectedLink(networkInfo), metered, dataSaver);
+    }
+
+    /**
+     * Returns whether Data Saver restricts the data the app uses on metered networks.
+     */
+    @TargetApi(Build.VERSION_CODES.N)
+    private boolean isDataSaverOn() {
+        return connectivityManager.getRestrictBackgroundStatus()
+                == ConnectivityManager.RESTRICT_BACKGROUND_STATUS_ENABLED;
+    }
+
+    /**
+     * Returns the class of link expected from the type of the given network, until it's measured.
+     */
+    private static int expectedLink(NetworkInfo networkInfo) {
+        if (networkInfo.getType() != ConnectivityManager.TYPE_MOBILE) {
+            // Wi-Fi, Ethernet...
+            return NetworkPolicy.LINK_FAST;
+        }
+        switch (networkInfo.getSubtype()) {
+            case TelephonyManager.NETWORK_TYPE_GPRS:
+            case TelephonyManager.NETWORK_TYPE_EDGE:
+            case TelephonyManager.NETWORK_TYPE_CDMA:
+            case TelephonyManager.NETWORK_TYPE_1xRTT:
+            case TelephonyManager.NETWORK_TYPE_IDEN:
+                return NetworkPolicy.LINK_SLOW;
+            case TelephonyManager.NETWORK_TYPE_LTE:
+            case TelephonyManager.NETWORK_TYPE_HSPAP:
+                return NetworkPolicy.LINK_FAST;
+            default:
+                return NetworkPolicy.LINK_MODERATE;
+        }
+    }
+}
@@ -0,0 +1,466 @@
+/*
+ * Copyright (c) 2017 by Francis Gálvez
+ */
+package com.example.android.computerbooksapp;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ref.SoftReference;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.Future;
+
+/**
+ * Loads the cover thumbnails of the books into the {@link ImageView}s of the list.
+ *
+ * Covers are downloaded once into a disk cache, decoded off the UI thread at the size of the
+ * {@link ImageView} they are displayed in, and kept in a memory LRU sized from the available heap.
+ * Bitmaps evicted from memory are reused for later decodes when possible, once no view displays
+ * them. A request is canceled as soon as its {@link ImageView} is recycled for another book.
+ */
+final class CoverLoader {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = CoverLoader.class.getSimpleName();
+
+    /** Name of the directory holding the disk cache, inside the cache directory of the app */
+    private static final String DISK_CACHE_DIR = "covers";
+
+    /** Maximum size (in bytes) of the disk cache */
+    private static final long MAX_DISK_CACHE_BYTES = 10 * 1024 * 1024;
+
+    /** Maximum number of threads downloading and decoding covers, on a fast network */
+    private static final int THREAD_COUNT = 2;
+
+    /** Single instance shared by all the adapters of the app */
+    private static CoverLoader instance;
+
+    private final File diskCacheDir;
+    private final LruCache<String, Bitmap> memoryCache;
+    private final ThreadPoolExecutor executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(THREAD_COUNT);
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    /** Bitmaps evicted from the memory cache, which may be reused to decode other covers */
+    private final Set<SoftReference<Bitmap>> reusableBitmaps =
+            Collections.synchronizedSet(new HashSet<SoftReference<Bitmap>>());
+
+    /** Request being made for each {@link ImageView}, and bitmap it displays. On the main thread. */
+    private final Map<ImageView, CoverRequest> requests = new WeakHashMap<>();
+    private final Map<ImageView, Bitmap> displayedBitmaps = new WeakHashMap<>();
+
+    /** Bitmaps evicted while still displayed, reused once no view displays them. On the main thread. */
+    private final Set<Bitmap> displayedEvictedBitmaps = new HashSet<>();
+
+    private CoverLoader(Context context) {
+        diskCacheDir = new File(context.getCacheDir(), DISK_CACHE_DIR);
+
+        // Use an eighth of the memory available to the app for the covers
+        int maxKilobytes = (int) (Runtime.getRuntime().maxMemory() / 1024 / 8);
+        memoryCache = new LruCache<String, Bitmap>(maxKilobytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount() / 1024;
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, final Bitmap oldValue, Bitmap newValue) {
+                // A cover can be evicted while its row is still on screen, e.g. when the rows of a
+                // big screen hold more covers than the cache: decoding into it would change its row
+                if (evicted && oldValue.isMutable()) {
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (displayedBitmaps.containsValue(oldValue)) {
+                                displayedEvictedBitmaps.add(oldValue);
+                            } else {
+                                reusableBitmaps.add(new SoftReference<>(oldValue));
+                            }
+                        }
+                    });
+                }
+            }
+        };
+
+        // Fewer downloads at once on a slower network
+        NetworkPolicy policy = NetworkPolicy.getInstance();
+        NetworkPolicy.setThreadCount(executor, Math.min(THREAD_COUNT, policy.getCoverConcurrency()));
+        policy.addListener(new NetworkPolicy.Listener() {
+            @Override
+            public void onPolicyChanged(NetworkPolicy policy) {
+                NetworkPolicy.setThreadCount(executor, Math.min(THREAD_COUNT, policy.getCoverConcurrency()));
+            }
+        });
+    }
+
+    /**
+     * Returns the {@link CoverLoader} of the app, creating it the first time.
+     */
+    static synchronized CoverLoader getInstance(Context context) {
+        if (instance == null) {
+            instance = new CoverLoader(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Display the cover at the given URL in the given {@link ImageView}, canceling the request
+     * previously made for it. When the {@link NetworkPolicy} saves data, only the covers already
+     * on the device are displayed.
+     *
+     * @param url of the cover, or null if the book has none
+     * @param imageView to display the cover in. It must have a fixed size.
+     */
+    void load(String url, ImageView imageView) {
+        CoverRequest previous = requests.get(imageView);
+        if (previous != null) {
+            if (previous.url.equals(url)) {
+                // The same cover is still being loaded
+                return;
+            }
+            previous.cancel();
+            requests.remove(imageView);
+        }
+
+        if (url == null) {
+            display(imageView, null);
+            return;
+        }
+
+        int width = imageView.getLayoutParams().width;
+        int height = imageView.getLayoutParams().height;
+
+        Bitmap bitmap = memoryCache.get(memoryKey(url, width, height));
+        if (bitmap != null) {
+            display(imageView, bitmap);
+            return;
+        }
+
+        display(imageView, null);
+        CoverRequest request = new CoverRequest(url, width, height,
+                NetworkPolicy.getInstance().shouldLoadCovers(), imageView);
+        requests.put(imageView, request);
+        request.future = executor.submit(request);
+    }
+
+    /**
+     * Cancel the request made for the given {@link ImageView}, if any.
+     */
+    void cancel(ImageView imageView) {
+        CoverRequest request = requests.remove(imageView);
+        if (request != null) {
+            request.cancel();
+        }
+    }
+
+    /**
+     * Display the given bitmap, or nothing, in the given {@link ImageView}. The bitmap it
+     * displayed before is reused if it was evicted and no other view displays it.
+     */
+    private void display(ImageView imageView, Bitmap bitmap) {
+        Bitmap previous;
+        if (bitmap != null) {
+            imageView.setImageBitmap(bitmap);
+            previous = displayedBitmaps.put(imageView, bitmap);
+        } else {
+            imageView.setImageDrawable(null);
+            previous = displayedBitmaps.remove(imageView);
+        }
+
+        if (previous != null && previous != bitmap && !displayedBitmaps.containsValue(previous)
+                && displayedEvictedBitmaps.remove(previous)) {
+            reusableBitmaps.add(new SoftReference<>(previous));
+        }
+    }
+
+    /**
+     * Download the cover at the given URL into the disk cache, if it isn't there yet, so it
+     * displays without the network later. This blocks, so it must be called on a background thread.
+     *
+     * @return the number of bytes of the cover on disk, or -1 if it couldn't be downloaded
+     */
+    long prefetch(String url, CancellationToken cancellation) {
+        File file = getFromDiskCache(url, true, cancellation);
+        return file == null ? -1 : file.length();
+    }
+
+    private static String memoryKey(String url, int width, int height) {
+        return url + "@" + width + "x" + height;
+    }
+
+    /**
+     * Download and decode a cover in the background, then display it if its {@link ImageView}
+     * hasn't been recycled in the meantime.
+     */
+    private final class CoverRequest implements Runnable {
+
+        final String url;
+        final int width;
+        final int height;
+        /** Whether the cover is downloaded if it isn't on disk */
+        final boolean download;
+        final ImageView imageView;
+        final CancellationToken cancellation = new CancellationToken();
+        Future<?> future;
+
+        CoverRequest(String url, int width, int height, boolean download, ImageView imageView) {
+            this.url = url;
+            this.width = width;
+            this.height = height;
+            this.download = download;
+            this.imageView = imageView;
+        }
+
+        void cancel() {
+            cancellation.cancel();
+            if (future != null) {
+                future.cancel(false);
+            }
+        }
+
+        @Override
+        public void run() {
+            final Bitmap bitmap = cancellation.isCanceled() ? null : load();
+
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    // The view may have been recycled for another book. Otherwise the request is
+                    // over even without a cover, so loading the same cover again tries again.
+                    if (requests.get(imageView) == CoverRequest.this) {
+                        requests.remove(imageView);
+                        if (bitmap != null) {
+                            display(imageView, bitmap);
+                        }
+                    }
+                }
+            });
+        }
+
+        /**
+         * Returns the cover decoded, or null if it isn't on disk and can't be downloaded, or if the
+         * request was canceled.
+         */
+        private Bitmap load() {
+            File file = getFromDiskCache(url, download, cancellation);
+            if (file == null || cancellation.isCanceled()) {
+                return null;
+            }
+
+            Bitmap bitmap = decode(file, width, height);
+            if (bitmap != null) {
+                memoryCache.put(memoryKey(url, width, height), bitmap);
+            }
+            return bitmap;
+        }
+    }
+
+    /**
+     * Returns the file holding the cover at the given URL, downloading it if it isn't on disk yet
+     * and download is true, or null. This is on a background thread.
+     */
+    private File getFromDiskCache(String url, boolean download, CancellationToken cancellation) {
+        File file = new File(diskCacheDir, hash(url));
+        if (file.exists()) {
+            // Remember the access, so the least recently used files are removed first
+            file.setLastModified(System.currentTimeMillis());
+            return file;
+        }
+        if (!download) {
+            return null;
+        }
+
+        if (!diskCacheDir.exists() && !diskCacheDir.mkdirs()) {
+            return null;
+        }
+
+        File tmpFile = null;
+        BookHttpClient.Response response = null;
+        OutputStream output = null;
+        try {
+            response = BookHttpClient.get(new URL(url), null, null, cancellation);
+            if (response == null || response.getCode() != HttpURLConnection.HTTP_OK) {
+                return null;
+            }
+
+            // The same cover may be downloaded by two threads at once (e.g. by two rows, or by a
+            // row and the cache warm-up), so each one writes its own file. The last one renamed wins.
+            tmpFile = File.createTempFile(file.getName(), ".tmp", diskCacheDir);
+            InputStream input = response.getBody();
+            output = new FileOutputStream(tmpFile);
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                output.write(buffer, 0, read);
+            }
+            output.close();
+            output = null;
+            NetworkPolicy.getInstance().onResponse(response.getTimeToFirstByte(), response.getWireBytes(),
+                    response.getReadTime());
+
+            if (!tmpFile.renameTo(file)) {
+                return null;
+            }
+        } catch (IOException e) {
+            if (!cancellation.isCanceled()) {
+                Log.e(LOG_TAG, "Problem downloading the cover " + url, e);
+            }
+            return null;
+        } finally {
+            cancellation.detach();
+            if (response != null) {
+                response.close();
+            }
+            if (output != null) {
+                try {
+                    output.close();
+                } catch (IOException e) {
+                    // Nothing to do, the file is removed below
+                }
+            }
+            if (tmpFile != null && tmpFile.exists()) {
+                tmpFile.delete();
+            }
+        }
+
+        trimDiskCache();
+        return file;
+    }
+
+    /**
+     * Remove the least recently used files until the disk cache fits its maximum size.
+     */
+    private synchronized void trimDiskCache() {
+        File[] files = diskCacheDir.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        long size = 0;
+        for (File file : files) {
+            size += file.length();
+        }
+        if (size <= MAX_DISK_CACHE_BYTES) {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long diff = a.lastModified() - b.lastModified();
+                return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+            }
+        });
+        for (int i = 0; i < files.length && size > MAX_DISK_CACHE_BYTES; i++) {
+            long length = files[i].length();
+            if (files[i].delete()) {
+                size -= length;
+            }
+        }
+    }
+
+    /**
+     * Decode the given file, downsampled to the smallest size still covering the requested one.
+     * This is on a background thread.
+     */
+    private Bitmap decode(File file, int width, int height) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getPath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            // Not an image: don't keep it
+            file.delete();
+            return null;
+        }
+
+        options.inSampleSize = 1;
+        while (options.outWidth / (options.inSampleSize * 2) >= width
+                && options.outHeight / (options.inSampleSize * 2) >= height) {
+            options.inSampleSize *= 2;
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inMutable = true;
+        options.inBitmap = findReusableBitmap(options);
+
+        try {
+            return BitmapFactory.decodeFile(file.getPath(), options);
+        } catch (IllegalArgumentException e) {
+            // The reused bitmap didn't fit after all
+            options.inBitmap = null;
+            return BitmapFactory.decodeFile(file.getPath(), options);
+        }
+    }
+
+    /**
+     * Returns an evicted bitmap that can hold the image described by the given options, or null.
+     */
+    private Bitmap findReusableBitmap(BitmapFactory.Options options) {
+        int width = options.outWidth / options.inSampleSize;
+        int height = options.outHeight / options.inSampleSize;
+
+        synchronized (reusableBitmaps) {
+            Iterator<SoftReference<Bitmap>> iterator = reusableBitmaps.iterator();
+            while (iterator.hasNext()) {
+                Bitmap candidate = iterator.next().get();
+                if (candidate == null || !candidate.isMutable() || candidate.isRecycled()) {
+                    iterator.remove();
+                } else if (canReuse(candidate, width, height, options.inSampleSize)) {
+                    iterator.remove();
+                    return candidate;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static boolean canReuse(Bitmap candidate, int width, int height, int inSampleSize) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            // Any bitmap big enough can be reused (4 bytes per ARGB_8888 pixel)
+            return width * height * 4 <= candidate.getAllocationByteCount();
+        }
+
+        // Before KitKat, the bitmap must have exactly the same size and can't be downsampled
+        return candidate.getWidth() == width && candidate.getHeight() == height && inSampleSize == 1;
+    }
+
+    /**
+     * Returns the name of the disk cache file of the given URL.
+     */
+    private static String hash(String url) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(url.getBytes("UTF-8"));
+            StringBuilder name = new StringBuilder();
+            for (byte b : digest) {
+                name.append(String.format("%02x", b));
+            }
+            return name.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            return String.valueOf(url.hashCode());
+        }
+    }
+}
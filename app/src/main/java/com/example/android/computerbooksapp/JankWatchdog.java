@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2017 by Francis Gálvez
+ */
+package com.example.android.computerbooksapp;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.util.Log;
+import android.view.Choreographer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the frames drawn while the list scrolls, and reports those that took longer than a
+ * refresh of the display, which the user sees as stutter.
+ *
+ * The time between two frames goes into {@link SearchMetrics#FRAME}, and the frames dropped by
+ * each scroll into {@link SearchMetrics#DROPPED_FRAMES}. A scroll that dropped frames is logged.
+ * Must be used on the UI thread.
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+final class JankWatchdog implements Choreographer.FrameCallback {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = JankWatchdog.class.getSimpleName();
+
+    /** Time between two refreshes of the display, in nanoseconds */
+    private final long frameBudget;
+
+    private boolean running;
+
+    /** Time of the previous frame, or 0 before the first one */
+    private long lastFrameTime;
+
+    /** Frames drawn and dropped since the scroll started, and the longest one */
+    private int frameCount;
+    private int droppedCount;
+    private long longestFrame;
+
+    /**
+     * Constructs a new {@link JankWatchdog}.
+     *
+     * @param refreshRate of the display, in frames per second
+     */
+    JankWatchdog(float refreshRate) {
+        frameBudget = (long) (TimeUnit.SECONDS.toNanos(1) / (refreshRate > 0 ? refreshRate : 60));
+    }
+
+    /**
+     * Start watching the frames, when the list starts scrolling. Does nothing if already started.
+     */
+    void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        lastFrameTime = 0;
+        frameCount = 0;
+        droppedCount = 0;
+        longestFrame = 0;
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    /**
+     * Stop watching the frames, when the list stops scrolling, and report them.
+     */
+    void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        Choreographer.getInstance().removeFrameCallback(this);
+
+        if (frameCount > 0) {
+            SearchMetrics.record(SearchMetrics.DROPPED_FRAMES, droppedCount);
+        }
+        if (droppedCount > 0) {
+            Log.w(LOG_TAG, "Scrolling dropped " + droppedCount + " of " + (frameCount + droppedCount)
+                    + " frames, the longest took " + TimeUnit.NANOSECONDS.toMillis(longestFrame) + " ms");
+        }
+    }
+
+    /** Returns the frames drawn since the watchdog was last started */
+    int getFrameCount() {
+        return frameCount;
+    }
+
+    /** Returns the frames dropped since the watchdog was last started */
+    int getDroppedCount() {
+        return droppedCount;
+    }
+
+    /** Returns the longest frame (in nanoseconds) since the watchdog was last started */
+    long getLongestFrame() {
+        return longestFrame;
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (!running) {
+            return;
+        }
+
+        if (lastFrameTime != 0) {
+            long frameTime = frameTimeNanos - lastFrameTime;
+            SearchMetrics.recordNanos(SearchMetrics.FRAME, frameTime);
+            frameCount++;
+            longestFrame = Math.max(longestFrame, frameTime);
+
+            // A frame taking two refreshes means one was dropped, allowing for some jitter
+            long dropped = (frameTime + frameBudget / 2) / frameBudget - 1;
+            if (dropped > 0) {
+                droppedCount += dropped;
+            }
+        }
+        lastFrameTime = frameTimeNanos;
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+}
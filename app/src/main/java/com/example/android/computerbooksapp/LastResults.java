@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2017 by Francis Gálvez
+ */
+package com.example.android.computerbooksapp;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Keeps the last results displayed in a file, so the app shows them as soon as it starts instead
+ * of an empty list. The books are stored with {@link BookCodec}, after the query that found them.
+ */
+final class LastResults {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = LastResults.class.getSimpleName();
+
+    /** Name of the file, in the files directory of the app */
+    private static final String FILE_NAME = "last_results.bin";
+
+    /** Maximum number of books kept: more than a screen, but only the first pages */
+    private static final int MAX_BOOKS = 2 * QueryUtils.PAGE_SIZE;
+
+    /** Reads and writes the file in order, off the UI thread */
+    private static final Executor EXECUTOR = Executors.newSingleThreadExecutor();
+
+    /**
+     * Interface to be notified of the results read.
+     */
+    interface Callback {
+        /**
+         * Called on a background thread with the results read, or nulls if there are none.
+         */
+        void onLoaded(String query, List<Book> books);
+    }
+
+    /**
+     * Create a private constructor because no one should ever create a {@link LastResults} object.
+     */
+    private LastResults() {
+    }
+
+    /**
+     * Read the last results in the background.
+     */
+    static void load(Context context, final Callback callback) {
+        final File file = new File(context.getFilesDir(), FILE_NAME);
+        EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                String query = null;
+                List<Book> books = null;
+
+                if (file.exists()) {
+                    DataInputStream input = null;
+                    try {
+                        input = new DataInputStream(new FileInputStream(file));
+                        query = input.readUTF();
+                        int length = input.readInt();
+                        if (length < 0 || length > file.length()) {
+                            throw new IOException("Invalid length " + length);
+                        }
+                        byte[] encoded = new byte[length];
+                        input.readFully(encoded);
+                        books = BookCodec.decode(encoded);
+                    } catch (IOException e) {
+                        Log.e(LOG_TAG, "Problem reading the last results", e);
+                        query = null;
+                        books = null;
+                    } finally {
+                        close(input);
+                    }
+                }
+
+                callback.onLoaded(query, books);
+            }
+        });
+    }
+
+    /**
+     * Write the given results in the background, replacing the previous ones.
+     */
+    static void save(Context context, final String query, List<Book> books) {
+        final File file = new File(context.getFilesDir(), FILE_NAME);
+        final List<Book> kept = books.subList(0, Math.min(books.size(), MAX_BOOKS));
+        final byte[] encoded = BookCodec.encode(kept);
+
+        EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                // Write a new file and rename it, so a crash never leaves half a file
+                File tmpFile = new File(file.getPath() + ".tmp");
+                DataOutputStream output = null;
+                try {
+                    output = new DataOutputStream(new FileOutputStream(tmpFile));
+                    output.writeUTF(query);
+                    output.writeInt(encoded.length);
+                    output.write(encoded);
+                    output.close();
+                    output = null;
+                    if (!tmpFile.renameTo(file)) {
+                        Log.e(LOG_TAG, "Problem saving the last results");
+                    }
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Problem saving the last results", e);
+                } finally {
+                    close(output);
+                    tmpFile.delete();
+                }
+            }
+        });
+    }
+
+    private static void close(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // Nothing else to do
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2017 by Francis Gálvez
+ */
+package com.example.android.computerbooksapp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Decides which pages the browser should get ready for, from the rows the user sees: the top one
+ * is the most likely to be tapped, and the next few are worth a cheaper preparation.
+ *
+ * The browser is only told when the rows change, since each hint may start loading a page. It
+ * doesn't depend on Android, so it can be driven with a fake {@link Session}.
+ */
+final class LaunchSpeculator {
+
+    /** Rows after the top one the browser is told about */
+    static final int MAX_OTHER_URLS = 2;
+
+    /**
+     * Interface to the browser getting ready for the pages.
+     */
+    interface Session {
+        /**
+         * Tell the browser the given page is likely to be opened, and the others may be.
+         *
+         * @return whether the browser accepted the hint
+         */
+        boolean mayLaunchUrl(String url, List<String> otherUrls);
+    }
+
+    /** Browser to tell, or null while there's none */
+    private Session session;
+
+    /** Pages of the rows the user sees, top first */
+    private List<String> visibleUrls = Collections.emptyList();
+
+    /** Pages the browser was last told about, the most likely first */
+    private List<String> speculatedUrls = Collections.emptyList();
+
+    private int openCount;
+    private int hitCount;
+
+    /**
+     * Set the browser to tell, or null if it went away. The rows seen in the meantime are told
+     * to the new one.
+     */
+    void setSession(Session session) {
+        this.session = session;
+        speculatedUrls = Collections.emptyList();
+        speculate();
+    }
+
+    /**
+     * Called when the rows the user sees change.
+     *
+     * @param urls pages of the rows, top first
+     */
+    void onVisibleUrls(List<String> urls) {
+        visibleUrls = new ArrayList<>(urls.subList(0, Math.min(urls.size(), MAX_OTHER_URLS + 1)));
+        speculate();
+    }
+
+    /**
+     * Forget the rows seen, when their pages may no longer be loaded in advance. Nothing is told,
+     * to this browser or the next one, until rows are seen again.
+     */
+    void clear() {
+        visibleUrls = Collections.emptyList();
+    }
+
+    /**
+     * Called when the user opens a page.
+     *
+     * @return whether the browser was getting ready for it
+     */
+    boolean onOpen(String url) {
+        openCount++;
+        boolean hit = speculatedUrls.contains(url);
+        if (hit) {
+            hitCount++;
+        }
+        return hit;
+    }
+
+    /**
+     * Returns the number of pages opened.
+     */
+    int getOpenCount() {
+        return openCount;
+    }
+
+    /**
+     * Returns the number of pages opened that the browser was getting ready for.
+     */
+    int getHitCount() {
+        return hitCount;
+    }
+
+    private void speculate() {
+        if (session == null || visibleUrls.isEmpty() || visibleUrls.equals(speculatedUrls)) {
+            return;
+        }
+
+        List<String> otherUrls = visibleUrls.subList(1, visibleUrls.size());
+        if (session.mayLaunchUrl(visibleUrls.get(0), otherUrls)) {
+            speculatedUrls = visibleUrls;
+        }
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ * Copyright (c) 2017 by Francis Gálvez
+ */
+package com.example.android.computerbooksapp;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Decides how much the app downloads besides what the user is waiting for, from what the network
+ * is like: whether the next page is prefetched, whether the covers are downloaded, how many
+ * requests run at once and how long they may take.
+ *
+ * The link is classed as slow, moderate or fast. Until responses have been measured, its class is
+ * guessed from the type of the network (2G, 3G, LTE, Wi-Fi...). Then it follows the latency (the
+ * time to the first byte) and the throughput measured on the responses, smoothed by moving
+ * averages which start again when the device changes network. On a slow link, or when the user
+ * turned Data Saver on, only what is displayed is downloaded.
+ *
+ * Only the covers are big enough to measure the throughput, and they aren't downloaded on a slow
+ * link, so a throughput measured as slow would never be measured again. Once a few responses in a
+ * row were too small to measure it, the throughput measured isn't trusted on its own any more: the
+ * link is classed from the latency of those responses, and the next cover downloaded has to confirm
+ * the throughput, or it's the one that decides.
+ *
+ * The size of the pages isn't adapted: a page is the unit of the caches and of the
+ * {@link BookPager}, and trimmed to its fields it's a couple of KB, so it's the round trips, not
+ * the bytes, that make a page slow on a poor link.
+ *
+ * The policy doesn't depend on the Android framework: the {@link ConnectivityMonitor} tells it
+ * about the network, so it can be driven by synthetic traces on the JVM.
+ */
+final class NetworkPolicy {
+
+    /** Classes of link, from the slowest */
+    static final int LINK_SLOW = 0;
+    static final int LINK_MODERATE = 1;
+    static final int LINK_FAST = 2;
+
+    /** Latency (in milliseconds) above which a link is moderate, and slow */
+    private static final long MODERATE_LATENCY_MILLIS = 700;
+    private static final long SLOW_LATENCY_MILLIS = 1500;
+
+    /** Throughput (in bytes per second) below which a link is moderate (3G), and slow (2G) */
+    private static final long MODERATE_BYTES_PER_SECOND = 100 * 1024;
+    private static final long SLOW_BYTES_PER_SECOND = 15 * 1024;
+
+    /**
+     * Smallest body whose download measures the throughput. Smaller ones mostly arrive with the
+     * headers, in the first packets, so the time spent reading them says little.
+     */
+    private static final long MIN_THROUGHPUT_BYTES = 8 * 1024;
+
+    /** Weight of a new sample in the moving averages */
+    private static final double SAMPLE_WEIGHT = 0.3;
+
+    /** Number of samples averaged before they are trusted over the type of the network */
+    private static final int MIN_SAMPLES = 2;
+
+    /**
+     * Number of responses in a row too small to measure the throughput after which the throughput
+     * measured before needs a new sample to be trusted again.
+     */
+    private static final int MAX_RESPONSES_WITHOUT_THROUGHPUT = 4;
+
+    /** Single instance shared by the whole app */
+    private static final NetworkPolicy instance = new NetworkPolicy();
+
+    /**
+     * Notified when the decisions of the policy may have changed, on the thread which changed them.
+     */
+    interface Listener {
+        void onPolicyChanged(NetworkPolicy policy);
+    }
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    /** Network the device uses, and the class of link expected from its type */
+    private String network = "unknown";
+    private int expectedLink = LINK_FAST;
+    private boolean metered;
+    private boolean dataSaver;
+
+    /** Moving averages of the latency (in milliseconds) and of the throughput (in bytes per second) */
+    private double latencyMillis;
+    private int latencySamples;
+    private double bytesPerSecond;
+    private int throughputSamples;
+
+    /** Number of responses received since the last one that measured the throughput */
+    private int responsesWithoutThroughput;
+
+    /**
+     * Constructs a new {@link NetworkPolicy}, on a fast network until told otherwise.
+     */
+    NetworkPolicy() {
+    }
+
+    /**
+     * Returns the {@link NetworkPolicy} of the app.
+     */
+    static NetworkPolicy getInstance() {
+        return instance;
+    }
+
+    void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Called when the device changes network, or the network changes.
+     *
+     * @param network description of the network, e.g. "MOBILE/LTE". The measures of the previous
+     *                network are forgotten when it changes.
+     * @param expectedLink class of link expected from the type of the network
+     * @param metered whether the user may pay for the data
+     * @param dataSaver whether the user asked apps to use less data in the background
+     */
+    void onNetworkChanged(String network, int expectedLink, boolean metered, boolean dataSaver) {
+        int before;
+        int after;
+        synchronized (this) {
+            before = getState();
+            if (!network.equals(this.network)) {
+                latencySamples = 0;
+                throughputSamples = 0;
+                responsesWithoutThroughput = 0;
+            }
+            this.network = network;
+            this.expectedLink = expectedLink;
+            this.metered = metered;
+            this.dataSaver = dataSaver;
+            after = getState();
+        }
+        notifyIfChanged(before, after);
+    }
+
+    /**
+     * Record the timings of a response received.
+     *
+     * @param timeToFirstByte time (in nanoseconds) from sending the request to the first byte
+     *                        of the response
+     * @param bodyBytes bytes of the body, as they went on the wire
+     * @param readTime time (in nanoseconds) spent waiting for the body
+     */
+    void onResponse(long timeToFirstByte, long bodyBytes, long readTime) {
+        int before;
+        int after;
+        synchronized (this) {
+            before = getState();
+            latencyMillis = average(latencyMillis, latencySamples++, timeToFirstByte / 1e6);
+            if (bodyBytes >= MIN_THROUGHPUT_BYTES && readTime > 0) {
+                bytesPerSecond = average(bytesPerSecond, throughputSamples++, bodyBytes * 1e9 / readTime);
+                responsesWithoutThroughput = 0;
+            } else if (throughputSamples >= MIN_SAMPLES
+                    && ++responsesWithoutThroughput >= MAX_RESPONSES_WITHOUT_THROUGHPUT) {
+                // Weighed like a first sample, the next one makes half of the average
+                throughputSamples = MIN_SAMPLES - 1;
+                responsesWithoutThroughput = 0;
+            }
+            after = getState();
+        }
+        notifyIfChanged(before, after);
+    }
+
+    /**
+     * Returns the class of the link: {@link #LINK_SLOW}, {@link #LINK_MODERATE} or
+     * {@link #LINK_FAST}. The slower of the latency and the throughput decides, each one measured
+     * or, until it is, expected from the type of the network.
+     */
+    synchronized int getLink() {
+        int latencyLink = expectedLink;
+        if (latencySamples >= MIN_SAMPLES) {
+            latencyLink = latencyMillis > SLOW_LATENCY_MILLIS ? LINK_SLOW
+                    : latencyMillis > MODERATE_LATENCY_MILLIS ? LINK_MODERATE : LINK_FAST;
+        }
+        int throughputLink = expectedLink;
+        if (throughputSamples >= MIN_SAMPLES) {
+            throughputLink = bytesPerSecond < SLOW_BYTES_PER_SECOND ? LINK_SLOW
+                    : bytesPerSecond < MODERATE_BYTES_PER_SECOND ? LINK_MODERATE : LINK_FAST;
+        }
+        return Math.min(latencyLink, throughputLink);
+    }
+
+    /**
+     * Returns whether the page after the last one displayed should be loaded in advance. On a
+     * slow link it would hold the only request running while the user starts another search, and
+     * on a metered one it may be paid for and never seen: the page is then loaded when the user
+     * nears the end of the list.
+     */
+    synchronized boolean shouldPrefetch() {
+        return !dataSaver && !metered && getLink() != LINK_SLOW;
+    }
+
+    /**
+     * Returns whether the covers should be downloaded. Those already on the device are displayed
+     * anyway. On a metered link they're only downloaded while it's fast, when they show up with
+     * their rows rather than long after the user scrolled past them.
+     */
+    synchronized boolean shouldLoadCovers() {
+        int link = getLink();
+        return !dataSaver && link != LINK_SLOW && (!metered || link == LINK_FAST);
+    }
+
+    /**
+     * Returns whether the browser may load the pages of the books the user is likely to open,
+     * hundreds of KB each, most of them never seen.
+     */
+    synchronized boolean shouldSpeculate() {
+        return !dataSaver && !metered && getLink() != LINK_SLOW;
+    }
+
+    /**
+     * Returns the number of requests for pages run at the same time. On a slower link, more
+     * requests only share the same bandwidth and all finish later.
+     */
+    int getRequestConcurrency() {
+        switch (getLink()) {
+            case LINK_SLOW:
+                return 1;
+            case LINK_MODERATE:
+                return 2;
+            default:
+                return 3;
+        }
+    }
+
+    /**
+     * Returns the number of covers downloaded at the same time.
+     */
+    int getCoverConcurrency() {
+        return getLink() == LINK_FAST ? 2 : 1;
+    }
+
+    /**
+     * Returns the factor applied to the bounds of the timeouts: on a slow link, even a new
+     * connection takes seconds.
+     */
+    int getTimeoutScale() {
+        return getLink() == LINK_SLOW ? 2 : 1;
+    }
+
+    /**
+     * Set the number of threads of the given pool. Threads above the count stop once idle.
+     */
+    static void setThreadCount(ThreadPoolExecutor executor, int threadCount) {
+        // The core size can never exceed the maximum size
+        if (threadCount > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(threadCount);
+            executor.setCorePoolSize(threadCount);
+        } else {
+            executor.setCorePoolSize(threadCount);
+            executor.setMaximumPoolSize(threadCount);
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.ROOT, "%s, %s link (latency %s, throughput %s)%s%s",
+                network, linkName(getLink()),
+                latencySamples > 0 ? Math.round(latencyMillis) + " ms" : "unknown",
+                throughputSamples > 0 ? Math.round(bytesPerSecond / 1024) + " KB/s" : "unknown",
+                metered ? ", metered" : "", dataSaver ? ", Data Saver on" : "");
+    }
+
+    static String linkName(int link) {
+        switch (link) {
+            case LINK_SLOW:
+                return "slow";
+            case LINK_MODERATE:
+                return "moderate";
+            default:
+                return "fast";
+        }
+    }
+
+    /**
+     * Returns what the decisions depend on, to tell when they change.
+     */
+    private int getState() {
+        return getLink() | (metered ? 4 : 0) | (dataSaver ? 8 : 0);
+    }
+
+    private void notifyIfChanged(int before, int after) {
+        if (before != after) {
+            for (Listener listener : listeners) {
+                listener.onPolicyChanged(this);
+            }
+        }
+    }
+
+    /**
+     * Returns the moving average updated with the given sample. The first samples weigh the same,
+     * so a single bad one doesn't decide the class of the link.
+     */
+    private static double average(double average, int sampleCount, double sample) {
+        double weight = Math.max(SAMPLE_WEIGHT, 1.0 / (sampleCount + 1));
+        return average + weight * (sample - average);
+    }
+}
@@ -3,20 +3,19 @@
  */
 package com.example.android.computerbooksapp;
 
-import android.text.TextUtils;
+import android.util.JsonReader;
+import android.util.JsonToken;
 import android.util.Log;
+import android.util.MalformedJsonException;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.net.URLEncoder;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.List;
@@ -29,6 +28,27 @@ final class QueryUtils {
     /** Tag for the log messages */
     private static final String LOG_TAG = QueryUtils.class.getSimpleName();
 
+    /** Number of books requested for each page of results */
+    static final int PAGE_SIZE = 15;
+
+    /** Largest number of books the API returns in a single response */
+    static final int MAX_PAGE_SIZE = 40;
+
+    /** Address of the volumes collection of the Google Books API */
+    static final String VOLUMES_URL = "https://www.googleapis.com/books/v1/volumes";
+
+    /** Address the requests are sent to: the API, or a stand-in server to test against */
+    private static volatile String volumesUrl = VOLUMES_URL;
+
+    /**
+     * Partial response asked to the API: only the fields read by {@link #readItem},
+     * {@link #readVolumeInfo} and {@link #readThumbnail}, which must be kept in sync with it.
+     * The full resource of a volume (description, sale and access info, search snippet...) is
+     * several times larger than what we display.
+     */
+    static final String FIELDS = "items(id,volumeInfo(title,authors,publisher,infoLink,"
+            + "imageLinks(smallThumbnail,thumbnail)))";
+
     /**
      * Create a private constructor because no one should ever create a {@link QueryUtils} object.
      * This class is only meant to hold static variables and methods, which can be accessed
@@ -38,34 +58,86 @@ final class QueryUtils {
     }
 
     /**
-     * Query the USGS dataset and return a list of {@link Book} objects.
+     * Send the requests to a server standing in for the Google Books API, which must serve the
+     * volumes collection at the given address, or to the API again if it's null.
      */
-    static List<Book> fetchBookData(String query) {
+    static void setVolumesUrl(String url) {
+        volumesUrl = url == null ? VOLUMES_URL : url;
+    }
+
+    /**
+     * Query the Google Books dataset and return a page of {@link Book} objects.
+     *
+     * If a cache is given, an expired copy of the page is revalidated with a conditional request,
+     * and the books received are stored in it.
+     *
+     * @param query searched by the user
+     * @param startIndex position of the first result to return
+     * @param cancellation to abandon the request from another thread, or null
+     * @param cache to revalidate and store the page, or null
+     * @return the books found, or null if the request failed or was canceled
+     */
+    static List<Book> fetchBookData(String query, int startIndex, CancellationToken cancellation, BookCache cache) {
+        return fetchBookData(query, startIndex, PAGE_SIZE, cancellation, cache);
+    }
+
+    /**
+     * Query the Google Books dataset and return a page of the given size, without a cache: the
+     * pages of a cache are identified by the position of their first book, so they must all have
+     * {@link #PAGE_SIZE} books. The page is the last one if it has fewer items than asked for
+     * (see {@link BookPage#itemCountOf}).
+     *
+     * @param maxResults number of books of the page, up to {@link #MAX_PAGE_SIZE}
+     * @see #fetchBookData(String, int, CancellationToken, BookCache)
+     */
+    static List<Book> fetchBookData(String query, int startIndex, int maxResults, CancellationToken cancellation) {
+        return fetchBookData(query, startIndex, maxResults, cancellation, null);
+    }
+
+    private static List<Book> fetchBookData(String query, int startIndex, int maxResults,
+                                            CancellationToken cancellation, BookCache cache) {
+        if (cancellation == null) {
+            cancellation = new CancellationToken();
+        }
+
         // Create URL object
-        URL url = createUrl(query);
+        long createUrlStart = SearchMetrics.begin(SearchMetrics.CREATE_URL);
+        URL url = createUrl(query, startIndex, maxResults);
+        SearchMetrics.end(SearchMetrics.CREATE_URL, createUrlStart);
 
-        // Perform HTTP request to the URL and receive a JSON response back
-        String jsonResponse = null;
+        // Perform HTTP request to the URL and parse the JSON response as it arrives
+        List<Book> books = null;
 
         try {
-            jsonResponse = makeHttpRequest(url);
+            books = makeHttpRequest(url, query, startIndex, cancellation, cache);
         } catch (IOException e) {
             Log.e(LOG_TAG, "Problem making the HTTP request.", e);
         }
 
+        // A canceled request may have been cut in the middle of the response
+        if (cancellation.isCanceled()) {
+            return null;
+        }
+
         // Return the list of {@link Book}s
-        return extractFeatureFromJson(jsonResponse);
+        return books;
     }
 
     /**
-     * Returns new URL object from the query given by the user.
+     * Returns new URL object from the query given by the user and the page to fetch.
      */
-    private static URL createUrl(String query) {
+    static URL createUrl(String query, int startIndex, int maxResults) {
         URL url = null;
 
         try {
-            url = new URL("https://www.googleapis.com/books/v1/volumes?q=intitle:" + query + "&categories=Computers&maxResults=15");
-        } catch (MalformedURLException e) {
+            // The query is typed by the user, so it may contain spaces, '&', '#' or any other
+            // character with a meaning in a URL
+            url = new URL(volumesUrl + "?q=" + URLEncoder.encode("intitle:" + query, "UTF-8")
+                    + "&categories=Computers"
+                    + "&startIndex=" + startIndex
+                    + "&maxResults=" + Math.max(1, Math.min(maxResults, MAX_PAGE_SIZE))
+                    + "&fields=" + URLEncoder.encode(FIELDS, "UTF-8"));
+        } catch (MalformedURLException | UnsupportedEncodingException e) {
             Log.e(LOG_TAG, "Problem building the URL ", e);
         }
 
@@ -73,143 +145,244 @@ final class QueryUtils {
     }
 
     /**
-     * Make an HTTP request to the given URL and return a String as the response.
+     * Make an HTTP request to the given URL and return the list of books parsed from the response,
+     * or null if the request failed. Canceling the given token disconnects the request.
      */
-    private static String makeHttpRequest(URL url) throws IOException {
-        String jsonResponse = "";
+    private static List<Book> makeHttpRequest(URL url, String query, int startIndex,
+                                              CancellationToken cancellation, BookCache cache) throws IOException {
+        List<Book> books = null;
 
         // If the URL is null, then return early.
         if (url == null) {
-            return jsonResponse;
+            return books;
         }
 
-        HttpURLConnection urlConnection = null;
-        InputStream inputStream = null;
+        BookCache.Validators validators = cache == null ? null : cache.getValidators(query, startIndex);
+        BookHttpClient.Response response = null;
+        long requestStart = SearchMetrics.begin(SearchMetrics.REQUEST);
 
         try {
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setReadTimeout(10000);
-            urlConnection.setConnectTimeout(15000);
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
-
-            // If the request was successful (response code 200) then read the input stream and parse the response.
-            if (urlConnection.getResponseCode() == 200) {
-                inputStream = urlConnection.getInputStream();
-                jsonResponse = readFromStream(inputStream);
+            response = validators == null
+                    ? RetryingHttpClient.get(url, null, null, cancellation)
+                    : RetryingHttpClient.get(url, validators.eTag, validators.lastModified, cancellation);
+            if (response == null) {
+                return books;
+            }
+            SearchMetrics.recordNanos(SearchMetrics.CONNECT, response.getConnectTime());
+            SearchMetrics.recordNanos(SearchMetrics.TIME_TO_FIRST_BYTE, response.getTimeToFirstByte());
+
+            if (response.getCode() == HttpURLConnection.HTTP_OK) {
+                // If the request was successful (response code 200), then parse the body as it downloads,
+                // without copying it into a String. A body that can't be parsed throws, so no partial
+                // page is cached.
+                long parseStart = SearchMetrics.begin(SearchMetrics.PARSE);
+                try {
+                    books = extractFeatureFromJson(response.getBody());
+                } finally {
+                    SearchMetrics.end(SearchMetrics.PARSE, parseStart, response.getReadTime());
+                }
+                SearchMetrics.recordNanos(SearchMetrics.DOWNLOAD, response.getReadTime());
+                SearchMetrics.record(SearchMetrics.ITEMS, books.size());
+
+                if (cache != null && !cancellation.isCanceled()) {
+                    cache.put(query, startIndex, books,
+                            new BookCache.Validators(response.getETag(), response.getLastModified()));
+                }
+            } else if (response.getCode() == HttpURLConnection.HTTP_NOT_MODIFIED && cache != null) {
+                // The cached books are still valid
+                books = cache.revalidate(query, startIndex);
             } else {
-                Log.e(LOG_TAG, "Error response code: " + urlConnection.getResponseCode());
+                Log.e(LOG_TAG, "Error response code: " + response.getCode());
             }
+        } catch (RetryingHttpClient.CircuitOpenException e) {
+            // Expected while the server is unavailable, the request wasn't even sent
+            Log.w(LOG_TAG, e.getMessage());
         } catch (IOException e) {
-            Log.e(LOG_TAG, "Problem retrieving the Book JSON results.", e);
-        } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
+            if (!cancellation.isCanceled()) {
+                Log.e(LOG_TAG, "Problem retrieving the Book JSON results.", e);
             }
-            if (inputStream != null) {
-                // Closing the input stream could throw an IOException, which is why the makeHttpRequest(URL url) method
-                // signature specifies than an IOException could be thrown.
-                inputStream.close();
+        } finally {
+            cancellation.detach();
+            if (response != null) {
+                // Reading the rest of the response lets the connection be reused by the next query.
+                response.close();
+                SearchMetrics.record(SearchMetrics.RESPONSE_BYTES, response.getWireBytes());
+                NetworkPolicy.getInstance().onResponse(response.getTimeToFirstByte(), response.getWireBytes(),
+                        response.getReadTime());
+                Log.d(LOG_TAG, "Response " + response.getCode() + ": " + response.getWireBytes()
+                        + " bytes, first byte after " + response.getTimeToFirstByte() / 1000000 + " ms");
             }
+            SearchMetrics.end(SearchMetrics.REQUEST, requestStart);
         }
-        return jsonResponse;
+        return books;
     }
 
     /**
-     * Convert the {@link InputStream} into a String which contains the whole JSON response from the server.
+     * Return a list of {@link Book} objects parsed on the fly from the given JSON stream, as a
+     * {@link BookPage} which also counts the items dropped because they can't be displayed.
+     *
+     * Only the fields we display are read from each "items[].volumeInfo" object; everything else
+     * is skipped by the reader without being materialized.
+     *
+     * @throws IOException if the response is cut short or isn't the JSON expected (e.g. the HTML
+     *                     page of a captive portal), rather than returning the books read so far
+     *                     as if they were the whole page
      */
-    private static String readFromStream(InputStream inputStream) throws IOException {
-        StringBuilder output = new StringBuilder();
-
-        if (inputStream != null) {
-            InputStreamReader inputStreamReader = new InputStreamReader(inputStream, Charset.forName("UTF-8"));
-            BufferedReader reader = new BufferedReader(inputStreamReader);
-            String line = reader.readLine();
-            while (line != null) {
-                output.append(line);
-                line = reader.readLine();
+    static List<Book> extractFeatureFromJson(InputStream inputStream) throws IOException {
+        // Create an empty ArrayList that we can start adding Books to
+        List<Book> books = new ArrayList<>();
+        int itemCount = 0;
+
+        JsonReader reader = new JsonReader(new InputStreamReader(inputStream, Charset.forName("UTF-8")));
+
+        // If there's a problem with the way the JSON is formatted, the reader throws an
+        // IllegalStateException (unexpected token) or a MalformedJsonException (an IOException).
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                // The "items" array represents the list of Books. It is missing when nothing matched.
+                if (reader.nextName().equals("items") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        itemCount++;
+                        Book book = readItem(reader);
+                        if (book != null) {
+                            books.add(book);
+                        }
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
             }
+            reader.endObject();
+        } catch (IllegalStateException e) {
+            throw new MalformedJsonException("Problem parsing the Book JSON results: " + e.getMessage());
         }
 
-        return output.toString();
+        // Return the list of Books
+        return new BookPage(books, itemCount);
     }
 
     /**
-     * Return a list of {@link Book} objects that has been built up from parsing the given JSON response.
+     * Read a single element of the "items" array, or return null if it has no usable "volumeInfo".
      */
-    private static List<Book> extractFeatureFromJson(String bookJSON) {
-        // If the JSON string is empty or null, then return early.
-        if (TextUtils.isEmpty(bookJSON)) {
-            return null;
+    private static Book readItem(JsonReader reader) throws IOException {
+        String id = null;
+        Book book = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("id") && reader.peek() == JsonToken.STRING) {
+                id = reader.nextString();
+            } else if (name.equals("volumeInfo") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                // The "volumeInfo" object holds all the properties we show for a Book
+                book = readVolumeInfo(reader, id);
+            } else {
+                reader.skipValue();
+            }
         }
+        reader.endObject();
 
-        // Create an empty ArrayList that we can start adding Books to
-        List<Book> books = new ArrayList<>();
-
-        // Try to parse the JSON response string. If there's a problem with the way the JSON
-        // is formatted, a JSONException exception object will be thrown.
-        // Catch the exception so the app doesn't crash, and print the error message to the logs.
-        try {
-
-            // Create a JSONObject from the JSON response string
-            JSONObject baseJsonResponse = new JSONObject(bookJSON);
-
-            // Extract the JSONArray associated with the key called "features", which represents a list of features (or Books).
-            JSONArray bookArray = baseJsonResponse.getJSONArray("items");
-
-            // For each Book in the BookArray, create an {@link Book} object
-            for (int i = 0; i < bookArray.length(); i++) {
-
-                // Get a single Book at position i within the list of Books
-                JSONObject currentBook = bookArray.getJSONObject(i);
-
-                // For a given Book, extract the JSONObject associated with the key called "volumeInfo", which represents a list
-                // of all properties for that Book.
-                JSONObject volumeInfo = currentBook.getJSONObject("volumeInfo");
-
-                // Extract the value for the key called "title"
-                String title = volumeInfo.getString("title");
+        // The ID normally comes first, but the API doesn't guarantee the order of the keys
+        if (book != null && book.getId() == null && id != null) {
+            book = new Book(id, book);
+        }
 
-                String author = "Unknown";
+        return book;
+    }
 
-                // Extract the value for the key called "authors"
-                if (volumeInfo.has("authors")) {
-                    JSONArray authors = volumeInfo.getJSONArray("authors");
+    /**
+     * Read the title, first author, publisher, info link and thumbnail of a "volumeInfo" object.
+     */
+    private static Book readVolumeInfo(JsonReader reader, String id) throws IOException {
+        String title = null;
+        String[] authors = null;
+        String publisher = Book.UNKNOWN;
+        String url = null;
+        String thumbnailUrl = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.skipValue();
+                continue;
+            }
 
-                    //We'll only extract the first author of each book
-                    author = authors.getString(0);
+            switch (name) {
+                case "title":
+                    title = reader.nextString();
+                    break;
+                case "authors":
+                    authors = readAuthors(reader);
+                    break;
+                case "publisher":
+                    publisher = reader.nextString();
+                    break;
+                case "infoLink":
+                    url = reader.nextString();
+                    break;
+                case "imageLinks":
+                    thumbnailUrl = readThumbnail(reader);
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
 
-                    if (authors.length() > 1)
-                        author += " and more";
-                }
+        // A book we can't name or open is of no use in the list
+        if (title == null || url == null) {
+            return null;
+        }
 
-                // Extract the value for the key called "publisher"
-                String publisher = "Unknown";
+        return new Book(id, title, authors, publisher, url, thumbnailUrl);
+    }
 
-                // Extract the value for the key called "authors"
-                if (volumeInfo.has("publisher"))
-                    publisher = volumeInfo.getString("publisher");
+    /**
+     * Read the "authors" array. The first author is displayed, followed by " and more" when
+     * there are several, but all of them are kept.
+     */
+    private static String[] readAuthors(JsonReader reader) throws IOException {
+        List<String> authors = new ArrayList<>(1);
 
-                // Extract the value for the key called "url"
-                String url = volumeInfo.getString("infoLink");
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (reader.peek() == JsonToken.STRING) {
+                authors.add(reader.nextString());
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endArray();
 
-                // Create a new {@link Book} object with the magnitude, location, time,
-                // and url from the JSON response.
-                Book book = new Book(title, author, publisher, url);
+        return authors.toArray(new String[authors.size()]);
+    }
 
-                // Add the new {@link Book} to the list of Books.
-                books.add(book);
+    /**
+     * Read the "imageLinks" object and return the URL of the smallest thumbnail, or null.
+     */
+    private static String readThumbnail(JsonReader reader) throws IOException {
+        String smallThumbnail = null;
+        String thumbnail = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("smallThumbnail") && reader.peek() == JsonToken.STRING) {
+                smallThumbnail = reader.nextString();
+            } else if (name.equals("thumbnail") && reader.peek() == JsonToken.STRING) {
+                thumbnail = reader.nextString();
+            } else {
+                reader.skipValue();
             }
-
-        } catch (JSONException e) {
-            // If an error is thrown when executing any of the above statements in the "try" block,
-            // catch the exception here, so the app doesn't crash. Print a log message
-            // with the message from the exception.
-            Log.e("QueryUtils", "Problem parsing the Book JSON results", e);
         }
+        reader.endObject();
 
-        // Return the list of Books
-        return books;
+        return smallThumbnail != null ? smallThumbnail : thumbnail;
     }
 
 }
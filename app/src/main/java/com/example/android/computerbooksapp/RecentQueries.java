@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2017 by Francis Gálvez
+ */
+package com.example.android.computerbooksapp;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers the queries the user searched, to refresh their results in the background.
+ *
+ * Queries are ranked by frecency: how many times they were searched, each search counting less
+ * as it gets older, so a query searched every day stays ahead of one searched many times a month
+ * ago. They are kept in the {@link SharedPreferences} of the app.
+ */
+final class RecentQueries {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = RecentQueries.class.getSimpleName();
+
+    /** Name of the preferences file, and key of the queries in it */
+    private static final String PREFERENCES_NAME = "recent_queries";
+    private static final String KEY_QUERIES = "queries";
+
+    /** Maximum number of queries remembered */
+    private static final int MAX_QUERIES = 30;
+
+    /** Time after which a search counts half as much */
+    private static final long HALF_LIFE_MILLIS = TimeUnit.DAYS.toMillis(7);
+
+    /** Single instance shared by the activity and the background jobs */
+    private static RecentQueries instance;
+
+    private final SharedPreferences preferences;
+
+    /** Queries remembered, loaded on first use */
+    private List<Entry> entries;
+
+    private RecentQueries(Context context) {
+        preferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Returns the {@link RecentQueries} of the app, creating it the first time.
+     */
+    static synchronized RecentQueries getInstance(Context context) {
+        if (instance == null) {
+            instance = new RecentQueries(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Record a search of the given query.
+     */
+    synchronized void add(String query) {
+        String normalized = BookCache.normalize(query);
+        if (normalized.isEmpty()) {
+            return;
+        }
+
+        load();
+        long now = System.currentTimeMillis();
+        Entry entry = null;
+        for (Entry candidate : entries) {
+            if (candidate.query.equals(normalized)) {
+                entry = candidate;
+                break;
+            }
+        }
+        if (entry == null) {
+            entry = new Entry(normalized, 0, now);
+            entries.add(entry);
+        }
+        // Decay the previous searches to now, and add this one
+        entry.score = entry.scoreAt(now) + 1;
+        entry.time = now;
+
+        sort(now);
+        while (entries.size() > MAX_QUERIES) {
+            entries.remove(entries.size() - 1);
+        }
+        save();
+    }
+
+    /**
+     * Returns the given number of queries at most, the most frecent first.
+     */
+    synchronized List<String> getTop(int count) {
+        load();
+        sort(System.currentTimeMillis());
+
+        List<String> queries = new ArrayList<>();
+        for (int i = 0; i < entries.size() && i < count; i++) {
+            queries.add(entries.get(i).query);
+        }
+        return queries;
+    }
+
+    private void sort(final long now) {
+        Collections.sort(entries, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry a, Entry b) {
+                return Double.compare(b.scoreAt(now), a.scoreAt(now));
+            }
+        });
+    }
+
+    private void load() {
+        if (entries != null) {
+            return;
+        }
+
+        entries = new ArrayList<>();
+        String json = preferences.getString(KEY_QUERIES, null);
+        if (json == null) {
+            return;
+        }
+
+        try {
+            JSONArray array = new JSONArray(json);
+            for (int i = 0; i < array.length(); i++) {
+                JSONObject object = array.getJSONObject(i);
+                entries.add(new Entry(object.getString("query"), object.getDouble("score"),
+                        object.getLong("time")));
+            }
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, "Problem reading the recent queries", e);
+            entries.clear();
+        }
+    }
+
+    private void save() {
+        JSONArray array = new JSONArray();
+        try {
+            for (Entry entry : entries) {
+                JSONObject object = new JSONObject();
+                object.put("query", entry.query);
+                object.put("score", entry.score);
+                object.put("time", entry.time);
+                array.put(object);
+            }
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, "Problem saving the recent queries", e);
+            return;
+        }
+        preferences.edit().putString(KEY_QUERIES, array.toString()).apply();
+    }
+
+    /**
+     * A query remembered, with its score at the time of its last search.
+     */
+    private static final class Entry {
+        final String query;
+        double score;
+        long time;
+
+        Entry(String query, double score, long time) {
+            this.query = query;
+            this.score = score;
+            this.time = time;
+        }
+
+        double scoreAt(long now) {
+            return score * Math.pow(0.5, (double) (now - time) / HALF_LIFE_MILLIS);
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2017 by Francis Gálvez
+ */
+package com.example.android.computerbooksapp;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.util.Random;
+
+/**
+ * Makes the requests of {@link BookHttpClient} resilient to the failures of the network and of
+ * the server.
+ *
+ * A request that fails to connect, times out or gets a transient error (429 or 5xx) is retried
+ * after an exponential backoff with full jitter, so many clients failing at once don't come back
+ * at once. The server's Retry-After is honoured. The timeouts adapt to the latency observed, and
+ * a {@link CircuitBreaker} shared by all the requests stops them from trying a server that keeps
+ * failing: they fail right away with {@link CircuitOpenException}, and the results can come from
+ * the cache instead. Requests failing because the device has no connection don't count against
+ * the server, and the {@link ConnectivityMonitor} closes the circuit when a network comes back.
+ */
+final class RetryingHttpClient {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = RetryingHttpClient.class.getSimpleName();
+
+    /** Maximum number of times a request is sent */
+    private static final int MAX_ATTEMPTS = 3;
+
+    /** Backoff (in milliseconds) before the first retry, doubled for each of the next ones */
+    private static final long BASE_BACKOFF = 500;
+
+    /** Maximum backoff (in milliseconds) before a retry */
+    private static final long MAX_BACKOFF = 8000;
+
+    /**
+     * Longest Retry-After (in milliseconds) waited for within a request. The server asking for
+     * more opens the circuit instead, since nobody waits that long for a search.
+     */
+    private static final long MAX_RETRY_AFTER = 10000;
+
+    /** Status code of a response when the client sent too many requests */
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    private static final CircuitBreaker circuitBreaker = new CircuitBreaker(5, 30000, 5 * 60000);
+
+    private static final AdaptiveTimeout connectTimeout = new AdaptiveTimeout(3000, 15000,
+            BookHttpClient.DEFAULT_CONNECT_TIMEOUT);
+    private static final AdaptiveTimeout readTimeout = new AdaptiveTimeout(4000, 20000,
+            BookHttpClient.DEFAULT_READ_TIMEOUT);
+
+    private static final Random random = new Random();
+
+    /**
+     * Create a private constructor because no one should ever create a {@link RetryingHttpClient} object.
+     */
+    private RetryingHttpClient() {
+    }
+
+    /**
+     * Exception thrown when a request isn't sent because the circuit is open.
+     */
+    static final class CircuitOpenException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        private final long retryDelay;
+
+        CircuitOpenException(long retryDelay) {
+            super("Circuit open, retry in " + retryDelay + " ms");
+            this.retryDelay = retryDelay;
+        }
+
+        /** Time (in milliseconds) until requests are sent again */
+        long getRetryDelay() {
+            return retryDelay;
+        }
+    }
+
+    /**
+     * Returns the circuit breaker of the requests, to follow the availability of the server.
+     */
+    static CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * Make a GET request to the given URL, retrying it while it fails.
+     *
+     * @return the response, which may be an error after the last attempt, or null if the request
+     * was canceled
+     * @throws CircuitOpenException if the server is considered unavailable
+     * @throws IOException if the last attempt failed
+     * @see BookHttpClient#get(URL, String, String, CancellationToken)
+     */
+    static BookHttpClient.Response get(URL url, String eTag, String lastModified,
+                                       CancellationToken cancellation) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            if (!circuitBreaker.allowRequest()) {
+                throw new CircuitOpenException(circuitBreaker.getRetryDelay());
+            }
+
+            BookHttpClient.Response response;
+            int timeoutScale = NetworkPolicy.getInstance().getTimeoutScale();
+            try {
+                response = BookHttpClient.get(url, eTag, lastModified, connectTimeout.get(timeoutScale),
+                        readTimeout.get(timeoutScale), cancellation);
+            } catch (IOException e) {
+                if (cancellation.isCanceled()) {
+                    circuitBreaker.onAbandoned();
+                    return null;
+                }
+
+                if (e instanceof SocketTimeoutException) {
+                    // Without the time taken to connect, we can't tell which timeout expired
+                    connectTimeout.onTimeout();
+                    readTimeout.onTimeout();
+                }
+                if (isOffline(e)) {
+                    // The server wasn't reached, so this says nothing of it
+                    circuitBreaker.onAbandoned();
+                } else {
+                    circuitBreaker.onFailure();
+                }
+
+                if (attempt == MAX_ATTEMPTS) {
+                    throw e;
+                }
+                Log.w(LOG_TAG, "Attempt " + attempt + " failed, retrying", e);
+                if (!backOff(attempt, -1, cancellation)) {
+                    return null;
+                }
+                continue;
+            }
+
+            if (response == null) {
+                circuitBreaker.onAbandoned();
+                return null;
+            }
+
+            connectTimeout.onSample(response.getConnectTime() / 1000000);
+            readTimeout.onSample(response.getTimeToFirstByte() / 1000000);
+
+            int code = response.getCode();
+            if (!isTransient(code)) {
+                circuitBreaker.onSuccess();
+                return response;
+            }
+
+            circuitBreaker.onFailure();
+            long retryAfter = response.getRetryAfter();
+            if (retryAfter > MAX_RETRY_AFTER) {
+                circuitBreaker.openFor(retryAfter);
+                return response;
+            }
+            if (attempt == MAX_ATTEMPTS) {
+                return response;
+            }
+
+            Log.w(LOG_TAG, "Attempt " + attempt + " got response " + code + ", retrying");
+            response.close();
+            if (!backOff(attempt, retryAfter, cancellation)) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Returns whether a request failed with the given exception because the device has no
+     * connection: the host can't be resolved, or no connection to it can be made.
+     */
+    private static boolean isOffline(IOException e) {
+        return e instanceof UnknownHostException || e instanceof ConnectException
+                || e instanceof NoRouteToHostException;
+    }
+
+    /**
+     * Returns whether a response with the given status code is worth retrying.
+     */
+    private static boolean isTransient(int code) {
+        return code == HTTP_TOO_MANY_REQUESTS || code == 500 || code == 502 || code == 503 || code == 504;
+    }
+
+    /**
+     * Wait before the next attempt: a random time up to the exponential backoff, but at least the
+     * time asked by the server.
+     *
+     * @param retryAfter time (in milliseconds) asked by the server, or -1
+     * @return false if the request was canceled while waiting
+     */
+    private static boolean backOff(int attempt, long retryAfter, CancellationToken cancellation) {
+        long backoff = Math.min(MAX_BACKOFF, BASE_BACKOFF << (attempt - 1));
+        long delay = (long) (random.nextDouble() * backoff);
+        return cancellation.sleep(Math.max(delay, retryAfter));
+    }
+}
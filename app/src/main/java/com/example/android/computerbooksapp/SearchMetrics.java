@@ -0,0 +1,283 @@
+/*
+ * Copyright (c) 2017 by Francis Gálvez
+ */
+package com.example.android.computerbooksapp;
+
+import android.os.Build;
+import android.os.Trace;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Timing and size of each phase of a search, from building the URL to binding the rows, so we
+ * can tell which one makes a search slow.
+ *
+ * Every measure goes into a lock-free histogram that can be read at any time from any thread,
+ * or dumped as JSON (see {@link #toJson()}). Each phase is also a trace section, so it shows up
+ * in Systrace. When the metrics are disabled, which is the default, measuring costs a volatile
+ * read.
+ */
+final class SearchMetrics {
+
+    /** Building the URL of the request, in microseconds */
+    static final int CREATE_URL = 0;
+
+    /** Whole HTTP request, from sending it to closing the response, in microseconds */
+    static final int REQUEST = 1;
+
+    /** Opening the connection (DNS lookup, TCP and TLS handshakes), in microseconds */
+    static final int CONNECT = 2;
+
+    /** From sending the request until the response headers arrive, in microseconds */
+    static final int TIME_TO_FIRST_BYTE = 3;
+
+    /** Waiting for the body of the response, in microseconds */
+    static final int DOWNLOAD = 4;
+
+    /** Parsing the body of the response, without the time spent waiting for it, in microseconds */
+    static final int PARSE = 5;
+
+    /** Delivering a page of results to the list, in microseconds */
+    static final int DISPLAY = 6;
+
+    /** Binding a row of the list, in microseconds */
+    static final int BIND = 7;
+
+    /** Bytes of the response received on the wire */
+    static final int RESPONSE_BYTES = 8;
+
+    /** Books in the response */
+    static final int ITEMS = 9;
+
+    /** From tapping a book the browser was ready for until its page loaded, in microseconds */
+    static final int OPEN_SPECULATED = 10;
+
+    /** From tapping any other book until its page loaded, in microseconds */
+    static final int OPEN_COLD = 11;
+
+    /** Time between two frames while the list scrolls, in microseconds */
+    static final int FRAME = 12;
+
+    /** Frames dropped by a scroll of the list */
+    static final int DROPPED_FRAMES = 13;
+
+    private static final String[] NAMES = {"create_url", "request", "connect", "ttfb", "download",
+            "parse", "display", "bind", "response_bytes", "items", "open_speculated", "open_cold",
+            "frame", "dropped_frames"};
+
+    private static final String[] UNITS = {"us", "us", "us", "us", "us", "us", "us", "us", "bytes", "items",
+            "us", "us", "us", "frames"};
+
+    private static final Histogram[] HISTOGRAMS = new Histogram[NAMES.length];
+
+    static {
+        for (int i = 0; i < HISTOGRAMS.length; i++) {
+            HISTOGRAMS[i] = new Histogram();
+        }
+    }
+
+    private static volatile boolean enabled;
+
+    /**
+     * Create a private constructor because no one should ever create a {@link SearchMetrics} object.
+     */
+    private SearchMetrics() {
+    }
+
+    static boolean isEnabled() {
+        return enabled;
+    }
+
+    static void setEnabled(boolean enabled) {
+        SearchMetrics.enabled = enabled;
+    }
+
+    /**
+     * Start measuring the given phase on the current thread.
+     *
+     * @return the start time, to be passed to {@link #end}, or 0 if the metrics are disabled
+     */
+    static long begin(int metric) {
+        if (!enabled) {
+            return 0;
+        }
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.beginSection(NAMES[metric]);
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Finish measuring the given phase, started with {@link #begin} on the same thread.
+     */
+    static void end(int metric, long start) {
+        end(metric, start, 0);
+    }
+
+    /**
+     * Finish measuring the given phase, leaving out the given time spent in another phase.
+     */
+    static void end(int metric, long start, long excludedNanos) {
+        if (start == 0) {
+            return;
+        }
+
+        long elapsed = System.nanoTime() - start - excludedNanos;
+        HISTOGRAMS[metric].record(TimeUnit.NANOSECONDS.toMicros(Math.max(elapsed, 0)));
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.endSection();
+        }
+    }
+
+    /**
+     * Record a duration measured elsewhere, in nanoseconds.
+     */
+    static void recordNanos(int metric, long nanos) {
+        if (enabled) {
+            HISTOGRAMS[metric].record(TimeUnit.NANOSECONDS.toMicros(nanos));
+        }
+    }
+
+    /**
+     * Record a size or a count.
+     */
+    static void record(int metric, long value) {
+        if (enabled) {
+            HISTOGRAMS[metric].record(value);
+        }
+    }
+
+    /**
+     * Returns the histogram of the given metric.
+     */
+    static Histogram get(int metric) {
+        return HISTOGRAMS[metric];
+    }
+
+    /**
+     * Forget everything measured so far.
+     */
+    static void reset() {
+        for (Histogram histogram : HISTOGRAMS) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * Returns a summary of every metric as a JSON object, e.g.
+     * {"parse":{"unit":"us","count":12,"mean":830,"p50":767,"p90":1279,"p99":1535,"max":1490}, ...}
+     */
+    static String toJson() {
+        StringBuilder json = new StringBuilder("{");
+        for (int i = 0; i < HISTOGRAMS.length; i++) {
+            Histogram histogram = HISTOGRAMS[i];
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append('"').append(NAMES[i]).append("\":{\"unit\":\"").append(UNITS[i])
+                    .append("\",\"count\":").append(histogram.getCount())
+                    .append(",\"mean\":").append(histogram.getMean())
+                    .append(",\"p50\":").append(histogram.getPercentile(0.50))
+                    .append(",\"p90\":").append(histogram.getPercentile(0.90))
+                    .append(",\"p99\":").append(histogram.getPercentile(0.99))
+                    .append(",\"max\":").append(histogram.getMax())
+                    .append('}');
+        }
+        return json.append('}').toString();
+    }
+
+    /**
+     * Histogram of non-negative values, which can be recorded from many threads without locking.
+     *
+     * Values are counted in buckets four per power of two wide, so percentiles are within 25% of
+     * the actual value, whatever its magnitude, in a fixed amount of memory.
+     */
+    static final class Histogram {
+
+        /** Sub-buckets per power of two, as a number of bits */
+        private static final int SUB_BUCKET_BITS = 2;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long value) {
+            buckets.incrementAndGet(bucketOf(value));
+            count.incrementAndGet();
+            sum.addAndGet(value);
+
+            long currentMax = max.get();
+            while (value > currentMax && !max.compareAndSet(currentMax, value)) {
+                currentMax = max.get();
+            }
+        }
+
+        long getCount() {
+            return count.get();
+        }
+
+        long getMax() {
+            return max.get();
+        }
+
+        long getMean() {
+            long n = count.get();
+            return n == 0 ? 0 : sum.get() / n;
+        }
+
+        /**
+         * Returns an upper bound of the given percentile (between 0 and 1) of the values recorded.
+         */
+        long getPercentile(double percentile) {
+            long n = count.get();
+            if (n == 0) {
+                return 0;
+            }
+
+            long rank = (long) Math.ceil(percentile * n);
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) {
+                    return Math.min(upperBoundOf(i), max.get());
+                }
+            }
+            return max.get();
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                buckets.set(i, 0);
+            }
+            count.set(0);
+            sum.set(0);
+            max.set(0);
+        }
+
+        private static int bucketOf(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) Math.max(value, 0);
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+        }
+
+        private static long upperBoundOf(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+            long width = 1L << (exponent - SUB_BUCKET_BITS);
+            long lowerBound = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+            return lowerBound + width - 1;
+        }
+    }
+}
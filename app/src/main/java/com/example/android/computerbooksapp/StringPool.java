@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2017 by Francis Gálvez
+ */
+package com.example.android.computerbooksapp;
+
+/**
+ * Shares a single instance of the strings repeated across many books, such as publishers,
+ * authors and the common parts of their links, so each book doesn't keep its own copy.
+ *
+ * Unlike {@link String#intern()}, the pool is bounded: it is a fixed table where a string
+ * replaces whatever was in its slot. A string evicted that way stays valid, it is only shared
+ * less. The table is read and written without locking: a thread may not see the string another
+ * one just added, which only costs a copy, and strings are immutable so they can be shared safely.
+ */
+final class StringPool {
+
+    /** Number of slots of the table, a power of two */
+    private static final int SIZE = 2048;
+
+    private static final String[] POOL = new String[SIZE];
+
+    /**
+     * Create a private constructor because no one should ever create a {@link StringPool} object.
+     */
+    private StringPool() {
+    }
+
+    /**
+     * Returns the pooled instance equal to the given string, or null if it is null.
+     */
+    static String intern(String string) {
+        if (string == null) {
+            return null;
+        }
+        return intern(string, 0, string.length());
+    }
+
+    /**
+     * Returns the pooled instance equal to the given part of a string. No new string is created
+     * when it is already in the pool.
+     */
+    static String intern(String source, int start, int end) {
+        int length = end - start;
+
+        // Same hash as String.hashCode(), spread so close hashes land in different slots
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + source.charAt(i);
+        }
+        int index = (hash ^ (hash >>> 16)) & (SIZE - 1);
+
+        String pooled = POOL[index];
+        if (pooled != null && pooled.length() == length && source.regionMatches(start, pooled, 0, length)) {
+            return pooled;
+        }
+
+        String string = start == 0 && end == source.length() ? source : source.substring(start, end);
+        POOL[index] = string;
+        return string;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2017 by Francis Gálvez
+ */
+package com.example.android.computerbooksapp;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the stable IDs of {@link BookAdapter} and how it compares two lists of books, which
+ * decides the rows bound again when the results are replaced. It runs with Robolectric, since
+ * the comparison uses {@link android.text.TextUtils}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 25)
+public class BookAdapterTest {
+
+    @Test
+    public void givesTheSameIdToTheSameVolume() {
+        assertEquals(BookAdapter.stableIdOf(book("zYw3sYFtz9kC", "CommonsWare")),
+                BookAdapter.stableIdOf(book("zYw3sYFtz9kC", "CommonsWare, LLC")));
+        assertNotEquals(BookAdapter.stableIdOf(book("zYw3sYFtz9kC", "CommonsWare")),
+                BookAdapter.stableIdOf(book("hDpYcAAACAAJ", "CommonsWare")));
+    }
+
+    @Test
+    public void identifiesAVolumeWithoutIdByItsLink() {
+        assertEquals(BookAdapter.stableIdOf(book(null, "CommonsWare")),
+                BookAdapter.stableIdOf(book(null, "CommonsWare, LLC")));
+        assertNotEquals(BookAdapter.stableIdOf(book(null, "CommonsWare")),
+                BookAdapter.stableIdOf(book("zYw3sYFtz9kC", "CommonsWare")));
+    }
+
+    @Test
+    public void rebindsOnlyTheVolumesWhoseRowChanged() {
+        List<Book> oldBooks = Arrays.asList(book("zYw3sYFtz9kC", "CommonsWare"), book("hDpYcAAACAAJ", "Big Nerd Ranch"));
+        List<Book> newBooks = Arrays.asList(book("zYw3sYFtz9kC", "CommonsWare"), book("hDpYcAAACAAJ", "Pearson"),
+                book("Ai9pDwAAQBAJ", "Wrox"));
+        BookAdapter.BookDiff diff = new BookAdapter.BookDiff(oldBooks, newBooks);
+
+        assertEquals(2, diff.getOldListSize());
+        assertEquals(3, diff.getNewListSize());
+        assertTrue(diff.areItemsTheSame(0, 0));
+        assertTrue(diff.areContentsTheSame(0, 0));
+        assertTrue(diff.areItemsTheSame(1, 1));
+        assertFalse(diff.areContentsTheSame(1, 1));
+        assertFalse(diff.areItemsTheSame(1, 2));
+    }
+
+    @Test
+    public void rebindsAVolumeWhoseAuthorsOrCoverChanged() {
+        Book book = book("zYw3sYFtz9kC", "CommonsWare");
+        Book moreAuthors = new Book("zYw3sYFtz9kC", "Android", new String[]{"Mark Murphy", "CommonsWare"},
+                "CommonsWare", "http://books.google.com/books?id=zYw3sYFtz9kC", null);
+        Book withCover = new Book("zYw3sYFtz9kC", "Android", new String[]{"Mark Murphy"}, "CommonsWare",
+                "http://books.google.com/books?id=zYw3sYFtz9kC",
+                "http://books.google.com/books/content?id=zYw3sYFtz9kC&printsec=frontcover&img=1&zoom=5");
+        BookAdapter.BookDiff diff = new BookAdapter.BookDiff(Arrays.asList(book, book),
+                Arrays.asList(moreAuthors, withCover));
+
+        assertFalse(diff.areContentsTheSame(0, 0));
+        assertFalse(diff.areContentsTheSame(1, 1));
+    }
+
+    private static Book book(String id, String publisher) {
+        return new Book(id, "Android", new String[]{"Mark Murphy"}, publisher,
+                "http://books.google.com/books?id=" + (id != null ? id : "zYw3sYFtz9kC&source=gbs_api"), null);
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ * Copyright (c) 2017 by Francis Gálvez
+ */
+package com.example.android.computerbooksapp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the {@link BookBatchSearch}: how many queries run at once, the results delivered as each
+ * one completes and how they are merged. The pages are fetched by a fake
+ * {@link BookFetchEngine.Fetcher}, and the results are delivered on the thread of the test, which
+ * stands for the main thread.
+ */
+public class BookBatchSearchTest {
+
+    /** Longest time (in seconds) waited for something done by the engine */
+    private static final long TIMEOUT = 5;
+
+    private static final Book A = book("A");
+    private static final Book B = book("B");
+    private static final Book C = book("C");
+    private static final Book D = book("D");
+
+    /** Results of the engine waiting to be delivered on the thread of the test */
+    private final BlockingQueue<Runnable> deliveries = new LinkedBlockingQueue<>();
+
+    private final Executor mainExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            deliveries.add(command);
+        }
+    };
+
+    private FakeFetcher fetcher;
+    private BookFetchEngine engine;
+    private final Results results = new Results();
+
+    @Before
+    public void setUp() {
+        fetcher = new FakeFetcher();
+        engine = new BookFetchEngine(fetcher, mainExecutor, 5);
+    }
+
+    @After
+    public void tearDown() {
+        fetcher.releaseAll();
+    }
+
+    @Test
+    public void splitsTheQueriesTyped() {
+        assertEquals(Arrays.asList("java concurrency", "jvm performance"),
+                BookBatchSearch.split(" java concurrency,,Java  Concurrency , jvm performance,"));
+        assertTrue(BookBatchSearch.split(null).isEmpty());
+    }
+
+    @Test
+    public void runsNoMoreQueriesAtOnceThanAllowed() throws InterruptedException {
+        List<String> queries = Arrays.asList("q0", "q1", "q2", "q3");
+        new BookBatchSearch(engine, queries, false, 2, results).start();
+        assertNotNull(fetcher.nextStarted());
+        assertNotNull(fetcher.nextStarted());
+        assertNull(fetcher.started.poll(100, TimeUnit.MILLISECONDS));
+
+        // The next query starts once one of those completes
+        fetcher.release("q0");
+        deliverNext();
+        assertEquals("q2", fetcher.nextStarted());
+
+        fetcher.releaseAll();
+        for (int i = 0; i < 3; i++) {
+            deliverNext();
+        }
+        assertEquals(4, results.last().completed);
+        assertEquals(2, fetcher.maxRunning);
+    }
+
+    @Test
+    public void deliversTheResultsAsEachQueryCompletes() throws InterruptedException {
+        fetcher.pages.put("java", Arrays.asList(A, B));
+        fetcher.pages.put("kotlin", Collections.singletonList(C));
+        new BookBatchSearch(engine, Arrays.asList("java", "kotlin"), false, 2, results).start();
+
+        fetcher.release("kotlin");
+        deliverNext();
+        assertEquals(Collections.singletonList(C), results.last().books);
+        assertEquals(1, results.last().completed);
+        assertEquals(2, results.last().total);
+
+        fetcher.release("java");
+        deliverNext();
+        assertEquals(3, results.last().books.size());
+        assertEquals(2, results.last().completed);
+    }
+
+    @Test
+    public void mergesTheResultsByRankWithoutDuplicates() throws InterruptedException {
+        fetcher.pages.put("java", Arrays.asList(A, B, C));
+        fetcher.pages.put("jvm", Arrays.asList(D, book("C")));
+        new BookBatchSearch(engine, Arrays.asList("java", "jvm"), false, 1, results).start();
+        fetcher.releaseAll();
+        deliverNext();
+        deliverNext();
+
+        // C is found by both queries. A and D are both first, and A was found first.
+        List<Book> books = results.last().books;
+        assertEquals(Arrays.asList("C", "A", "D", "B"), idsOf(books));
+    }
+
+    @Test
+    public void countsTheQueriesFailed() throws InterruptedException {
+        fetcher.pages.put("java", Collections.singletonList(A));
+        new BookBatchSearch(engine, Arrays.asList("java", "offline"), false, 2, results).start();
+        fetcher.releaseAll();
+        deliverNext();
+        deliverNext();
+
+        assertEquals(Collections.singletonList(A), results.last().books);
+        assertEquals(2, results.last().completed);
+    }
+
+    @Test
+    public void takesAboutAsLongAsTheSlowestQuery() throws InterruptedException {
+        fetcher.delayMillis = 300;
+        fetcher.releaseAll();
+
+        long start = System.nanoTime();
+        new BookBatchSearch(engine, Arrays.asList("q0", "q1", "q2"), false, 3, results).start();
+        for (int i = 0; i < 3; i++) {
+            deliverNext();
+        }
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // One after the other, they would take 900 ms
+        assertTrue("Took " + millis + " ms", millis < 600);
+        assertEquals(3, results.last().completed);
+    }
+
+    @Test
+    public void deliversNothingOnceCanceled() throws InterruptedException {
+        BookBatchSearch batch = new BookBatchSearch(engine, Arrays.asList("java", "kotlin"), false, 2, results);
+        batch.start();
+        assertNotNull(fetcher.nextStarted());
+        assertNotNull(fetcher.nextStarted());
+
+        batch.cancel();
+        fetcher.releaseAll();
+
+        assertNull(deliveries.poll(100, TimeUnit.MILLISECONDS));
+        assertTrue(results.list.isEmpty());
+        assertEquals(0, engine.getPendingCount());
+    }
+
+    @Test
+    public void completesAnEmptyBatchRightAway() {
+        new BookBatchSearch(engine, Collections.<String>emptyList(), false, 2, results).start();
+
+        assertEquals(0, results.last().total);
+        assertTrue(results.last().books.isEmpty());
+    }
+
+    /**
+     * Run the next result delivered by the engine, like the main thread would.
+     */
+    private void deliverNext() throws InterruptedException {
+        Runnable delivery = deliveries.poll(TIMEOUT, TimeUnit.SECONDS);
+        assertNotNull("Nothing delivered", delivery);
+        delivery.run();
+    }
+
+    private static List<String> idsOf(List<Book> books) {
+        List<String> ids = new ArrayList<>();
+        for (Book book : books) {
+            ids.add(book.getId());
+        }
+        return ids;
+    }
+
+    private static Book book(String id) {
+        return new Book(id, "Title " + id, new String[]{"Author"}, "Publisher",
+                "http://books.google.com/books?id=" + id, null);
+    }
+
+    /**
+     * Fetcher returning the pages given for each query, but not before the query is released.
+     * Queries without a page fail.
+     */
+    private static final class FakeFetcher implements BookFetchEngine.Fetcher {
+        final Map<String, List<Book>> pages = new HashMap<>();
+        final BlockingQueue<String> started = new LinkedBlockingQueue<>();
+        private final Map<String, CountDownLatch> gates = new HashMap<>();
+        private final CountDownLatch all = new CountDownLatch(1);
+        volatile long delayMillis;
+        private int running;
+        volatile int maxRunning;
+
+        @Override
+        public List<Book> fetch(String query, int startIndex, boolean offline, CancellationToken cancellation) {
+            synchronized (this) {
+                running++;
+                maxRunning = Math.max(maxRunning, running);
+            }
+            started.add(query);
+            try {
+                CountDownLatch gate = gate(query);
+                while (!gate.await(10, TimeUnit.MILLISECONDS) && all.getCount() > 0) {
+                    // Waiting for the query, or for all of them, to be released
+                }
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                synchronized (this) {
+                    running--;
+                }
+            }
+            List<Book> page = pages.get(query);
+            return page != null ? new ArrayList<>(page) : null;
+        }
+
+        private synchronized CountDownLatch gate(String query) {
+            CountDownLatch gate = gates.get(query);
+            if (gate == null) {
+                gate = new CountDownLatch(1);
+                gates.put(query, gate);
+            }
+            return gate;
+        }
+
+        /** Let the fetch of the given query return */
+        void release(String query) {
+            gate(query).countDown();
+        }
+
+        /** Let every fetch started, and the next ones, return */
+        void releaseAll() {
+            all.countDown();
+        }
+
+        String nextStarted() throws InterruptedException {
+            return started.poll(TIMEOUT, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Callback recording every result it was delivered.
+     */
+    private static final class Results implements BookBatchSearch.Callback {
+
+        static final class Result {
+            final List<Book> books;
+            final int completed;
+            final int total;
+
+            Result(List<Book> books, int completed, int total) {
+                this.books = books;
+                this.completed = completed;
+                this.total = total;
+            }
+        }
+
+        final List<Result> list = new ArrayList<>();
+
+        @Override
+        public void onResults(List<Book> books, int completed, int total) {
+            list.add(new Result(books, completed, total));
+        }
+
+        Result last() {
+            assertTrue("No results delivered", !list.isEmpty());
+            return list.get(list.size() - 1);
+        }
+    }
+}
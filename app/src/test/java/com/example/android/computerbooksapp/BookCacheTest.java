@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2017 by Francis Gálvez
+ */
+package com.example.android.computerbooksapp;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static com.example.android.computerbooksapp.BookCodecTest.assertSameBook;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests that the pages stored in the {@link BookCache} and the books added to the
+ * {@link BookIndex} are read back whole. It runs with Robolectric, which provides SQLite.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 25)
+public class BookCacheTest {
+
+    private static final Book SEVERAL_AUTHORS = new Book("zYw3sYFtz9kC", "The Busy Coder's Guide to Android Development",
+            new String[]{"Mark Murphy", "Joshua Bloch"}, "CommonsWare, LLC",
+            "http://books.google.com/books?id=zYw3sYFtz9kC&source=gbs_api",
+            "http://books.google.com/books/content?id=zYw3sYFtz9kC&printsec=frontcover&img=1&zoom=5");
+
+    private static final Book NO_AUTHOR = new Book("Ai9pDwAAQBAJ", "Professional Android", null, Book.UNKNOWN,
+            "https://play.google.com/store/books/details?id=Ai9pDwAAQBAJ&source=gbs_api", null);
+
+    @After
+    public void closeDatabase() {
+        // Robolectric drops the database after each test, so the shared helper has to open it again
+        BookCacheDbHelper.getInstance(RuntimeEnvironment.application).close();
+    }
+
+    @Test
+    public void keepsEveryAuthorOfTheBooksCached() {
+        BookCache cache = BookCache.getInstance(RuntimeEnvironment.application);
+        cache.put("android", 0, new BookPage(Arrays.asList(SEVERAL_AUTHORS, NO_AUTHOR), 3), null);
+
+        List<Book> books = cache.get("android", 0, false);
+
+        assertEquals(2, books.size());
+        assertSameBook(SEVERAL_AUTHORS, books.get(0));
+        assertEquals("Mark Murphy and more", books.get(0).getAuthor());
+        assertSameBook(NO_AUTHOR, books.get(1));
+        assertEquals(Book.UNKNOWN, books.get(1).getAuthor());
+    }
+
+    @Test
+    public void keepsTheItemCountOfThePagesCached() {
+        BookCache cache = BookCache.getInstance(RuntimeEnvironment.application);
+        cache.put("kotlin", 0, new BookPage(Arrays.asList(SEVERAL_AUTHORS, NO_AUTHOR), QueryUtils.PAGE_SIZE), null);
+
+        assertEquals(QueryUtils.PAGE_SIZE, BookPage.itemCountOf(cache.get("kotlin", 0, false)));
+        assertNull(cache.get("kotlin", QueryUtils.PAGE_SIZE, false));
+    }
+
+    @Test
+    public void findsTheBooksIndexedByAnyOfTheirAuthors() {
+        BookIndex index = BookIndex.getInstance(RuntimeEnvironment.application);
+        index.addAll(Arrays.asList(SEVERAL_AUTHORS, NO_AUTHOR));
+
+        List<Book> books = index.search("bloch", BookIndex.MAX_RESULTS);
+
+        assertEquals(1, books.size());
+        assertSameBook(SEVERAL_AUTHORS, books.get(0));
+    }
+}
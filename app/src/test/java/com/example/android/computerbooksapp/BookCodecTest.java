@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2017 by Francis Gálvez
+ */
+package com.example.android.computerbooksapp;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that the lists of books encoded by {@link BookCodec} decode to the same books, and that
+ * corrupted data is rejected instead of decoding to garbage.
+ */
+public class BookCodecTest {
+
+    private static final Book FULL = new Book("zYw3sYFtz9kC", "The Busy Coder's Guide to Android Development",
+            new String[]{"Mark Murphy", "CommonsWare"}, "CommonsWare, LLC",
+            "http://books.google.com/books?id=zYw3sYFtz9kC&dq=intitle:android&hl=&source=gbs_api",
+            "http://books.google.com/books/content?id=zYw3sYFtz9kC&printsec=frontcover&img=1&zoom=5");
+
+    /** No ID, no author, no cover, and text that isn't ASCII */
+    private static final Book SPARSE = new Book(null, "Programación en Android: Łódź ✓ 日本語",
+            null, Book.UNKNOWN, "https://play.google.com/store/books/details?id=Ai9pDwAAQBAJ", null);
+
+    @Test
+    public void decodesTheBooksEncoded() throws IOException {
+        List<Book> books = Arrays.asList(FULL, SPARSE);
+
+        List<Book> decoded = BookCodec.decode(BookCodec.encode(books));
+
+        assertEquals(books.size(), decoded.size());
+        for (int i = 0; i < books.size(); i++) {
+            assertSameBook(books.get(i), decoded.get(i));
+        }
+    }
+
+    @Test
+    public void decodesAnEmptyList() throws IOException {
+        assertTrue(BookCodec.decode(BookCodec.encode(Collections.<Book>emptyList())).isEmpty());
+    }
+
+    @Test
+    public void decodesMoreStringsThanAVarintByteHolds() throws IOException {
+        List<Book> books = books(300);
+
+        List<Book> decoded = BookCodec.decode(BookCodec.encode(books));
+
+        assertEquals(books.size(), decoded.size());
+        for (int i = 0; i < books.size(); i++) {
+            assertSameBook(books.get(i), decoded.get(i));
+        }
+    }
+
+    @Test
+    public void storesTheRepeatedStringsOnce() {
+        byte[] one = BookCodec.encode(Collections.singletonList(FULL));
+        byte[] hundred = BookCodec.encode(Collections.nCopies(100, FULL));
+
+        // Each copy only adds its references and its number of authors, a byte each
+        assertEquals(one.length + 99 * 8, hundred.length);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsAnotherVersion() throws IOException {
+        byte[] data = BookCodec.encode(Collections.singletonList(FULL));
+        data[0] = BookCodec.VERSION + 1;
+        BookCodec.decode(data);
+    }
+
+    @Test
+    public void rejectsTruncatedData() {
+        byte[] data = BookCodec.encode(Arrays.asList(FULL, SPARSE));
+        for (int length = 0; length < data.length; length++) {
+            try {
+                BookCodec.decode(Arrays.copyOf(data, length));
+                throw new AssertionError("Decoded the first " + length + " bytes of " + data.length);
+            } catch (IOException expected) {
+            }
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsDataAfterTheBooks() throws IOException {
+        byte[] data = BookCodec.encode(Collections.singletonList(FULL));
+        BookCodec.decode(Arrays.copyOf(data, data.length + 1));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsAReferenceOutOfTheTable() throws IOException {
+        // Version, no strings, one book whose ID is the string 5
+        BookCodec.decode(new byte[]{BookCodec.VERSION, 0, 1, 5});
+    }
+
+    @Test
+    public void isSmallerThanTheJson() {
+        List<Book> books = books(40);
+        int jsonLength = 0;
+        for (Book book : books) {
+            jsonLength += ("{\"id\":\"" + book.getId() + "\",\"volumeInfo\":{\"title\":\"" + book.getTitle()
+                    + "\",\"authors\":[\"" + book.getAuthors().get(0) + "\"],\"publisher\":\"" + book.getPublisher()
+                    + "\",\"imageLinks\":{\"smallThumbnail\":\"" + book.getThumbnailUrl()
+                    + "\"},\"infoLink\":\"" + book.getUrl() + "\"}},").getBytes(Charset.forName("UTF-8")).length;
+        }
+
+        // CodecBenchmark compares them on whole responses, along with the time to decode them
+        assertTrue(BookCodec.encode(books).length < jsonLength);
+    }
+
+    /**
+     * Fails unless the given books have the same fields.
+     */
+    static void assertSameBook(Book expected, Book actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getTitle(), actual.getTitle());
+        assertEquals(expected.getAuthors(), actual.getAuthors());
+        assertEquals(expected.getPublisher(), actual.getPublisher());
+        assertEquals(expected.getUrl(), actual.getUrl());
+        assertEquals(expected.getThumbnailUrl(), actual.getThumbnailUrl());
+    }
+
+    /**
+     * Returns the given number of books with distinct titles, of a few authors and publishers.
+     */
+    private static List<Book> books(int count) {
+        String[] publishers = {"O'Reilly Media, Inc.", "Addison-Wesley", "Apress"};
+        List<Book> books = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String id = "volume" + i;
+            books.add(new Book(id, "Android Programming, Volume " + i, new String[]{"Author " + i % 5},
+                    publishers[i % publishers.length], "http://books.google.com/books?id=" + id + "&source=gbs_api",
+                    "http://books.google.com/books/content?id=" + id + "&printsec=frontcover&img=1&zoom=5"));
+        }
+        return books;
+    }
+}
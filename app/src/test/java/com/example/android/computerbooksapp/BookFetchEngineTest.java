@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2017 by Francis Gálvez
+ */
+package com.example.android.computerbooksapp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the scheduling of the {@link BookFetchEngine}: the priorities, the coalescing of the
+ * requests for the same page and their cancellation. The pages are fetched by a fake
+ * {@link BookFetchEngine.Fetcher}, and the results delivered on the thread that fetched them.
+ */
+public class BookFetchEngineTest {
+
+    /** Longest time (in seconds) waited for something done by the engine */
+    private static final long TIMEOUT = 5;
+
+    private final Executor directExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private FakeFetcher fetcher;
+    private BookFetchEngine engine;
+
+    @Before
+    public void setUp() {
+        fetcher = new FakeFetcher();
+        engine = new BookFetchEngine(fetcher, directExecutor, 1);
+    }
+
+    @After
+    public void tearDown() {
+        fetcher.release();
+    }
+
+    @Test
+    public void runsTheRequestsTheUserWaitsForFirst() throws InterruptedException {
+        // The only thread is busy, so the next requests wait in the queue
+        engine.fetch("busy", 0, false, BookFetchEngine.PRIORITY_USER, new Result());
+        assertEquals("busy@0", fetcher.nextStarted());
+
+        engine.fetch("android", 15, false, BookFetchEngine.PRIORITY_PREFETCH, new Result());
+        engine.fetch("java", 15, false, BookFetchEngine.PRIORITY_PREFETCH, new Result());
+        engine.fetch("kotlin", 0, false, BookFetchEngine.PRIORITY_USER, new Result());
+        fetcher.release();
+
+        assertEquals("kotlin@0", fetcher.nextStarted());
+        assertEquals("android@15", fetcher.nextStarted());
+        assertEquals("java@15", fetcher.nextStarted());
+    }
+
+    @Test
+    public void movesAPrefetchAheadWhenTheUserWaitsForIt() throws InterruptedException {
+        engine.fetch("busy", 0, false, BookFetchEngine.PRIORITY_USER, new Result());
+        assertEquals("busy@0", fetcher.nextStarted());
+
+        engine.fetch("android", 15, false, BookFetchEngine.PRIORITY_PREFETCH, new Result());
+        engine.fetch("java", 0, false, BookFetchEngine.PRIORITY_USER, new Result());
+        engine.fetch("android", 15, false, BookFetchEngine.PRIORITY_USER, new Result());
+        fetcher.release();
+
+        // Same priority, but the request for "android" was made first
+        assertEquals("android@15", fetcher.nextStarted());
+        assertEquals("java@0", fetcher.nextStarted());
+    }
+
+    @Test
+    public void coalescesTheRequestsForTheSamePage() throws InterruptedException {
+        engine.fetch("busy", 0, false, BookFetchEngine.PRIORITY_USER, new Result());
+        assertEquals("busy@0", fetcher.nextStarted());
+
+        Result first = new Result();
+        Result second = new Result();
+        engine.fetch("android", 0, false, BookFetchEngine.PRIORITY_USER, first);
+        engine.fetch("  Android ", 0, false, BookFetchEngine.PRIORITY_PREFETCH, second);
+        assertEquals(2, engine.getPendingCount());
+        fetcher.release();
+
+        assertSame(first.get(), second.get());
+        assertEquals("android@0", fetcher.nextStarted());
+        assertNull(fetcher.started.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void keepsFetchingForTheRequestsNotCanceled() throws InterruptedException {
+        Result canceled = new Result();
+        Result waiting = new Result();
+        BookFetchEngine.Request request = engine.fetch("android", 0, false, BookFetchEngine.PRIORITY_USER, canceled);
+        engine.fetch("android", 0, false, BookFetchEngine.PRIORITY_USER, waiting);
+        assertEquals("android@0", fetcher.nextStarted());
+
+        request.cancel();
+        fetcher.release();
+
+        assertTrue(waiting.await());
+        assertFalse(fetcher.lastCancellation.isCanceled());
+        assertFalse(canceled.await(100));
+    }
+
+    @Test
+    public void cancelsTheFetchOnceNobodyWaitsForIt() throws InterruptedException {
+        Result result = new Result();
+        BookFetchEngine.Request request = engine.fetch("android", 0, false, BookFetchEngine.PRIORITY_USER, result);
+        assertEquals("android@0", fetcher.nextStarted());
+
+        request.cancel();
+
+        assertTrue(fetcher.lastCancellation.isCanceled());
+        assertEquals(0, engine.getPendingCount());
+        fetcher.release();
+        assertFalse(result.await(100));
+    }
+
+    @Test
+    public void dropsACanceledRequestStillQueued() throws InterruptedException {
+        engine.fetch("busy", 0, false, BookFetchEngine.PRIORITY_USER, new Result());
+        assertEquals("busy@0", fetcher.nextStarted());
+
+        engine.fetch("android", 0, false, BookFetchEngine.PRIORITY_USER, new Result()).cancel();
+        engine.fetch("java", 0, false, BookFetchEngine.PRIORITY_USER, new Result());
+        fetcher.release();
+
+        assertEquals("java@0", fetcher.nextStarted());
+    }
+
+    /**
+     * Fetcher blocking until released, which tells the pages it starts fetching.
+     */
+    private static final class FakeFetcher implements BookFetchEngine.Fetcher {
+        final BlockingQueue<String> started = new LinkedBlockingQueue<>();
+        final CountDownLatch released = new CountDownLatch(1);
+        volatile CancellationToken lastCancellation;
+
+        @Override
+        public List<Book> fetch(String query, int startIndex, boolean offline, CancellationToken cancellation) {
+            lastCancellation = cancellation;
+            started.add(BookCache.key(query, startIndex));
+            try {
+                released.await(TIMEOUT, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new ArrayList<>(Collections.<Book>emptyList());
+        }
+
+        /** Let every fetch started, and the next ones, return */
+        void release() {
+            released.countDown();
+        }
+
+        String nextStarted() throws InterruptedException {
+            return started.poll(TIMEOUT, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Callback recording the result it was delivered.
+     */
+    private static final class Result implements BookFetchEngine.Callback {
+        private final CountDownLatch delivered = new CountDownLatch(1);
+        private volatile List<Book> books;
+
+        @Override
+        public void onBooksLoaded(List<Book> books) {
+            this.books = books;
+            delivered.countDown();
+        }
+
+        boolean await() throws InterruptedException {
+            return await(TimeUnit.SECONDS.toMillis(TIMEOUT));
+        }
+
+        boolean await(long millis) throws InterruptedException {
+            return delivered.await(millis, TimeUnit.MILLISECONDS);
+        }
+
+        List<Book> get() throws InterruptedException {
+            assertTrue(await());
+            return books;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2017 by Francis Gálvez
+ */
+package com.example.android.computerbooksapp;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the heap retained by 10,000 {@link Book}s, as the caches keep them while paging, and
+ * compares it with books keeping a string of their own for every field. The heap used is measured
+ * before and after creating them, once the garbage is collected.
+ *
+ * Every string is a new instance, as if parsed from its own response.
+ */
+public class BookFootprintTest {
+
+    /** Number of books retained */
+    private static final int BOOK_COUNT = 10000;
+
+    /** Number of different authors and publishers of the books */
+    private static final int AUTHOR_COUNT = 300;
+    private static final int PUBLISHER_COUNT = 40;
+
+    @Before
+    public void setUp() {
+        // The strings shared by the books are pooled once for all of them, before measuring
+        for (int i = 0; i < AUTHOR_COUNT; i++) {
+            book(i);
+        }
+    }
+
+    @Test
+    public void retainsLessThanBooksWithAStringForEveryField() {
+        long plain = retainedBy(false);
+        long lean = retainedBy(true);
+
+        String sizes = "Books retain " + lean / BOOK_COUNT + " bytes each, instead of " + plain / BOOK_COUNT;
+        assertTrue(sizes, lean < plain * 3 / 4);
+    }
+
+    @Test
+    public void estimatesTheHeapRetainedByTheBooks() {
+        List<Object> books = new ArrayList<>(BOOK_COUNT);
+        long estimated = 0;
+        long before = usedHeap();
+        for (int i = 0; i < BOOK_COUNT; i++) {
+            Book book = book(i);
+            books.add(book);
+            estimated += book.getRetainedSize();
+        }
+        long measured = usedHeap() - before - sizeOf(books);
+
+        // The memory cache is bounded by the estimate, which leaves out the authors and publishers
+        String sizes = "Estimated " + estimated / BOOK_COUNT + " bytes per book, measured " + measured / BOOK_COUNT;
+        assertTrue(sizes, estimated > measured * 3 / 4 && estimated < measured * 3 / 2);
+    }
+
+    /**
+     * Returns the bytes retained by {@link #BOOK_COUNT} books, lean or not.
+     */
+    private static long retainedBy(boolean lean) {
+        List<Object> books = new ArrayList<>(BOOK_COUNT);
+        long before = usedHeap();
+        for (int i = 0; i < BOOK_COUNT; i++) {
+            books.add(lean ? book(i) : new PlainBook(book(i)));
+        }
+        return usedHeap() - before - sizeOf(books);
+    }
+
+    private static Book book(int i) {
+        String id = copy("vol" + (100000000 + i));
+        String[] authors = i % 3 == 0
+                ? new String[]{copy("Author " + i % AUTHOR_COUNT), copy("Author " + (i + 1) % AUTHOR_COUNT)}
+                : new String[]{copy("Author " + i % AUTHOR_COUNT)};
+        return new Book(id, copy("Programming Android, part " + i), authors, copy("Publisher " + i % PUBLISHER_COUNT),
+                copy("http://books.google.com/books?id=" + id + "&dq=intitle:android&hl=&source=gbs_api"),
+                copy("http://books.google.com/books/content?id=" + id
+                        + "&printsec=frontcover&img=1&zoom=5&source=gbs_api"));
+    }
+
+    /**
+     * Returns a new instance of the given string, like a parser does.
+     */
+    private static String copy(String value) {
+        return new String(value.toCharArray());
+    }
+
+    /** Bytes of the list itself, measured with the books */
+    private static long sizeOf(List<Object> list) {
+        return 24 + 16 + 4L * list.size();
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * A book as it was kept before: a string of its own for every field, and the author displayed.
+     */
+    private static final class PlainBook {
+        final String id;
+        final String title;
+        final String author;
+        final String publisher;
+        final String url;
+        final String thumbnailUrl;
+
+        PlainBook(Book book) {
+            id = copy(book.getId());
+            title = copy(book.getTitle());
+            author = book.getAuthor();
+            publisher = copy(book.getPublisher());
+            url = book.getUrl();
+            thumbnailUrl = book.getThumbnailUrl();
+        }
+    }
+}
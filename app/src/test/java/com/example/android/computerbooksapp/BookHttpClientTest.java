@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2017 by Francis Gálvez
+ */
+package com.example.android.computerbooksapp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.net.HttpURLConnection;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the requests of {@link BookHttpClient} against a {@link StubServer}: the gzip-compressed
+ * bodies, the conditional requests and the timings measured.
+ */
+public class BookHttpClientTest {
+
+    private static final String PAGE = "{\"kind\":\"books#volumes\",\"totalItems\":0}";
+
+    private StubServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new StubServer();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    public void decodesAGzipBodyAndCountsTheCompressedBytes() throws IOException {
+        StubServer.StubResponse stub = new StubServer.StubResponse(200).body(PAGE).gzip();
+        server.enqueue(stub);
+
+        BookHttpClient.Response response = get(null);
+        try {
+            assertEquals("gzip", server.getRequest(0).getFirst("Accept-Encoding"));
+            assertEquals(PAGE, read(response.getBody()));
+            assertEquals(stub.body.length, response.getWireBytes());
+        } finally {
+            response.close();
+        }
+    }
+
+    @Test
+    public void releasesTheInflater() throws Exception {
+        server.enqueue(new StubServer.StubResponse(200).body(PAGE).gzip());
+
+        BookHttpClient.Response response = get(null);
+        InputStream body = response.getBody();
+        response.close();
+
+        // The native memory of the inflater is only freed once it has ended, which makes it unusable
+        Field field = InflaterInputStream.class.getDeclaredField("inf");
+        field.setAccessible(true);
+        Inflater inflater = (Inflater) field.get(body);
+        try {
+            inflater.getBytesRead();
+            fail("The inflater wasn't ended");
+        } catch (NullPointerException expected) {
+        }
+    }
+
+    @Test
+    public void acceptsAnEmptyGzipErrorBody() throws IOException {
+        server.enqueue(new StubServer.StubResponse(503).header("Content-Encoding", "gzip"));
+
+        BookHttpClient.Response response = get(null);
+        try {
+            assertEquals(503, response.getCode());
+        } finally {
+            response.close();
+        }
+    }
+
+    @Test
+    public void sendsTheValidatorsOfTheCachedPage() throws IOException {
+        server.enqueue(new StubServer.StubResponse(HttpURLConnection.HTTP_NOT_MODIFIED)
+                .header("ETag", "\"v1\""));
+
+        BookHttpClient.Response response = get("\"v1\"");
+        try {
+            assertEquals("\"v1\"", server.getRequest(0).getFirst("If-None-Match"));
+            assertEquals(HttpURLConnection.HTTP_NOT_MODIFIED, response.getCode());
+            assertNull(response.getBody());
+            assertEquals("\"v1\"", response.getETag());
+        } finally {
+            response.close();
+        }
+    }
+
+    @Test
+    public void measuresTheTimeToFirstByte() throws IOException {
+        server.enqueue(new StubServer.StubResponse(200).body(PAGE).delay(200));
+
+        BookHttpClient.Response response = get(null);
+        try {
+            assertTrue(response.getTimeToFirstByte() >= 200 * 1000000L);
+        } finally {
+            response.close();
+        }
+    }
+
+    @Test
+    public void readsTheRetryAfterInSeconds() throws IOException {
+        server.enqueue(new StubServer.StubResponse(503).header("Retry-After", "3"));
+
+        BookHttpClient.Response response = get(null);
+        try {
+            assertEquals(3000, response.getRetryAfter());
+        } finally {
+            response.close();
+        }
+    }
+
+    private BookHttpClient.Response get(String eTag) throws IOException {
+        return BookHttpClient.get(server.url("/books/v1/volumes"), eTag, null, new CancellationToken());
+    }
+
+    private static String read(InputStream input) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            output.write(buffer, 0, read);
+        }
+        return output.toString("UTF-8");
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2017 by Francis Gálvez
+ */
+package com.example.android.computerbooksapp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests the {@link BookMemoryCache}, and which queries it answers from the results of a shorter
+ * one. The cache is shared by the whole process, so each test searches its own queries.
+ */
+public class BookMemoryCacheTest {
+
+    @Test
+    public void returnsThePagesStored() {
+        List<Book> books = Collections.singletonList(book("a", "Effective Java"));
+        BookMemoryCache.put("effective java", 15, books);
+
+        assertEquals(books, BookMemoryCache.get("  Effective  Java ", 15));
+        assertNull(BookMemoryCache.get("effective java", 0));
+    }
+
+    @Test
+    public void filtersTheResultsOfAQueryExtendedByWholeWords() {
+        Book studio = book("b", "Android Studio Essentials");
+        BookMemoryCache.put("android", 0, new BookPage(Arrays.asList(studio, book("c", "Learning Android")), 2));
+
+        assertEquals(Collections.singletonList(studio), BookMemoryCache.getFromPrefix("android studio"));
+        assertEquals(Collections.singletonList(studio), BookMemoryCache.getFromPrefix("Android  stu"));
+    }
+
+    @Test
+    public void missesAQueryCompletingAPartialWord() {
+        // Searched while the user was still typing "kotlin"
+        BookMemoryCache.put("kotl", 0, new BookPage(Collections.singletonList(book("d", "Kotl Programming")), 1));
+
+        assertNull(BookMemoryCache.getFromPrefix("kotlin"));
+        assertNull(BookMemoryCache.getFromPrefix("kotlin kotl"));
+    }
+
+    @Test
+    public void missesAQueryWhoseShorterOneHasMorePages() {
+        List<Book> books = new ArrayList<>();
+        for (int i = 0; i < QueryUtils.PAGE_SIZE; i++) {
+            books.add(book("e" + i, "Swift " + i));
+        }
+        BookMemoryCache.put("swift", 0, new BookPage(books, QueryUtils.PAGE_SIZE));
+
+        assertNull(BookMemoryCache.getFromPrefix("swift 3"));
+    }
+
+    @Test
+    public void usesTheLongestQueryExtended() {
+        Book ml = book("f", "Python Machine Learning");
+        BookMemoryCache.put("python", 0,
+                new BookPage(Arrays.asList(book("g", "Python Machine Learning Recipes"), ml), 2));
+        List<Book> longer = new BookPage(Collections.singletonList(ml), 1);
+        BookMemoryCache.put("python machine", 0, longer);
+
+        List<Book> books = BookMemoryCache.getFromPrefix("python machine learning");
+        assertEquals(1, books.size());
+        assertSame(ml, books.get(0));
+    }
+
+    private static Book book(String id, String title) {
+        return new Book(id, title, new String[]{"Author"}, "Publisher", "http://books.google.com/books?id=" + id,
+                null);
+    }
+}
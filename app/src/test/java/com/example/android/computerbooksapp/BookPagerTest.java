@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2017 by Francis Gálvez
+ */
+package com.example.android.computerbooksapp;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests how the {@link BookPager} tells the last page of a search, when the API returned items
+ * that couldn't be displayed.
+ */
+public class BookPagerTest {
+
+    private final List<Integer> loadedPages = new ArrayList<>();
+    private BookPager pager;
+
+    @Before
+    public void setUp() {
+        pager = new BookPager(new BookPager.Callbacks() {
+            @Override
+            public void loadPage(int page, boolean prefetch) {
+                loadedPages.add(page);
+            }
+
+            @Override
+            public boolean shouldPrefetch() {
+                return true;
+            }
+
+            @Override
+            public void onBooksReplaced(List<Book> books) {
+            }
+
+            @Override
+            public void onBooksAppended(List<Book> books) {
+            }
+
+            @Override
+            public void onBooksPrepended(List<Book> books) {
+            }
+
+            @Override
+            public void onBooksDropped(int count, boolean fromStart) {
+            }
+        });
+    }
+
+    @Test
+    public void loadsThePageAfterAFullPageWithItemsDropped() {
+        pager.start();
+        // A full page, one of whose items had no link
+        pager.onPageLoaded(0, page(0, QueryUtils.PAGE_SIZE - 1, QueryUtils.PAGE_SIZE));
+
+        assertEquals(2, loadedPages.size());
+        assertEquals(1, (int) loadedPages.get(1));
+    }
+
+    @Test
+    public void stopsAfterAShortPage() {
+        pager.start();
+        pager.onPageLoaded(0, page(0, QueryUtils.PAGE_SIZE - 1, QueryUtils.PAGE_SIZE - 1));
+        pager.onScroll(0, QueryUtils.PAGE_SIZE);
+
+        assertEquals(1, loadedPages.size());
+    }
+
+    @Test
+    public void stopsAfterAShortPageOfBooksNotFromTheApi() {
+        pager.start();
+        pager.onPageLoaded(0, new ArrayList<>(page(0, QueryUtils.PAGE_SIZE - 1, QueryUtils.PAGE_SIZE)));
+
+        assertEquals(1, loadedPages.size());
+    }
+
+    /**
+     * Returns a page of the given number of books, from a response of the given number of items.
+     */
+    private static List<Book> page(int page, int bookCount, int itemCount) {
+        List<Book> books = new ArrayList<>();
+        for (int i = 0; i < bookCount; i++) {
+            String id = "volume" + page + "-" + i;
+            books.add(new Book(id, "Title " + i, new String[]{"Author"}, "Publisher",
+                    "http://books.google.com/books?id=" + id, null));
+        }
+        return new BookPage(books, itemCount);
+    }
+}
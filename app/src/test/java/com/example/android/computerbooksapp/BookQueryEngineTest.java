@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2017 by Francis Gálvez
+ */
+package com.example.android.computerbooksapp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the results of the {@link BookQueryEngine}: the orders, the text filter and the counts of
+ * the publishers and authors.
+ */
+public class BookQueryEngineTest {
+
+    /** Books in order of relevance, identified by their position */
+    private static final List<Book> BOOKS = Arrays.asList(
+            book("0", "Élements of Java", "O'Reilly", "José Pérez"),
+            book("1", "android Basics", "Packt", "Ann Lee", "Bob Ray"),
+            book("2", "Beginning Android", "O'Reilly", "Bob Ray"),
+            book("3", "Zen of Code", null),
+            book("4", "Android Basics", "Packt", "Carl Smith"));
+
+    private final BookQueryEngine engine = new BookQueryEngine(BOOKS);
+
+    @Test
+    public void keepsTheOrderOfRelevance() {
+        BookQueryEngine.Query query = new BookQueryEngine.Query(BookQueryEngine.SORT_RELEVANCE, " ", null, null);
+
+        assertTrue(query.isIdentity());
+        assertEquals(Arrays.asList("0", "1", "2", "3", "4"), idsOf(engine.query(query)));
+    }
+
+    @Test
+    public void sortsByTitleIgnoringCaseAndAccentsAndKeepsTheTies() {
+        // Both "Android Basics" stay in order of relevance
+        assertEquals(Arrays.asList("1", "4", "2", "0", "3"), idsOf(query(BookQueryEngine.SORT_TITLE, null, null, null)));
+    }
+
+    @Test
+    public void sortsByFirstAuthorWithTheUnknownFirst() {
+        assertEquals(Arrays.asList("3", "1", "2", "4", "0"), idsOf(query(BookQueryEngine.SORT_AUTHOR, null, null, null)));
+    }
+
+    @Test
+    public void sortsByPublisher() {
+        assertEquals(Arrays.asList("0", "2", "1", "4", "3"),
+                idsOf(query(BookQueryEngine.SORT_PUBLISHER, null, null, null)));
+    }
+
+    @Test
+    public void filtersTheTextAcrossCaseAndAccents() {
+        assertEquals(Arrays.asList("0"), idsOf(query(BookQueryEngine.SORT_RELEVANCE, "jose", null, null)));
+        assertEquals(Arrays.asList("0"), idsOf(query(BookQueryEngine.SORT_RELEVANCE, "PÉREZ", null, null)));
+        assertEquals(Arrays.asList("0"), idsOf(query(BookQueryEngine.SORT_RELEVANCE, "elements", null, null)));
+        assertEquals(Arrays.asList("1", "2", "4"), idsOf(query(BookQueryEngine.SORT_RELEVANCE, "Android", null, null)));
+        // The publisher and every author are searched too
+        assertEquals(Arrays.asList("1", "2"), idsOf(query(BookQueryEngine.SORT_RELEVANCE, "bob", null, null)));
+    }
+
+    @Test
+    public void countsThePublishersWithoutTheirOwnFilter() {
+        BookQueryEngine.Result result = query(BookQueryEngine.SORT_RELEVANCE, null, "Packt", null);
+
+        assertEquals(Arrays.asList("1", "4"), idsOf(result));
+        assertCounts(result.publisherCounts, "O'Reilly", 2, "Packt", 2, Book.UNKNOWN, 1);
+        // The authors are counted among the books of the publisher
+        assertCounts(result.authorCounts, "Ann Lee", 1, "Bob Ray", 1, "Carl Smith", 1);
+    }
+
+    @Test
+    public void countsTheAuthorsWithoutTheirOwnFilter() {
+        BookQueryEngine.Result result = query(BookQueryEngine.SORT_RELEVANCE, null, null, "Bob Ray");
+
+        assertEquals(Arrays.asList("1", "2"), idsOf(result));
+        // The most frequent first, the others in the order they first appear in the books
+        assertCounts(result.publisherCounts, "O'Reilly", 1, "Packt", 1);
+        assertCounts(result.authorCounts, "Bob Ray", 2, "José Pérez", 1, "Ann Lee", 1, "Carl Smith", 1);
+    }
+
+    @Test
+    public void countsTheFacetsAmongTheBooksWithTheText() {
+        BookQueryEngine.Result result = query(BookQueryEngine.SORT_TITLE, "android", "O'Reilly", null);
+
+        assertEquals(Arrays.asList("2"), idsOf(result));
+        assertCounts(result.publisherCounts, "Packt", 2, "O'Reilly", 1);
+        assertCounts(result.authorCounts, "Bob Ray", 1);
+    }
+
+    @Test
+    public void filtersTheUnknownPublisherButNoUnknownAuthor() {
+        assertEquals(Arrays.asList("3"), idsOf(query(BookQueryEngine.SORT_RELEVANCE, null, Book.UNKNOWN, null)));
+
+        // A book without authors isn't counted under an author
+        BookQueryEngine.Result result = query(BookQueryEngine.SORT_RELEVANCE, null, null, Book.UNKNOWN);
+        assertTrue(result.books.isEmpty());
+        assertFalse(result.authorCounts.containsKey(Book.UNKNOWN));
+    }
+
+    @Test
+    public void matchesNothingForAPublisherNotInTheBooks() {
+        BookQueryEngine.Result result = query(BookQueryEngine.SORT_RELEVANCE, null, "Wrox", null);
+
+        assertTrue(result.books.isEmpty());
+        assertEquals(3, result.publisherCounts.size());
+        assertTrue(result.authorCounts.isEmpty());
+    }
+
+    @Test
+    public void normalizesCaseAndAccents() {
+        assertEquals("galvez", BookQueryEngine.normalize("Gálvez"));
+        assertEquals("francis", BookQueryEngine.normalize("FRANCIS"));
+        assertEquals("", BookQueryEngine.normalize(null));
+    }
+
+    private BookQueryEngine.Result query(int sort, String text, String publisher, String author) {
+        return engine.query(new BookQueryEngine.Query(sort, text, publisher, author));
+    }
+
+    private static List<String> idsOf(BookQueryEngine.Result result) {
+        List<String> ids = new ArrayList<>();
+        for (Book book : result.books) {
+            ids.add(book.getId());
+        }
+        return ids;
+    }
+
+    /**
+     * Assert the given counts are, in order, the pairs of a value and its count given.
+     */
+    private static void assertCounts(Map<String, Integer> actual, Object... valuesAndCounts) {
+        Map<String, Integer> expected = new LinkedHashMap<>();
+        for (int i = 0; i < valuesAndCounts.length; i += 2) {
+            expected.put((String) valuesAndCounts[i], (Integer) valuesAndCounts[i + 1]);
+        }
+        assertEquals(new ArrayList<>(expected.entrySet()), new ArrayList<>(actual.entrySet()));
+    }
+
+    private static Book book(String id, String title, String publisher, String... authors) {
+        return new Book(id, title, authors, publisher, "http://books.google.com/books?id=" + id, null);
+    }
+}
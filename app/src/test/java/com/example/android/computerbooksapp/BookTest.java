@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2017 by Francis Gálvez
+ */
+package com.example.android.computerbooksapp;
+
+import android.os.Parcel;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+
+import static com.example.android.computerbooksapp.BookCodecTest.assertSameBook;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the lean representation of the {@link Book}s, and that they survive being parceled. It
+ * runs with Robolectric, since {@link Parcel} is a framework class.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 25)
+public class BookTest {
+
+    @Test
+    public void readsTheBookParceled() {
+        Book book = new Book("zYw3sYFtz9kC", "The Busy Coder's Guide to Android Development",
+                new String[]{"Mark Murphy", "CommonsWare"}, "CommonsWare, LLC",
+                "http://books.google.com/books?id=zYw3sYFtz9kC&dq=intitle:android&hl=&source=gbs_api",
+                "http://books.google.com/books/content?id=zYw3sYFtz9kC&printsec=frontcover&img=1&zoom=5");
+
+        assertSameBook(book, parcel(book));
+    }
+
+    @Test
+    public void readsABookWithoutIdAuthorsNorCoverParceled() {
+        Book book = new Book(null, "Professional Android", null, Book.UNKNOWN,
+                "https://play.google.com/store/books/details?id=Ai9pDwAAQBAJ&source=gbs_api", null);
+
+        assertSameBook(book, parcel(book));
+    }
+
+    @Test
+    public void sharesTheAuthorsAndPublishersOfTheBooks() {
+        // Strings parsed from different responses are different instances
+        Book first = book("zYw3sYFtz9kC", new String("Mark Murphy"), new String("CommonsWare, LLC"));
+        Book second = book("hDpYcAAACAAJ", new String("Mark Murphy"), new String("CommonsWare, LLC"));
+
+        assertSame(first.getAuthors().get(0), second.getAuthors().get(0));
+        assertSame(first.getPublisher(), second.getPublisher());
+    }
+
+    @Test
+    public void addsAndMoreOnlyWhenDisplayed() {
+        Book book = new Book("zYw3sYFtz9kC", "Android", new String[]{"Mark Murphy", "CommonsWare"},
+                "CommonsWare, LLC", "http://books.google.com/books?id=zYw3sYFtz9kC", null);
+
+        assertEquals("Mark Murphy and more", book.getAuthor());
+        assertTrue(book.hasMoreAuthors());
+        assertEquals(Arrays.asList("Mark Murphy", "CommonsWare"), book.getAuthors());
+
+        Book single = book("hDpYcAAACAAJ", "Bill Phillips", "Big Nerd Ranch");
+        assertEquals("Bill Phillips", single.getAuthor());
+        assertFalse(single.hasMoreAuthors());
+    }
+
+    @Test
+    public void rebuildsTheLinksAroundTheVolumeId() {
+        Book book = book("zYw3sYFtz9kC", "Mark Murphy", "CommonsWare, LLC");
+
+        assertEquals("http://books.google.com/books?id=zYw3sYFtz9kC&dq=intitle:android&hl=&source=gbs_api",
+                book.getUrl());
+        assertEquals("http://books.google.com/books/content?id=zYw3sYFtz9kC&printsec=frontcover&img=1&zoom=5",
+                book.getThumbnailUrl());
+    }
+
+    @Test
+    public void comparesTheAuthorsAndCoversWithoutBuildingThem() {
+        Book book = new Book("zYw3sYFtz9kC", "Android", new String[]{"Mark Murphy", "CommonsWare"},
+                "CommonsWare, LLC", "http://books.google.com/books?id=zYw3sYFtz9kC", null);
+        Book sameAuthors = new Book("zYw3sYFtz9kC", "Android", new String[]{new String("Mark Murphy"), "CommonsWare"},
+                "CommonsWare, LLC", "http://books.google.com/books?id=zYw3sYFtz9kC", null);
+        Book firstAuthorOnly = book("zYw3sYFtz9kC", "Mark Murphy", "CommonsWare, LLC");
+
+        assertTrue(book.hasSameAuthors(sameAuthors));
+        assertFalse(book.hasSameAuthors(firstAuthorOnly));
+
+        assertTrue(firstAuthorOnly.hasSameThumbnail(book("zYw3sYFtz9kC", "Bill Phillips", "Big Nerd Ranch")));
+        assertFalse(firstAuthorOnly.hasSameThumbnail(book("hDpYcAAACAAJ", "Mark Murphy", "CommonsWare, LLC")));
+        assertFalse(firstAuthorOnly.hasSameThumbnail(book));
+        assertTrue(book.hasSameThumbnail(sameAuthors));
+    }
+
+    private static Book book(String id, String author, String publisher) {
+        return new Book(id, "Android Programming", new String[]{author}, publisher,
+                "http://books.google.com/books?id=" + id + "&dq=intitle:android&hl=&source=gbs_api",
+                "http://books.google.com/books/content?id=" + id + "&printsec=frontcover&img=1&zoom=5");
+    }
+
+    private static Book parcel(Book book) {
+        Parcel parcel = Parcel.obtain();
+        try {
+            book.writeToParcel(parcel, 0);
+            parcel.setDataPosition(0);
+            return Book.CREATOR.createFromParcel(parcel);
+        } finally {
+            parcel.recycle();
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2017 by Francis Gálvez
+ */
+package com.example.android.computerbooksapp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the states of the {@link CircuitBreaker}, with open times short enough to wait for.
+ */
+public class CircuitBreakerTest {
+
+    @Test
+    public void opensAfterTheThresholdOfFailuresInARow() {
+        CircuitBreaker breaker = new CircuitBreaker(3, 30000, 60000);
+
+        breaker.onFailure();
+        breaker.onFailure();
+        assertTrue(breaker.allowRequest());
+
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.STATE_OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+        assertTrue(breaker.getRetryDelay() > 29000);
+    }
+
+    @Test
+    public void aSuccessStartsCountingTheFailuresAgain() {
+        CircuitBreaker breaker = new CircuitBreaker(3, 30000, 60000);
+
+        breaker.onFailure();
+        breaker.onFailure();
+        breaker.onSuccess();
+        breaker.onFailure();
+        breaker.onFailure();
+
+        assertEquals(CircuitBreaker.STATE_CLOSED, breaker.getState());
+        assertEquals(0, breaker.getRetryDelay());
+    }
+
+    @Test
+    public void letsASingleTrialThroughOnceOpenLongEnough() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker(1, 50, 1000);
+        breaker.onFailure();
+
+        Thread.sleep(60);
+        assertTrue(breaker.allowRequest());
+        assertEquals(CircuitBreaker.STATE_HALF_OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+
+        breaker.onSuccess();
+        assertEquals(CircuitBreaker.STATE_CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+    }
+
+    @Test
+    public void aFailedTrialDoublesTheOpenTimeUpToTheMaximum() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker(1, 50, 150);
+        breaker.onFailure();
+
+        Thread.sleep(60);
+        breaker.allowRequest();
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.STATE_OPEN, breaker.getState());
+        assertTrue(breaker.getRetryDelay() > 60);
+
+        Thread.sleep(110);
+        breaker.allowRequest();
+        breaker.onFailure();
+        long retryDelay = breaker.getRetryDelay();
+        assertTrue(retryDelay > 100 && retryDelay <= 150);
+    }
+
+    @Test
+    public void anAbandonedTrialLetsTheNextRequestBeTheTrial() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker(1, 50, 1000);
+        breaker.onFailure();
+
+        Thread.sleep(60);
+        assertTrue(breaker.allowRequest());
+        breaker.onAbandoned();
+
+        assertEquals(CircuitBreaker.STATE_OPEN, breaker.getState());
+        assertTrue(breaker.allowRequest());
+    }
+
+    @Test
+    public void staysOpenAsLongAsTheServerAsks() {
+        CircuitBreaker breaker = new CircuitBreaker(5, 50, 1000);
+
+        breaker.openFor(120000);
+        assertFalse(breaker.allowRequest());
+        assertTrue(breaker.getRetryDelay() > 119000);
+
+        // A shorter delay asked later doesn't close it sooner
+        breaker.openFor(100);
+        assertTrue(breaker.getRetryDelay() > 119000);
+    }
+
+    @Test
+    public void resetClosesTheCircuitAndForgetsTheFailures() {
+        CircuitBreaker breaker = new CircuitBreaker(2, 30000, 60000);
+        breaker.onFailure();
+        breaker.onFailure();
+
+        breaker.reset();
+        assertEquals(CircuitBreaker.STATE_CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.STATE_CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void notifiesTheChangesOfState() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker(2, 50, 1000);
+        final List<Integer> states = new ArrayList<>();
+        breaker.setListener(new CircuitBreaker.Listener() {
+            @Override
+            public void onStateChanged(int state) {
+                states.add(state);
+            }
+        });
+
+        breaker.onFailure();
+        breaker.onFailure();
+        breaker.onFailure();
+        Thread.sleep(60);
+        breaker.allowRequest();
+        breaker.onSuccess();
+        breaker.onSuccess();
+
+        assertEquals(Arrays.asList(CircuitBreaker.STATE_OPEN, CircuitBreaker.STATE_HALF_OPEN,
+                CircuitBreaker.STATE_CLOSED), states);
+    }
+}
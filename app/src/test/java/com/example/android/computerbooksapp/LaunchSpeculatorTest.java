@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2017 by Francis Gálvez
+ */
+package com.example.android.computerbooksapp;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the hints the {@link LaunchSpeculator} gives to a fake browser {@link LaunchSpeculator.Session}.
+ */
+public class LaunchSpeculatorTest {
+
+    private static final String A = "https://books.google.com/books?id=A";
+    private static final String B = "https://books.google.com/books?id=B";
+    private static final String C = "https://books.google.com/books?id=C";
+    private static final String D = "https://books.google.com/books?id=D";
+
+    private LaunchSpeculator speculator;
+    private FakeSession session;
+
+    @Before
+    public void setUp() {
+        speculator = new LaunchSpeculator();
+        session = new FakeSession();
+    }
+
+    @Test
+    public void tellsTheTopRowAndTheNextFew() {
+        speculator.setSession(session);
+        speculator.onVisibleUrls(Arrays.asList(A, B, C, D));
+
+        assertEquals(Collections.singletonList(A), session.urls);
+        assertEquals(Collections.singletonList(Arrays.asList(B, C)), session.otherUrls);
+    }
+
+    @Test
+    public void onlyTellsWhenTheRowsChange() {
+        speculator.setSession(session);
+        speculator.onVisibleUrls(Arrays.asList(A, B, C, D));
+        speculator.onVisibleUrls(Arrays.asList(A, B, C));
+        assertEquals(1, session.urls.size());
+
+        speculator.onVisibleUrls(Arrays.asList(B, C, D));
+        assertEquals(Arrays.asList(A, B), session.urls);
+    }
+
+    @Test
+    public void tellsTheRowsSeenBeforeTheSessionOnceConnected() {
+        speculator.onVisibleUrls(Arrays.asList(A, B));
+        speculator.setSession(session);
+
+        assertEquals(Collections.singletonList(A), session.urls);
+        assertEquals(Collections.singletonList(Collections.singletonList(B)), session.otherUrls);
+    }
+
+    @Test
+    public void tellsANewSessionAgain() {
+        speculator.setSession(session);
+        speculator.onVisibleUrls(Arrays.asList(A, B));
+
+        FakeSession reconnected = new FakeSession();
+        speculator.setSession(reconnected);
+
+        assertEquals(Collections.singletonList(A), reconnected.urls);
+    }
+
+    @Test
+    public void tellsNoSessionTheRowsClearedBeforeIt() {
+        // Rows seen on Wi-Fi, then the network becomes metered while the browser is away
+        speculator.onVisibleUrls(Arrays.asList(A, B));
+        speculator.clear();
+        speculator.setSession(session);
+        assertTrue(session.urls.isEmpty());
+
+        speculator.setSession(null);
+        speculator.setSession(session);
+        assertTrue(session.urls.isEmpty());
+
+        // Until the rows are seen again
+        speculator.onVisibleUrls(Arrays.asList(A, B));
+        assertEquals(Collections.singletonList(A), session.urls);
+    }
+
+    @Test
+    public void triesAgainAHintRefused() {
+        session.accept = false;
+        speculator.setSession(session);
+        speculator.onVisibleUrls(Arrays.asList(A, B));
+        assertFalse(speculator.onOpen(A));
+
+        session.accept = true;
+        speculator.onVisibleUrls(Arrays.asList(A, B));
+        assertEquals(Arrays.asList(A, A), session.urls);
+        assertTrue(speculator.onOpen(A));
+    }
+
+    @Test
+    public void tellsNothingWithoutRows() {
+        speculator.setSession(session);
+        speculator.onVisibleUrls(Collections.<String>emptyList());
+
+        assertTrue(session.urls.isEmpty());
+    }
+
+    @Test
+    public void countsThePagesOpenedTheBrowserWasReadyFor() {
+        speculator.setSession(session);
+        speculator.onVisibleUrls(Arrays.asList(A, B, C, D));
+
+        assertTrue(speculator.onOpen(A));
+        assertTrue(speculator.onOpen(C));
+        assertFalse(speculator.onOpen(D));
+
+        // Without a browser, nothing is ready
+        speculator.setSession(null);
+        assertFalse(speculator.onOpen(B));
+
+        assertEquals(4, speculator.getOpenCount());
+        assertEquals(2, speculator.getHitCount());
+    }
+
+    /**
+     * Session recording the hints it was given.
+     */
+    private static final class FakeSession implements LaunchSpeculator.Session {
+        final List<String> urls = new ArrayList<>();
+        final List<List<String>> otherUrls = new ArrayList<>();
+        boolean accept = true;
+
+        @Override
+        public boolean mayLaunchUrl(String url, List<String> otherUrls) {
+            urls.add(url);
+            this.otherUrls.add(new ArrayList<>(otherUrls));
+            return accept;
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2017 by Francis Gálvez
+ */
+package com.example.android.computerbooksapp;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives the {@link NetworkPolicy} with synthetic traces of networks and responses, like those of
+ * a device on Wi-Fi, LTE, 3G or EDGE, and checks how it classes the link and what it decides at
+ * the end of each trace. As in the app, the covers are only downloaded while the policy allows it.
+ */
+public class NetworkPolicyTest {
+
+    /** Size of the body of a page, trimmed to its fields and gzip-compressed, and of a cover */
+    private static final int PAGE_BYTES = 2 * 1024;
+    private static final int COVER_BYTES = 12 * 1024;
+
+    /** Number of covers displayed with each page */
+    private static final int COVERS_PER_PAGE = 3;
+
+    /** Number of pages after which a cover is downloaded again on a link slowed by its throughput */
+    private static final int MAX_PAGES_WITHOUT_COVERS = 4;
+
+    @Test
+    public void wiFi() {
+        Trace trace = new Trace()
+                .network("WIFI", NetworkPolicy.LINK_FAST, false, false)
+                .pages(5, 150, 2000 * 1024);
+
+        trace.check(NetworkPolicy.LINK_FAST, true, true, true);
+        assertEquals(3, trace.policy.getRequestConcurrency());
+        assertEquals(1, trace.policy.getTimeoutScale());
+    }
+
+    @Test
+    public void lte() {
+        new Trace()
+                .network("MOBILE/LTE", NetworkPolicy.LINK_FAST, true, false)
+                .pages(5, 250, 1000 * 1024)
+                .check(NetworkPolicy.LINK_FAST, false, true, false);
+    }
+
+    @Test
+    public void hspa() {
+        Trace trace = new Trace()
+                .network("MOBILE/HSPA", NetworkPolicy.LINK_MODERATE, true, false)
+                .pages(5, 500, 60 * 1024);
+
+        trace.check(NetworkPolicy.LINK_MODERATE, false, false, false);
+        assertEquals(0, trace.covers);
+        assertEquals(2, trace.policy.getRequestConcurrency());
+        assertEquals(1, trace.policy.getCoverConcurrency());
+    }
+
+    @Test
+    public void meteredAndUnmeteredLte() {
+        // Same link, with a plan charged by the byte or with unlimited data
+        Trace unmetered = new Trace()
+                .network("MOBILE/LTE", NetworkPolicy.LINK_FAST, false, false)
+                .pages(5, 250, 1000 * 1024);
+        Trace metered = new Trace()
+                .network("MOBILE/LTE", NetworkPolicy.LINK_FAST, true, false)
+                .pages(5, 250, 1000 * 1024);
+
+        // Only the covers of the rows seen are paid for
+        unmetered.check(NetworkPolicy.LINK_FAST, true, true, true);
+        metered.check(NetworkPolicy.LINK_FAST, false, true, false);
+        assertEquals(unmetered.covers, metered.covers);
+    }
+
+    @Test
+    public void meteredAndUnmeteredHspa() {
+        Trace unmetered = new Trace()
+                .network("MOBILE/HSPA", NetworkPolicy.LINK_MODERATE, false, false)
+                .pages(5, 500, 60 * 1024);
+        Trace metered = new Trace()
+                .network("MOBILE/HSPA", NetworkPolicy.LINK_MODERATE, true, false)
+                .pages(5, 500, 60 * 1024);
+
+        // The covers arrive late on a moderate link, so they're only worth it when free
+        unmetered.check(NetworkPolicy.LINK_MODERATE, true, true, true);
+        metered.check(NetworkPolicy.LINK_MODERATE, false, false, false);
+        assertEquals(5 * COVERS_PER_PAGE, unmetered.covers);
+        assertEquals(0, metered.covers);
+    }
+
+    @Test
+    public void edge() {
+        Trace trace = new Trace()
+                .network("MOBILE/EDGE", NetworkPolicy.LINK_SLOW, true, false)
+                .pages(5, 1200, 8 * 1024);
+
+        trace.check(NetworkPolicy.LINK_SLOW, false, false, false);
+        assertEquals(0, trace.covers);
+        assertEquals(1, trace.policy.getRequestConcurrency());
+        assertEquals(2, trace.policy.getTimeoutScale());
+    }
+
+    @Test
+    public void congestedWiFi() {
+        new Trace()
+                .network("WIFI", NetworkPolicy.LINK_FAST, false, false)
+                .pages(3, 1800, 10 * 1024)
+                .check(NetworkPolicy.LINK_SLOW, false, false, false);
+    }
+
+    @Test
+    public void wiFiThenEdge() {
+        new Trace()
+                .network("WIFI", NetworkPolicy.LINK_FAST, false, false)
+                .pages(5, 150, 2000 * 1024)
+                .network("MOBILE/EDGE", NetworkPolicy.LINK_SLOW, true, false)
+                .check(NetworkPolicy.LINK_SLOW, false, false, false);
+    }
+
+    @Test
+    public void edgeThenWiFi() {
+        new Trace()
+                .network("MOBILE/EDGE", NetworkPolicy.LINK_SLOW, true, false)
+                .pages(3, 1200, 8 * 1024)
+                .network("WIFI", NetworkPolicy.LINK_FAST, false, false)
+                .pages(1, 150, 2000 * 1024)
+                .check(NetworkPolicy.LINK_FAST, true, true, true);
+    }
+
+    @Test
+    public void wiFiWithAStalledResponse() {
+        new Trace()
+                .network("WIFI", NetworkPolicy.LINK_FAST, false, false)
+                .pages(3, 150, 2000 * 1024)
+                .pages(1, 3000, 2000 * 1024)
+                .pages(1, 150, 2000 * 1024)
+                .check(NetworkPolicy.LINK_FAST, true, true, true);
+    }
+
+    @Test
+    public void lteWithDataSaver() {
+        Trace trace = new Trace()
+                .network("MOBILE/LTE", NetworkPolicy.LINK_FAST, true, true)
+                .pages(5, 250, 1000 * 1024);
+
+        trace.check(NetworkPolicy.LINK_FAST, false, false, false);
+        assertEquals(0, trace.covers);
+    }
+
+    @Test
+    public void wiFiRecoveringFromASlowThroughput() {
+        // Only the covers measure the throughput, and they stop once it's measured as slow
+        Trace trace = new Trace()
+                .network("WIFI", NetworkPolicy.LINK_FAST, false, false)
+                .pages(2, 300, 10 * 1024);
+        trace.check(NetworkPolicy.LINK_SLOW, false, false, false);
+
+        // The pages alone, fast again, bring the covers back, which find the throughput fast too
+        trace.pages(MAX_PAGES_WITHOUT_COVERS, 150, 2000 * 1024)
+                .check(NetworkPolicy.LINK_FAST, true, true, true);
+        trace.pages(1, 150, 2000 * 1024)
+                .check(NetworkPolicy.LINK_FAST, true, true, true);
+    }
+
+    @Test
+    public void wiFiStayingSlowOnlyTriesAFewCovers() {
+        Trace trace = new Trace()
+                .network("WIFI", NetworkPolicy.LINK_FAST, false, false)
+                .pages(20, 300, 10 * 1024);
+
+        // A cover now and then measures the throughput again, instead of three with every page
+        assertTrue(trace.covers + " covers downloaded", trace.covers <= 2 + 20 / MAX_PAGES_WITHOUT_COVERS);
+        trace.check(NetworkPolicy.LINK_SLOW, false, false, false);
+    }
+
+    @Test
+    public void notifiesTheChangesOfTheDecisions() {
+        NetworkPolicy policy = new NetworkPolicy();
+        final int[] changes = new int[1];
+        policy.addListener(new NetworkPolicy.Listener() {
+            @Override
+            public void onPolicyChanged(NetworkPolicy policy) {
+                changes[0]++;
+            }
+        });
+
+        policy.onNetworkChanged("WIFI", NetworkPolicy.LINK_FAST, false, false);
+        assertEquals(0, changes[0]);
+        policy.onNetworkChanged("MOBILE/EDGE", NetworkPolicy.LINK_SLOW, true, false);
+        assertEquals(1, changes[0]);
+        policy.onNetworkChanged("MOBILE/EDGE", NetworkPolicy.LINK_SLOW, true, true);
+        assertEquals(2, changes[0]);
+    }
+
+    /**
+     * A synthetic trace: a network, then pages and their covers received on it, maybe a change of
+     * network.
+     */
+    private static final class Trace {
+        final Random random = new Random(42);
+        final NetworkPolicy policy = new NetworkPolicy();
+
+        /** Number of covers downloaded */
+        int covers;
+
+        Trace network(String network, int expectedLink, boolean metered, boolean dataSaver) {
+            policy.onNetworkChanged(network, expectedLink, metered, dataSaver);
+            return this;
+        }
+
+        /**
+         * Receive pages of results at the given latency (with up to 20% jitter) and throughput,
+         * each followed by its covers if the policy lets them be downloaded.
+         */
+        Trace pages(int count, int latencyMillis, int bytesPerSecond) {
+            for (int i = 0; i < count; i++) {
+                receive(PAGE_BYTES, latencyMillis, bytesPerSecond);
+                for (int j = 0; j < COVERS_PER_PAGE && policy.shouldLoadCovers(); j++) {
+                    receive(COVER_BYTES, latencyMillis, bytesPerSecond);
+                    covers++;
+                }
+            }
+            return this;
+        }
+
+        private void receive(int bytes, int latencyMillis, int bytesPerSecond) {
+            long latency = (long) (latencyMillis * (1 + 0.2 * random.nextDouble())) * 1000000;
+            // The first packets arrive with the headers
+            long readTime = Math.max(0, bytes - 1400) * 1000000000L / bytesPerSecond;
+            policy.onResponse(latency, bytes, readTime);
+        }
+
+        void check(int link, boolean prefetch, boolean covers, boolean speculate) {
+            String state = policy.toString();
+            assertEquals(state, NetworkPolicy.linkName(link), NetworkPolicy.linkName(policy.getLink()));
+            assertEquals(state, prefetch, policy.shouldPrefetch());
+            assertEquals(state, covers, policy.shouldLoadCovers());
+            assertEquals(state, speculate, policy.shouldSpeculate());
+        }
+    }
+}
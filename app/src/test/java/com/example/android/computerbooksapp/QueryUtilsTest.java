@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2017 by Francis Gálvez
+ */
+package com.example.android.computerbooksapp;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the streaming parser of {@link QueryUtils} against a response of the Google Books API
+ * (volumes.json in the test resources), with the fields the app skips and the ones it falls
+ * back on. It runs with Robolectric, since {@link android.util.JsonReader} is a framework class.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 25)
+public class QueryUtilsTest {
+
+    @Test
+    public void readsTheFieldsDisplayed() throws IOException {
+        List<Book> books = parseResource("/volumes.json");
+
+        Book book = books.get(0);
+        assertEquals("zYw3sYFtz9kC", book.getId());
+        assertEquals("The Busy Coder's Guide to Android Development", book.getTitle());
+        assertEquals("CommonsWare, LLC", book.getPublisher());
+        assertEquals("http://books.google.com/books?id=zYw3sYFtz9kC&dq=intitle:android&hl=&source=gbs_api",
+                book.getUrl());
+    }
+
+    @Test
+    public void keepsEveryAuthorAndShowsTheFirst() throws IOException {
+        List<Book> books = parseResource("/volumes.json");
+
+        assertEquals(Arrays.asList("Mark Murphy", "CommonsWare"), books.get(0).getAuthors());
+        assertEquals("Mark Murphy and more", books.get(0).getAuthor());
+        assertTrue(books.get(0).hasMoreAuthors());
+
+        assertEquals("Bill Phillips", books.get(1).getAuthor());
+        assertFalse(books.get(1).hasMoreAuthors());
+    }
+
+    @Test
+    public void fallsBackOnUnknownAuthorAndPublisher() throws IOException {
+        List<Book> books = parseResource("/volumes.json");
+
+        // No publisher at all, then an empty "authors" array and a null publisher
+        assertEquals(Book.UNKNOWN, books.get(1).getPublisher());
+        assertEquals(Book.UNKNOWN, books.get(2).getAuthor());
+        assertEquals(Book.UNKNOWN, books.get(2).getPublisher());
+    }
+
+    @Test
+    public void prefersTheSmallestThumbnail() throws IOException {
+        List<Book> books = parseResource("/volumes.json");
+
+        assertEquals("http://books.google.com/books/content?id=zYw3sYFtz9kC&printsec=frontcover&img=1&zoom=5",
+                books.get(0).getThumbnailUrl());
+        assertEquals("http://books.google.com/books/content?id=hDpYcAAACAAJ&printsec=frontcover&img=1&zoom=1",
+                books.get(1).getThumbnailUrl());
+        assertNull(books.get(2).getThumbnailUrl());
+    }
+
+    @Test
+    public void readsTheIdAfterTheVolumeInfo() throws IOException {
+        List<Book> books = parseResource("/volumes.json");
+
+        assertEquals("Ai9pDwAAQBAJ", books.get(2).getId());
+        assertEquals("https://play.google.com/store/books/details?id=Ai9pDwAAQBAJ&source=gbs_api",
+                books.get(2).getUrl());
+    }
+
+    @Test
+    public void dropsItemsWithoutLink() throws IOException {
+        List<Book> books = parseResource("/volumes.json");
+
+        assertEquals(3, books.size());
+    }
+
+    @Test
+    public void countsTheItemsDropped() throws IOException {
+        List<Book> books = parseResource("/volumes.json");
+
+        assertEquals(4, BookPage.itemCountOf(books));
+    }
+
+    @Test
+    public void returnsNoBooksWhenNothingMatched() throws IOException {
+        assertTrue(parse("{\"kind\":\"books#volumes\",\"totalItems\":0}").isEmpty());
+    }
+
+    @Test(expected = IOException.class)
+    public void failsOnATruncatedResponse() throws IOException {
+        parse("{\"kind\":\"books#volumes\",\"items\":[{\"id\":\"zYw3sYFtz9kC\",\"volumeInfo\":{\"title\":\"And");
+    }
+
+    @Test(expected = IOException.class)
+    public void failsOnAnHtmlPage() throws IOException {
+        // e.g. the login page of a captive portal, sent with a 200
+        parse("<html><head><title>Sign in to the network</title></head></html>");
+    }
+
+    @Test(expected = IOException.class)
+    public void failsOnUnexpectedJson() throws IOException {
+        parse("[\"not\", \"a\", \"volumes\", \"response\"]");
+    }
+
+    private List<Book> parseResource(String name) throws IOException {
+        InputStream stream = getClass().getResourceAsStream(name);
+        try {
+            return QueryUtils.extractFeatureFromJson(stream);
+        } finally {
+            stream.close();
+        }
+    }
+
+    static List<Book> parse(String json) throws IOException {
+        return QueryUtils.extractFeatureFromJson(new ByteArrayInputStream(json.getBytes("UTF-8")));
+    }
+}
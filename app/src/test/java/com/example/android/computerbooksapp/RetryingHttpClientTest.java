@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2017 by Francis Gálvez
+ */
+package com.example.android.computerbooksapp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.URL;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Injects the failures of a server into the requests of {@link RetryingHttpClient} with a
+ * {@link StubServer}: transient errors, Retry-After and a server failing until the circuit opens.
+ */
+public class RetryingHttpClientTest {
+
+    private StubServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new StubServer();
+        closeCircuit();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+        closeCircuit();
+    }
+
+    @Test
+    public void retriesAServiceUnavailable() throws IOException {
+        server.enqueue(new StubServer.StubResponse(503));
+        server.enqueue(new StubServer.StubResponse(200).body("{}"));
+
+        assertEquals(200, getCode(new CancellationToken()));
+        assertEquals(2, server.getRequestCount());
+        assertEquals(CircuitBreaker.STATE_CLOSED, RetryingHttpClient.getCircuitBreaker().getState());
+    }
+
+    @Test
+    public void waitsAsLongAsTheServerAsks() throws IOException {
+        server.enqueue(new StubServer.StubResponse(429).header("Retry-After", "1"));
+        server.enqueue(new StubServer.StubResponse(200).body("{}"));
+
+        long start = System.nanoTime();
+        assertEquals(200, getCode(new CancellationToken()));
+        assertTrue(System.nanoTime() - start >= 1000000000L);
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void returnsTheErrorOfTheLastAttempt() throws IOException {
+        for (int i = 0; i < 3; i++) {
+            server.enqueue(new StubServer.StubResponse(503));
+        }
+
+        assertEquals(503, getCode(new CancellationToken()));
+        assertEquals(3, server.getRequestCount());
+    }
+
+    @Test
+    public void doesNotRetryAClientError() throws IOException {
+        server.enqueue(new StubServer.StubResponse(400));
+
+        assertEquals(400, getCode(new CancellationToken()));
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void opensTheCircuitWhenTheServerAsksForALongWait() throws IOException {
+        server.enqueue(new StubServer.StubResponse(503).header("Retry-After", "120"));
+
+        assertEquals(503, getCode(new CancellationToken()));
+        try {
+            getCode(new CancellationToken());
+            fail("The request was sent");
+        } catch (RetryingHttpClient.CircuitOpenException e) {
+            assertTrue(e.getRetryDelay() > 110000);
+        }
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void opensTheCircuitAfterFailuresInARow() throws IOException {
+        // Five failures in a row open it: three attempts of a first search, two of the next one
+        for (int i = 0; i < 6; i++) {
+            server.enqueue(new StubServer.StubResponse(500));
+        }
+
+        assertEquals(500, getCode(new CancellationToken()));
+        try {
+            getCode(new CancellationToken());
+            fail("The circuit didn't open");
+        } catch (RetryingHttpClient.CircuitOpenException expected) {
+        }
+        assertEquals(5, server.getRequestCount());
+        assertEquals(CircuitBreaker.STATE_OPEN, RetryingHttpClient.getCircuitBreaker().getState());
+    }
+
+    @Test
+    public void doesNotBlameTheServerWhenItCantBeReached() throws IOException {
+        // Nothing listens on the port any more, like when the device has lost its network
+        ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        URL url = new URL("http", socket.getInetAddress().getHostAddress(), socket.getLocalPort(), "/books/v1/volumes");
+        socket.close();
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                RetryingHttpClient.get(url, null, null, new CancellationToken());
+                fail("The server was reached");
+            } catch (ConnectException expected) {
+            }
+        }
+        assertEquals(CircuitBreaker.STATE_CLOSED, RetryingHttpClient.getCircuitBreaker().getState());
+    }
+
+    @Test
+    public void stopsWaitingWhenCanceled() throws Exception {
+        server.enqueue(new StubServer.StubResponse(503).header("Retry-After", "5"));
+        final CancellationToken cancellation = new CancellationToken();
+        Thread canceler = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(300);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                cancellation.cancel();
+            }
+        };
+        canceler.start();
+
+        long start = System.nanoTime();
+        assertNull(RetryingHttpClient.get(server.url("/books/v1/volumes"), null, null, cancellation));
+        assertTrue(System.nanoTime() - start < 4000000000L);
+        assertEquals(1, server.getRequestCount());
+        canceler.join();
+    }
+
+    /**
+     * Make a request to the server, and return the status code of its response.
+     */
+    private int getCode(CancellationToken cancellation) throws IOException {
+        BookHttpClient.Response response = RetryingHttpClient.get(server.url("/books/v1/volumes"), null, null,
+                cancellation);
+        try {
+            return response.getCode();
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * The circuit breaker is shared by all the requests, so each test starts with it closed.
+     */
+    private static void closeCircuit() {
+        RetryingHttpClient.getCircuitBreaker().onSuccess();
+    }
+}
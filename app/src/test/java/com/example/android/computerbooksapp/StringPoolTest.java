@@ -0,0 +1,37 @@
+/*
+ * Copyright (c) 2017 by Francis Gálvez
+ */
+package com.example.android.computerbooksapp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests that the {@link StringPool} shares a single instance of equal strings.
+ */
+public class StringPoolTest {
+
+    @Test
+    public void returnsTheSameInstanceForEqualStrings() {
+        String first = StringPool.intern(new String("O'Reilly Media, Inc."));
+
+        assertSame(first, StringPool.intern(new String("O'Reilly Media, Inc.")));
+    }
+
+    @Test
+    public void internsAPartOfAString() {
+        String url = "http://books.google.com/books?id=zYw3sYFtz9kC&source=gbs_api";
+        String prefix = StringPool.intern(url, 0, url.indexOf("zYw3"));
+
+        assertEquals("http://books.google.com/books?id=", prefix);
+        assertSame(prefix, StringPool.intern("http://books.google.com/books?id=hDpYcAAACAAJ", 0, prefix.length()));
+    }
+
+    @Test
+    public void keepsNull() {
+        assertNull(StringPool.intern(null));
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2017 by Francis Gálvez
+ */
+package com.example.android.computerbooksapp;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Local HTTP server answering the requests of the tests with the responses queued, to inject the
+ * failures of a real server: error codes, Retry-After, slow headers, compressed or empty bodies.
+ * It records the headers of the requests it received.
+ */
+final class StubServer {
+
+    /**
+     * A response queued on the server.
+     */
+    static final class StubResponse {
+        final int code;
+        final Map<String, String> headers = new LinkedHashMap<>();
+        byte[] body = new byte[0];
+        long delayMillis;
+
+        StubResponse(int code) {
+            this.code = code;
+        }
+
+        StubResponse header(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+
+        StubResponse body(String text) throws IOException {
+            body = text.getBytes("UTF-8");
+            return this;
+        }
+
+        /** Compress the body as gzip, and say so in the headers */
+        StubResponse gzip() throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+            gzip.write(body);
+            gzip.close();
+            body = bytes.toByteArray();
+            return header("Content-Encoding", "gzip");
+        }
+
+        /** Wait before sending the headers, like a slow server */
+        StubResponse delay(long millis) {
+            delayMillis = millis;
+            return this;
+        }
+    }
+
+    private final HttpServer server;
+    private final ConcurrentLinkedQueue<StubResponse> responses = new ConcurrentLinkedQueue<>();
+    private final List<Headers> requests = new ArrayList<>();
+
+    /**
+     * Start a server on a free port of the loopback interface. It must be stopped with {@link #stop}.
+     */
+    StubServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                synchronized (requests) {
+                    requests.add(exchange.getRequestHeaders());
+                }
+                StubResponse response = responses.poll();
+                if (response == null) {
+                    response = new StubResponse(500);
+                }
+
+                if (response.delayMillis > 0) {
+                    try {
+                        Thread.sleep(response.delayMillis);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                for (Map.Entry<String, String> header : response.headers.entrySet()) {
+                    exchange.getResponseHeaders().set(header.getKey(), header.getValue());
+                }
+                // An empty body is sent chunked, so the client still gets a stream to read
+                exchange.sendResponseHeaders(response.code, response.code == 304 ? -1 : response.body.length);
+                OutputStream output = exchange.getResponseBody();
+                output.write(response.body);
+                output.close();
+            }
+        });
+        server.start();
+    }
+
+    /**
+     * Queue the response to the next request. Requests beyond those queued get a 500.
+     */
+    void enqueue(StubResponse response) {
+        responses.add(response);
+    }
+
+    /** Returns the URL of the given path on the server */
+    URL url(String path) throws MalformedURLException {
+        return new URL("http", "127.0.0.1", server.getAddress().getPort(), path);
+    }
+
+    /** Returns the number of requests received */
+    int getRequestCount() {
+        synchronized (requests) {
+            return requests.size();
+        }
+    }
+
+    /** Returns the headers of the given request received, counting from 0 */
+    Headers getRequest(int index) {
+        synchronized (requests) {
+            return requests.get(index);
+        }
+    }
+
+    void stop() {
+        server.stop(0);
+    }
+}
@@ -0,0 +1,42 @@
+#!/bin/sh
+#
+# Copyright (c) 2017 by Francis Gálvez
+#
+# Records responses of the Google Books API for popular computer topics, to build the offline
+# catalog of the app from them with ./gradlew :benchmark:catalog
+#
+#   benchmark/record_catalog.sh [pages per topic] [directory]
+#
+# Each topic is searched like the app does, 40 books per page, and each page is saved as
+# <topic>-<start index>.json. The fields requested are those the app reads.
+
+PAGES=${1:-5}
+DIRECTORY=${2:-benchmark/catalog}
+URL=https://www.googleapis.com/books/v1/volumes
+FIELDS="items(id,volumeInfo(title,authors,publisher,infoLink,imageLinks(smallThumbnail,thumbnail)))"
+
+mkdir -p "$DIRECTORY"
+
+for topic in android java kotlin python javascript "c++" "c#" go rust swift \
+        algorithms "data structures" "design patterns" "software engineering" refactoring \
+        "machine learning" "deep learning" "data science" statistics databases sql \
+        linux unix "operating systems" networking security cryptography "cloud computing" \
+        "web development" html css react "functional programming" compilers \
+        "computer architecture" "distributed systems" concurrency testing agile devops; do
+    page=0
+    while [ $page -lt "$PAGES" ]; do
+        start=$((page * 40))
+        file="$DIRECTORY/$(echo "$topic" | tr ' /' '__')-$start.json"
+        if ! curl -sSfG "$URL" --data-urlencode "q=intitle:$topic" --data "categories=Computers" \
+                --data "startIndex=$start" --data "maxResults=40" --data-urlencode "fields=$FIELDS" \
+                -o "$file"; then
+            echo "Failed to record $topic from $start" >&2
+            rm -f "$file"
+        fi
+        page=$((page + 1))
+        # Stay well under the rate limit of the API
+        sleep 1
+    done
+done
+
+echo "Recorded $(ls "$DIRECTORY" | wc -l) responses in $DIRECTORY"
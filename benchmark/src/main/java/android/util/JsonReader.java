@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2017 by Francis Gálvez
+ */
+package android.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Replaces the framework class on the JVM.
+ *
+ * The framework JsonReader is compiled against the Android core library and can't run on a
+ * desktop VM, so this one delegates to the Gson reader it was derived from, which has the same
+ * API and parsing algorithm. Only the methods used by the app are provided.
+ */
+public final class JsonReader implements Closeable {
+
+    private final com.google.gson.stream.JsonReader delegate;
+
+    public JsonReader(Reader in) {
+        delegate = new com.google.gson.stream.JsonReader(in);
+    }
+
+    public void setLenient(boolean lenient) {
+        delegate.setLenient(lenient);
+    }
+
+    public void beginArray() throws IOException {
+        try {
+            delegate.beginArray();
+        } catch (com.google.gson.stream.MalformedJsonException e) {
+            throw new MalformedJsonException(e.getMessage());
+        }
+    }
+
+    public void endArray() throws IOException {
+        try {
+            delegate.endArray();
+        } catch (com.google.gson.stream.MalformedJsonException e) {
+            throw new MalformedJsonException(e.getMessage());
+        }
+    }
+
+    public void beginObject() throws IOException {
+        try {
+            delegate.beginObject();
+        } catch (com.google.gson.stream.MalformedJsonException e) {
+            throw new MalformedJsonException(e.getMessage());
+        }
+    }
+
+    public void endObject() throws IOException {
+        try {
+            delegate.endObject();
+        } catch (com.google.gson.stream.MalformedJsonException e) {
+            throw new MalformedJsonException(e.getMessage());
+        }
+    }
+
+    public boolean hasNext() throws IOException {
+        try {
+            return delegate.hasNext();
+        } catch (com.google.gson.stream.MalformedJsonException e) {
+            throw new MalformedJsonException(e.getMessage());
+        }
+    }
+
+    public JsonToken peek() throws IOException {
+        try {
+            return JsonToken.valueOf(delegate.peek().name());
+        } catch (com.google.gson.stream.MalformedJsonException e) {
+            throw new MalformedJsonException(e.getMessage());
+        }
+    }
+
+    public String nextName() throws IOException {
+        try {
+            return delegate.nextName();
+        } catch (com.google.gson.stream.MalformedJsonException e) {
+            throw new MalformedJsonException(e.getMessage());
+        }
+    }
+
+    public String nextString() throws IOException {
+        try {
+            return delegate.nextString();
+        } catch (com.google.gson.stream.MalformedJsonException e) {
+            throw new MalformedJsonException(e.getMessage());
+        }
+    }
+
+    public boolean nextBoolean() throws IOException {
+        try {
+            return delegate.nextBoolean();
+        } catch (com.google.gson.stream.MalformedJsonException e) {
+            throw new MalformedJsonException(e.getMessage());
+        }
+    }
+
+    public void nextNull() throws IOException {
+        try {
+            delegate.nextNull();
+        } catch (com.google.gson.stream.MalformedJsonException e) {
+            throw new MalformedJsonException(e.getMessage());
+        }
+    }
+
+    public int nextInt() throws IOException {
+        try {
+            return delegate.nextInt();
+        } catch (com.google.gson.stream.MalformedJsonException e) {
+            throw new MalformedJsonException(e.getMessage());
+        }
+    }
+
+    public long nextLong() throws IOException {
+        try {
+            return delegate.nextLong();
+        } catch (com.google.gson.stream.MalformedJsonException e) {
+            throw new MalformedJsonException(e.getMessage());
+        }
+    }
+
+    public void skipValue() throws IOException {
+        try {
+            delegate.skipValue();
+        } catch (com.google.gson.stream.MalformedJsonException e) {
+            throw new MalformedJsonException(e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+}
@@ -0,0 +1,20 @@
+/*
+ * Copyright (c) 2017 by Francis Gálvez
+ */
+package android.util;
+
+/**
+ * Replaces the framework class on the JVM, see {@link JsonReader}.
+ */
+public enum JsonToken {
+    BEGIN_ARRAY,
+    END_ARRAY,
+    BEGIN_OBJECT,
+    END_OBJECT,
+    NAME,
+    STRING,
+    NUMBER,
+    BOOLEAN,
+    NULL,
+    END_DOCUMENT
+}
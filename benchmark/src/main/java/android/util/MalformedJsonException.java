@@ -0,0 +1,18 @@
+/*
+ * Copyright (c) 2017 by Francis Gálvez
+ */
+package android.util;
+
+import java.io.IOException;
+
+/**
+ * Replaces the framework class on the JVM, see {@link JsonReader}.
+ */
+public final class MalformedJsonException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public MalformedJsonException(String message) {
+        super(message);
+    }
+}
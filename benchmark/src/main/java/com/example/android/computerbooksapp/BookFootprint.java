@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2017 by Francis Gálvez
+ */
+package com.example.android.computerbooksapp;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures the heap retained by the books of many pages of results, as they are kept by the
+ * caches while paging. Run it with ./gradlew :benchmark:footprint
+ *
+ * The books are parsed from the 40 items fixture again and again, like pages arriving one after
+ * the other, and the heap used is compared before and after, once the garbage is collected.
+ */
+public final class BookFootprint {
+
+    /** Number of books retained */
+    private static final int BOOK_COUNT = 10000;
+
+    private BookFootprint() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        byte[] response = Fixtures.response(40);
+
+        long before = usedHeap();
+
+        List<List<Book>> pages = new ArrayList<>();
+        int count = 0;
+        while (count < BOOK_COUNT) {
+            List<Book> page = QueryUtils.extractFeatureFromJson(new ByteArrayInputStream(response));
+            pages.add(page);
+            count += page.size();
+        }
+
+        long retained = usedHeap() - before;
+        System.out.println(count + " books retain " + retained / 1024 + " KB, "
+                + retained / count + " bytes per book");
+
+        // Keep the books reachable until they have been measured
+        if (pages.isEmpty()) {
+            throw new AssertionError();
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2017 by Francis Gálvez
+ */
+package com.example.android.computerbooksapp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the searches of the local {@link BookIndex} holding 10,000 volumes or as many as it
+ * keeps: a page of results for a common word, for two prefixes, for an author, and for a word no
+ * book has.
+ *
+ * The framework's SQLite doesn't run on the JVM, so the index is an in-memory database of the
+ * SQLite JDBC driver, built with FTS4 like the one of Android. Its tables and its search are those
+ * of the app, and the books are read from the rows the way the app does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class BookIndexBenchmark {
+
+    /** 20,000 is the default maximum of the index */
+    @Param({"10000", "20000"})
+    int volumes;
+
+    private Connection connection;
+    private PreparedStatement search;
+
+    @Setup
+    public void setUp() throws IOException, SQLException {
+        byte[] response = Fixtures.project(Fixtures.response(volumes), QueryUtils.FIELDS);
+        List<Book> books = QueryUtils.extractFeatureFromJson(new ByteArrayInputStream(response));
+
+        connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+        Statement statement = connection.createStatement();
+        try {
+            statement.execute(BookCacheDbHelper.CREATE_INDEX);
+            statement.execute(BookCacheDbHelper.CREATE_INDEX_META);
+            statement.execute(BookCacheDbHelper.CREATE_INDEX_META_LAST_SEEN);
+        } finally {
+            statement.close();
+        }
+
+        connection.setAutoCommit(false);
+        PreparedStatement insertMeta = connection.prepareStatement("INSERT INTO "
+                + BookCacheDbHelper.TABLE_INDEX_META + " (" + BookCacheDbHelper.COLUMN_ID + ", "
+                + BookCacheDbHelper.COLUMN_VOLUME_ID + ", " + BookCacheDbHelper.COLUMN_URL + ", "
+                + BookCacheDbHelper.COLUMN_THUMBNAIL_URL + ", " + BookCacheDbHelper.COLUMN_LAST_SEEN
+                + ") VALUES (?, ?, ?, ?, ?)");
+        PreparedStatement insertIndex = connection.prepareStatement("INSERT INTO "
+                + BookCacheDbHelper.TABLE_INDEX + " (docid, " + BookCacheDbHelper.COLUMN_TITLE + ", "
+                + BookCacheDbHelper.COLUMN_AUTHORS + ", " + BookCacheDbHelper.COLUMN_PUBLISHER
+                + ") VALUES (?, ?, ?, ?)");
+        try {
+            long id = 0;
+            for (Book book : books) {
+                id++;
+                insertMeta.setLong(1, id);
+                insertMeta.setString(2, book.getId());
+                insertMeta.setString(3, book.getUrl());
+                insertMeta.setString(4, book.getThumbnailUrl());
+                // Fetched one after the other, a page at a time
+                insertMeta.setLong(5, id / QueryUtils.PAGE_SIZE);
+                insertMeta.executeUpdate();
+
+                insertIndex.setLong(1, id);
+                insertIndex.setString(2, book.getTitle());
+                insertIndex.setString(3, BookCacheDbHelper.joinAuthors(book));
+                insertIndex.setString(4, book.getPublisher());
+                insertIndex.executeUpdate();
+            }
+            connection.commit();
+        } finally {
+            insertMeta.close();
+            insertIndex.close();
+        }
+
+        search = connection.prepareStatement(BookIndex.searchStatement(BookIndex.MAX_RESULTS));
+        System.out.println(books.size() + " volumes indexed");
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        search.close();
+        connection.close();
+    }
+
+    @Benchmark
+    public List<Book> word() throws SQLException {
+        return search("android");
+    }
+
+    @Benchmark
+    public List<Book> prefixes() throws SQLException {
+        return search("jav prog");
+    }
+
+    @Benchmark
+    public List<Book> author() throws SQLException {
+        return search("bloch");
+    }
+
+    @Benchmark
+    public List<Book> noMatch() throws SQLException {
+        return search("cobol");
+    }
+
+    /**
+     * Returns the books found for the given query, like {@link BookIndex#search}.
+     */
+    private List<Book> search(String query) throws SQLException {
+        List<Book> books = new ArrayList<>();
+        search.setString(1, BookIndex.toMatchExpression(query));
+        ResultSet results = search.executeQuery();
+        try {
+            while (results.next()) {
+                books.add(new Book(results.getString(1), results.getString(2),
+                        BookCacheDbHelper.splitAuthors(results.getString(3)),
+                        results.getString(4), results.getString(5), results.getString(6)));
+            }
+        } finally {
+            results.close();
+        }
+        return books;
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2017 by Francis Gálvez
+ */
+package com.example.android.computerbooksapp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the searches of the {@link BookCatalog} bundled with the app, memory-mapped from a
+ * file like on a device: a page of results for a common word, for two prefixes, and for a word
+ * no book has. The generated books have a small vocabulary, so every word matches many books.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class CatalogBenchmark {
+
+    @Param({"5000"})
+    int items;
+
+    private File file;
+    private RandomAccessFile randomAccessFile;
+    private BookCatalog catalog;
+
+    @Setup
+    public void setUp() throws IOException {
+        byte[] response = Fixtures.project(Fixtures.response(items), QueryUtils.FIELDS);
+        List<Book> books = QueryUtils.extractFeatureFromJson(new ByteArrayInputStream(response));
+        books = CatalogBuilder.rank(Collections.singletonList(books));
+
+        file = File.createTempFile("catalog", ".bin");
+        FileOutputStream output = new FileOutputStream(file);
+        try {
+            output.write(CatalogBuilder.write(books));
+        } finally {
+            output.close();
+        }
+
+        randomAccessFile = new RandomAccessFile(file, "r");
+        FileChannel channel = randomAccessFile.getChannel();
+        catalog = new BookCatalog(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        System.out.println(catalog.size() + " books, " + file.length() / 1024 + " KB");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        randomAccessFile.close();
+        file.delete();
+    }
+
+    @Benchmark
+    public List<Book> word() {
+        return catalog.search("android", QueryUtils.PAGE_SIZE);
+    }
+
+    @Benchmark
+    public List<Book> prefixes() {
+        return catalog.search("jav prog", QueryUtils.PAGE_SIZE);
+    }
+
+    @Benchmark
+    public List<Book> noMatch() {
+        return catalog.search("cobol", QueryUtils.PAGE_SIZE);
+    }
+}
@@ -0,0 +1,316 @@
+/*
+ * Copyright (c) 2017 by Francis Gálvez
+ */
+package com.example.android.computerbooksapp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds the {@link BookCatalog} bundled with the app from responses recorded from the Google
+ * Books API (see benchmark/record_catalog.sh). Run it with
+ *
+ *     ./gradlew :benchmark:catalog -Pargs="--input=benchmark/catalog --maxBooks=5000"
+ *
+ * Every "*.json" file of the input directory is a response, full or partial. A book found by
+ * several responses is kept once, and the books are ranked by reciprocal rank fusion, like the
+ * results of several queries in {@link BookBatchSearch}: the books at the top of many responses
+ * come first. The catalog is written to app/src/main/assets, then opened again to check it.
+ */
+public final class CatalogBuilder {
+
+    /** Constant of the reciprocal rank fusion, as in {@link BookBatchSearch} */
+    private static final int RANK_CONSTANT = 60;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private CatalogBuilder() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        File input = new File("benchmark/catalog");
+        File output = new File("app/src/main/assets/" + BookCatalog.ASSET_NAME);
+        int maxBooks = 5000;
+        for (String arg : args) {
+            String value = arg.substring(arg.indexOf('=') + 1);
+            if (arg.startsWith("--input=")) {
+                input = new File(value);
+            } else if (arg.startsWith("--output=")) {
+                output = new File(value);
+            } else if (arg.startsWith("--maxBooks=")) {
+                maxBooks = Integer.parseInt(value);
+            } else {
+                throw new IllegalArgumentException("Unknown argument " + arg);
+            }
+        }
+
+        File[] files = input.listFiles();
+        if (files == null) {
+            throw new IOException("No directory " + input);
+        }
+        Arrays.sort(files);
+
+        List<List<Book>> responses = new ArrayList<>();
+        for (File file : files) {
+            if (file.getName().endsWith(".json")) {
+                InputStream stream = new FileInputStream(file);
+                try {
+                    responses.add(QueryUtils.extractFeatureFromJson(stream));
+                } finally {
+                    stream.close();
+                }
+            }
+        }
+
+        List<Book> books = rank(responses);
+        books = books.subList(0, Math.min(books.size(), maxBooks));
+
+        byte[] catalog = write(books);
+        File parent = output.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Can't create " + parent);
+        }
+        FileOutputStream stream = new FileOutputStream(output);
+        try {
+            stream.write(catalog);
+        } finally {
+            stream.close();
+        }
+        System.out.println("Wrote " + books.size() + " books from " + responses.size() + " responses to "
+                + output + ", " + catalog.length / 1024 + " KB");
+
+        check(output, books);
+    }
+
+    /**
+     * Returns the books of the given responses, each one once, the most popular first.
+     */
+    static List<Book> rank(List<List<Book>> responses) {
+        final Map<String, Double> scores = new HashMap<>();
+        Map<String, Book> books = new LinkedHashMap<>();
+        for (List<Book> response : responses) {
+            for (int rank = 0; rank < response.size(); rank++) {
+                Book book = response.get(rank);
+                if (book.getId() == null) {
+                    continue;
+                }
+                Double score = scores.get(book.getId());
+                scores.put(book.getId(), (score == null ? 0 : score) + 1.0 / (RANK_CONSTANT + rank + 1));
+                if (!books.containsKey(book.getId())) {
+                    books.put(book.getId(), book);
+                }
+            }
+        }
+
+        List<Book> ranked = new ArrayList<>(books.values());
+        // A stable sort, so books with the same score stay in the order they were found
+        Collections.sort(ranked, new Comparator<Book>() {
+            @Override
+            public int compare(Book a, Book b) {
+                return Double.compare(scores.get(b.getId()), scores.get(a.getId()));
+            }
+        });
+        return ranked;
+    }
+
+    /**
+     * Returns the catalog of the given books, in the format read by {@link BookCatalog}.
+     */
+    static byte[] write(List<Book> books) throws IOException {
+        // The words of the titles and authors, sorted by their UTF-8 bytes, with their books
+        Map<String, List<Integer>> postings = new TreeMap<>(new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                return compareBytes(a.getBytes(UTF_8), b.getBytes(UTF_8));
+            }
+        });
+        for (int i = 0; i < books.size(); i++) {
+            Book book = books.get(i);
+            StringBuilder text = new StringBuilder(book.getTitle() == null ? "" : book.getTitle());
+            for (String author : book.getAuthors()) {
+                text.append(' ').append(author);
+            }
+            for (String token : BookCatalog.tokenize(text.toString())) {
+                List<Integer> tokenBooks = postings.get(token);
+                if (tokenBooks == null) {
+                    tokenBooks = new ArrayList<>();
+                    postings.put(token, tokenBooks);
+                }
+                tokenBooks.add(i);
+            }
+        }
+
+        int postingCount = 0;
+        for (List<Integer> tokenBooks : postings.values()) {
+            postingCount += tokenBooks.size();
+        }
+
+        // Every distinct string is stored once, after the tables
+        int tokensOffset = BookCatalog.HEADER_SIZE;
+        int booksOffset = tokensOffset + postings.size() * BookCatalog.TOKEN_SIZE;
+        int postingsOffset = booksOffset + books.size() * BookCatalog.BOOK_SIZE;
+        int stringsOffset = postingsOffset + postingCount * 4;
+        StringTable strings = new StringTable(stringsOffset);
+
+        ByteArrayOutputStream tokens = new ByteArrayOutputStream();
+        DataOutputStream tokensOutput = new DataOutputStream(tokens);
+        ByteArrayOutputStream postingBytes = new ByteArrayOutputStream();
+        DataOutputStream postingsOutput = new DataOutputStream(postingBytes);
+        int firstPosting = 0;
+        for (Map.Entry<String, List<Integer>> entry : postings.entrySet()) {
+            tokensOutput.writeInt(strings.offsetOf(entry.getKey()));
+            tokensOutput.writeInt(firstPosting);
+            tokensOutput.writeInt(entry.getValue().size());
+            for (int book : entry.getValue()) {
+                postingsOutput.writeInt(book);
+            }
+            firstPosting += entry.getValue().size();
+        }
+
+        // The records go after the strings, whose size is only known once they are all added
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        DataOutputStream recordsOutput = new DataOutputStream(records);
+        List<Integer> recordOffsets = new ArrayList<>();
+        for (Book book : books) {
+            recordOffsets.add(records.size());
+            recordsOutput.writeInt(strings.offsetOf(book.getId()));
+            recordsOutput.writeInt(strings.offsetOf(book.getTitle()));
+            List<String> authors = book.getAuthors();
+            recordsOutput.writeInt(authors.size());
+            for (String author : authors) {
+                recordsOutput.writeInt(strings.offsetOf(author));
+            }
+            recordsOutput.writeInt(strings.offsetOf(book.getPublisher()));
+            recordsOutput.writeInt(strings.offsetOf(book.getUrl()));
+            recordsOutput.writeInt(strings.offsetOf(book.getThumbnailUrl()));
+        }
+        int recordsOffset = stringsOffset + strings.size();
+
+        ByteArrayOutputStream catalog = new ByteArrayOutputStream(recordsOffset + records.size());
+        DataOutputStream output = new DataOutputStream(catalog);
+        output.writeInt(BookCatalog.MAGIC);
+        output.writeInt(BookCatalog.VERSION);
+        output.writeInt(books.size());
+        output.writeInt(postings.size());
+        output.writeInt(tokensOffset);
+        output.writeInt(booksOffset);
+        output.writeInt(postingsOffset);
+        output.writeInt(stringsOffset);
+        tokens.writeTo(output);
+        for (int offset : recordOffsets) {
+            output.writeInt(recordsOffset + offset);
+        }
+        postingBytes.writeTo(output);
+        strings.writeTo(output);
+        records.writeTo(output);
+        output.flush();
+        return catalog.toByteArray();
+    }
+
+    /**
+     * Map the catalog written and check that it finds the books.
+     */
+    private static void check(File file, List<Book> books) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            BookCatalog catalog = new BookCatalog(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            if (catalog.size() != books.size()) {
+                throw new IOException("The catalog has " + catalog.size() + " books instead of " + books.size());
+            }
+
+            long start = System.nanoTime();
+            int searches = 0;
+            for (Book book : books) {
+                List<Book> found = catalog.search(book.getTitle(), books.size());
+                searches++;
+                boolean contains = false;
+                for (Book foundBook : found) {
+                    contains |= foundBook.getId().equals(book.getId());
+                }
+                if (!contains && !BookCatalog.tokenize(book.getTitle()).isEmpty()) {
+                    throw new IOException("The catalog doesn't find " + book.getTitle());
+                }
+            }
+            long elapsed = System.nanoTime() - start;
+            if (searches > 0) {
+                System.out.println("Found every book by its title, " + TimeUnit.NANOSECONDS.toMicros(elapsed / searches)
+                        + " us per search");
+            }
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    private static int compareBytes(byte[] a, byte[] b) {
+        for (int i = 0; i < a.length && i < b.length; i++) {
+            int difference = (a[i] & 0xff) - (b[i] & 0xff);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return a.length - b.length;
+    }
+
+    /**
+     * Strings of the catalog, each one stored once, at their offset in the catalog.
+     */
+    private static final class StringTable {
+
+        private final int startOffset;
+        private final Map<String, Integer> offsets = new HashMap<>();
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream output = new DataOutputStream(bytes);
+
+        StringTable(int startOffset) {
+            this.startOffset = startOffset;
+        }
+
+        /**
+         * Returns the offset of the given string, adding it the first time, or -1 for null.
+         */
+        int offsetOf(String string) throws IOException {
+            if (string == null) {
+                return -1;
+            }
+            Integer offset = offsets.get(string);
+            if (offset == null) {
+                byte[] utf8 = string.getBytes(UTF_8);
+                if (utf8.length > 0xffff) {
+                    throw new IOException("String too long: " + string.substring(0, 100) + "...");
+                }
+                offset = startOffset + bytes.size();
+                output.writeShort(utf8.length);
+                output.write(utf8);
+                offsets.put(string, offset);
+            }
+            return offset;
+        }
+
+        int size() {
+            return bytes.size();
+        }
+
+        void writeTo(DataOutputStream destination) throws IOException {
+            bytes.writeTo(destination);
+        }
+    }
+}
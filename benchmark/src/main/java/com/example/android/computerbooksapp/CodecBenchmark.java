@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2017 by Francis Gálvez
+ */
+package com.example.android.computerbooksapp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link BookCodec} against parsing the same books from the JSON response again, which
+ * is what restoring them used to take.
+ *
+ * The setup checks that decoding gives back the encoded books, and prints the size of both forms.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class CodecBenchmark {
+
+    @Param({"15", "40", "300"})
+    int items;
+
+    private byte[] response;
+    private List<Book> books;
+    private byte[] encoded;
+
+    @Setup
+    public void setUp() throws IOException {
+        response = Fixtures.response(items);
+        books = QueryUtils.extractFeatureFromJson(new ByteArrayInputStream(response));
+        encoded = BookCodec.encode(books);
+
+        List<Book> decoded = BookCodec.decode(encoded);
+        if (decoded.size() != books.size()) {
+            throw new IllegalStateException("Decoded " + decoded.size() + " of " + books.size() + " books");
+        }
+        for (int i = 0; i < books.size(); i++) {
+            Book expected = books.get(i);
+            Book actual = decoded.get(i);
+            if (!equals(expected.getId(), actual.getId())
+                    || !equals(expected.getTitle(), actual.getTitle())
+                    || !expected.getAuthors().equals(actual.getAuthors())
+                    || !equals(expected.getPublisher(), actual.getPublisher())
+                    || !equals(expected.getUrl(), actual.getUrl())
+                    || !equals(expected.getThumbnailUrl(), actual.getThumbnailUrl())) {
+                throw new IllegalStateException("Book " + i + " changed by the round trip");
+            }
+        }
+
+        System.out.println(items + " items: JSON " + response.length + " bytes, encoded "
+                + encoded.length + " bytes");
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return BookCodec.encode(books);
+    }
+
+    @Benchmark
+    public List<Book> decode() throws IOException {
+        return BookCodec.decode(encoded);
+    }
+
+    /** What restoring the books costs without the codec */
+    @Benchmark
+    public List<Book> parseJson() throws IOException {
+        return QueryUtils.extractFeatureFromJson(new ByteArrayInputStream(response));
+    }
+
+    private static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
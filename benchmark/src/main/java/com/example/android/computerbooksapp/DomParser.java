@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2017 by Francis Gálvez
+ */
+package com.example.android.computerbooksapp;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The way the app used to parse the responses: the whole body is read into a String, which is
+ * then turned into a tree of {@link JSONObject}s. Kept as the baseline the other parsers are
+ * compared with. It reads the same fields as {@link QueryUtils#extractFeatureFromJson}.
+ */
+final class DomParser {
+
+    /**
+     * Create a private constructor because no one should ever create a {@link DomParser} object.
+     */
+    private DomParser() {
+    }
+
+    static List<Book> parse(InputStream inputStream) throws IOException, JSONException {
+        List<Book> books = new ArrayList<>();
+
+        JSONObject baseJsonResponse = new JSONObject(readFromStream(inputStream));
+        JSONArray bookArray = baseJsonResponse.optJSONArray("items");
+        if (bookArray == null) {
+            return books;
+        }
+
+        for (int i = 0; i < bookArray.length(); i++) {
+            JSONObject currentBook = bookArray.getJSONObject(i);
+            JSONObject volumeInfo = currentBook.getJSONObject("volumeInfo");
+
+            String title = volumeInfo.optString("title", null);
+            String url = volumeInfo.optString("infoLink", null);
+            if (title == null || url == null) {
+                continue;
+            }
+
+            String[] authors = null;
+            JSONArray authorArray = volumeInfo.optJSONArray("authors");
+            if (authorArray != null) {
+                authors = new String[authorArray.length()];
+                for (int a = 0; a < authors.length; a++) {
+                    authors[a] = authorArray.getString(a);
+                }
+            }
+
+            String publisher = volumeInfo.optString("publisher", "Unknown");
+
+            String thumbnailUrl = null;
+            JSONObject imageLinks = volumeInfo.optJSONObject("imageLinks");
+            if (imageLinks != null) {
+                thumbnailUrl = imageLinks.optString("smallThumbnail", imageLinks.optString("thumbnail", null));
+            }
+
+            books.add(new Book(currentBook.optString("id", null), title, authors, publisher, url, thumbnailUrl));
+        }
+
+        return books;
+    }
+
+    private static String readFromStream(InputStream inputStream) throws IOException {
+        StringBuilder output = new StringBuilder();
+        InputStreamReader inputStreamReader = new InputStreamReader(inputStream, Charset.forName("UTF-8"));
+        BufferedReader reader = new BufferedReader(inputStreamReader);
+        String line = reader.readLine();
+        while (line != null) {
+            output.append(line);
+            line = reader.readLine();
+        }
+        return output.toString();
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) 2017 by Francis Gálvez
+ */
+package com.example.android.computerbooksapp;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Google Books API responses used as input by the benchmarks.
+ *
+ * A response recorded from the API can be dropped in the resources as "volumes-<count>.json" and
+ * is used as is. Otherwise a response with the same structure is generated: every item has the
+ * fields the API returns for a volume, most of which the app skips, since skipping them is a good
+ * part of the parsing cost. The generated content is always the same for a given count.
+ *
+ * {@link #project} trims a response to a "fields" selection, the way the API does for the
+ * partial responses requested with {@link QueryUtils#FIELDS}.
+ */
+final class Fixtures {
+
+    private static final String ID_CHARACTERS =
+            "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789-_";
+
+    private static final String[] WORDS = {"Android", "Java", "Programming", "Kotlin", "Design",
+            "Patterns", "Algorithms", "Data", "Structures", "Networks", "Security", "Linux", "Cloud",
+            "Mobile", "Development", "Concurrency", "Practice", "Guide", "Introduction", "Systems"};
+
+    private static final String[] NAMES = {"Mark Murphy", "Joshua Bloch", "Brian Goetz",
+            "Donald Knuth", "Martin Fowler", "Bill Phillips", "Reto Meier", "Ian Darwin",
+            "Zigurd Mednieks", "Dawn Griffiths", "Jesús Gálvez", "Łukasz Nowak"};
+
+    private static final String[] PUBLISHERS = {"O'Reilly Media, Inc.", "Addison-Wesley",
+            "Apress", "Packt Publishing Ltd", "John Wiley & Sons", "Manning Publications"};
+
+    /**
+     * Create a private constructor because no one should ever create a {@link Fixtures} object.
+     */
+    private Fixtures() {
+    }
+
+    /**
+     * Returns the UTF-8 bytes of a response with the given number of items.
+     */
+    static byte[] response(int count) throws IOException {
+        InputStream recorded = Fixtures.class.getResourceAsStream("/volumes-" + count + ".json");
+        if (recorded != null) {
+            try {
+                return readAll(recorded);
+            } finally {
+                recorded.close();
+            }
+        }
+        return generate(count).getBytes(Charset.forName("UTF-8"));
+    }
+
+    /**
+     * Returns the given response with only the fields selected, in the syntax of the "fields"
+     * parameter of the Google APIs: comma-separated names, "a/b" to select b within a, and
+     * "a(b,c)" to select several fields within a. Arrays apply the selection to their elements.
+     */
+    static byte[] project(byte[] response, String fields) {
+        Charset utf8 = Charset.forName("UTF-8");
+        JsonElement tree = new JsonParser().parse(new String(response, utf8));
+        Selection selection = new Selection();
+        int end = selection.parse(fields, 0);
+        if (end != fields.length()) {
+            throw new IllegalArgumentException("Unexpected character at " + end + " in " + fields);
+        }
+        return selection.apply(tree).toString().getBytes(utf8);
+    }
+
+    /**
+     * A node of a "fields" selection: the fields selected within an object, or everything when
+     * there are none.
+     */
+    private static final class Selection {
+
+        private final Map<String, Selection> children = new LinkedHashMap<>();
+
+        /**
+         * Parse a comma-separated list of selections from the given position, and return the
+         * position where it ends.
+         */
+        int parse(String fields, int position) {
+            position = parseItem(fields, position);
+            while (position < fields.length() && fields.charAt(position) == ',') {
+                position = parseItem(fields, position + 1);
+            }
+            return position;
+        }
+
+        /**
+         * Parse a single selection: "a", "a/b..." or "a(...)".
+         */
+        private int parseItem(String fields, int position) {
+            int end = position;
+            while (end < fields.length() && ",()/".indexOf(fields.charAt(end)) < 0) {
+                end++;
+            }
+            String name = fields.substring(position, end);
+            Selection child = children.get(name);
+            if (child == null) {
+                child = new Selection();
+                children.put(name, child);
+            }
+
+            if (end < fields.length() && fields.charAt(end) == '/') {
+                return child.parseItem(fields, end + 1);
+            }
+            if (end < fields.length() && fields.charAt(end) == '(') {
+                end = child.parse(fields, end + 1);
+                if (end >= fields.length() || fields.charAt(end) != ')') {
+                    throw new IllegalArgumentException("Unclosed parenthesis in " + fields);
+                }
+                return end + 1;
+            }
+            return end;
+        }
+
+        JsonElement apply(JsonElement element) {
+            if (children.isEmpty()) {
+                return element;
+            }
+            if (element.isJsonArray()) {
+                JsonArray projected = new JsonArray();
+                for (JsonElement item : element.getAsJsonArray()) {
+                    projected.add(apply(item));
+                }
+                return projected;
+            }
+            if (!element.isJsonObject()) {
+                return element;
+            }
+
+            JsonObject object = element.getAsJsonObject();
+            JsonObject projected = new JsonObject();
+            for (Map.Entry<String, Selection> child : children.entrySet()) {
+                JsonElement value = object.get(child.getKey());
+                if (value != null) {
+                    projected.add(child.getKey(), child.getValue().apply(value));
+                }
+            }
+            return projected;
+        }
+    }
+
+    private static byte[] readAll(InputStream input) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            output.write(buffer, 0, read);
+        }
+        return output.toByteArray();
+    }
+
+    private static String generate(int count) {
+        Random random = new Random(count);
+        StringBuilder json = new StringBuilder(count * 3000);
+
+        json.append("{\"kind\":\"books#volumes\",\"totalItems\":").append(count * 7).append(",\"items\":[");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            appendItem(json, random, i);
+        }
+        json.append("]}");
+
+        return json.toString();
+    }
+
+    private static void appendItem(StringBuilder json, Random random, int position) {
+        // Volume IDs are 12 characters long, e.g. "zYw3sYFtz9kC"
+        StringBuilder idBuilder = new StringBuilder();
+        for (int i = 0; i < 12; i++) {
+            idBuilder.append(ID_CHARACTERS.charAt(random.nextInt(ID_CHARACTERS.length())));
+        }
+        String id = idBuilder.toString();
+
+        json.append("{\"kind\":\"books#volume\",\"id\":\"").append(id).append('"')
+                .append(",\"etag\":\"").append(Integer.toHexString(random.nextInt())).append('"')
+                .append(",\"selfLink\":\"https://www.googleapis.com/books/v1/volumes/").append(id).append('"')
+                .append(",\"volumeInfo\":{\"title\":\"").append(words(random, 2 + random.nextInt(4))).append('"');
+
+        if (random.nextInt(10) < 8) {
+            json.append(",\"subtitle\":\"").append(words(random, 3 + random.nextInt(5))).append('"');
+        }
+
+        // Some volumes have no author, most one and a few several
+        int authors = random.nextInt(10) == 0 ? 0 : 1 + (random.nextInt(4) == 0 ? 1 + random.nextInt(3) : 0);
+        if (authors > 0) {
+            json.append(",\"authors\":[");
+            for (int a = 0; a < authors; a++) {
+                if (a > 0) {
+                    json.append(',');
+                }
+                json.append('"').append(NAMES[random.nextInt(NAMES.length)]).append('"');
+            }
+            json.append(']');
+        }
+
+        if (random.nextInt(10) < 7) {
+            json.append(",\"publisher\":\"").append(PUBLISHERS[random.nextInt(PUBLISHERS.length)]).append('"');
+        }
+
+        json.append(",\"publishedDate\":\"").append(1990 + random.nextInt(28)).append("-0")
+                .append(1 + random.nextInt(9)).append("-1").append(random.nextInt(10)).append('"')
+                .append(",\"description\":\"").append(words(random, 40 + random.nextInt(80))).append('"')
+                .append(",\"industryIdentifiers\":[{\"type\":\"ISBN_13\",\"identifier\":\"978")
+                .append(1000000000L + random.nextInt(999999999)).append("\"},{\"type\":\"ISBN_10\",\"identifier\":\"")
+                .append(100000000L + random.nextInt(899999999)).append("X\"}]")
+                .append(",\"readingModes\":{\"text\":").append(random.nextBoolean())
+                .append(",\"image\":").append(random.nextBoolean()).append('}')
+                .append(",\"pageCount\":").append(100 + random.nextInt(900))
+                .append(",\"printType\":\"BOOK\",\"categories\":[\"Computers\"]")
+                .append(",\"averageRating\":").append(1 + random.nextInt(9) / 2.0)
+                .append(",\"ratingsCount\":").append(random.nextInt(200))
+                .append(",\"maturityRating\":\"NOT_MATURE\",\"allowAnonLogging\":false")
+                .append(",\"contentVersion\":\"").append(random.nextInt(5)).append(".").append(random.nextInt(10))
+                .append(".0.0.preview.").append(random.nextInt(4)).append('"');
+
+        if (random.nextInt(10) < 9) {
+            String images = "http://books.google.com/books/content?id=" + id + "&printsec=frontcover&img=1";
+            json.append(",\"imageLinks\":{\"smallThumbnail\":\"").append(images).append("&zoom=5&source=gbs_api\"")
+                    .append(",\"thumbnail\":\"").append(images).append("&zoom=1&source=gbs_api\"}");
+        }
+
+        json.append(",\"language\":\"en\"")
+                .append(",\"previewLink\":\"http://books.google.es/books?id=").append(id)
+                .append("&pg=PP1&dq=intitle:android&hl=&cd=").append(position + 1).append("&source=gbs_api\"")
+                .append(",\"infoLink\":\"http://books.google.es/books?id=").append(id)
+                .append("&dq=intitle:android&hl=&source=gbs_api\"")
+                .append(",\"canonicalVolumeLink\":\"https://books.google.com/books/about/x.html?hl=&id=")
+                .append(id).append("\"}");
+
+        json.append(",\"saleInfo\":{\"country\":\"ES\",\"saleability\":\"NOT_FOR_SALE\",\"isEbook\":false}")
+                .append(",\"accessInfo\":{\"country\":\"ES\",\"viewability\":\"PARTIAL\",\"embeddable\":true")
+                .append(",\"publicDomain\":false,\"textToSpeechPermission\":\"ALLOWED\"")
+                .append(",\"epub\":{\"isAvailable\":false},\"pdf\":{\"isAvailable\":true}")
+                .append(",\"webReaderLink\":\"http://play.google.com/books/reader?id=").append(id)
+                .append("&hl=&printsec=frontcover&source=gbs_api\"")
+                .append(",\"accessViewStatus\":\"SAMPLE\",\"quoteSharingAllowed\":false}")
+                .append(",\"searchInfo\":{\"textSnippet\":\"").append(words(random, 20 + random.nextInt(15)))
+                .append(" &quot;").append(words(random, 3)).append("&quot; \\u00e9\\n\"}}");
+    }
+
+    private static String words(Random random, int count) {
+        StringBuilder words = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                words.append(' ');
+            }
+            words.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return words.toString();
+    }
+}
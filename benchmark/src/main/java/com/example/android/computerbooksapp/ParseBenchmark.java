@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2017 by Francis Gálvez
+ */
+package com.example.android.computerbooksapp;
+
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the parsing of a response into {@link Book}s, from the bytes received to the list
+ * displayed, for a page of the app (15 items), the largest page the API returns (40) and a
+ * response of several hundred items. Each size is measured with the full resources of the volumes,
+ * and with the partial response the app asks for ({@link QueryUtils#FIELDS}).
+ *
+ * Throughput is reported along with the latency percentiles (p99 included) of the sample mode;
+ * run with "-prof gc" to get the bytes allocated per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class ParseBenchmark {
+
+    @Param({"15", "40", "300"})
+    int items;
+
+    /** Whether the response only has the fields requested by the app */
+    @Param({"false", "true"})
+    boolean projected;
+
+    private byte[] response;
+
+    @Setup
+    public void setUp() throws IOException {
+        response = Fixtures.response(items);
+        if (projected) {
+            response = Fixtures.project(response, QueryUtils.FIELDS);
+        }
+
+        // Make sure both parsers see the same books, or the comparison means nothing
+        int streaming = QueryUtils.extractFeatureFromJson(new ByteArrayInputStream(response)).size();
+        int dom;
+        try {
+            dom = DomParser.parse(new ByteArrayInputStream(response)).size();
+        } catch (JSONException e) {
+            throw new IOException(e);
+        }
+        if (streaming != dom || streaming == 0) {
+            throw new IllegalStateException("Parsers disagree: " + streaming + " vs " + dom + " books");
+        }
+    }
+
+    /** The parser used by the app, streaming the response with a JsonReader */
+    @Benchmark
+    public List<Book> streaming() throws IOException {
+        return QueryUtils.extractFeatureFromJson(new ByteArrayInputStream(response));
+    }
+
+    /** The previous parser, building an org.json tree from the whole response */
+    @Benchmark
+    public List<Book> orgJson() throws IOException, JSONException {
+        return DomParser.parse(new ByteArrayInputStream(response));
+    }
+}
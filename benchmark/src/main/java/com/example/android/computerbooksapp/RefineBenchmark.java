@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2017 by Francis Gálvez
+ */
+package com.example.android.computerbooksapp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the sorting and filtering of the books loaded by {@link BookQueryEngine}: building the
+ * engine when the books change, then the queries made from the menu, which must stay well under
+ * a frame for thousands of books.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class RefineBenchmark {
+
+    @Param({"5000", "20000"})
+    int items;
+
+    private List<Book> books;
+    private BookQueryEngine engine;
+    private String publisher;
+
+    @Setup
+    public void setUp() throws IOException {
+        byte[] response = Fixtures.project(Fixtures.response(items), QueryUtils.FIELDS);
+        books = QueryUtils.extractFeatureFromJson(new ByteArrayInputStream(response));
+        engine = new BookQueryEngine(books);
+
+        // Compute the orders of every sort, as they are after the first use
+        for (int sort = BookQueryEngine.SORT_RELEVANCE; sort <= BookQueryEngine.SORT_PUBLISHER; sort++) {
+            engine.query(new BookQueryEngine.Query(sort, null, null, null));
+        }
+
+        BookQueryEngine.Result all = engine.query(new BookQueryEngine.Query(BookQueryEngine.SORT_RELEVANCE,
+                null, null, null));
+        publisher = all.publisherCounts.keySet().iterator().next();
+        System.out.println(items + " books, " + all.publisherCounts.size() + " publishers, "
+                + all.authorCounts.size() + " authors");
+    }
+
+    /** Done once each time the books loaded change */
+    @Benchmark
+    public BookQueryEngine build() {
+        return new BookQueryEngine(books);
+    }
+
+    /** Filter by a substring of the titles, authors and publishers */
+    @Benchmark
+    public int filterText() {
+        return engine.query(new BookQueryEngine.Query(BookQueryEngine.SORT_RELEVANCE, "java", null, null))
+                .books.size();
+    }
+
+    /** Sort by title, without filter */
+    @Benchmark
+    public int sortTitle() {
+        return engine.query(new BookQueryEngine.Query(BookQueryEngine.SORT_TITLE, null, null, null))
+                .books.size();
+    }
+
+    /** Narrow to a publisher, sorted by author, with a text filter */
+    @Benchmark
+    public int facetAndFilter() {
+        return engine.query(new BookQueryEngine.Query(BookQueryEngine.SORT_AUTHOR, "design", publisher, null))
+                .books.size();
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright (c) 2017 by Francis Gálvez
+ */
+package com.example.android.computerbooksapp;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Replays a trace of searches through {@link QueryUtils#fetchBookData} against a
+ * {@link StandInServer}, from several threads at once, and reports the throughput, the latency
+ * percentiles, the bytes received and the memory allocated by the requests. Run it with
+ *
+ *     ./gradlew :benchmark:replay -Pargs="--trace=queries.tsv --concurrency=8 --errorRate=0.05"
+ *
+ * A trace has a search per line: the query, then optionally a tab and the index of the first
+ * result. Lines starting with '#' are ignored. Without a trace, a generated one is replayed, where
+ * a few queries are much more frequent than the others and some searches are for later pages.
+ *
+ * The arguments of the {@link StandInServer.Conditions} set the conditions of the server. The
+ * requests go through the retries and the circuit breaker of the app, like on a device.
+ */
+public final class ReplayHarness {
+
+    /** Topics of the generated trace, the most searched first */
+    private static final String[] TOPICS = {"android", "java", "kotlin", "python", "algorithms",
+            "design patterns", "linux", "networking", "security", "databases", "machine learning",
+            "concurrency", "compilers", "javascript", "c++", "operating systems"};
+
+    private static final int GENERATED_SEARCHES = 300;
+
+    /**
+     * A search of the trace.
+     */
+    private static final class Search {
+        final String query;
+        final int startIndex;
+
+        Search(String query, int startIndex) {
+            this.query = query;
+            this.startIndex = startIndex;
+        }
+    }
+
+    private ReplayHarness() {
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        StandInServer.Conditions conditions = new StandInServer.Conditions();
+        String tracePath = null;
+        int concurrency = 4;
+        int repeat = 1;
+        int warmUp = 20;
+        for (String arg : conditions.parse(args)) {
+            String value = arg.substring(arg.indexOf('=') + 1);
+            if (arg.startsWith("--trace=")) {
+                tracePath = value;
+            } else if (arg.startsWith("--concurrency=")) {
+                concurrency = Integer.parseInt(value);
+            } else if (arg.startsWith("--repeat=")) {
+                repeat = Integer.parseInt(value);
+            } else if (arg.startsWith("--warmUp=")) {
+                warmUp = Integer.parseInt(value);
+            } else {
+                throw new IllegalArgumentException("Unknown argument " + arg);
+            }
+        }
+
+        // Let every thread keep its connection alive, as a device would for its requests
+        System.setProperty("http.maxConnections", String.valueOf(Math.max(5, concurrency)));
+
+        List<Search> trace = tracePath == null ? generateTrace() : readTrace(tracePath);
+        List<Search> searches = new ArrayList<>();
+        for (int i = 0; i < repeat; i++) {
+            searches.addAll(trace);
+        }
+
+        StandInServer server = StandInServer.start(conditions);
+        QueryUtils.setVolumesUrl(server.getVolumesUrl());
+        try {
+            System.out.println("Replaying " + searches.size() + " searches, " + concurrency
+                    + " at a time, against " + conditions);
+
+            // Let the JIT compile the code and the connections open before measuring
+            run(searches.subList(0, Math.min(warmUp, searches.size())), concurrency);
+            long requestsBefore = server.getRequestCount();
+            long errorsBefore = server.getErrorCount();
+            long bytesBefore = server.getByteCount();
+
+            Result result = run(searches, concurrency);
+            report(result, server.getRequestCount() - requestsBefore, server.getErrorCount() - errorsBefore,
+                    server.getByteCount() - bytesBefore);
+        } finally {
+            QueryUtils.setVolumesUrl(null);
+            server.stop();
+        }
+    }
+
+    /**
+     * What the replay of a list of searches measured.
+     */
+    private static final class Result {
+        /** Latency of each search, in nanoseconds */
+        final long[] latencies;
+        final long elapsedNanos;
+        final int failureCount;
+        final long bookCount;
+        final long allocatedBytes;
+
+        Result(long[] latencies, long elapsedNanos, int failureCount, long bookCount, long allocatedBytes) {
+            this.latencies = latencies;
+            this.elapsedNanos = elapsedNanos;
+            this.failureCount = failureCount;
+            this.bookCount = bookCount;
+            this.allocatedBytes = allocatedBytes;
+        }
+    }
+
+    /**
+     * Make the given searches from the given number of threads, each taking the next search
+     * as soon as its previous one returns.
+     */
+    private static Result run(final List<Search> searches, int concurrency) throws InterruptedException {
+        final long[] latencies = new long[searches.size()];
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicInteger failures = new AtomicInteger();
+        final AtomicLong books = new AtomicLong();
+        final AtomicLong allocated = new AtomicLong();
+        final CountDownLatch done = new CountDownLatch(concurrency);
+
+        long start = System.nanoTime();
+        for (int t = 0; t < concurrency; t++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    long allocatedBefore = allocatedBytes();
+                    int index;
+                    while ((index = next.getAndIncrement()) < searches.size()) {
+                        Search search = searches.get(index);
+                        long searchStart = System.nanoTime();
+                        List<Book> result = QueryUtils.fetchBookData(search.query, search.startIndex, null, null);
+                        latencies[index] = System.nanoTime() - searchStart;
+                        if (result == null) {
+                            failures.incrementAndGet();
+                        } else {
+                            books.addAndGet(result.size());
+                        }
+                    }
+                    allocated.addAndGet(allocatedBytes() - allocatedBefore);
+                    done.countDown();
+                }
+            }, "Replay-" + t).start();
+        }
+        done.await();
+        long elapsed = System.nanoTime() - start;
+
+        return new Result(latencies, elapsed, failures.get(), books.get(), allocated.get());
+    }
+
+    private static void report(Result result, long requestCount, long errorCount, long byteCount) {
+        int count = result.latencies.length;
+        long[] sorted = Arrays.copyOf(result.latencies, count);
+        Arrays.sort(sorted);
+        double seconds = result.elapsedNanos / 1e9;
+
+        System.out.println(String.format(Locale.ROOT, "Throughput: %.1f searches/s (%d in %.1f s)",
+                count / seconds, count, seconds));
+        System.out.println(String.format(Locale.ROOT, "Latency: p50 %d ms, p90 %d ms, p99 %d ms, max %d ms",
+                millis(sorted, 0.50), millis(sorted, 0.90), millis(sorted, 0.99), millis(sorted, 1)));
+        System.out.println(String.format(Locale.ROOT, "Failed: %d searches, %d of %d requests answered with errors",
+                result.failureCount, errorCount, requestCount));
+        System.out.println(String.format(Locale.ROOT, "Received: %d books, %d KB (%d bytes per request)",
+                result.bookCount, byteCount / 1024, requestCount == 0 ? 0 : byteCount / requestCount));
+        if (result.allocatedBytes >= 0) {
+            System.out.println(String.format(Locale.ROOT, "Allocated: %d KB (%d bytes per search)",
+                    result.allocatedBytes / 1024, result.allocatedBytes / Math.max(1, count)));
+        }
+        System.out.println("Circuit breaker: " + stateName(RetryingHttpClient.getCircuitBreaker().getState()));
+        System.out.println("Network policy: " + NetworkPolicy.getInstance());
+    }
+
+    /**
+     * Returns the given percentile of the sorted latencies, in milliseconds.
+     */
+    private static long millis(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return TimeUnit.NANOSECONDS.toMillis(sorted[Math.max(0, Math.min(index, sorted.length - 1))]);
+    }
+
+    private static String stateName(int state) {
+        switch (state) {
+            case CircuitBreaker.STATE_CLOSED:
+                return "closed";
+            case CircuitBreaker.STATE_OPEN:
+                return "open";
+            default:
+                return "half open";
+        }
+    }
+
+    /**
+     * Returns the bytes allocated by the current thread so far, or -1 if the JVM can't tell.
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private static List<Search> readTrace(String path) throws IOException {
+        List<Search> searches = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(path), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                int tab = line.indexOf('\t');
+                searches.add(tab < 0 ? new Search(line, 0)
+                        : new Search(line.substring(0, tab), Integer.parseInt(line.substring(tab + 1).trim())));
+            }
+        } finally {
+            reader.close();
+        }
+        return searches;
+    }
+
+    /**
+     * Returns a trace where the topics are searched with a Zipf distribution, and one search in
+     * four is for one of the next pages. The trace is always the same.
+     */
+    private static List<Search> generateTrace() {
+        double[] weights = new double[TOPICS.length];
+        double total = 0;
+        for (int i = 0; i < weights.length; i++) {
+            total += 1.0 / (i + 1);
+            weights[i] = total;
+        }
+
+        Random random = new Random(42);
+        List<Search> searches = new ArrayList<>();
+        for (int i = 0; i < GENERATED_SEARCHES; i++) {
+            double pick = random.nextDouble() * total;
+            int topic = 0;
+            while (weights[topic] < pick) {
+                topic++;
+            }
+            int page = random.nextInt(4) == 0 ? 1 + random.nextInt(3) : 0;
+            searches.add(new Search(TOPICS[topic], page * QueryUtils.PAGE_SIZE));
+        }
+        return searches;
+    }
+}
@@ -0,0 +1,336 @@
+/*
+ * Copyright (c) 2017 by Francis Gálvez
+ */
+package com.example.android.computerbooksapp;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A local server standing in for the volumes collection of the Google Books API, so searches
+ * can be tested offline, under conditions we choose.
+ *
+ * It answers any query with the {@link Fixtures} response of the number of items requested,
+ * recorded or generated, trimmed to the "fields" requested and gzip-compressed like the API does.
+ * The {@link Conditions} add latency, limit the bandwidth and fail some of the requests.
+ *
+ * Run it on its own with ./gradlew :benchmark:standIn, and point a debug build of the app at it
+ * (see the README), or start it from a benchmark with {@link #start}.
+ */
+public final class StandInServer {
+
+    /** Path of the volumes collection, as in the API */
+    static final String VOLUMES_PATH = "/books/v1/volumes";
+
+    /** Port used when run on its own */
+    private static final int DEFAULT_PORT = 8080;
+
+    /**
+     * What the network and the server are like. The fields can be set from the command line as
+     * "--name=value", e.g. --latencyMillis=300 --errorRate=0.05.
+     */
+    static final class Conditions {
+        /** Time before the response headers are sent, and the random time added to it */
+        int latencyMillis = 100;
+        int jitterMillis = 50;
+
+        /** Speed the body is sent at, or 0 for as fast as possible */
+        int bytesPerSecond = 0;
+
+        /** Fraction of the requests answered with the error code, from 0 to 1 */
+        double errorRate = 0;
+        int errorCode = 503;
+
+        /** Items of every response, whatever the number requested, or 0 for the number requested */
+        int items = 0;
+
+        /** Whether the "fields" parameter is applied, as the API does, or the full items are sent */
+        boolean partial = true;
+
+        /** Seed of the random latencies and errors, so runs can be reproduced */
+        long seed = 42;
+
+        /**
+         * Set the fields given as "--name=value" arguments, and return the other arguments.
+         */
+        String[] parse(String[] args) {
+            List<String> others = new ArrayList<>();
+            for (String arg : args) {
+                int equals = arg.indexOf('=');
+                if (!arg.startsWith("--") || equals < 0 || !set(arg.substring(2, equals), arg.substring(equals + 1))) {
+                    others.add(arg);
+                }
+            }
+            return others.toArray(new String[others.size()]);
+        }
+
+        private boolean set(String name, String value) {
+            switch (name) {
+                case "latencyMillis":
+                    latencyMillis = Integer.parseInt(value);
+                    return true;
+                case "jitterMillis":
+                    jitterMillis = Integer.parseInt(value);
+                    return true;
+                case "bytesPerSecond":
+                    bytesPerSecond = Integer.parseInt(value);
+                    return true;
+                case "errorRate":
+                    errorRate = Double.parseDouble(value);
+                    return true;
+                case "errorCode":
+                    errorCode = Integer.parseInt(value);
+                    return true;
+                case "items":
+                    items = Integer.parseInt(value);
+                    return true;
+                case "partial":
+                    partial = Boolean.parseBoolean(value);
+                    return true;
+                case "seed":
+                    seed = Long.parseLong(value);
+                    return true;
+                default:
+                    return false;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "latency " + latencyMillis + " ms + up to " + jitterMillis + " ms, "
+                    + (bytesPerSecond > 0 ? bytesPerSecond / 1024 + " KB/s" : "unlimited bandwidth")
+                    + ", " + (int) (errorRate * 100) + "% " + errorCode + " errors, "
+                    + (items > 0 ? items + " items" : "items requested")
+                    + (partial ? ", partial responses" : ", full responses");
+        }
+    }
+
+    private final Conditions conditions;
+    private final Random random;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    /** Bodies sent, by number of items and fields, and their gzip-compressed version */
+    private final Map<String, byte[]> bodies = new ConcurrentHashMap<>();
+
+    /** Requests answered, errors sent, and bytes of the bodies sent */
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong errorCount = new AtomicLong();
+    private final AtomicLong byteCount = new AtomicLong();
+
+    private StandInServer(Conditions conditions, int port) throws IOException {
+        this.conditions = conditions;
+        this.random = new Random(conditions.seed);
+        // Otherwise the headers and the body wait for each other's acknowledgment, adding a delay
+        // of tens of milliseconds a real server doesn't have
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext(VOLUMES_PATH, new VolumesHandler());
+        server.setExecutor(executor);
+    }
+
+    /**
+     * Start a server on a free port of the loopback interface.
+     */
+    static StandInServer start(Conditions conditions) throws IOException {
+        return start(conditions, 0);
+    }
+
+    private static StandInServer start(Conditions conditions, int port) throws IOException {
+        StandInServer server = new StandInServer(conditions, port);
+        server.server.start();
+        return server;
+    }
+
+    /**
+     * Returns the address of the volumes collection, to be given to
+     * {@link QueryUtils#setVolumesUrl}.
+     */
+    String getVolumesUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + VOLUMES_PATH;
+    }
+
+    long getRequestCount() {
+        return requestCount.get();
+    }
+
+    long getErrorCount() {
+        return errorCount.get();
+    }
+
+    /**
+     * Returns the bytes of the bodies sent, as they went on the wire.
+     */
+    long getByteCount() {
+        return byteCount.get();
+    }
+
+    void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Serves the volumes collection until the process is killed.
+     *
+     *     ./gradlew :benchmark:standIn -Pargs="--port=8080 --latencyMillis=300"
+     */
+    public static void main(String[] args) throws IOException {
+        Conditions conditions = new Conditions();
+        int port = DEFAULT_PORT;
+        for (String arg : conditions.parse(args)) {
+            if (arg.startsWith("--port=")) {
+                port = Integer.parseInt(arg.substring("--port=".length()));
+            } else {
+                throw new IllegalArgumentException("Unknown argument " + arg);
+            }
+        }
+
+        StandInServer server = start(conditions, port);
+        System.out.println("Serving " + server.getVolumesUrl() + " with " + conditions);
+    }
+
+    /**
+     * Answers the requests for the volumes collection.
+     */
+    private final class VolumesHandler implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                Map<String, String> parameters = parseQuery(exchange.getRequestURI().getRawQuery());
+                sleep(conditions.latencyMillis + (conditions.jitterMillis > 0 ? random.nextInt(conditions.jitterMillis) : 0));
+                requestCount.incrementAndGet();
+
+                if (conditions.errorRate > 0 && random.nextDouble() < conditions.errorRate) {
+                    errorCount.incrementAndGet();
+                    exchange.sendResponseHeaders(conditions.errorCode, -1);
+                    return;
+                }
+
+                int items = conditions.items > 0 ? conditions.items : parseInt(parameters.get("maxResults"), 10);
+                String fields = conditions.partial ? parameters.get("fields") : null;
+                String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+                boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+                byte[] body = body(items, fields, gzip);
+                // The body only depends on the items and the fields
+                String eTag = "\"" + Integer.toHexString((items + "/" + fields).hashCode()) + "\"";
+
+                exchange.getResponseHeaders().set("ETag", eTag);
+                if (eTag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    exchange.sendResponseHeaders(304, -1);
+                    return;
+                }
+
+                exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+                if (gzip) {
+                    exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                }
+                exchange.sendResponseHeaders(200, body.length);
+                write(exchange.getResponseBody(), body);
+                byteCount.addAndGet(body.length);
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+
+    /**
+     * Returns the body of a response with the given items and fields, building it the first time.
+     */
+    private byte[] body(int items, String fields, boolean gzip) throws IOException {
+        String key = items + "/" + fields + "/" + gzip;
+        byte[] body = bodies.get(key);
+        if (body == null) {
+            if (gzip) {
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                GZIPOutputStream output = new GZIPOutputStream(compressed);
+                output.write(body(items, fields, false));
+                output.close();
+                body = compressed.toByteArray();
+            } else {
+                body = Fixtures.response(items);
+                if (fields != null) {
+                    body = Fixtures.project(body, fields);
+                }
+            }
+            bodies.put(key, body);
+        }
+        return body;
+    }
+
+    /**
+     * Write the given body at the speed of the conditions.
+     */
+    private void write(OutputStream output, byte[] body) throws IOException {
+        if (conditions.bytesPerSecond <= 0) {
+            output.write(body);
+            return;
+        }
+
+        // Send a chunk every 10 ms or so, on schedule from the start so the sleeps don't add up
+        int chunkSize = Math.max(1, conditions.bytesPerSecond / 100);
+        long start = System.nanoTime();
+        for (int offset = 0; offset < body.length; offset += chunkSize) {
+            int length = Math.min(chunkSize, body.length - offset);
+            output.write(body, offset, length);
+            output.flush();
+            long due = start + TimeUnit.SECONDS.toNanos(offset + length) / conditions.bytesPerSecond;
+            sleep(TimeUnit.NANOSECONDS.toMillis(due - System.nanoTime()));
+        }
+    }
+
+    private static Map<String, String> parseQuery(String query) throws UnsupportedEncodingException {
+        Map<String, String> parameters = new HashMap<>();
+        if (query == null) {
+            return parameters;
+        }
+        for (String parameter : query.split("&")) {
+            int equals = parameter.indexOf('=');
+            if (equals > 0) {
+                parameters.put(URLDecoder.decode(parameter.substring(0, equals), "UTF-8"),
+                        URLDecoder.decode(parameter.substring(equals + 1), "UTF-8"));
+            }
+        }
+        return parameters;
+    }
+
+    private static int parseInt(String value, int defaultValue) {
+        try {
+            return value == null ? defaultValue : Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+#!/bin/sh
+#
+# Copyright (c) 2017 by Francis Gálvez
+#
+# Measures the cold and warm start of the app on the connected device, as reported by
+# "am start -W": the time to the first frame (TotalTime), and the time until the first results
+# were displayed (reportFullyDrawn, "Fully drawn" in the logs).
+#
+#   benchmark/startup.sh [runs]
+#
+# The app must be installed (./gradlew installDebug). Cold starts kill the process first; warm
+# starts leave it running but finish the activity with the back key, so onCreate runs again.
+
+PACKAGE=com.example.android.computerbooksapp
+ACTIVITY=$PACKAGE/.BookActivity
+RUNS=${1:-10}
+
+# Prints the time to the first frame of a start, then the time it was fully drawn (or -)
+start() {
+    adb logcat -c
+    total=$(adb shell am start -W -n $ACTIVITY | tr -d '\r' | awk '/TotalTime/ { print $2 }')
+    # The results may arrive after am start returns
+    sleep 3
+    drawn=$(adb logcat -d -s ActivityManager:I | tr -d '\r' \
+        | sed -n "s#.*Fully drawn $ACTIVITY: +\([0-9]*s\)\{0,1\}\([0-9]*\)ms.*#\1 \2#p" | tail -1 \
+        | awk '{ if (NF == 2) { sub("s", "", $1); print $1 * 1000 + $2 } else if (NF == 1) print $1 }')
+    echo "$total ${drawn:--}"
+}
+
+# Prints the median, minimum and maximum of the numbers read, one per line
+summary() {
+    sort -n | awk '{ v[NR] = $1 } END { if (NR == 0) { print "no data"; exit }
+        printf "median %d ms, min %d ms, max %d ms (%d runs)\n", v[int((NR + 1) / 2)], v[1], v[NR], NR }'
+}
+
+measure() {
+    kind=$1
+    results=$(mktemp)
+    i=0
+    while [ $i -lt $RUNS ]; do
+        if [ "$kind" = cold ]; then
+            adb shell am force-stop $PACKAGE
+        else
+            adb shell input keyevent KEYCODE_BACK
+        fi
+        sleep 1
+        start >> "$results"
+        i=$((i + 1))
+    done
+
+    echo "$kind start, first frame: $(awk '{ print $1 }' "$results" | summary)"
+    echo "$kind start, fully drawn: $(awk '$2 != "-" { print $2 }' "$results" | summary)"
+    rm -f "$results"
+}
+
+# Make sure the process is running for the first warm start
+adb shell am start -W -n $ACTIVITY > /dev/null
+measure warm
+measure cold